@@ -1,6 +1,8 @@
 package org.airsonic.player.ajax;
 
 import org.airsonic.player.dao.MediaFileDao;
+import org.airsonic.player.service.AnnotationService;
+import org.airsonic.player.service.LibraryGenerationService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.stereotype.Controller;
@@ -13,15 +15,23 @@ import java.util.List;
 public class StarWSController {
     @Autowired
     private MediaFileDao mediaFileDao;
+    @Autowired
+    private LibraryGenerationService libraryGenerationService;
+    @Autowired
+    private AnnotationService annotationService;
 
     @MessageMapping("/star")
     public void star(Principal user, List<Integer> ids) {
         mediaFileDao.starMediaFiles(ids, user.getName());
+        annotationService.invalidate(user.getName());
+        libraryGenerationService.increment();
     }
 
     @MessageMapping("/unstar")
     public void unstar(Principal user, List<Integer> ids) {
         mediaFileDao.unstarMediaFiles(ids, user.getName());
+        annotationService.invalidate(user.getName());
+        libraryGenerationService.increment();
     }
 
     public void setMediaFileDao(MediaFileDao mediaFileDao) {
@@ -0,0 +1,156 @@
+package org.airsonic.player.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.ConstructorBinding;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * Connection pools of the database configured by the spring.datasource.* settings, and of an optional read replica.
+ * Each pool starts from the spring.datasource.hikari.* settings, which the settings of the pool override. Ignored when
+ * the database is looked up through JNDI.
+ */
+@ConfigurationProperties(prefix = "airsonic.database")
+@ConstructorBinding
+public class AirsonicDatabaseConfig {
+
+    // properties
+    private final Pool interactive;
+    private final Pool scan;
+    private final Pool background;
+    private final Pool replica;
+    private final Duration readYourWritesWindow;
+
+    public AirsonicDatabaseConfig(
+        @DefaultValue Pool interactive,
+        @DefaultValue Pool scan,
+        @DefaultValue Pool background,
+        @DefaultValue Pool replica,
+        @DefaultValue("5s") Duration readYourWritesWindow) {
+        this.interactive = interactive;
+        this.scan = scan;
+        this.background = background;
+        this.replica = replica;
+        this.readYourWritesWindow = readYourWritesWindow;
+    }
+
+    /**
+     * Pool used by web and API requests.
+     */
+    public Pool getInteractive() {
+        return interactive;
+    }
+
+    /**
+     * Pool used by media library scans.
+     */
+    public Pool getScan() {
+        return scan;
+    }
+
+    /**
+     * Pool used by scheduled tasks.
+     */
+    public Pool getBackground() {
+        return background;
+    }
+
+    /**
+     * Pool of the read replica, which serves the queries of web and API requests that run outside of a transaction.
+     */
+    public Pool getReplica() {
+        return replica;
+    }
+
+    /**
+     * Time after a write during which the queries of the same thread stay on the primary database rather than the
+     * replica. Should exceed the usual replication lag.
+     */
+    public Duration getReadYourWritesWindow() {
+        return readYourWritesWindow;
+    }
+
+    public boolean isReplicaConfigured() {
+        return replica.getUrl() != null && !replica.getUrl().isBlank();
+    }
+
+    public static class Pool {
+        private final String url;
+        private final String username;
+        private final String password;
+        private final int maximumSize;
+        private final int minimumIdle;
+        private final Duration connectionTimeout;
+        private final Duration idleTimeout;
+
+        public Pool(
+            String url,
+            String username,
+            String password,
+            @DefaultValue("0") int maximumSize,
+            @DefaultValue("0") int minimumIdle,
+            Duration connectionTimeout,
+            Duration idleTimeout) {
+            this.url = url;
+            this.username = username;
+            this.password = password;
+            this.maximumSize = maximumSize;
+            this.minimumIdle = minimumIdle;
+            this.connectionTimeout = connectionTimeout;
+            this.idleTimeout = idleTimeout;
+        }
+
+        /**
+         * JDBC url of the read replica. Only used by the replica pool.
+         */
+        public String getUrl() {
+            return url;
+        }
+
+        /**
+         * User of the read replica. Only used by the replica pool, which falls back to spring.datasource.username.
+         */
+        public String getUsername() {
+            return username;
+        }
+
+        /**
+         * Password of the read replica. Only used by the replica pool, which falls back to spring.datasource.password.
+         */
+        public String getPassword() {
+            return password;
+        }
+
+        /**
+         * Maximum number of connections. Zero for spring.datasource.hikari.maximum-pool-size, or the default of the
+         * pool if that isn't set either.
+         */
+        public int getMaximumSize() {
+            return maximumSize;
+        }
+
+        /**
+         * Number of idle connections kept open. Zero for spring.datasource.hikari.minimum-idle, or as many as the
+         * maximum size if that isn't set either.
+         */
+        public int getMinimumIdle() {
+            return minimumIdle;
+        }
+
+        /**
+         * Time to wait for a free connection before failing. Defaults to spring.datasource.hikari.connection-timeout.
+         */
+        public Duration getConnectionTimeout() {
+            return connectionTimeout;
+        }
+
+        /**
+         * Time after which idle connections above the minimum are closed. Defaults to
+         * spring.datasource.hikari.idle-timeout.
+         */
+        public Duration getIdleTimeout() {
+            return idleTimeout;
+        }
+    }
+}
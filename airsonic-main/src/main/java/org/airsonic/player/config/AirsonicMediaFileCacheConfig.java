@@ -0,0 +1,67 @@
+package org.airsonic.player.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.ConstructorBinding;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Capacity of the media file caches (mediaFilePathCache and mediaFileIdCache).
+ */
+@ConfigurationProperties(prefix = "airsonic.cache.media-file")
+@ConstructorBinding
+public class AirsonicMediaFileCacheConfig {
+
+    // properties
+    private final long heapEntries;
+    private final DataSize heapSize;
+    private final DataSize offheapSize;
+    private final boolean warmUp;
+
+    public AirsonicMediaFileCacheConfig(
+        @DefaultValue("10000") long heapEntries,
+        @DefaultValue("0") DataSize heapSize,
+        @DefaultValue("0") DataSize offheapSize,
+        @DefaultValue("true") boolean warmUp) {
+        this.heapEntries = heapEntries;
+        this.heapSize = heapSize;
+        this.offheapSize = offheapSize;
+        this.warmUp = warmUp;
+        // Ehcache only accepts an off-heap tier larger than the heap, which it is given in whole megabytes
+        if (offheapSize.toMegabytes() > 0 && heapSize.toKilobytes() > 0
+                && DataSize.ofMegabytes(offheapSize.toMegabytes()).toKilobytes() <= heapSize.toKilobytes()) {
+            throw new IllegalArgumentException("airsonic.cache.media-file.offheap-size (" + offheapSize
+                    + ") must be larger than airsonic.cache.media-file.heap-size (" + heapSize + ")");
+        }
+    }
+
+    /**
+     * Number of media files kept on heap by each cache. Used when no heap size is configured. Also the number of
+     * directories whose children are kept by the mediaFileChildrenCache.
+     */
+    public long getHeapEntries() {
+        return heapEntries;
+    }
+
+    /**
+     * Estimated size of the media files kept on heap by each cache. Zero to size the heap by entries instead.
+     */
+    public DataSize getHeapSize() {
+        return heapSize;
+    }
+
+    /**
+     * Size of the off-heap tier of each cache, which holds serialized media files evicted from the heap. Zero to
+     * disable it. Must be larger than the heap size if that is set.
+     */
+    public DataSize getOffheapSize() {
+        return offheapSize;
+    }
+
+    /**
+     * Whether to load the directories of the music folders down to album level into the caches at startup.
+     */
+    public boolean isWarmUp() {
+        return warmUp;
+    }
+}
@@ -0,0 +1,51 @@
+package org.airsonic.player.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.ConstructorBinding;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * Configuration of the media file verifier, which checks the library for changes on disk in the background, so that
+ * browsing never has to.
+ */
+@ConfigurationProperties(prefix = "airsonic.media-file-verifier")
+@ConstructorBinding
+public class AirsonicMediaFileVerifierConfig {
+
+    // properties
+    private final boolean enabled;
+    private final int filesPerSecond;
+    private final Duration sweepInterval;
+
+    public AirsonicMediaFileVerifierConfig(
+        @DefaultValue("false") boolean enabled,
+        @DefaultValue("100") int filesPerSecond,
+        @DefaultValue("6h") Duration sweepInterval) {
+        this.enabled = enabled;
+        this.filesPerSecond = Math.max(1, filesPerSecond);
+        this.sweepInterval = sweepInterval;
+    }
+
+    /**
+     * Whether media files are read without checking the disk, and checked by the verifier instead.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Approximate number of media files the verifier checks per second.
+     */
+    public int getFilesPerSecond() {
+        return filesPerSecond;
+    }
+
+    /**
+     * Time between the end of a sweep through the library and the start of the next one.
+     */
+    public Duration getSweepInterval() {
+        return sweepInterval;
+    }
+}
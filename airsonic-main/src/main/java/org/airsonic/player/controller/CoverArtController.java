@@ -20,6 +20,8 @@
 package org.airsonic.player.controller;
 
 import com.google.common.io.MoreFiles;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.airsonic.player.config.AirsonicHomeConfig;
 import org.airsonic.player.dao.AlbumDao;
 import org.airsonic.player.dao.ArtistDao;
@@ -27,8 +29,10 @@ import org.airsonic.player.domain.*;
 import org.airsonic.player.domain.CoverArt.EntityType;
 import org.airsonic.player.service.*;
 import org.airsonic.player.service.metadata.JaudiotaggerParser;
+import org.airsonic.player.spring.RoutingDataSource;
 import org.airsonic.player.util.FileUtil;
 import org.airsonic.player.util.StringUtil;
+import org.airsonic.player.util.Util;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.tuple.Pair;
@@ -43,10 +47,14 @@ import org.springframework.web.bind.annotation.RequestParam;
 //import org.springframework.web.context.request.ServletWebRequest;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
 import javax.imageio.ImageWriteParam;
 import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
 import javax.imageio.stream.ImageOutputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -57,9 +65,12 @@ import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Instant;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
@@ -99,12 +110,34 @@ public class CoverArtController {
     private JaudiotaggerParser jaudiotaggerParser;
     @Autowired
     private AirsonicHomeConfig homeConfig;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    /** Dedicated pool for decoding and scaling, bounded by the configured cover art concurrency. */
+    private ExecutorService scalingExecutor;
 
-    private Semaphore semaphore;
+    private Counter cacheHits;
+    private Counter cacheMisses;
 
     @PostConstruct
     public void init() {
-        semaphore = new Semaphore(settingsService.getCoverArtConcurrency());
+        scalingExecutor = Executors.newFixedThreadPool(settingsService.getCoverArtConcurrency(),
+                RoutingDataSource.bindingThreadFactory(RoutingDataSource.Pool.INTERACTIVE,
+                        Util.getDaemonThreadfactory("cover-art-scaling")));
+        cacheHits = cacheCounter("hit");
+        cacheMisses = cacheCounter("miss");
+    }
+
+    private Counter cacheCounter(String result) {
+        return Counter.builder("airsonic.coverart.cache")
+                .description("Scaled cover art served from the image cache, or created for it")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scalingExecutor.shutdownNow();
     }
 
     /**
@@ -261,14 +294,13 @@ public class CoverArtController {
 
             // Is cache missing or obsolete?
             if (!Files.exists(cachedImage) || request.lastModified().isAfter(FileUtil.lastModified(cachedImage))) {
-//                LOG.info("Cache MISS - " + request + " (" + size + ")");
+                cacheMisses.increment();
                 ImageWriter writer = null;
 
                 try (OutputStream os = Files.newOutputStream(cachedImage);
                         BufferedOutputStream bos = new BufferedOutputStream(os);
                         ImageOutputStream out = ImageIO.createImageOutputStream(bos)) {
-                    semaphore.acquire();
-                    BufferedImage image = request.createImage(size);
+                    BufferedImage image = createImage(request, size);
                     if (image == null) {
                         throw new Exception("Unable to decode image.");
                     }
@@ -278,6 +310,10 @@ public class CoverArtController {
                     ImageWriteParam params = writer.getDefaultWriteParam();
                     params.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
                     params.setCompressionQuality(quality); // default is 0.75
+                    if ("jpeg".equals(encoding)) {
+                        // progressive JPEGs are usually smaller and render early on slow connections
+                        params.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+                    }
 
                     writer.setOutput(out);
                     writer.write(null, new IIOImage(image, null, null), params);
@@ -292,15 +328,56 @@ public class CoverArtController {
                         writer.dispose();
                         writer = null;
                     }
-                    semaphore.release();
                 }
             } else {
-//                LOG.info("Cache HIT - " + request + " (" + size + ")");
+                cacheHits.increment();
             }
             return cachedImage;
         }
     }
 
+    /**
+     * Creates the image on the scaling pool, so that no more than the configured number of
+     * images are decoded and scaled at the same time.
+     */
+    private BufferedImage createImage(CoverArtRequest request, int size) throws Exception {
+        try {
+            return scalingExecutor.submit(() -> request.createImage(size)).get();
+        } catch (ExecutionException e) {
+            throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+        }
+    }
+
+    /**
+     * Decodes an image, subsampling the source while reading so that only roughly twice the
+     * requested size is held in memory. The remaining reduction is done by {@link #scale}.
+     *
+     * @return the decoded image, or null if no reader supports the input.
+     */
+    public static BufferedImage readImage(InputStream in, int size) throws IOException {
+        try (ImageInputStream iis = ImageIO.createImageInputStream(in)) {
+            if (iis == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis, true, true);
+                ImageReadParam param = reader.getDefaultReadParam();
+                int factor = Math.min(reader.getWidth(0), reader.getHeight(0)) / Math.max(size * 2, 1);
+                if (factor > 1) {
+                    param.setSourceSubsampling(factor, factor, 0, 0);
+                }
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
     /**
      * Returns an input stream to the image in the given file.  If the file is an audio file,
      * the embedded album art is returned.
@@ -417,9 +494,9 @@ public class CoverArtController {
                     if (in == null) {
                         reason = "getImageInputStream";
                     } else {
-                        BufferedImage bimg = ImageIO.read(in);
+                        BufferedImage bimg = readImage(in, size);
                         if (bimg == null) {
-                            reason = "ImageIO.read";
+                            reason = "readImage";
                         } else {
                             return scale(bimg, size, size);
                         }
@@ -22,14 +22,13 @@ package org.airsonic.player.controller;
 import org.airsonic.player.domain.*;
 import org.airsonic.player.domain.CoverArt.EntityType;
 import org.airsonic.player.io.PipeStreams.MonitoredResource;
-import org.airsonic.player.io.PipeStreams.PipedInputStream;
-import org.airsonic.player.io.PipeStreams.PipedOutputStream;
+import org.airsonic.player.io.StoredZipArchive;
 import org.airsonic.player.service.*;
-import org.airsonic.player.spring.KnownLengthInputStreamResource;
 import org.airsonic.player.util.FileUtil;
-import org.airsonic.player.util.LambdaUtils;
 import org.airsonic.player.util.StringUtil;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.tuple.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -38,6 +37,7 @@ import org.springframework.core.io.FileSystemResource;
 import org.springframework.core.io.Resource;
 import org.springframework.http.ContentDisposition;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.AccessDeniedException;
@@ -47,30 +47,28 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.context.request.ServletWebRequest;
 
-import java.io.BufferedInputStream;
+import javax.servlet.http.HttpServletResponse;
+
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.Principal;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.LinkedHashSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map.Entry;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
-import java.util.zip.CRC32;
-import java.util.zip.CheckedInputStream;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 /**
  * A controller used for downloading files to a remote client. If the requested
@@ -153,7 +151,7 @@ public class DownloadController {
             defaultDownloadName = "player-" + transferPlayer.getId() + "-" + transferPlayer.getName() + "-" + "playqueue.zip";
         }
 
-        if (response == null || swr.checkNotModified(String.valueOf(response.getSize()), response.getChanged())) {
+        if (response == null || swr.checkNotModified(response.getETag(), response.getChanged())) {
             return null;
         }
 
@@ -161,32 +159,54 @@ public class DownloadController {
         HttpHeaders headers = new HttpHeaders();
         headers.setContentDisposition(ContentDisposition.builder("attachment").filename(filename, StandardCharsets.UTF_8).build());
         headers.setContentType(MediaType.parseMediaType(StringUtil.getMimeType(FilenameUtils.getExtension(filename))));
+        // ranges themselves are served by Spring, which skips to the requested offset of the resource
+        headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+
+        if (HttpMethod.HEAD.matches(swr.getRequest().getMethod())) {
+            // don't open the resource, generating an archive can be costly
+            return ResponseEntity.ok().headers(headers).contentLength(response.getSize()).build();
+        }
+
+        if (response.getResource() != null && !isRangeApplicable(swr, response)) {
+            // the partial copy of the client is outdated, ignore the range and send the complete content
+            LOG.info("Downloading '{}' to {} from the start, as it changed since the interrupted download", filename, player);
+            HttpServletResponse servletResponse = swr.getResponse();
+            headers.forEach((name, values) -> values.forEach(value -> servletResponse.addHeader(name, value)));
+            servletResponse.setContentLengthLong(response.getSize());
+            try (InputStream in = response.getResource().getInputStream()) {
+                in.transferTo(servletResponse.getOutputStream());
+            }
+            return null;
+        }
+
         LOG.info("Downloading '{}' to {}", filename, player);
         return ResponseEntity.ok().headers(headers).body(response.getResource());
     }
 
     /**
-     * Computes the CRC checksum for the given file.
+     * Evaluates the <code>If-Range</code> precondition of a range request (RFC 7233, section 3.2).
      *
-     * @param file The file to compute checksum for.
-     * @return A CRC32 checksum.
-     * @throws IOException If an I/O error occurs.
+     * @return false if the request asks for a range of an older version of the resource.
      */
-    private static long computeCrc(Path file) throws IOException {
-        try (InputStream is = Files.newInputStream(file);
-                BufferedInputStream bis = new BufferedInputStream(is);
-                CheckedInputStream cis = new CheckedInputStream(bis, new CRC32())) {
-            byte[] buf = new byte[8192];
-            while ((cis.read(buf)) != -1) {
-                continue;
-            }
-
-            return cis.getChecksum().getValue();
+    private static boolean isRangeApplicable(ServletWebRequest swr, ResponseDTO response) {
+        String ifRange = swr.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null || swr.getHeader(HttpHeaders.RANGE) == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            // only strong validators are allowed
+            return ("\"" + response.getETag() + "\"").equals(ifRange);
+        }
+        try {
+            long date = swr.getRequest().getDateHeader(HttpHeaders.IF_RANGE);
+            return response.getChanged() >= 0 && date == response.getChanged() / 1000 * 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
         }
     }
 
-    private static long zipSize(Stream<Entry<String, Long>> paths) {
-        return paths.mapToLong(e -> 30 + 46 + (2L * e.getKey().length()) + e.getValue()).sum() + 22;
+    private static String etag(Object... parts) {
+        return DigestUtils.md5Hex(StringUtils.join(parts, '\0'));
     }
 
     private ResponseDTO prepareResponse(List<MediaFile> files, List<Integer> indices,
@@ -200,7 +220,7 @@ public class DownloadController {
 
         if (indices.size() == 0) {
             // nothing, just return empty
-            return new ResponseDTO(null, "emptyfile.download", 0, -1);
+            return new ResponseDTO(null, "emptyfile.download", 0, -1, etag(0));
         }
 
         if (indices.size() == 1 && (additionalFiles == null || additionalFiles.size() == 0)) {
@@ -217,17 +237,24 @@ public class DownloadController {
                         (input, status) -> {}),
                     path.getFileName().toString(),
                     file.getFileSize(),
-                    changed);
+                    changed,
+                    etag(file.getFolderId(), file.getPath(), file.getFileSize(), changed));
         } else {
             // get a list of all paths under the tree, plus their zip names and sizes
-            Collection<Pair<Path, Pair<String, Long>>> pathsToZip = Stream
+            Map<Path, MediaFile> mediaFilesByPath = new HashMap<>();
+            Map<Path, MusicFolder> foldersByPath = new HashMap<>();
+            Map<Path, StoredZipArchive.Entry> entriesToZip = Stream
                     .concat(
-                            indices.stream().map(index -> Objects.isNull(index) ? null : files.get(index)).filter(Objects::nonNull).map(x -> Pair.of(x.getRelativePath(), x.getFolderId())),
-                            additionalFiles.stream().filter(Objects::nonNull))
-                    .flatMap(pf -> {
+                            indices.stream().map(index -> Objects.isNull(index) ? null : files.get(index)).filter(Objects::nonNull).map(x -> Pair.of(x, Pair.of(x.getRelativePath(), x.getFolderId()))),
+                            additionalFiles.stream().filter(Objects::nonNull).map(x -> Pair.of((MediaFile) null, x)))
+                    .flatMap(mpf -> {
+                        Pair<Path, Integer> pf = mpf.getRight();
                         MusicFolder mf = mediaFolderService.getMusicFolderById(pf.getRight());
                         Path p = mf.getPath().resolve(pf.getLeft());
                         Path parent = p.getParent();
+                        if (mpf.getLeft() != null && mpf.getLeft().isFile()) {
+                            mediaFilesByPath.put(p, mpf.getLeft());
+                        }
                         try (Stream<Path> paths = Files.walk(p)) {
                             return paths
                                     .filter(f -> !f.getFileName().toString().startsWith("."))
@@ -236,10 +263,11 @@ public class DownloadController {
                                         long size = 0L;
                                         if (Files.isRegularFile(f)) {
                                             size = FileUtil.size(f);
+                                            foldersByPath.put(f, mf);
                                         } else {
                                             zipName = zipName + '/';
                                         }
-                                        return Pair.of(f, Pair.of(zipName, size));
+                                        return new StoredZipArchive.Entry(zipName, f, size, FileUtil.lastModified(f), null);
                                     })
                                     // need to create a new stream, because try-with-resources will close the paths stream before it exits
                                     .collect(Collectors.toList()).stream();
@@ -249,74 +277,48 @@ public class DownloadController {
                         }
                     }).filter(Objects::nonNull)
                     // need to preserve order because zip file creation needs to create folders first then files
-                    .collect(Collectors.toCollection(LinkedHashSet::new));
-
-            // zip to out
-            BiConsumer<InputStream, TransferStatus> poutInit = (input, status) -> {
-                PipedInputStream pin = (PipedInputStream) input;
-
-                // start a new thread to feed data in
-                new Thread(() -> {
-                    try (PipedOutputStream pout = new PipedOutputStream(pin);
-                            ZipOutputStream zout = new ZipOutputStream(pout)) {
-                        zout.setMethod(ZipOutputStream.STORED); // No compression.
-                        pathsToZip.stream().forEach(LambdaUtils.uncheckConsumer(f -> {
-                            status.setExternalFile(f.getLeft());
-                            ZipEntry zipEntry = new ZipEntry(f.getRight().getKey());
-                            zipEntry.setSize(f.getRight().getValue());
-                            zipEntry.setCompressedSize(f.getRight().getValue());
-
-                            if (f.getRight().getKey().endsWith("/") && f.getRight().getValue() == 0L) {
-                                // directory
-                                zipEntry.setCrc(0);
-                                zout.putNextEntry(zipEntry);
-                            } else {
-                                zipEntry.setCrc(computeCrc(f.getLeft()));
-                                zout.putNextEntry(zipEntry);
-                                Files.copy(f.getLeft(), zout);
-                            }
-
-                            zout.closeEntry();
-                        }));
-                    } catch (Exception e1) {
-                        LOG.debug("Error with output to zip", e1);
-                    }
-                }, "DownloadControllerDatafeed").start();
+                    .collect(Collectors.toMap(StoredZipArchive.Entry::getFile, e -> e, (a, b) -> a, LinkedHashMap::new));
 
-                // wait for src data thread to connect
-                while (pin.source == null) {
-                    // sit and wait and ponder life
+            // checksums of media files are kept in the database, so they are only computed once per file version
+            StoredZipArchive archive = new StoredZipArchive(new ArrayList<>(entriesToZip.values()), e -> {
+                MediaFile mediaFile = mediaFilesByPath.get(e.getFile());
+                if (mediaFile != null) {
+                    return mediaFileService.getChecksum(mediaFile, e.getFile(), e.getLastModified(), e.getSize());
                 }
-            };
-
-            long size = zipSize(pathsToZip.stream().map(e -> e.getRight()));
-
-            PipedInputStream pin = new PipedInputStream(null, 16 * 1024); // 16 Kb buffer
+                // files below a selected directory are looked up by their path
+                MusicFolder folder = foldersByPath.get(e.getFile());
+                if (folder != null) {
+                    return mediaFileService.getChecksum(folder, e.getFile(), e.getLastModified(), e.getSize());
+                }
+                return StoredZipArchive.computeCrc(e.getFile(), e.getSize());
+            });
 
             return new ResponseDTO(
                     new MonitoredResource(
-                            new KnownLengthInputStreamResource(pin, size),
+                            archive,
                             settingsService.getDownloadBitrateLimiter(),
                             statusSupplier,
                             statusCloser,
-                            poutInit),
-                    null, size, -1);
+                        (input, status) -> ((StoredZipArchive.ArchiveInputStream) input).setEntryListener(e -> status.setExternalFile(e.getFile()))),
+                    null, archive.contentLength(), archive.lastModified(), archive.getETag());
         }
     }
 
     public static class ResponseDTO {
         private final Resource resource;
         private final String proposedName;
-        // used as an ETag to see if a resource has changed
         private final long size;
         // used for Last-Modified
         private final long changed;
+        // used as an ETag to see if a resource has changed, and to validate If-Range
+        private final String etag;
 
-        public ResponseDTO(Resource resource, String proposedName, long size, long changed) {
+        public ResponseDTO(Resource resource, String proposedName, long size, long changed, String etag) {
             this.resource = resource;
             this.proposedName = proposedName;
             this.size = size;
             this.changed = changed;
+            this.etag = etag;
         }
 
         public Resource getResource() {
@@ -335,6 +337,10 @@ public class DownloadController {
             return changed;
         }
 
+        public String getETag() {
+            return etag;
+        }
+
     }
 
 }
@@ -21,6 +21,8 @@
 package org.airsonic.player.controller;
 
 import com.auth0.jwt.interfaces.DecodedJWT;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.airsonic.player.config.AirsonicHomeConfig;
 import org.airsonic.player.domain.MediaFile;
 import org.airsonic.player.domain.Player;
@@ -106,8 +108,9 @@ public class HLSController {
     private final SettingsService settingsService;
     private final TranscodingService transcodingService;
     private final AirsonicHomeConfig homeConfig;
+    private final MeterRegistry meterRegistry;
 
-    public HLSController(PlayerService playerService, MediaFileService mediaFileService, SecurityService securityService, JWTSecurityService jwtSecurityService, StatusService statusService, SettingsService settingsService, TranscodingService transcodingService, AirsonicHomeConfig homeConfig) {
+    public HLSController(PlayerService playerService, MediaFileService mediaFileService, SecurityService securityService, JWTSecurityService jwtSecurityService, StatusService statusService, SettingsService settingsService, TranscodingService transcodingService, AirsonicHomeConfig homeConfig, MeterRegistry meterRegistry) {
         this.playerService = playerService;
         this.mediaFileService = mediaFileService;
         this.securityService = securityService;
@@ -116,6 +119,7 @@ public class HLSController {
         this.settingsService = settingsService;
         this.transcodingService = transcodingService;
         this.homeConfig = homeConfig;
+        this.meterRegistry = meterRegistry;
         init();
     }
 
@@ -314,7 +318,12 @@ public class HLSController {
         status.setMediaFile(mediaFile);
         HlsSession.Key sessionKey = new HlsSession.Key(id, playerId, maxBitRate, size, duration, audioTrack);
         HlsSession session = getOrCreateSession(sessionKey, mediaFile);
+        Timer.Sample wait = Timer.start(meterRegistry);
         Path segmentFile = session.waitForSegment(segmentIndex, 30000L);
+        wait.stop(Timer.builder("airsonic.hls.segment.wait")
+                .description("Time a request waits for its HLS segment to be produced")
+                .tag("outcome", segmentFile == null ? "timeout" : "produced")
+                .register(meterRegistry));
         if (segmentFile == null) {
             throw new HttpServerErrorException(HttpStatus.SERVICE_UNAVAILABLE,
                     "Timed out producing segment " + segmentIndex + " for media file " + id);
@@ -21,6 +21,7 @@ package org.airsonic.player.controller;
 
 import com.google.common.net.MediaType;
 import org.airsonic.player.controller.SubsonicRESTController.APIException;
+import org.airsonic.player.service.SettingsService;
 import org.airsonic.player.util.StringUtil;
 import org.apache.commons.lang3.tuple.Pair;
 import org.eclipse.persistence.jaxb.JAXBContext;
@@ -29,6 +30,7 @@ import org.jdom2.Attribute;
 import org.jdom2.Document;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
 import org.subsonic.restapi.Error;
 import org.subsonic.restapi.ObjectFactory;
 import org.subsonic.restapi.Response;
@@ -41,12 +43,17 @@ import javax.xml.bind.Marshaller;
 import javax.xml.datatype.DatatypeFactory;
 import javax.xml.datatype.XMLGregorianCalendar;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.StringWriter;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.util.GregorianCalendar;
+import java.util.Locale;
 import java.util.Map.Entry;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
 
 import static org.airsonic.player.util.XMLUtil.createSAXBuilder;
 import static org.springframework.web.bind.ServletRequestUtils.getStringParameter;
@@ -58,11 +65,21 @@ import static org.springframework.web.bind.ServletRequestUtils.getStringParamete
 public class JAXBWriter {
 
     private static final Logger LOG = LoggerFactory.getLogger(JAXBWriter.class);
+    private static final int GZIP_BUFFER_SIZE = 8192;
+
+    /**
+     * Indenting inflates large responses considerably, so it's only done when developing.
+     */
+    private static final boolean FORMATTED_OUTPUT = SettingsService.isDevelopmentMode();
 
     private final javax.xml.bind.JAXBContext jaxbContext;
     private final DatatypeFactory datatypeFactory;
     private static final String restProtocolVersion = parseRESTProtocolVersion();
 
+    // marshallers are expensive to create but not thread-safe, so each thread keeps its own
+    private final ThreadLocal<Marshaller> xmlMarshaller = ThreadLocal.withInitial(this::createXmlMarshaller);
+    private final ThreadLocal<Marshaller> jsonMarshaller = ThreadLocal.withInitial(this::createJsonMarshaller);
+
     public JAXBWriter() {
         try {
             jaxbContext = JAXBContext.newInstance(Response.class);
@@ -77,7 +94,7 @@ public class JAXBWriter {
         try {
             marshaller = jaxbContext.createMarshaller();
             marshaller.setProperty(Marshaller.JAXB_ENCODING, StringUtil.ENCODING_UTF8);
-            marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+            marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, FORMATTED_OUTPUT);
             return marshaller;
         } catch (JAXBException e) {
             throw new RuntimeException(e);
@@ -89,7 +106,7 @@ public class JAXBWriter {
             Marshaller marshaller;
             marshaller = jaxbContext.createMarshaller();
             marshaller.setProperty(Marshaller.JAXB_ENCODING, StringUtil.ENCODING_UTF8);
-            marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+            marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, FORMATTED_OUTPUT);
             marshaller.setProperty(MarshallerProperties.MEDIA_TYPE, "application/json");
             marshaller.setProperty(MarshallerProperties.JSON_INCLUDE_ROOT, true);
             return marshaller;
@@ -119,20 +136,54 @@ public class JAXBWriter {
         return response;
     }
 
+    /**
+     * Marshals the response straight into the body of the HTTP response, gzipped if the client accepts it.
+     */
     public void writeResponse(HttpServletRequest request, HttpServletResponse httpResponse, Response jaxbResponse) {
-        Entry<String, String> serializedResp = serializeForType(request, jaxbResponse);
+        writeBody(request, httpResponse, getMediaType(request).toString(), out -> marshal(request, jaxbResponse, out));
+    }
+
+    /**
+     * Writes a response serialized earlier by {@link #serialize}, gzipped if the client accepts it.
+     */
+    public void writeResponse(HttpServletRequest request, HttpServletResponse httpResponse, SerializedResponse serialized) {
+        writeBody(request, httpResponse, serialized.getContentType(), out -> out.write(serialized.getBody()));
+    }
 
+    private void writeBody(HttpServletRequest request, HttpServletResponse httpResponse, String contentType, BodyWriter body) {
         httpResponse.setCharacterEncoding(StringUtil.ENCODING_UTF8);
-        httpResponse.setContentType(serializedResp.getKey());
+        httpResponse.setContentType(contentType);
+        boolean gzip = acceptsGzip(request);
+        if (gzip) {
+            httpResponse.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+        httpResponse.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
 
         try {
-            httpResponse.getWriter().append(serializedResp.getValue());
-        } catch (IOException x) {
+            OutputStream out = httpResponse.getOutputStream();
+            if (gzip) {
+                try (GZIPOutputStream gzipOut = new GZIPOutputStream(out, GZIP_BUFFER_SIZE)) {
+                    body.write(gzipOut);
+                }
+            } else {
+                body.write(out);
+                out.flush();
+            }
+        } catch (JAXBException | IOException x) {
             LOG.error("Failed to marshal JAXB", x);
+            if (!httpResponse.isCommitted()) {
+                // so that an error response can still be written
+                httpResponse.reset();
+            }
             throw new RuntimeException(x);
         }
     }
 
+    private static boolean acceptsGzip(HttpServletRequest request) {
+        String acceptEncoding = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+        return acceptEncoding != null && acceptEncoding.toLowerCase(Locale.ROOT).contains("gzip");
+    }
+
     public void writeErrorResponse(HttpServletRequest request, HttpServletResponse response,
             SubsonicRESTController.ErrorCode code, String message) {
         Response res = createErrorResponse(code, message);
@@ -153,39 +204,45 @@ public class JAXBWriter {
     }
 
     public Entry<String, String> serializeForType(HttpServletRequest request, Response resp) {
-        String format = getStringParameter(request, "f", "xml");
-        String jsonpCallback = request.getParameter("callback");
-        boolean json = "json".equals(format);
-        boolean jsonp = "jsonp".equals(format) && jsonpCallback != null;
-        Marshaller marshaller;
-        MediaType type;
-
-        if (json) {
-            marshaller = createJsonMarshaller();
-            type = MediaType.JSON_UTF_8;
-        } else if (jsonp) {
-            marshaller = createJsonMarshaller();
-            type = MediaType.JAVASCRIPT_UTF_8;
-        } else {
-            marshaller = createXmlMarshaller();
-            type = MediaType.XML_UTF_8;
-        }
+        SerializedResponse serialized = serialize(request, resp);
+        return Pair.of(serialized.getContentType(), new String(serialized.getBody(), StandardCharsets.UTF_8));
+    }
 
-        StringWriter writer = new StringWriter();
+    /**
+     * Serializes the response in the format asked for by the request, so that it can be written several times.
+     */
+    public SerializedResponse serialize(HttpServletRequest request, Response resp) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
         try {
-            if (jsonp) {
-                writer.append(jsonpCallback).append('(');
-            }
-            marshaller.marshal(new ObjectFactory().createSubsonicResponse(resp), writer);
-            if (jsonp) {
-                writer.append(");");
-            }
-        } catch (JAXBException x) {
+            marshal(request, resp, out);
+        } catch (JAXBException | IOException x) {
             LOG.error("Failed to marshal JAXB", x);
             throw new RuntimeException(x);
         }
+        return new SerializedResponse(getMediaType(request).toString(), out.toByteArray());
+    }
+
+    private static String getJsonpCallback(HttpServletRequest request) {
+        return "jsonp".equals(getStringParameter(request, "f", "xml")) ? request.getParameter("callback") : null;
+    }
+
+    private static MediaType getMediaType(HttpServletRequest request) {
+        if (getJsonpCallback(request) != null) {
+            return MediaType.JAVASCRIPT_UTF_8;
+        }
+        return "json".equals(getStringParameter(request, "f", "xml")) ? MediaType.JSON_UTF_8 : MediaType.XML_UTF_8;
+    }
 
-        return Pair.of(type.toString(), writer.toString());
+    private void marshal(HttpServletRequest request, Response resp, OutputStream out) throws JAXBException, IOException {
+        String jsonpCallback = getJsonpCallback(request);
+        Marshaller marshaller = getMediaType(request) == MediaType.XML_UTF_8 ? xmlMarshaller.get() : jsonMarshaller.get();
+        if (jsonpCallback != null) {
+            out.write((jsonpCallback + "(").getBytes(StandardCharsets.UTF_8));
+        }
+        marshaller.marshal(new ObjectFactory().createSubsonicResponse(resp), out);
+        if (jsonpCallback != null) {
+            out.write(");".getBytes(StandardCharsets.UTF_8));
+        }
     }
 
     public XMLGregorianCalendar convertDate(Instant date) {
@@ -197,4 +254,38 @@ public class JAXBWriter {
         c.setTimeInMillis(date.toEpochMilli());
         return datatypeFactory.newXMLGregorianCalendar(c).normalize();
     }
+
+    @FunctionalInterface
+    private interface BodyWriter {
+        void write(OutputStream out) throws JAXBException, IOException;
+    }
+
+    /**
+     * A response serialized to bytes, along with an entity tag derived from them.
+     */
+    public static class SerializedResponse {
+        private final String contentType;
+        private final byte[] body;
+        private final String eTag;
+
+        public SerializedResponse(String contentType, byte[] body) {
+            this.contentType = contentType;
+            this.body = body;
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            this.eTag = "\"" + Long.toHexString(crc.getValue()) + "-" + Integer.toHexString(body.length) + "\"";
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+
+        public String getETag() {
+            return eTag;
+        }
+    }
 }
@@ -23,18 +23,20 @@ import com.google.common.primitives.Ints;
 import org.airsonic.player.ajax.LyricsInfo;
 import org.airsonic.player.ajax.LyricsWSController;
 import org.airsonic.player.command.UserSettingsCommand;
+import org.airsonic.player.controller.JAXBWriter.SerializedResponse;
 import org.airsonic.player.dao.AlbumDao;
 import org.airsonic.player.dao.ArtistDao;
+import org.airsonic.player.dao.KeysetCursor;
 import org.airsonic.player.dao.MediaFileDao;
 import org.airsonic.player.dao.PlayQueueDao;
 import org.airsonic.player.domain.*;
 import org.airsonic.player.domain.Bookmark;
-import org.airsonic.player.domain.CoverArt.EntityType;
 import org.airsonic.player.domain.PlayQueue;
 import org.airsonic.player.domain.User;
 import org.airsonic.player.domain.UserCredential.App;
 import org.airsonic.player.i18n.LocaleResolver;
 import org.airsonic.player.service.*;
+import org.airsonic.player.service.HydrationService.Hydration;
 import org.airsonic.player.service.search.IndexType;
 import org.airsonic.player.util.StringUtil;
 import org.airsonic.player.util.Util;
@@ -43,6 +45,8 @@ import org.apache.http.HttpStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.core.io.Resource;
 import org.springframework.http.ContentDisposition;
 import org.springframework.http.HttpHeaders;
@@ -70,6 +74,9 @@ import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static java.util.stream.Collectors.toList;
@@ -138,6 +145,14 @@ public class SubsonicRESTController {
     @Autowired
     private RatingService ratingService;
     @Autowired
+    private HydrationService hydrationService;
+    @Autowired
+    private AnnotationService annotationService;
+    @Autowired
+    private LibraryGenerationService libraryGenerationService;
+    @Autowired
+    private CacheManager cacheManager;
+    @Autowired
     private SearchService searchService;
     @Autowired
     private MediaFileDao mediaFileDao;
@@ -161,6 +176,8 @@ public class SubsonicRESTController {
     private final JAXBWriter jaxbWriter = new JAXBWriter();
 
     private static final String NOT_YET_IMPLEMENTED = "Not yet implemented";
+    // authentication and client parameters, which don't affect responses
+    private static final Set<String> UNCACHED_PARAMETERS = Set.of("u", "p", "t", "s", "c", "v", "jwt", "apiKey");
     private static final String NO_LONGER_SUPPORTED = "No longer supported";
 
     @ExceptionHandler(MissingServletRequestParameterException.class)
@@ -198,11 +215,14 @@ public class SubsonicRESTController {
 
 
     @RequestMapping("/getMusicFolders")
-    public void getMusicFolders(HttpServletRequest request, HttpServletResponse response) {
+    public void getMusicFolders(HttpServletRequest request, HttpServletResponse response) throws Exception {
         request = wrapRequest(request);
+        String username = securityService.getCurrentUsername(request);
+        writeCachedResponse(request, response, username, () -> createMusicFoldersResponse(username));
+    }
 
+    private Response createMusicFoldersResponse(String username) {
         MusicFolders musicFolders = new MusicFolders();
-        String username = securityService.getCurrentUsername(request);
         for (org.airsonic.player.domain.MusicFolder musicFolder : mediaFolderService.getMusicFoldersForUser(username)) {
             org.subsonic.restapi.MusicFolder mf = new org.subsonic.restapi.MusicFolder();
             mf.setId(musicFolder.getId());
@@ -211,7 +231,7 @@ public class SubsonicRESTController {
         }
         Response res = createResponse();
         res.setMusicFolders(musicFolders);
-        jaxbWriter.writeResponse(request, response, res);
+        return res;
     }
 
     @RequestMapping("/getIndexes")
@@ -228,12 +248,18 @@ public class SubsonicRESTController {
             return;
         }
 
+        Integer musicFolderId = getIntParameter(request, "musicFolderId");
+        Player player = playerService.getPlayer(request, response);
+        writeCachedResponse(request, response, username, () -> createIndexesResponse(username, lastModified, musicFolderId, player),
+                lastModified, player.getId());
+    }
+
+    private Response createIndexesResponse(String username, long lastModified, Integer musicFolderId, Player player) {
         Indexes indexes = new Indexes();
         indexes.setLastModified(lastModified);
         indexes.setIgnoredArticles(settingsService.getIgnoredArticles());
 
         List<org.airsonic.player.domain.MusicFolder> musicFolders = mediaFolderService.getMusicFoldersForUser(username);
-        Integer musicFolderId = getIntParameter(request, "musicFolderId");
         if (musicFolderId != null) {
             for (org.airsonic.player.domain.MusicFolder musicFolder : musicFolders) {
                 if (musicFolderId.equals(musicFolder.getId())) {
@@ -243,11 +269,14 @@ public class SubsonicRESTController {
             }
         }
 
-        for (MediaFile shortcut : musicIndexService.getShortcuts(musicFolders)) {
-            indexes.getShortcut().add(createJaxbArtist(shortcut, username));
-        }
+        indexes.getShortcut().addAll(createJaxbArtistFiles(musicIndexService.getShortcuts(musicFolders), username));
 
         MusicFolderContent musicFolderContent = musicIndexService.getMusicFolderContent(musicFolders, false);
+        Hydration hydration = hydrationService.hydrateMediaFiles(musicFolderContent.getIndexedArtists().values().stream()
+                .flatMap(List::stream)
+                .flatMap(artist -> artist.getMediaFiles().stream())
+                .filter(MediaFile::isDirectory)
+                .collect(toList()), username);
 
         for (Map.Entry<MusicIndex, List<MusicIndex.SortableArtistWithMediaFiles>> entry : musicFolderContent.getIndexedArtists().entrySet()) {
             Index index = new Index();
@@ -257,16 +286,15 @@ public class SubsonicRESTController {
             for (MusicIndex.SortableArtistWithMediaFiles artist : entry.getValue()) {
                 for (MediaFile mediaFile : artist.getMediaFiles()) {
                     if (mediaFile.isDirectory()) {
-                        Instant starredDate = mediaFileDao.getMediaFileStarredDate(mediaFile.getId(), username);
                         org.subsonic.restapi.Artist a = new org.subsonic.restapi.Artist();
                         index.getArtist().add(a);
                         a.setId(String.valueOf(mediaFile.getId()));
                         a.setName(artist.getName());
-                        a.setStarred(jaxbWriter.convertDate(starredDate));
+                        a.setStarred(jaxbWriter.convertDate(hydration.getStarredDate(mediaFile)));
 
                         if (mediaFile.isAlbum()) {
-                            a.setAverageRating(ratingService.getAverageRating(mediaFile));
-                            a.setUserRating(ratingService.getRatingForUser(username, mediaFile));
+                            a.setAverageRating(hydration.getAverageRating(mediaFile));
+                            a.setUserRating(hydration.getUserRating(mediaFile));
                         }
                     }
                 }
@@ -274,19 +302,20 @@ public class SubsonicRESTController {
         }
 
         // Add children
-        Player player = playerService.getPlayer(request, response);
-
-        for (MediaFile singleSong : musicFolderContent.getSingleSongs()) {
-            indexes.getChild().add(createJaxbChild(player, singleSong, username));
-        }
+        indexes.getChild().addAll(createJaxbChildren(player, musicFolderContent.getSingleSongs(), username));
 
+        Response res = createResponse();
         res.setIndexes(indexes);
-        jaxbWriter.writeResponse(request, response, res);
+        return res;
     }
 
     @RequestMapping("/getGenres")
-    public void getGenres(HttpServletRequest request, HttpServletResponse response) {
+    public void getGenres(HttpServletRequest request, HttpServletResponse response) throws Exception {
         request = wrapRequest(request);
+        writeCachedResponse(request, response, securityService.getCurrentUsername(request), this::createGenresResponse);
+    }
+
+    private Response createGenresResponse() {
         org.subsonic.restapi.Genres genres = new org.subsonic.restapi.Genres();
 
         for (org.airsonic.player.domain.Genre genre : mediaFileDao.getGenres(false)) {
@@ -298,7 +327,7 @@ public class SubsonicRESTController {
         }
         Response res = createResponse();
         res.setGenres(genres);
-        jaxbWriter.writeResponse(request, response, res);
+        return res;
     }
 
     @RequestMapping("/getSongsByGenre")
@@ -316,37 +345,39 @@ public class SubsonicRESTController {
         Integer musicFolderId = getIntParameter(request, "musicFolderId");
         List<org.airsonic.player.domain.MusicFolder> musicFolders = mediaFolderService.getMusicFoldersForUser(username, musicFolderId);
 
-        for (MediaFile mediaFile : mediaFileDao.getSongsByGenre(genre, offset, count, musicFolders)) {
-            songs.getSong().add(createJaxbChild(player, mediaFile, username));
-        }
+        songs.getSong().addAll(createJaxbChildren(player, mediaFileDao.getSongsByGenre(genre, offset, count, musicFolders), username));
         Response res = createResponse();
         res.setSongsByGenre(songs);
         jaxbWriter.writeResponse(request, response, res);
     }
 
     @RequestMapping("/getArtists")
-    public void getArtists(HttpServletRequest request, HttpServletResponse response) {
+    public void getArtists(HttpServletRequest request, HttpServletResponse response) throws Exception {
         request = wrapRequest(request);
         String username = securityService.getCurrentUsername(request);
+        writeCachedResponse(request, response, username, () -> createArtistsResponse(username));
+    }
 
+    private Response createArtistsResponse(String username) {
         ArtistsID3 result = new ArtistsID3();
         result.setIgnoredArticles(settingsService.getIgnoredArticles());
         List<org.airsonic.player.domain.MusicFolder> musicFolders = mediaFolderService.getMusicFoldersForUser(username);
 
         List<org.airsonic.player.domain.Artist> artists = artistDao.getAlphabetialArtists(0, Integer.MAX_VALUE, musicFolders);
         SortedMap<MusicIndex, List<MusicIndex.SortableArtistWithArtist>> indexedArtists = musicIndexService.getIndexedArtists(artists);
+        Hydration hydration = hydrationService.hydrateArtists(artists, username);
         for (Map.Entry<MusicIndex, List<MusicIndex.SortableArtistWithArtist>> entry : indexedArtists.entrySet()) {
             IndexID3 index = new IndexID3();
             result.getIndex().add(index);
             index.setName(entry.getKey().getIndex());
             for (MusicIndex.SortableArtistWithArtist sortableArtist : entry.getValue()) {
-                index.getArtist().add(createJaxbArtist(new ArtistID3(), sortableArtist.getArtist(), username));
+                index.getArtist().add(createJaxbArtist(new ArtistID3(), sortableArtist.getArtist(), hydration));
             }
         }
 
         Response res = createResponse();
         res.setArtists(result);
-        jaxbWriter.writeResponse(request, response, res);
+        return res;
     }
 
     @RequestMapping("/getSimilarSongs")
@@ -367,9 +398,7 @@ public class SubsonicRESTController {
         List<org.airsonic.player.domain.MusicFolder> musicFolders = mediaFolderService.getMusicFoldersForUser(username);
         List<MediaFile> similarSongs = lastFmService.getSimilarSongs(mediaFile, count, musicFolders);
         Player player = playerService.getPlayer(request, response);
-        for (MediaFile similarSong : similarSongs) {
-            result.getSong().add(createJaxbChild(player, similarSong, username));
-        }
+        result.getSong().addAll(createJaxbChildren(player, similarSongs, username));
 
         Response res = createResponse();
         res.setSimilarSongs(result);
@@ -395,9 +424,7 @@ public class SubsonicRESTController {
         List<org.airsonic.player.domain.MusicFolder> musicFolders = mediaFolderService.getMusicFoldersForUser(username);
         List<MediaFile> similarSongs = lastFmService.getSimilarSongs(artist, count, musicFolders);
         Player player = playerService.getPlayer(request, response);
-        for (MediaFile similarSong : similarSongs) {
-            result.getSong().add(createJaxbChild(player, similarSong, username));
-        }
+        result.getSong().addAll(createJaxbChildren(player, similarSongs, username));
 
         Response res = createResponse();
         res.setSimilarSongs2(result);
@@ -417,9 +444,7 @@ public class SubsonicRESTController {
         List<org.airsonic.player.domain.MusicFolder> musicFolders = mediaFolderService.getMusicFoldersForUser(username);
         List<MediaFile> topSongs = lastFmService.getTopSongs(artist, count, musicFolders);
         Player player = playerService.getPlayer(request, response);
-        for (MediaFile topSong : topSongs) {
-            result.getSong().add(createJaxbChild(player, topSong, username));
-        }
+        result.getSong().addAll(createJaxbChildren(player, topSongs, username));
 
         Response res = createResponse();
         res.setTopSongs(result);
@@ -444,9 +469,7 @@ public class SubsonicRESTController {
         }
         List<org.airsonic.player.domain.MusicFolder> musicFolders = mediaFolderService.getMusicFoldersForUser(username);
         List<MediaFile> similarArtists = lastFmService.getSimilarArtists(mediaFile, count, includeNotPresent, musicFolders);
-        for (MediaFile similarArtist : similarArtists) {
-            result.getSimilarArtist().add(createJaxbArtist(similarArtist, username));
-        }
+        result.getSimilarArtist().addAll(createJaxbArtistFiles(similarArtists, username));
         ArtistBio artistBio = lastFmService.getArtistBio(mediaFile, localeResolver.resolveLocale(request));
         if (artistBio != null) {
             result.setBiography(artistBio.getBiography());
@@ -481,9 +504,7 @@ public class SubsonicRESTController {
 
         List<org.airsonic.player.domain.MusicFolder> musicFolders = mediaFolderService.getMusicFoldersForUser(username);
         List<org.airsonic.player.domain.Artist> similarArtists = lastFmService.getSimilarArtists(artist, count, includeNotPresent, musicFolders);
-        for (org.airsonic.player.domain.Artist similarArtist : similarArtists) {
-            result.getSimilarArtist().add(createJaxbArtist(new ArtistID3(), similarArtist, username));
-        }
+        result.getSimilarArtist().addAll(createJaxbArtists(similarArtists, username));
         ArtistBio artistBio = lastFmService.getArtistBio(artist, localeResolver.resolveLocale(request));
         if (artistBio != null) {
             result.setBiography(artistBio.getBiography());
@@ -499,24 +520,35 @@ public class SubsonicRESTController {
         jaxbWriter.writeResponse(request, response, res);
     }
 
+    private List<ArtistID3> createJaxbArtists(List<org.airsonic.player.domain.Artist> artists, String username) {
+        Hydration hydration = hydrationService.hydrateArtists(artists, username);
+        return artists.stream().map(a -> createJaxbArtist(new ArtistID3(), a, hydration)).collect(toList());
+    }
+
     private <T extends ArtistID3> T createJaxbArtist(T jaxbArtist, org.airsonic.player.domain.Artist artist, String username) {
+        return createJaxbArtist(jaxbArtist, artist, hydrationService.hydrateArtists(Collections.singletonList(artist), username));
+    }
+
+    private <T extends ArtistID3> T createJaxbArtist(T jaxbArtist, org.airsonic.player.domain.Artist artist, Hydration hydration) {
         jaxbArtist.setId(String.valueOf(artist.getId()));
         jaxbArtist.setName(artist.getName());
-        jaxbArtist.setStarred(jaxbWriter.convertDate(artistDao.getArtistStarredDate(artist.getId(), username)));
+        jaxbArtist.setStarred(jaxbWriter.convertDate(hydration.getStarredDate(artist)));
         jaxbArtist.setAlbumCount(artist.getAlbumCount());
-        if (!CoverArt.NULL_ART.equals(coverArtService.get(EntityType.ARTIST, artist.getId()))) {
+        if (hydration.hasCoverArt(artist)) {
             jaxbArtist.setCoverArt(CoverArtController.ARTIST_COVERART_PREFIX + artist.getId());
         }
         return jaxbArtist;
     }
 
-    private org.subsonic.restapi.Artist createJaxbArtist(MediaFile artist, String username) {
-        org.subsonic.restapi.Artist result = new org.subsonic.restapi.Artist();
-        result.setId(String.valueOf(artist.getId()));
-        result.setName(artist.getArtist());
-        Instant starred = mediaFileDao.getMediaFileStarredDate(artist.getId(), username);
-        result.setStarred(jaxbWriter.convertDate(starred));
-        return result;
+    private List<org.subsonic.restapi.Artist> createJaxbArtistFiles(List<MediaFile> artists, String username) {
+        Hydration hydration = hydrationService.hydrateMediaFiles(artists, username);
+        return artists.stream().map(artist -> {
+            org.subsonic.restapi.Artist result = new org.subsonic.restapi.Artist();
+            result.setId(String.valueOf(artist.getId()));
+            result.setName(artist.getArtist());
+            result.setStarred(jaxbWriter.convertDate(hydration.getStarredDate(artist)));
+            return result;
+        }).collect(toList());
     }
 
     @RequestMapping("/getArtist")
@@ -533,32 +565,39 @@ public class SubsonicRESTController {
 
         List<org.airsonic.player.domain.MusicFolder> musicFolders = mediaFolderService.getMusicFoldersForUser(username);
         ArtistWithAlbumsID3 result = createJaxbArtist(new ArtistWithAlbumsID3(), artist, username);
-        for (Album album : albumDao.getAlbumsForArtist(artist.getName(), musicFolders)) {
-            result.getAlbum().add(createJaxbAlbum(new AlbumID3(), album, username));
-        }
+        result.getAlbum().addAll(createJaxbAlbums(albumDao.getAlbumsForArtist(artist.getName(), musicFolders), username));
 
         Response res = createResponse();
         res.setArtist(result);
         jaxbWriter.writeResponse(request, response, res);
     }
 
+    private List<AlbumID3> createJaxbAlbums(List<Album> albums, String username) {
+        Hydration hydration = hydrationService.hydrateAlbums(albums, username);
+        return albums.stream().map(a -> createJaxbAlbum(new AlbumID3(), a, hydration)).collect(toList());
+    }
+
     private <T extends AlbumID3> T createJaxbAlbum(T jaxbAlbum, Album album, String username) {
+        return createJaxbAlbum(jaxbAlbum, album, hydrationService.hydrateAlbums(Collections.singletonList(album), username));
+    }
+
+    private <T extends AlbumID3> T createJaxbAlbum(T jaxbAlbum, Album album, Hydration hydration) {
         jaxbAlbum.setId(String.valueOf(album.getId()));
         jaxbAlbum.setName(album.getName());
         if (album.getArtist() != null) {
             jaxbAlbum.setArtist(album.getArtist());
-            org.airsonic.player.domain.Artist artist = artistDao.getArtist(album.getArtist());
-            if (artist != null) {
-                jaxbAlbum.setArtistId(String.valueOf(artist.getId()));
+            Integer artistId = hydration.getArtistId(album.getArtist());
+            if (artistId != null) {
+                jaxbAlbum.setArtistId(String.valueOf(artistId));
             }
         }
-        if (!CoverArt.NULL_ART.equals(coverArtService.get(EntityType.ALBUM, album.getId()))) {
+        if (hydration.hasCoverArt(album)) {
             jaxbAlbum.setCoverArt(CoverArtController.ALBUM_COVERART_PREFIX + album.getId());
         }
         jaxbAlbum.setSongCount(album.getSongCount());
         jaxbAlbum.setDuration((int) Math.round(album.getDuration()));
         jaxbAlbum.setCreated(jaxbWriter.convertDate(album.getCreated()));
-        jaxbAlbum.setStarred(jaxbWriter.convertDate(albumDao.getAlbumStarredDate(album.getId(), username)));
+        jaxbAlbum.setStarred(jaxbWriter.convertDate(hydration.getStarredDate(album)));
         jaxbAlbum.setYear(album.getYear());
         jaxbAlbum.setGenre(album.getGenre());
         return jaxbAlbum;
@@ -596,9 +635,7 @@ public class SubsonicRESTController {
         }
 
         AlbumWithSongsID3 result = createJaxbAlbum(new AlbumWithSongsID3(), album, username);
-        for (MediaFile mediaFile : mediaFileDao.getSongsForAlbum(album.getArtist(), album.getName())) {
-            result.getSong().add(createJaxbChild(player, mediaFile, username));
-        }
+        result.getSong().addAll(createJaxbChildren(player, mediaFileDao.getSongsForAlbum(album.getArtist(), album.getName()), username));
 
         Response res = createResponse();
         res.setAlbum(result);
@@ -655,7 +692,7 @@ public class SubsonicRESTController {
             // Ignored.
         }
         directory.setName(dir.getName());
-        directory.setStarred(jaxbWriter.convertDate(mediaFileDao.getMediaFileStarredDate(id, username)));
+        directory.setStarred(jaxbWriter.convertDate(mediaFileService.getMediaFileStarredDate(id, username)));
         directory.setPlayCount((long) dir.getPlayCount());
 
         if (dir.isAlbum()) {
@@ -663,9 +700,7 @@ public class SubsonicRESTController {
             directory.setUserRating(ratingService.getRatingForUser(username, dir));
         }
 
-        for (MediaFile child : mediaFileService.getVisibleChildrenOf(dir, true, true)) {
-            directory.getChild().add(createJaxbChild(player, child, username));
-        }
+        directory.getChild().addAll(createJaxbChildren(player, mediaFileService.getVisibleChildrenOf(dir, true, true), username));
 
         Response res = createResponse();
         res.setDirectory(directory);
@@ -708,9 +743,7 @@ public class SubsonicRESTController {
         searchResult.setOffset(result.getOffset());
         searchResult.setTotalHits(result.getTotalHits());
 
-        for (MediaFile mediaFile : result.getMediaFiles()) {
-            searchResult.getMatch().add(createJaxbChild(player, mediaFile, username));
-        }
+        searchResult.getMatch().addAll(createJaxbChildren(player, result.getMediaFiles(), username));
         Response res = createResponse();
         res.setSearchResult(searchResult);
         jaxbWriter.writeResponse(request, response, res);
@@ -732,23 +765,17 @@ public class SubsonicRESTController {
         criteria.setCount(getIntParameter(request, "artistCount", 20));
         criteria.setOffset(getIntParameter(request, "artistOffset", 0));
         org.airsonic.player.domain.SearchResult artists = searchService.search(criteria, musicFolders, IndexType.ARTIST);
-        for (MediaFile mediaFile : artists.getMediaFiles()) {
-            searchResult.getArtist().add(createJaxbArtist(mediaFile, username));
-        }
+        searchResult.getArtist().addAll(createJaxbArtistFiles(artists.getMediaFiles(), username));
 
         criteria.setCount(getIntParameter(request, "albumCount", 20));
         criteria.setOffset(getIntParameter(request, "albumOffset", 0));
         org.airsonic.player.domain.SearchResult albums = searchService.search(criteria, musicFolders, IndexType.ALBUM);
-        for (MediaFile mediaFile : albums.getMediaFiles()) {
-            searchResult.getAlbum().add(createJaxbChild(player, mediaFile, username));
-        }
+        searchResult.getAlbum().addAll(createJaxbChildren(player, albums.getMediaFiles(), username));
 
         criteria.setCount(getIntParameter(request, "songCount", 20));
         criteria.setOffset(getIntParameter(request, "songOffset", 0));
         org.airsonic.player.domain.SearchResult songs = searchService.search(criteria, musicFolders, IndexType.SONG);
-        for (MediaFile mediaFile : songs.getMediaFiles()) {
-            searchResult.getSong().add(createJaxbChild(player, mediaFile, username));
-        }
+        searchResult.getSong().addAll(createJaxbChildren(player, songs.getMediaFiles(), username));
 
         Response res = createResponse();
         res.setSearchResult2(searchResult);
@@ -765,35 +792,32 @@ public class SubsonicRESTController {
 
         SearchResult3 searchResult = new SearchResult3();
 
-        String query = request.getParameter("query");
-        SearchCriteria criteria = new SearchCriteria();
-        criteria.setQuery(StringUtils.trimToEmpty(query));
-        criteria.setCount(getIntParameter(request, "artistCount", 20));
-        criteria.setOffset(getIntParameter(request, "artistOffset", 0));
-        org.airsonic.player.domain.SearchResult result = searchService.search(criteria, musicFolders, IndexType.ARTIST_ID3);
-        for (org.airsonic.player.domain.Artist artist : result.getArtists()) {
-            searchResult.getArtist().add(createJaxbArtist(new ArtistID3(), artist, username));
-        }
+        // the three indexes are searched at once
+        String query = StringUtils.trimToEmpty(request.getParameter("query"));
+        var artists = searchService.searchAsync(createSearchCriteria(query, getIntParameter(request, "artistCount", 20),
+                getIntParameter(request, "artistOffset", 0)), musicFolders, IndexType.ARTIST_ID3);
+        var albums = searchService.searchAsync(createSearchCriteria(query, getIntParameter(request, "albumCount", 20),
+                getIntParameter(request, "albumOffset", 0)), musicFolders, IndexType.ALBUM_ID3);
+        var songs = searchService.searchAsync(createSearchCriteria(query, getIntParameter(request, "songCount", 20),
+                getIntParameter(request, "songOffset", 0)), musicFolders, IndexType.SONG);
 
-        criteria.setCount(getIntParameter(request, "albumCount", 20));
-        criteria.setOffset(getIntParameter(request, "albumOffset", 0));
-        result = searchService.search(criteria, musicFolders, IndexType.ALBUM_ID3);
-        for (Album album : result.getAlbums()) {
-            searchResult.getAlbum().add(createJaxbAlbum(new AlbumID3(), album, username));
-        }
-
-        criteria.setCount(getIntParameter(request, "songCount", 20));
-        criteria.setOffset(getIntParameter(request, "songOffset", 0));
-        result = searchService.search(criteria, musicFolders, IndexType.SONG);
-        for (MediaFile song : result.getMediaFiles()) {
-            searchResult.getSong().add(createJaxbChild(player, song, username));
-        }
+        searchResult.getArtist().addAll(createJaxbArtists(artists.join().getArtists(), username));
+        searchResult.getAlbum().addAll(createJaxbAlbums(albums.join().getAlbums(), username));
+        searchResult.getSong().addAll(createJaxbChildren(player, songs.join().getMediaFiles(), username));
 
         Response res = createResponse();
         res.setSearchResult3(searchResult);
         jaxbWriter.writeResponse(request, response, res);
     }
 
+    private static SearchCriteria createSearchCriteria(String query, int count, int offset) {
+        SearchCriteria criteria = new SearchCriteria();
+        criteria.setQuery(query);
+        criteria.setCount(count);
+        criteria.setOffset(offset);
+        return criteria;
+    }
+
     @RequestMapping("/getPlaylists")
     public void getPlaylists(HttpServletRequest request, HttpServletResponse response) {
         request = wrapRequest(request);
@@ -838,11 +862,10 @@ public class SubsonicRESTController {
             return;
         }
         PlaylistWithSongs result = createJaxbPlaylist(new PlaylistWithSongs(), playlist);
-        for (MediaFile mediaFile : playlistService.getFilesInPlaylist(id)) {
-            if (securityService.isFolderAccessAllowed(mediaFile, username)) {
-                result.getEntry().add(createJaxbChild(player, mediaFile, username));
-            }
-        }
+        List<MediaFile> files = playlistService.getFilesInPlaylist(id).stream()
+                .filter(mediaFile -> securityService.isFolderAccessAllowed(mediaFile, username))
+                .collect(toList());
+        result.getEntry().addAll(createJaxbChildren(player, files, username));
 
         Response res = createResponse();
         res.setPlaylist(result);
@@ -929,9 +952,7 @@ public class SubsonicRESTController {
             result.setPlaying(playing);
             result.setGain(gain);
             result.setPosition(position);
-            for (MediaFile mediaFile : playQueue.getFiles()) {
-                result.getEntry().add(createJaxbChild(player, mediaFile, username));
-            }
+            result.getEntry().addAll(createJaxbChildren(player, playQueue.getFiles(), username));
         } else {
             JukeboxStatus result = new JukeboxStatus();
             res.setJukeboxStatus(result);
@@ -1117,15 +1138,17 @@ public class SubsonicRESTController {
             albums = mediaFileService.getAlbumsByYear(offset, size, getRequiredIntParameter(request, "fromYear"),
                     getRequiredIntParameter(request, "toYear"), musicFolders);
         } else if ("random".equals(type)) {
-            albums = searchService.getRandomAlbums(size, musicFolders);
+            // with a seed, clients can page through the same shuffle
+            Long seed = getLongParameter(request, "seed");
+            albums = seed == null
+                    ? searchService.getRandomAlbums(size, musicFolders)
+                    : searchService.getRandomAlbums(seed, offset, size, musicFolders);
         } else {
             throw new Exception("Invalid list type: " + type);
         }
 
         AlbumList result = new AlbumList();
-        for (MediaFile album : albums) {
-            result.getAlbum().add(createJaxbChild(player, album, username));
-        }
+        result.getAlbum().addAll(createJaxbChildren(player, albums, username));
 
         Response res = createResponse();
         res.setAlbumList(result);
@@ -1136,25 +1159,39 @@ public class SubsonicRESTController {
     public void getAlbumList2(HttpServletRequest request, HttpServletResponse response) throws Exception {
         request = wrapRequest(request);
 
-        int size = getIntParameter(request, "size", 10);
+        int size = Math.max(0, Math.min(getIntParameter(request, "size", 10), 500));
         int offset = getIntParameter(request, "offset", 0);
-        size = Math.max(0, Math.min(size, 500));
         String type = getRequiredStringParameter(request, "type");
         String username = securityService.getCurrentUsername(request);
         Integer musicFolderId = getIntParameter(request, "musicFolderId");
         List<org.airsonic.player.domain.MusicFolder> musicFolders = mediaFolderService.getMusicFoldersForUser(username, musicFolderId);
+        // clients paging through long lists can continue from a cursor instead of an offset
+        KeysetCursor after = getCursorParameter(request);
+
+        if ("alphabeticalByArtist".equals(type) || "alphabeticalByName".equals(type)) {
+            // only changes when the library does
+            boolean byArtist = "alphabeticalByArtist".equals(type);
+            writeCachedResponse(request, response, username, () -> {
+                List<Album> albums = after == null
+                        ? albumDao.getAlphabeticalAlbums(offset, size, byArtist, false, musicFolders)
+                        : albumDao.getAlphabeticalAlbums(after, size, byArtist, false, musicFolders);
+                return createAlbumList2Response(albums, size, username, a -> AlbumDao.getAlphabeticalCursor(a, byArtist, false));
+            });
+            return;
+        }
+        if ("newest".equals(type)) {
+            List<Album> albums = after == null
+                    ? albumDao.getNewestAlbums(offset, size, musicFolders)
+                    : albumDao.getNewestAlbums(after, size, musicFolders);
+            jaxbWriter.writeResponse(request, response, createAlbumList2Response(albums, size, username, AlbumDao::getNewestCursor));
+            return;
+        }
 
         List<Album> albums;
         if ("frequent".equals(type)) {
             albums = albumDao.getMostFrequentlyPlayedAlbums(offset, size, musicFolders);
         } else if ("recent".equals(type)) {
             albums = albumDao.getMostRecentlyPlayedAlbums(offset, size, musicFolders);
-        } else if ("newest".equals(type)) {
-            albums = albumDao.getNewestAlbums(offset, size, musicFolders);
-        } else if ("alphabeticalByArtist".equals(type)) {
-            albums = albumDao.getAlphabeticalAlbums(offset, size, true, false, musicFolders);
-        } else if ("alphabeticalByName".equals(type)) {
-            albums = albumDao.getAlphabeticalAlbums(offset, size, false, false, musicFolders);
         } else if ("byGenre".equals(type)) {
             albums = albumDao.getAlbumsByGenre(offset, size, getRequiredStringParameter(request, "genre"), musicFolders);
         } else if ("byYear".equals(type)) {
@@ -1163,17 +1200,30 @@ public class SubsonicRESTController {
         } else if ("starred".equals(type)) {
             albums = albumDao.getStarredAlbums(offset, size, securityService.getCurrentUser(request).getUsername(), musicFolders);
         } else if ("random".equals(type)) {
-            albums = searchService.getRandomAlbumsId3(size, musicFolders);
+            // with a seed, clients can page through the same shuffle
+            Long seed = getLongParameter(request, "seed");
+            albums = seed == null
+                    ? searchService.getRandomAlbumsId3(size, musicFolders)
+                    : searchService.getRandomAlbumsId3(seed, offset, size, musicFolders);
         } else {
             throw new Exception("Invalid list type: " + type);
         }
+        jaxbWriter.writeResponse(request, response, createAlbumList2Response(albums, size, username, null));
+    }
+
+    /**
+     * @param cursorFactory Creates the cursor continuing the list after an album, or null if the list doesn't
+     *                      support cursors.
+     */
+    private Response createAlbumList2Response(List<Album> albums, int size, String username, Function<Album, KeysetCursor> cursorFactory) {
         AlbumList2 result = new AlbumList2();
-        for (Album album : albums) {
-            result.getAlbum().add(createJaxbAlbum(new AlbumID3(), album, username));
+        result.getAlbum().addAll(createJaxbAlbums(albums, username));
+        if (cursorFactory != null && !albums.isEmpty() && albums.size() == size) {
+            result.setNextCursor(cursorFactory.apply(albums.get(albums.size() - 1)).encode());
         }
         Response res = createResponse();
         res.setAlbumList2(result);
-        jaxbWriter.writeResponse(request, response, res);
+        return res;
     }
 
     @RequestMapping("/getRandomSongs")
@@ -1192,9 +1242,7 @@ public class SubsonicRESTController {
         RandomSearchCriteria criteria = new RandomSearchCriteria(size, genre, fromYear, toYear, musicFolders);
 
         Songs result = new Songs();
-        for (MediaFile mediaFile : searchService.getRandomSongs(criteria)) {
-            result.getSong().add(createJaxbChild(player, mediaFile, username));
-        }
+        result.getSong().addAll(createJaxbChildren(player, searchService.getRandomSongs(criteria), username));
         Response res = createResponse();
         res.setRandomSongs(result);
         jaxbWriter.writeResponse(request, response, res);
@@ -1211,9 +1259,7 @@ public class SubsonicRESTController {
         List<org.airsonic.player.domain.MusicFolder> musicFolders = mediaFolderService.getMusicFoldersForUser(username);
 
         Videos result = new Videos();
-        for (MediaFile mediaFile : mediaFileDao.getVideos(size, offset, musicFolders)) {
-            result.getVideo().add(createJaxbChild(player, mediaFile, username));
-        }
+        result.getVideo().addAll(createJaxbChildren(player, mediaFileDao.getVideos(size, offset, musicFolders), username));
         Response res = createResponse();
         res.setVideos(result);
         jaxbWriter.writeResponse(request, response, res);
@@ -1241,31 +1287,42 @@ public class SubsonicRESTController {
         jaxbWriter.writeResponse(request, response, res);
     }
 
+    /**
+     * Creates the JAXB representations of a list of media files, looking up their related data in batches.
+     */
+    private List<Child> createJaxbChildren(Player player, List<MediaFile> mediaFiles, String username) {
+        Hydration hydration = hydrationService.hydrateMediaFiles(mediaFiles, username);
+        return mediaFiles.stream().map(m -> createJaxbChild(new Child(), player, m, hydration)).collect(toList());
+    }
+
     private Child createJaxbChild(Player player, MediaFile mediaFile, String username) {
         return createJaxbChild(new Child(), player, mediaFile, username);
     }
 
     private <T extends Child> T createJaxbChild(T child, Player player, MediaFile mediaFile, String username) {
-        MediaFile parent = mediaFileService.getParentOf(mediaFile);
+        return createJaxbChild(child, player, mediaFile, hydrationService.hydrateMediaFiles(Collections.singletonList(mediaFile), username));
+    }
+
+    private <T extends Child> T createJaxbChild(T child, Player player, MediaFile mediaFile, Hydration hydration) {
         child.setId(String.valueOf(mediaFile.getId()));
-        try {
-            if (Objects.nonNull(parent) && !mediaFileService.isRoot(parent)) {
-                child.setParent(String.valueOf(parent.getId()));
-            }
-        } catch (SecurityException x) {
-            // Ignored.
+        Integer parentId = hydration.getParentId(mediaFile);
+        if (parentId != null) {
+            child.setParent(String.valueOf(parentId));
         }
         child.setTitle(mediaFile.getName());
         child.setAlbum(mediaFile.getAlbumName());
         child.setArtist(mediaFile.getArtist());
         child.setIsDir(mediaFile.isDirectory());
-        child.setCoverArt(findCoverArt(mediaFile, parent));
+        Integer coverArtId = hydration.getCoverArtId(mediaFile);
+        if (coverArtId != null) {
+            child.setCoverArt(String.valueOf(coverArtId));
+        }
         child.setYear(mediaFile.getYear());
         child.setGenre(mediaFile.getGenre());
         child.setCreated(jaxbWriter.convertDate(mediaFile.getCreated()));
-        child.setStarred(jaxbWriter.convertDate(mediaFileDao.getMediaFileStarredDate(mediaFile.getId(), username)));
-        child.setUserRating(ratingService.getRatingForUser(username, mediaFile));
-        child.setAverageRating(ratingService.getAverageRating(mediaFile));
+        child.setStarred(jaxbWriter.convertDate(hydration.getStarredDate(mediaFile)));
+        child.setUserRating(hydration.getUserRating(mediaFile));
+        child.setAverageRating(hydration.getAverageRating(mediaFile));
         child.setPlayCount((long) mediaFile.getPlayCount());
 
         if (mediaFile.isFile()) {
@@ -1280,17 +1337,13 @@ public class SubsonicRESTController {
             child.setIsVideo(mediaFile.isVideo());
             child.setPath(mediaFile.getPath());
 
-            if (mediaFile.getAlbumArtist() != null && mediaFile.getAlbumName() != null) {
-                Album album = albumDao.getAlbum(mediaFile.getAlbumArtist(), mediaFile.getAlbumName());
-                if (album != null) {
-                    child.setAlbumId(String.valueOf(album.getId()));
-                }
+            Integer albumId = hydration.getAlbumId(mediaFile);
+            if (albumId != null) {
+                child.setAlbumId(String.valueOf(albumId));
             }
-            if (mediaFile.getArtist() != null) {
-                org.airsonic.player.domain.Artist artist = artistDao.getArtist(mediaFile.getArtist());
-                if (artist != null) {
-                    child.setArtistId(String.valueOf(artist.getId()));
-                }
+            Integer artistId = hydration.getArtistId(mediaFile.getArtist());
+            if (artistId != null) {
+                child.setArtistId(String.valueOf(artistId));
             }
             switch (mediaFile.getMediaType()) {
                 case MUSIC:
@@ -1320,14 +1373,6 @@ public class SubsonicRESTController {
         return child;
     }
 
-    private String findCoverArt(MediaFile mediaFile, MediaFile parent) {
-        MediaFile dir = mediaFile.isDirectory() ? mediaFile : parent;
-        if (dir != null && !CoverArt.NULL_ART.equals(coverArtService.get(EntityType.MEDIA_FILE, dir.getId()))) {
-            return String.valueOf(dir.getId());
-        }
-        return null;
-    }
-
     @RequestMapping("/download")
     public ResponseEntity<Resource> download(Principal p,
             @RequestParam(required = false) String id,
@@ -1456,6 +1501,15 @@ public class SubsonicRESTController {
         request = wrapRequest(request);
 
         String username = securityService.getCurrentUser(request).getUsername();
+        try {
+            starOrUnstar(request, response, username, star);
+        } finally {
+            annotationService.invalidate(username);
+            libraryGenerationService.increment();
+        }
+    }
+
+    private void starOrUnstar(HttpServletRequest request, HttpServletResponse response, String username, boolean star) {
         for (int id : getIntParameters(request, "id")) {
             MediaFile mediaFile = mediaFileDao.getMediaFile(id);
             if (mediaFile == null) {
@@ -1505,15 +1559,9 @@ public class SubsonicRESTController {
         List<org.airsonic.player.domain.MusicFolder> musicFolders = mediaFolderService.getMusicFoldersForUser(username, musicFolderId);
 
         Starred result = new Starred();
-        for (MediaFile artist : mediaFileDao.getStarredDirectories(0, Integer.MAX_VALUE, username, musicFolders)) {
-            result.getArtist().add(createJaxbArtist(artist, username));
-        }
-        for (MediaFile album : mediaFileDao.getStarredAlbums(0, Integer.MAX_VALUE, username, musicFolders)) {
-            result.getAlbum().add(createJaxbChild(player, album, username));
-        }
-        for (MediaFile song : mediaFileDao.getStarredFiles(0, Integer.MAX_VALUE, username, musicFolders)) {
-            result.getSong().add(createJaxbChild(player, song, username));
-        }
+        result.getArtist().addAll(createJaxbArtistFiles(mediaFileDao.getStarredDirectories(0, Integer.MAX_VALUE, username, musicFolders), username));
+        result.getAlbum().addAll(createJaxbChildren(player, mediaFileDao.getStarredAlbums(0, Integer.MAX_VALUE, username, musicFolders), username));
+        result.getSong().addAll(createJaxbChildren(player, mediaFileDao.getStarredFiles(0, Integer.MAX_VALUE, username, musicFolders), username));
         Response res = createResponse();
         res.setStarred(result);
         jaxbWriter.writeResponse(request, response, res);
@@ -1528,15 +1576,9 @@ public class SubsonicRESTController {
         List<org.airsonic.player.domain.MusicFolder> musicFolders = mediaFolderService.getMusicFoldersForUser(username, musicFolderId);
 
         Starred2 result = new Starred2();
-        for (org.airsonic.player.domain.Artist artist : artistDao.getStarredArtists(0, Integer.MAX_VALUE, username, musicFolders)) {
-            result.getArtist().add(createJaxbArtist(new ArtistID3(), artist, username));
-        }
-        for (Album album : albumDao.getStarredAlbums(0, Integer.MAX_VALUE, username, musicFolders)) {
-            result.getAlbum().add(createJaxbAlbum(new AlbumID3(), album, username));
-        }
-        for (MediaFile song : mediaFileDao.getStarredFiles(0, Integer.MAX_VALUE, username, musicFolders)) {
-            result.getSong().add(createJaxbChild(player, song, username));
-        }
+        result.getArtist().addAll(createJaxbArtists(artistDao.getStarredArtists(0, Integer.MAX_VALUE, username, musicFolders), username));
+        result.getAlbum().addAll(createJaxbAlbums(albumDao.getStarredAlbums(0, Integer.MAX_VALUE, username, musicFolders), username));
+        result.getSong().addAll(createJaxbChildren(player, mediaFileDao.getStarredFiles(0, Integer.MAX_VALUE, username, musicFolders), username));
         Response res = createResponse();
         res.setStarred2(result);
         jaxbWriter.writeResponse(request, response, res);
@@ -1569,9 +1611,7 @@ public class SubsonicRESTController {
 
                 if (includeEpisodes) {
                     List<org.airsonic.player.domain.PodcastEpisode> episodes = podcastService.getEpisodes(channel.getId());
-                    for (org.airsonic.player.domain.PodcastEpisode episode : episodes) {
-                        c.getEpisode().add(createJaxbPodcastEpisode(player, username, episode));
-                    }
+                    c.getEpisode().addAll(createJaxbPodcastEpisodes(player, username, episodes));
                 }
             }
         }
@@ -1589,21 +1629,31 @@ public class SubsonicRESTController {
         int count = getIntParameter(request, "count", 20);
         NewestPodcasts result = new NewestPodcasts();
 
-        for (org.airsonic.player.domain.PodcastEpisode episode : podcastService.getNewestEpisodes(count)) {
-            result.getEpisode().add(createJaxbPodcastEpisode(player, username, episode));
-        }
+        result.getEpisode().addAll(createJaxbPodcastEpisodes(player, username, podcastService.getNewestEpisodes(count)));
 
         Response res = createResponse();
         res.setNewestPodcasts(result);
         jaxbWriter.writeResponse(request, response, res);
     }
 
-    private org.subsonic.restapi.PodcastEpisode createJaxbPodcastEpisode(Player player, String username, org.airsonic.player.domain.PodcastEpisode episode) {
+    private List<org.subsonic.restapi.PodcastEpisode> createJaxbPodcastEpisodes(Player player, String username, List<org.airsonic.player.domain.PodcastEpisode> episodes) {
+        Map<Integer, MediaFile> mediaFiles = episodes.stream()
+                .map(org.airsonic.player.domain.PodcastEpisode::getMediaFileId)
+                .filter(Objects::nonNull)
+                .map(mediaFileService::getMediaFile)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toMap(MediaFile::getId, m -> m, (a, b) -> a));
+        Hydration hydration = hydrationService.hydrateMediaFiles(mediaFiles.values(), username);
+        return episodes.stream().map(episode -> createJaxbPodcastEpisode(player, hydration, mediaFiles, episode)).collect(toList());
+    }
+
+    private org.subsonic.restapi.PodcastEpisode createJaxbPodcastEpisode(Player player, Hydration hydration, Map<Integer, MediaFile> mediaFiles,
+            org.airsonic.player.domain.PodcastEpisode episode) {
         org.subsonic.restapi.PodcastEpisode e = new org.subsonic.restapi.PodcastEpisode();
 
-        if (episode.getMediaFileId() != null) {
-            MediaFile mediaFile = mediaFileService.getMediaFile(episode.getMediaFileId());
-            e = createJaxbChild(new org.subsonic.restapi.PodcastEpisode(), player, mediaFile, username);
+        MediaFile mediaFile = episode.getMediaFileId() == null ? null : mediaFiles.get(episode.getMediaFileId());
+        if (mediaFile != null) {
+            e = createJaxbChild(new org.subsonic.restapi.PodcastEpisode(), player, mediaFile, hydration);
             e.setStreamId(String.valueOf(mediaFile.getId()));
         }
 
@@ -1733,7 +1783,13 @@ public class SubsonicRESTController {
         String username = securityService.getCurrentUsername(request);
 
         Bookmarks result = new Bookmarks();
-        for (Bookmark bookmark : bookmarkService.getBookmarks(username)) {
+        List<Bookmark> bookmarks = bookmarkService.getBookmarks(username);
+        Map<Integer, MediaFile> mediaFiles = bookmarks.stream()
+                .map(bookmark -> mediaFileService.getMediaFile(bookmark.getMediaFileId()))
+                .filter(Objects::nonNull)
+                .collect(Collectors.toMap(MediaFile::getId, m -> m, (a, b) -> a));
+        Hydration hydration = hydrationService.hydrateMediaFiles(mediaFiles.values(), username);
+        for (Bookmark bookmark : bookmarks) {
             org.subsonic.restapi.Bookmark b = new org.subsonic.restapi.Bookmark();
             result.getBookmark().add(b);
             b.setPosition(bookmark.getPositionMillis());
@@ -1742,8 +1798,10 @@ public class SubsonicRESTController {
             b.setCreated(jaxbWriter.convertDate(bookmark.getCreated()));
             b.setChanged(jaxbWriter.convertDate(bookmark.getChanged()));
 
-            MediaFile mediaFile = mediaFileService.getMediaFile(bookmark.getMediaFileId());
-            b.setEntry(createJaxbChild(player, mediaFile, username));
+            MediaFile mediaFile = mediaFiles.get(bookmark.getMediaFileId());
+            if (mediaFile != null) {
+                b.setEntry(createJaxbChild(new Child(), player, mediaFile, hydration));
+            }
         }
 
         Response res = createResponse();
@@ -1794,12 +1852,11 @@ public class SubsonicRESTController {
         restPlayQueue.setChanged(jaxbWriter.convertDate(playQueue.getChanged()));
         restPlayQueue.setChangedBy(playQueue.getChangedBy());
 
-        for (Integer mediaFileId : playQueue.getMediaFileIds()) {
-            MediaFile mediaFile = mediaFileService.getMediaFile(mediaFileId);
-            if (mediaFile != null) {
-                restPlayQueue.getEntry().add(createJaxbChild(player, mediaFile, username));
-            }
-        }
+        List<MediaFile> files = playQueue.getMediaFileIds().stream()
+                .map(mediaFileService::getMediaFile)
+                .filter(Objects::nonNull)
+                .collect(toList());
+        restPlayQueue.getEntry().addAll(createJaxbChildren(player, files, username));
 
         Response res = createResponse();
         res.setPlayQueue(restPlayQueue);
@@ -1838,9 +1895,7 @@ public class SubsonicRESTController {
             org.subsonic.restapi.Share s = createJaxbShare(request, share);
             result.getShare().add(s);
 
-            for (MediaFile mediaFile : shareService.getSharedFiles(share.getId(), musicFolders)) {
-                s.getEntry().add(createJaxbChild(player, mediaFile, username));
-            }
+            s.getEntry().addAll(createJaxbChildren(player, shareService.getSharedFiles(share.getId(), musicFolders), username));
         }
         Response res = createResponse();
         res.setShares(result);
@@ -1878,9 +1933,7 @@ public class SubsonicRESTController {
 
         List<org.airsonic.player.domain.MusicFolder> musicFolders = mediaFolderService.getMusicFoldersForUser(username);
 
-        for (MediaFile mediaFile : shareService.getSharedFiles(share.getId(), musicFolders)) {
-            s.getEntry().add(createJaxbChild(player, mediaFile, username));
-        }
+        s.getEntry().addAll(createJaxbChildren(player, shareService.getSharedFiles(share.getId(), musicFolders), username));
 
         Response res = createResponse();
         res.setShares(result);
@@ -2352,6 +2405,62 @@ public class SubsonicRESTController {
         return jaxbWriter.createResponse(true);
     }
 
+    private static KeysetCursor getCursorParameter(HttpServletRequest request) throws APIException {
+        String cursor = request.getParameter("cursor");
+        if (StringUtils.isEmpty(cursor)) {
+            return null;
+        }
+        try {
+            return KeysetCursor.decode(cursor);
+        } catch (IllegalArgumentException e) {
+            throw new APIException(ErrorCode.GENERIC, "Invalid cursor: " + cursor);
+        }
+    }
+
+    /**
+     * Writes the response created by the given builder, reusing the serialized response to an identical earlier
+     * request as long as the library hasn't changed since. Clients which already have it get a 304.
+     *
+     * @param keyParts Anything besides the request parameters and the user the response depends on.
+     */
+    private void writeCachedResponse(HttpServletRequest request, HttpServletResponse response, String username,
+            Callable<Response> builder, Object... keyParts) throws Exception {
+        Callable<SerializedResponse> serializer = () -> jaxbWriter.serialize(request, builder.call());
+        SerializedResponse serialized;
+        if (mediaScannerService.isScanning()) {
+            // the library changes all the time
+            serialized = serializer.call();
+        } else {
+            Cache cache = cacheManager.getCache("restResponseCache");
+            try {
+                serialized = cache.get(createResponseCacheKey(request, username, keyParts), serializer);
+            } catch (Cache.ValueRetrievalException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+        }
+        if (new ServletWebRequest(request, response).checkNotModified(serialized.getETag())) {
+            return;
+        }
+        jaxbWriter.writeResponse(request, response, serialized);
+    }
+
+    private String createResponseCacheKey(HttpServletRequest request, String username, Object... keyParts) {
+        StringBuilder key = new StringBuilder(StringUtils.removeEnd(request.getRequestURI(), ".view"));
+        new TreeMap<>(request.getParameterMap()).forEach((name, values) -> {
+            if (!UNCACHED_PARAMETERS.contains(name)) {
+                key.append('&').append(name).append('=').append(String.join(",", values));
+            }
+        });
+        key.append('|').append(username);
+        key.append('|').append(org.airsonic.player.domain.MusicFolder.toIdList(mediaFolderService.getMusicFoldersForUser(username)));
+        key.append('|').append(libraryGenerationService.getGeneration());
+        key.append('|').append(settingsService.getSettingsChanged());
+        for (Object keyPart : keyParts) {
+            key.append('|').append(keyPart);
+        }
+        return key.toString();
+    }
+
     private void writeEmptyResponse(HttpServletRequest request, HttpServletResponse response) {
         jaxbWriter.writeResponse(request, response, createResponse());
     }
@@ -24,6 +24,8 @@ import com.github.junrar.Archive;
 import com.github.junrar.exception.RarException;
 import com.github.junrar.rarfile.FileHeader;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
 import com.google.common.io.MoreFiles;
 import com.google.common.util.concurrent.RateLimiter;
 import com.google.re2j.Pattern;
@@ -31,10 +33,13 @@ import org.airsonic.player.ajax.UploadInfo;
 import org.airsonic.player.config.AirsonicHomeConfig;
 import org.airsonic.player.domain.TransferStatus;
 import org.airsonic.player.domain.User;
+import org.airsonic.player.service.MediaScannerService;
 import org.airsonic.player.service.PlayerService;
 import org.airsonic.player.service.SecurityService;
 import org.airsonic.player.service.SettingsService;
 import org.airsonic.player.service.StatusService;
+import org.airsonic.player.service.TaskSchedulingService;
+import org.airsonic.player.upload.MonitoredInputStream;
 import org.airsonic.player.upload.MonitoredMultipartFile;
 import org.airsonic.player.upload.UploadListener;
 import org.airsonic.player.util.FileUtil;
@@ -44,20 +49,29 @@ import org.apache.commons.compress.archivers.ArchiveInputStream;
 import org.apache.commons.compress.archivers.ArchiveStreamFactory;
 import org.apache.commons.compress.archivers.sevenz.SevenZArchiveEntry;
 import org.apache.commons.compress.archivers.sevenz.SevenZFile;
-import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
-import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.PatchMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.servlet.ModelAndView;
 
+import javax.annotation.PostConstruct;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
@@ -65,15 +79,25 @@ import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.URI;
+import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
 import java.nio.file.AccessDeniedException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 
 /**
@@ -99,10 +123,45 @@ public class UploadController {
     private SimpMessagingTemplate brokerTemplate;
     @Autowired
     private AirsonicHomeConfig homeConfig;
+    @Autowired
+    private MediaScannerService mediaScannerService;
+    @Autowired
+    private TaskSchedulingService taskService;
 
     private static final Set<String> SUPPORTED_ZIP_FORMATS = ImmutableSet.of("zip", "7z", "rar", "cpio", "jar", "tar");
+    // formats that can be decoded sequentially, so the archive itself is never stored in the target directory
+    private static final Set<String> STREAMABLE_ZIP_FORMATS = ImmutableSet.of("zip", "cpio", "jar", "tar");
     public static final Map<UUID, Consumer<Path>> registeredCallbacks = new ConcurrentHashMap<>();
 
+    static final String UPLOAD_OFFSET = "Upload-Offset";
+    static final String UPLOAD_LENGTH = "Upload-Length";
+    static final String UPLOAD_CHECKSUM = "Upload-Checksum";
+    static final int CHECKSUM_MISMATCH = 460;
+    private static final Duration UPLOAD_SESSION_EXPIRY = Duration.ofDays(1);
+    private static final String STAGING_FILE_PREFIX = "upload";
+    private static final String STAGING_FILE_SUFFIX = ".part";
+    private final Map<UUID, UploadSession> uploadSessions = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        // sessions only live in memory, so staging files of a previous run can't be resumed
+        Path stagingDir = getStagingDirectory();
+        if (Files.isDirectory(stagingDir)) {
+            LOG.info("Removing staging files of interrupted chunked uploads in {}", stagingDir);
+            try (DirectoryStream<Path> stagingFiles = Files.newDirectoryStream(stagingDir, STAGING_FILE_PREFIX + "*" + STAGING_FILE_SUFFIX)) {
+                stagingFiles.forEach(FileUtil::delete);
+            } catch (IOException e) {
+                LOG.warn("Could not remove staging files in {}", stagingDir, e);
+            }
+        }
+        taskService.scheduleFixedDelayTask("upload-session-expiry", this::expireUploadSessions,
+                Instant.now().plus(Duration.ofHours(1)), Duration.ofHours(1), true);
+    }
+
+    private Path getStagingDirectory() {
+        return homeConfig.getAirsonicHome().resolve(".upload-staging");
+    }
+
     private void checkUploadAllowed(User user, Path p, boolean checkExistence) throws Exception {
         if (!user.isAdminRole() && !user.isUploadRole()) {
             throw new AccessDeniedException("User does not have privileges to upload");
@@ -167,12 +226,19 @@ public class UploadController {
                             exceptions.add(e);
                             continue;
                         }
-                        monitoredFile.transferTo(targetFile.toFile());
-                        uploadedFiles.add(targetFile);
-                        LOG.info("Uploaded {} ", targetFile);
+                        String extension = MoreFiles.getFileExtension(targetFile).toLowerCase();
+                        if (unzip && STREAMABLE_ZIP_FORMATS.contains(extension)) {
+                            try (InputStream is = monitoredFile.getInputStream()) {
+                                unzip(targetFile, is, unzippedFiles, exceptions);
+                            }
+                        } else {
+                            monitoredFile.transferTo(targetFile.toFile());
+                            uploadedFiles.add(targetFile);
+                            LOG.info("Uploaded {} ", targetFile);
 
-                        if (unzip && SUPPORTED_ZIP_FORMATS.contains(MoreFiles.getFileExtension(targetFile).toLowerCase())) {
-                            unzip(targetFile, unzippedFiles, exceptions);
+                            if (unzip && SUPPORTED_ZIP_FORMATS.contains(extension)) {
+                                unzip(targetFile, unzippedFiles, exceptions);
+                            }
                         }
                     }
                 }
@@ -195,6 +261,9 @@ public class UploadController {
                     exceptions.add(e);
                 }
             }
+            if (dir != null && !(uploadedFiles.isEmpty() && unzippedFiles.isEmpty())) {
+                mediaScannerService.scanDirectory(dir);
+            }
         }
 
         map.put("exceptions", exceptions);
@@ -204,9 +273,264 @@ public class UploadController {
         return new ModelAndView("upload", "model", map);
     }
 
+    /**
+     * Starts a chunked upload. The content is then sent in one or more {@code PATCH} requests, each of which
+     * appends to a staging file, so an interrupted upload can be resumed from the offset reported by
+     * {@code HEAD}. This also avoids buffering large uploads as multipart requests.
+     */
+    @PostMapping("/sessions")
+    public ResponseEntity<Map<String, Object>> createUploadSession(
+        @RequestParam("dir") String dirString,
+        @RequestParam("name") String name,
+        @RequestParam("size") long size,
+        @RequestParam(name = "unzip", required = false) boolean unzip,
+        HttpServletRequest request, HttpServletResponse response) throws Exception {
+
+        User user = securityService.getCurrentUser(request);
+        Path dir = Paths.get(Pattern.compile("\\.+/").matcher(dirString).replaceAll(""));
+        String fileName = FilenameUtils.getName(name);
+        if (size < 0 || fileName.trim().isEmpty()) {
+            return ResponseEntity.badRequest().build();
+        }
+        checkUploadAllowed(user, dir, false);
+        checkUploadAllowed(user, dir.resolve(fileName), true);
+
+        Path stagingDir = Files.createDirectories(getStagingDirectory());
+
+        UploadSession session = new UploadSession(user.getUsername(), dir, fileName, size, unzip,
+                Files.createTempFile(stagingDir, STAGING_FILE_PREFIX, STAGING_FILE_SUFFIX),
+                statusService.createUploadStatus(playerService.getPlayer(request, response, false, false)));
+        session.status.setBytesTotal(size);
+        session.listener.start(fileName);
+        uploadSessions.put(session.id, session);
+        LOG.info("Started chunked upload {} of {} to {}", session.id, fileName, dir);
+
+        return ResponseEntity.created(URI.create(request.getRequestURI() + "/" + session.id))
+                .header(UPLOAD_OFFSET, "0")
+                .header(UPLOAD_LENGTH, String.valueOf(size))
+                .body(Map.of("id", session.id, "offset", 0L));
+    }
+
+    /**
+     * Reports how much of a chunked upload has been received.
+     */
+    @RequestMapping(path = "/sessions/{id}", method = RequestMethod.HEAD)
+    public ResponseEntity<Void> getUploadOffset(@PathVariable("id") UUID id, HttpServletRequest request) throws IOException {
+        UploadSession session = getUploadSession(id, request);
+        if (session == null) {
+            return ResponseEntity.notFound().build();
+        }
+        synchronized (session) {
+            return ResponseEntity.ok()
+                    .cacheControl(CacheControl.noStore())
+                    .header(UPLOAD_OFFSET, String.valueOf(Files.size(session.stagingFile)))
+                    .header(UPLOAD_LENGTH, String.valueOf(session.size))
+                    .build();
+        }
+    }
+
+    /**
+     * Appends a chunk to a chunked upload. The chunk must start at the current offset of the upload, and must not
+     * go beyond its length.
+     * If an {@code Upload-Checksum} header ({@code <algorithm> <base64 digest>}) is sent, a chunk that doesn't
+     * match it is discarded; otherwise whatever was received of an interrupted chunk is kept.
+     * Once all bytes have been received, the file is moved to (or extracted into) its directory.
+     */
+    @PatchMapping("/sessions/{id}")
+    public ResponseEntity<Map<String, Object>> appendChunk(@PathVariable("id") UUID id,
+        @RequestHeader(UPLOAD_OFFSET) long offset,
+        @RequestHeader(name = UPLOAD_CHECKSUM, required = false) String checksum,
+        HttpServletRequest request) throws Exception {
+
+        UploadSession session = getUploadSession(id, request);
+        if (session == null) {
+            return ResponseEntity.notFound().build();
+        }
+
+        synchronized (session) {
+            if (!uploadSessions.containsKey(id)) {
+                return ResponseEntity.notFound().build();
+            }
+            long currentOffset = Files.size(session.stagingFile);
+            if (offset != currentOffset) {
+                return ResponseEntity.status(HttpStatus.CONFLICT).header(UPLOAD_OFFSET, String.valueOf(currentOffset)).build();
+            }
+            long remaining = session.size - offset;
+            if (request.getContentLengthLong() > remaining) {
+                return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).header(UPLOAD_OFFSET, String.valueOf(offset)).build();
+            }
+
+            MessageDigest digest = null;
+            byte[] expectedDigest = null;
+            if (checksum != null) {
+                String[] parts = StringUtils.split(checksum, ' ');
+                try {
+                    digest = MessageDigest.getInstance(getDigestAlgorithm(parts[0]));
+                    expectedDigest = Base64.getDecoder().decode(parts[1]);
+                } catch (NoSuchAlgorithmException | IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+                    return ResponseEntity.badRequest().header(UPLOAD_OFFSET, String.valueOf(currentOffset)).build();
+                }
+            }
+
+            // counts what was written, even if the transfer fails
+            CountingInputStream chunk = null;
+            try (InputStream is = new MonitoredInputStream(request.getInputStream(), session.listener);
+                    FileChannel channel = FileChannel.open(session.stagingFile, StandardOpenOption.WRITE);
+                    OutputStream os = Channels.newOutputStream(channel.position(offset))) {
+                chunk = new CountingInputStream(ByteStreams.limit(is, remaining));
+                (digest == null ? chunk : new DigestInputStream(chunk, digest)).transferTo(os);
+                if (is.read() != -1) {
+                    LOG.info("Chunk at {} of upload {} exceeds its length of {} bytes", offset, id, session.size);
+                    channel.truncate(offset);
+                    return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).header(UPLOAD_OFFSET, String.valueOf(offset)).build();
+                }
+                if (digest != null && !MessageDigest.isEqual(expectedDigest, digest.digest())) {
+                    LOG.info("Checksum mismatch for chunk at {} of upload {}", offset, id);
+                    channel.truncate(offset);
+                    return ResponseEntity.status(CHECKSUM_MISMATCH).header(UPLOAD_OFFSET, String.valueOf(offset)).build();
+                }
+            } catch (IOException e) {
+                if (digest != null) {
+                    // an incomplete chunk can't be verified
+                    try (FileChannel channel = FileChannel.open(session.stagingFile, StandardOpenOption.WRITE)) {
+                        channel.truncate(offset);
+                    }
+                }
+                throw e;
+            } finally {
+                session.touch();
+                securityService.updateUserByteCounts(securityService.getCurrentUser(request), 0L, 0L,
+                        chunk == null ? 0L : chunk.getCount());
+            }
+
+            long newOffset = offset + chunk.getCount();
+            if (newOffset < session.size) {
+                return ResponseEntity.noContent().header(UPLOAD_OFFSET, String.valueOf(newOffset)).build();
+            }
+            return ResponseEntity.ok().header(UPLOAD_OFFSET, String.valueOf(newOffset))
+                    .body(completeUploadSession(session, securityService.getCurrentUser(request)));
+        }
+    }
+
+    /**
+     * Aborts a chunked upload.
+     */
+    @DeleteMapping("/sessions/{id}")
+    public ResponseEntity<Void> deleteUploadSession(@PathVariable("id") UUID id, HttpServletRequest request) {
+        UploadSession session = getUploadSession(id, request);
+        if (session == null) {
+            return ResponseEntity.notFound().build();
+        }
+        synchronized (session) {
+            removeUploadSession(session);
+        }
+        return ResponseEntity.noContent().build();
+    }
+
+    /**
+     * Maps checksum algorithm names as used by tus (e.g. {@code sha1}) to their Java names (e.g. {@code SHA-1}).
+     */
+    private static String getDigestAlgorithm(String name) {
+        String algorithm = name.toUpperCase();
+        if (algorithm.startsWith("SHA") && algorithm.length() > 3 && algorithm.charAt(3) != '-') {
+            return "SHA-" + algorithm.substring(3);
+        }
+        return algorithm;
+    }
+
+    private UploadSession getUploadSession(UUID id, HttpServletRequest request) {
+        UploadSession session = uploadSessions.get(id);
+        User user = securityService.getCurrentUser(request);
+        if (session == null || user == null || !session.username.equals(user.getUsername())) {
+            return null;
+        }
+        return session;
+    }
+
+    private Map<String, Object> completeUploadSession(UploadSession session, User user) {
+        List<Path> uploadedFiles = new ArrayList<>();
+        List<Path> unzippedFiles = new ArrayList<>();
+        List<Exception> exceptions = new ArrayList<>();
+        Path targetFile = session.dir.resolve(session.fileName);
+        try {
+            checkUploadAllowed(user, targetFile, true);
+            Files.createDirectories(session.dir);
+            String extension = MoreFiles.getFileExtension(targetFile).toLowerCase();
+            if (session.unzip && STREAMABLE_ZIP_FORMATS.contains(extension)) {
+                try (InputStream is = Files.newInputStream(session.stagingFile)) {
+                    unzip(targetFile, is, unzippedFiles, exceptions);
+                }
+            } else {
+                Files.move(session.stagingFile, targetFile);
+                uploadedFiles.add(targetFile);
+                LOG.info("Uploaded {} ", targetFile);
+                if (session.unzip && SUPPORTED_ZIP_FORMATS.contains(extension)) {
+                    unzip(targetFile, unzippedFiles, exceptions);
+                }
+            }
+            mediaScannerService.scanDirectory(session.dir);
+        } catch (Exception e) {
+            LOG.warn("Completing upload {} failed.", session.id, e);
+            exceptions.add(e);
+        } finally {
+            removeUploadSession(session);
+        }
+
+        Map<String, Object> map = new HashMap<>();
+        map.put("exceptions", exceptions.stream().map(Exception::getMessage).collect(Collectors.toList()));
+        map.put("uploadedFiles", uploadedFiles.stream().map(Path::toString).collect(Collectors.toList()));
+        map.put("unzippedFiles", unzippedFiles.stream().map(Path::toString).collect(Collectors.toList()));
+        return map;
+    }
+
+    private void removeUploadSession(UploadSession session) {
+        uploadSessions.remove(session.id);
+        FileUtil.delete(session.stagingFile);
+        statusService.removeUploadStatus(session.status);
+        brokerTemplate.convertAndSendToUser(session.username, "/queue/uploads/status",
+                new UploadInfo(session.status.getId(), session.status.getBytesTotal() + 1, session.status.getBytesTotal()));
+    }
+
+    private void expireUploadSessions() {
+        Instant expiry = Instant.now().minus(UPLOAD_SESSION_EXPIRY);
+        uploadSessions.values().stream().filter(s -> s.lastActivity.isBefore(expiry)).forEach(s -> {
+            synchronized (s) {
+                LOG.info("Chunked upload {} of {} expired", s.id, s.fileName);
+                removeUploadSession(s);
+            }
+        });
+    }
+
+    /**
+     * Extracts an archive from the upload it was spooled to, without copying the archive to its target
+     * directory first.
+     *
+     * @param file   the path the archive would have been stored at; entries are extracted next to it
+     * @param upload the content of the archive
+     */
+    private void unzip(Path file, InputStream upload, List<Path> unzippedFiles, List<Exception> exceptions) {
+        LOG.info("Unzipping {}", file);
+        try (InputStream is = new BufferedInputStream(upload);
+                ArchiveInputStream ais = createArchiveInputStream(file, is)) {
+            ArchiveEntry entry = null;
+            while ((entry = ais.getNextEntry()) != null) {
+                if (!ais.canReadEntryData(entry)) {
+                    LOG.info("Can't read {} in {}", entry.getName(), file);
+                    continue;
+                }
+                copyEntry(file, entry, dest -> Files.copy(ais, dest), unzippedFiles, exceptions);
+            }
+        } catch (Exception e) {
+            LOG.warn("Something went wrong unzipping {}", file, e);
+            exceptions.add(e);
+        }
+    }
+
+    /**
+     * Extracts archive formats which need random access, and thus have to be written to disk first.
+     */
     private void unzip(Path file, List<Path> unzippedFiles, List<Exception> exceptions) {
         LOG.info("Unzipping {}", file);
-        boolean unzipped = false;
 
         // rar files
         if (file.getFileName().toString().toLowerCase().endsWith(".rar")) {
@@ -254,34 +578,6 @@ public class UploadController {
                 LOG.warn("Something went wrong unzipping {}", file, e);
                 exceptions.add(e);
             } finally {
-                unzipped = true;
-                FileUtil.delete(file);
-            }
-        }
-
-        // zip files
-        if (file.getFileName().toString().toLowerCase().endsWith(".zip")) {
-            LOG.info("Trying zip-specific extraction method for {}", file);
-            try (FileChannel channel = FileChannel.open(file); ZipFile zip = new ZipFile(channel)) {
-                Enumeration<ZipArchiveEntry> entries = zip.getEntries();
-                ZipArchiveEntry entry = null;
-                while (entries.hasMoreElements()) {
-                    entry = entries.nextElement();
-
-                    if (!zip.canReadEntryData(entry)) {
-                        LOG.info("Can't read {} in {}", entry.getName(), file);
-                        continue;
-                    }
-
-                    try (InputStream is = zip.getInputStream(entry)) {
-                        copyEntry(file, entry, dest -> Files.copy(is, dest), unzippedFiles, exceptions);
-                    }
-                }
-            } catch (Exception e) {
-                LOG.warn("Something went wrong unzipping {}", file, e);
-                exceptions.add(e);
-            } finally {
-                unzipped = true;
                 FileUtil.delete(file);
             }
         }
@@ -306,31 +602,20 @@ public class UploadController {
                 LOG.warn("Something went wrong unzipping {}", file, e);
                 exceptions.add(e);
             } finally {
-                unzipped = true;
                 FileUtil.delete(file);
             }
         }
 
-        // Generic
-        if (!unzipped) {
-            LOG.info("Trying a generic extraction method for {}", file);
-            try (BufferedInputStream bis = new BufferedInputStream(Files.newInputStream(file));
-                    ArchiveInputStream ais = new ArchiveStreamFactory().createArchiveInputStream(bis)) {
-                ArchiveEntry entry = null;
-                while ((entry = ais.getNextEntry()) != null) {
-                    if (!ais.canReadEntryData(entry)) {
-                        LOG.info("Can't read {} in {}", entry.getName(), file);
-                        continue;
-                    }
-                    copyEntry(file, entry, dest -> Files.copy(ais, dest), unzippedFiles, exceptions);
-                }
-            } catch (Exception e) {
-                LOG.warn("Something went wrong unzipping {}", file, e);
-                exceptions.add(e);
-            } finally {
-                FileUtil.delete(file);
-            }
+    }
+
+    private static ArchiveInputStream createArchiveInputStream(Path file, InputStream is) throws Exception {
+        String extension = MoreFiles.getFileExtension(file).toLowerCase();
+        if ("zip".equals(extension) || "jar".equals(extension)) {
+            // entries can't be looked up in the central directory when streaming, so accept stored entries
+            // whose sizes are only known from their data descriptor
+            return new ZipArchiveInputStream(is, "UTF8", true, true);
         }
+        return new ArchiveStreamFactory().createArchiveInputStream(is);
     }
 
     private void copyEntry(Path file, ArchiveEntry entry, LambdaUtils.ThrowingConsumer<Path, IOException> copier,
@@ -362,6 +647,38 @@ public class UploadController {
         LOG.info("Processed {}", toPath);
     }
 
+    /**
+     * State of a chunked upload.
+     */
+    private class UploadSession {
+        private final UUID id = UUID.randomUUID();
+        private final String username;
+        private final Path dir;
+        private final String fileName;
+        private final long size;
+        private final boolean unzip;
+        private final Path stagingFile;
+        private final TransferStatus status;
+        private final UploadListener listener;
+        private volatile Instant lastActivity = Instant.now();
+
+        private UploadSession(String username, Path dir, String fileName, long size, boolean unzip, Path stagingFile,
+                TransferStatus status) {
+            this.username = username;
+            this.dir = dir;
+            this.fileName = fileName;
+            this.size = size;
+            this.unzip = unzip;
+            this.stagingFile = stagingFile;
+            this.status = status;
+            this.listener = new UploadListenerImpl(status, settingsService.getUploadBitrateLimiter(), brokerTemplate);
+        }
+
+        private void touch() {
+            lastActivity = Instant.now();
+        }
+    }
+
     /**
      * Receives callbacks as the file upload progresses.
      */
@@ -20,6 +20,10 @@
 package org.airsonic.player.dao;
 
 import com.google.common.base.CaseFormat;
+import com.google.common.collect.Iterables;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.airsonic.player.spring.RoutingDataSource;
 import org.airsonic.player.util.LambdaUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang3.tuple.Pair;
@@ -39,18 +43,22 @@ import java.lang.reflect.Field;
 import java.nio.file.Path;
 import java.sql.Timestamp;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 /**
  * Abstract superclass for all DAO's.
@@ -60,12 +68,28 @@ import java.util.stream.Stream;
 public class AbstractDao {
     private static final Logger LOG = LoggerFactory.getLogger(AbstractDao.class);
 
+    /**
+     * Maximum number of values bound to a single {@code in (...)} clause by {@link #namedQueryInChunks}.
+     */
+    protected static final int IN_CLAUSE_CHUNK_SIZE = 1000;
+
+    private static final StackWalker STACK_WALKER = StackWalker.getInstance();
+
+    /** Method names the compiler and the AspectJ weaver give to code moved out of a method. */
+    private static final Pattern GENERATED_METHOD = Pattern.compile("lambda\\$(\\w+)\\$\\d+|(\\w+)_aroundBody\\d+");
+
     @Autowired
     JdbcTemplate jdbcTemplate;
 
     @Autowired
     NamedParameterJdbcTemplate namedParameterJdbcTemplate;
 
+    @Autowired(required = false)
+    MeterRegistry meterRegistry;
+
+    /** Timers by SQL string, so that the calling method is only looked up once per statement. */
+    private final Map<String, Timer> queryTimers = new ConcurrentHashMap<>();
+
     public JdbcTemplate getJdbcTemplate() {
         return jdbcTemplate;
     }
@@ -79,25 +103,53 @@ public class AbstractDao {
         return StringUtils.repeat("?", ", ", numberOfColumns);
     }
 
+    protected static String assignments(String columns) {
+        return Arrays.stream(columns.split(", ")).map(c -> c + "=?").collect(Collectors.joining(", "));
+    }
+
     protected static String prefix(String columns, String prefix) {
         List<String> l = Arrays.asList(columns.split(", "));
         l.replaceAll(s -> prefix + "." + s);
         return String.join(", ", l);
     }
 
+    /**
+     * Converts the arguments which the JDBC drivers don't take as they are. Returns the given arguments unless one of
+     * them has to be converted, so that most calls don't allocate anything.
+     */
     protected static Object[] convertToDBTypes(Object[] args) {
-        return args == null ? null : Stream.of(args)
-                .map(AbstractDao::convertToDBType)
-                .collect(Collectors.toList())
-                .toArray();
+        if (args == null) {
+            return null;
+        }
+        Object[] result = args;
+        for (int i = 0; i < args.length; i++) {
+            Object converted = convertToDBType(args[i]);
+            if (converted != args[i]) {
+                if (result == args) {
+                    result = args.clone();
+                }
+                result[i] = converted;
+            }
+        }
+        return result;
     }
 
     protected static Map<String, Object> convertToDBTypes(Map<String, Object> args) {
-        return args == null ? null : args.entrySet()
-                .stream()
-                .map(x -> Pair.of(x.getKey(), convertToDBType(x.getValue())))
-                //can't use Collectors.toMap or Collectors.toConcurrentMap due to possible null value mappings
-                .collect(HashMap::new, (m, v) -> m.put(v.getKey(), v.getValue()), HashMap::putAll);
+        if (args == null) {
+            return null;
+        }
+        Map<String, Object> result = args;
+        for (Map.Entry<String, Object> arg : args.entrySet()) {
+            Object converted = convertToDBType(arg.getValue());
+            if (converted != arg.getValue()) {
+                if (result == args) {
+                    // HashMap, as there may be null values
+                    result = new HashMap<>(args);
+                }
+                result.put(arg.getKey(), converted);
+            }
+        }
+        return result;
     }
 
     protected static Object convertToDBType(Object x) {
@@ -139,14 +191,11 @@ public class AbstractDao {
         // used to get around postgres's wire limit when sending a large number of params
         int batchSize = 30000 / batchArgs.stream().findAny().map(x -> x.length).orElse(1);
         LOG.trace("Executing query: [{}]", sql);
-        int[][] result = getJdbcTemplate().batchUpdate(sql,
-            batchArgs.parallelStream().map(AbstractDao::convertToDBTypes).collect(Collectors.toList()),
-            batchSize,
-            (ps, args) -> {
-                for (int i = 0; i < args.length; i++) {
-                    ps.setObject(i + 1, args[i]);
-                }
-            });
+        int[][] result = getJdbcTemplate().batchUpdate(sql, batchArgs, batchSize, (ps, args) -> {
+            for (int i = 0; i < args.length; i++) {
+                ps.setObject(i + 1, convertToDBType(args[i]));
+            }
+        });
         int tally = Arrays.stream(result).flatMapToInt(Arrays::stream).sum();
         LOG.trace("Updated {} rows", tally);
         log(sql, t);
@@ -154,7 +203,21 @@ public class AbstractDao {
     }
 
     private void log(String sql, long startTimeNano) {
-        long millis = (System.nanoTime() - startTimeNano) / 1000000L;
+        long nanos = System.nanoTime() - startTimeNano;
+        if (meterRegistry != null) {
+            Timer timer = queryTimers.get(sql);
+            if (timer == null) {
+                // a statement run by several methods is counted under the first one
+                timer = Timer.builder("airsonic.dao.query")
+                        .description("Time taken by the statements of a DAO method")
+                        .tag("dao", getClass().getSimpleName())
+                        .tag("method", callingMethod())
+                        .register(meterRegistry);
+                queryTimers.put(sql, timer);
+            }
+            timer.record(nanos, TimeUnit.NANOSECONDS);
+        }
+        long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
 
         // Log queries that take more than 2 seconds.
         if (millis > TimeUnit.SECONDS.toMillis(2L)) {
@@ -162,30 +225,89 @@ public class AbstractDao {
         }
     }
 
+    /**
+     * Returns the name of the method of the subclass which runs the statement, which identifies the statement without
+     * making a meter of each SQL string.
+     */
+    private static String callingMethod() {
+        String method = STACK_WALKER.walk(frames -> frames
+                .filter(frame -> !frame.getClassName().startsWith(AbstractDao.class.getName()))
+                .findFirst()
+                .map(StackWalker.StackFrame::getMethodName)
+                .orElse("unknown"));
+        Matcher matcher = GENERATED_METHOD.matcher(method);
+        if (matcher.matches()) {
+            return matcher.group(1) != null ? matcher.group(1) : matcher.group(2);
+        }
+        return method;
+    }
+
     protected <T> List<T> query(String sql, RowMapper<T> rowMapper, Object... args) {
         long t = System.nanoTime();
-        List<T> result = getJdbcTemplate().query(sql, rowMapper, convertToDBTypes(args));
+        List<T> result = RoutingDataSource.readOnly(() -> getJdbcTemplate().query(sql, rowMapper, convertToDBTypes(args)));
         log(sql, t);
         return result;
     }
 
     protected <T> List<T> namedQuery(String sql, RowMapper<T> rowMapper, Map<String, Object> args) {
         long t = System.nanoTime();
-        List<T> result = getNamedParameterJdbcTemplate().query(sql, convertToDBTypes(args), rowMapper);
+        List<T> result = RoutingDataSource.readOnly(() -> getNamedParameterJdbcTemplate().query(sql, convertToDBTypes(args), rowMapper));
         log(sql, t);
         return result;
     }
 
+    /**
+     * Runs a named query with an {@code in (:listArg)} clause for any number of values, in chunks which stay within
+     * the parameter limits of all supported databases.
+     */
+    protected <T> List<T> namedQueryInChunks(String sql, RowMapper<T> rowMapper, Map<String, Object> args, String listArg, Collection<?> values) {
+        if (values.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<T> result = new ArrayList<>();
+        Map<String, Object> chunkArgs = new HashMap<>(args);
+        for (List<?> chunk : Iterables.partition(values, IN_CLAUSE_CHUNK_SIZE)) {
+            chunkArgs.put(listArg, chunk);
+            result.addAll(namedQuery(sql, rowMapper, chunkArgs));
+        }
+        return result;
+    }
+
+    /**
+     * Creates a condition selecting the rows which come after a position in a list sorted by the given columns and
+     * then by id, and adds its parameters to the query arguments. With matching indexes, this lets the database seek
+     * straight to the position.
+     *
+     * @param columns    The sort columns, each optionally wrapped in {@code function} (e.g. {@code LOWER}).
+     * @param function   SQL function applied to both columns and values, or null.
+     * @param descending Whether the list is sorted in descending order.
+     * @param values     The sort keys of the last row seen.
+     * @param id         The id of the last row seen.
+     */
+    protected static String keysetCondition(List<String> columns, String function, boolean descending, List<?> values, int id,
+            Map<String, Object> args) {
+        String op = descending ? " < " : " > ";
+        args.put("keysetId", id);
+        String condition = "id" + op + ":keysetId";
+        for (int i = columns.size() - 1; i >= 0; i--) {
+            String column = function == null ? columns.get(i) : function + "(" + columns.get(i) + ")";
+            String value = function == null ? ":keyset" + i : function + "(:keyset" + i + ")";
+            args.put("keyset" + i, values.get(i));
+            condition = "(" + column + op + value + " or (" + column + " = " + value + " and " + condition + "))";
+        }
+        return condition;
+    }
+
     protected <T> List<T> queryForTypes(String sql, Class<T> type, Object... args) {
         long t = System.nanoTime();
-        List<T> result = getJdbcTemplate().queryForList(sql, type, convertToDBTypes(args));
+        List<T> result = RoutingDataSource.readOnly(() -> getJdbcTemplate().queryForList(sql, type, convertToDBTypes(args)));
         log(sql, t);
         return result;
     }
 
     protected <T> List<T> namedQueryForTypes(String sql, Class<T> type, Map<String, Object> args) {
         long t = System.nanoTime();
-        List<T> result = getNamedParameterJdbcTemplate().queryForList(sql, convertToDBTypes(args), type);
+        List<T> result = RoutingDataSource.readOnly(() -> getNamedParameterJdbcTemplate().queryForList(sql, convertToDBTypes(args), type));
         log(sql, t);
         return result;
     }
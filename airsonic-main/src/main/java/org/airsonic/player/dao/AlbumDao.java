@@ -23,6 +23,7 @@ import org.airsonic.player.domain.Album;
 import org.airsonic.player.domain.MediaFile;
 import org.airsonic.player.domain.MusicFolder;
 import org.apache.commons.lang.ObjectUtils;
+import org.apache.commons.lang3.tuple.Pair;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Isolation;
@@ -32,6 +33,8 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.time.Instant;
 import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Provides database services for albums.
@@ -45,6 +48,15 @@ public class AlbumDao extends AbstractDao {
                                           "folder_id, mb_release_id";
 
     private static final String QUERY_COLUMNS = "id, " + INSERT_COLUMNS;
+    private static final String INSERT_SQL = "insert into album (" + INSERT_COLUMNS + ") values (" + questionMarks(INSERT_COLUMNS) + ")";
+    private static final String STARRED_QUERY_COLUMNS = prefix(QUERY_COLUMNS, "album");
+
+    // variants of the alphabetical list, indexed by whether it is sorted by artist (1) and ignores case (2)
+    private static final String[] ALPHABETICAL_ALBUMS_SQL = Stream.of("name", "artist, name", "LOWER(name)", "LOWER(artist), LOWER(name)")
+            .map(orderBy -> "select " + QUERY_COLUMNS + " from album where present and folder_id in (:folders) " +
+                            "order by " + orderBy + ", id limit :count offset :offset")
+            .toArray(String[]::new);
+    private static final String NEWEST_ORDER = "newestAlbums";
 
     private final AlbumMapper rowMapper = new AlbumMapper();
 
@@ -63,6 +75,14 @@ public class AlbumDao extends AbstractDao {
         return queryOne("select " + QUERY_COLUMNS + " from album where artist=? and name=?", rowMapper, artistName, albumName);
     }
 
+    /**
+     * Returns the albums with the given ids, in no particular order. Ids which don't exist are skipped.
+     */
+    public List<Album> getAlbums(Collection<Integer> ids) {
+        return namedQueryInChunks("select " + QUERY_COLUMNS + " from album where id in (:ids)", rowMapper,
+                Collections.emptyMap(), "ids", ids);
+    }
+
     /**
      * Returns the album that the given file (most likely) is part of.
      *
@@ -137,7 +157,7 @@ public class AlbumDao extends AbstractDao {
 
         if (n == 0) {
 
-            update("insert into album (" + INSERT_COLUMNS + ") values (" + questionMarks(INSERT_COLUMNS) + ")", album.getPath(),
+            update(INSERT_SQL, album.getPath(),
                    album.getName(), album.getArtist(), album.getSongCount(), album.getDuration(),
                    album.getYear(), album.getGenre(), album.getPlayCount(), album.getLastPlayed(),
                    album.getComment(), album.getCreated(), album.getLastScanned(), album.isPresent(), album.getFolderId(), album.getMusicBrainzReleaseId());
@@ -165,15 +185,52 @@ public class AlbumDao extends AbstractDao {
         args.put("folders", MusicFolder.toIdList(musicFolders));
         args.put("count", count);
         args.put("offset", offset);
-        String orderBy;
-        if (ignoreCase) {
-            orderBy = byArtist ? "LOWER(artist),  LOWER(name)" : "LOWER(name)";
-        } else {
-            orderBy = byArtist ? "artist, name" : "name";
+        return namedQuery(ALPHABETICAL_ALBUMS_SQL[(byArtist ? 1 : 0) + (ignoreCase ? 2 : 0)], rowMapper, args);
+    }
+
+    /**
+     * Returns albums in alphabetical order, continuing after a cursor.
+     *
+     * @param after        Cursor returned by {@link #getAlphabeticalCursor}, or null to start at the beginning.
+     * @param count        Maximum number of albums to return.
+     * @param byArtist     Whether to sort by artist name
+     * @param ignoreCase   Use case insensitive sorting
+     * @param musicFolders Only return albums from these folders.
+     * @return Albums in alphabetical order.
+     * @throws IllegalArgumentException If the cursor is for a different order.
+     */
+    public List<Album> getAlphabeticalAlbums(KeysetCursor after, final int count, boolean byArtist, boolean ignoreCase, final List<MusicFolder> musicFolders) {
+        if (musicFolders.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Map<String, Object> args = new HashMap<>();
+        args.put("folders", MusicFolder.toIdList(musicFolders));
+        args.put("count", count);
+        List<String> columns = byArtist ? Arrays.asList("artist", "name") : Collections.singletonList("name");
+        String function = ignoreCase ? "LOWER" : null;
+        String seek = "";
+        if (after != null) {
+            after.checkOrder(alphabeticalOrder(byArtist, ignoreCase), columns.size());
+            seek = "and " + keysetCondition(columns, function, false, after.getKeys(), after.getId(), args) + " ";
         }
+        String orderBy = columns.stream().map(c -> function == null ? c : function + "(" + c + ")").collect(Collectors.joining(", "));
 
-        return namedQuery("select " + QUERY_COLUMNS + " from album where present and folder_id in (:folders) " +
-                          "order by " + orderBy + ", id limit :count offset :offset", rowMapper, args);
+        return namedQuery("select " + QUERY_COLUMNS + " from album where present and folder_id in (:folders) " + seek +
+                          "order by " + orderBy + ", id limit :count", rowMapper, args);
+    }
+
+    /**
+     * Returns the cursor which continues an alphabetical list of albums after the given one.
+     */
+    public static KeysetCursor getAlphabeticalCursor(Album album, boolean byArtist, boolean ignoreCase) {
+        String order = alphabeticalOrder(byArtist, ignoreCase);
+        return byArtist
+                ? new KeysetCursor(order, album.getId(), album.getArtist(), album.getName())
+                : new KeysetCursor(order, album.getId(), album.getName());
+    }
+
+    private static String alphabeticalOrder(boolean byArtist, boolean ignoreCase) {
+        return (byArtist ? "albumsByArtist" : "albumsByName") + (ignoreCase ? "IgnoreCase" : "");
     }
 
     /**
@@ -254,6 +311,39 @@ public class AlbumDao extends AbstractDao {
                 "order by created desc, id desc limit :count offset :offset", rowMapper, args);
     }
 
+    /**
+     * Returns the most recently added albums, continuing after a cursor.
+     *
+     * @param after        Cursor returned by {@link #getNewestCursor}, or null to start at the beginning.
+     * @param count        Maximum number of albums to return.
+     * @param musicFolders Only return albums from these folders.
+     * @return The most recently added albums.
+     * @throws IllegalArgumentException If the cursor is for a different order.
+     */
+    public List<Album> getNewestAlbums(KeysetCursor after, final int count, final List<MusicFolder> musicFolders) {
+        if (musicFolders.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Map<String, Object> args = new HashMap<>();
+        args.put("folders", MusicFolder.toIdList(musicFolders));
+        args.put("count", count);
+        String seek = "";
+        if (after != null) {
+            after.checkOrder(NEWEST_ORDER, 1);
+            Instant created = after.getInstantKey(0);
+            seek = "and " + keysetCondition(Collections.singletonList("created"), null, true, Collections.singletonList(created), after.getId(), args) + " ";
+        }
+        return namedQuery("select " + QUERY_COLUMNS + " from album where present and folder_id in (:folders) " + seek +
+                "order by created desc, id desc limit :count", rowMapper, args);
+    }
+
+    /**
+     * Returns the cursor which continues a list of the most recently added albums after the given one.
+     */
+    public static KeysetCursor getNewestCursor(Album album) {
+        return new KeysetCursor(NEWEST_ORDER, album.getId(), album.getCreated().toString());
+    }
+
     /**
      * Returns the most recently starred albums.
      *
@@ -272,7 +362,7 @@ public class AlbumDao extends AbstractDao {
         args.put("count", count);
         args.put("offset", offset);
         args.put("username", username);
-        return namedQuery("select " + prefix(QUERY_COLUMNS, "album") + " from starred_album, album where album.id = starred_album.album_id and " +
+        return namedQuery("select " + STARRED_QUERY_COLUMNS + " from starred_album, album where album.id = starred_album.album_id and " +
                           "album.present and album.folder_id in (:folders) and starred_album.username = :username " +
                           "order by starred_album.created desc, id limit :count offset :offset",
                           rowMapper, args);
@@ -357,6 +447,38 @@ public class AlbumDao extends AbstractDao {
         return queryForInstant("select created from starred_album where album_id=? and username=?", null, albumId, username);
     }
 
+    /**
+     * Returns the dates at which a user starred albums.
+     *
+     * @return The starred dates, keyed by album id.
+     */
+    public Map<Integer, Instant> getAlbumStarredDates(String username) {
+        String sql = "select album_id, created from starred_album where username=?";
+        var rows = query(sql, (rs, rowNum) -> Pair.of(rs.getInt(1), rs.getTimestamp(2).toInstant()), username);
+        return rows.stream().collect(Collectors.toMap(Pair::getKey, Pair::getValue, (a, b) -> a));
+    }
+
+    /**
+     * Returns the dates at which the given albums were starred by a user.
+     *
+     * @return The starred dates, keyed by album id. Albums which aren't starred are absent.
+     */
+    public Map<Integer, Instant> getAlbumStarredDates(Collection<Integer> albumIds, String username) {
+        String sql = "select album_id, created from starred_album where username = :username and album_id in (:ids)";
+        var rows = namedQueryInChunks(sql, (rs, rowNum) -> Pair.of(rs.getInt(1), rs.getTimestamp(2).toInstant()),
+                Collections.singletonMap("username", username), "ids", albumIds);
+        return rows.stream().collect(Collectors.toMap(Pair::getKey, Pair::getValue, (a, b) -> a));
+    }
+
+    /**
+     * Returns the albums with any of the given names by any of the given artists, compared as the database compares
+     * them in {@link #getAlbum(String, String)}.
+     */
+    public List<Album> getAlbumsByName(Collection<String> artistNames, Collection<String> albumNames) {
+        return namedQueryInChunks("select " + QUERY_COLUMNS + " from album where artist in (:artists) and name in (:names)",
+                rowMapper, Collections.singletonMap("artists", artistNames), "names", albumNames);
+    }
+
     private static class AlbumMapper implements RowMapper<Album> {
         @Override
         public Album mapRow(ResultSet rs, int rowNum) throws SQLException {
@@ -21,6 +21,7 @@ package org.airsonic.player.dao;
 
 import org.airsonic.player.domain.Artist;
 import org.airsonic.player.domain.MusicFolder;
+import org.apache.commons.lang3.tuple.Pair;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Isolation;
@@ -30,6 +31,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.time.Instant;
 import java.util.*;
+import java.util.stream.Collectors;
 
 /**
  * Provides database services for artists.
@@ -40,6 +42,8 @@ import java.util.*;
 public class ArtistDao extends AbstractDao {
     private static final String INSERT_COLUMNS = "name, album_count, last_scanned, present, folder_id";
     private static final String QUERY_COLUMNS = "id, " + INSERT_COLUMNS;
+    private static final String INSERT_SQL = "insert into artist (" + INSERT_COLUMNS + ") values (" + questionMarks(INSERT_COLUMNS) + ")";
+    private static final String STARRED_QUERY_COLUMNS = prefix(QUERY_COLUMNS, "artist");
 
     private final ArtistMapper rowMapper = new ArtistMapper();
 
@@ -82,6 +86,14 @@ public class ArtistDao extends AbstractDao {
         return queryOne("select " + QUERY_COLUMNS + " from artist where id=?", rowMapper, id);
     }
 
+    /**
+     * Returns the artists with the given ids, in no particular order. Ids which don't exist are skipped.
+     */
+    public List<Artist> getArtists(Collection<Integer> ids) {
+        return namedQueryInChunks("select " + QUERY_COLUMNS + " from artist where id in (:ids)", rowMapper,
+                Collections.emptyMap(), "ids", ids);
+    }
+
     /**
      * Creates or updates an artist.
      *
@@ -99,7 +111,7 @@ public class ArtistDao extends AbstractDao {
         int n = update(sql, artist.getAlbumCount(), artist.getLastScanned(), artist.isPresent(), artist.getFolderId(), artist.getName());
 
         if (n == 0) {
-            update("insert into artist (" + INSERT_COLUMNS + ") values (" + questionMarks(INSERT_COLUMNS) + ")",
+            update(INSERT_SQL,
                    artist.getName(), artist.getAlbumCount(), artist.getLastScanned(), artist.isPresent(), artist.getFolderId());
         }
 
@@ -148,7 +160,7 @@ public class ArtistDao extends AbstractDao {
         args.put("count", count);
         args.put("offset", offset);
 
-        return namedQuery("select " + prefix(QUERY_COLUMNS, "artist") + " from starred_artist, artist " +
+        return namedQuery("select " + STARRED_QUERY_COLUMNS + " from starred_artist, artist " +
                           "where artist.id = starred_artist.artist_id and " +
                           "artist.present and starred_artist.username = :username and " +
                           "artist.folder_id in (:folders) " +
@@ -185,6 +197,37 @@ public class ArtistDao extends AbstractDao {
         return queryForInstant("select created from starred_artist where artist_id=? and username=?", null, artistId, username);
     }
 
+    /**
+     * Returns the dates at which a user starred artists.
+     *
+     * @return The starred dates, keyed by artist id.
+     */
+    public Map<Integer, Instant> getArtistStarredDates(String username) {
+        String sql = "select artist_id, created from starred_artist where username=?";
+        var rows = query(sql, (rs, rowNum) -> Pair.of(rs.getInt(1), rs.getTimestamp(2).toInstant()), username);
+        return rows.stream().collect(Collectors.toMap(Pair::getKey, Pair::getValue, (a, b) -> a));
+    }
+
+    /**
+     * Returns the dates at which the given artists were starred by a user.
+     *
+     * @return The starred dates, keyed by artist id. Artists which aren't starred are absent.
+     */
+    public Map<Integer, Instant> getArtistStarredDates(Collection<Integer> artistIds, String username) {
+        String sql = "select artist_id, created from starred_artist where username = :username and artist_id in (:ids)";
+        var rows = namedQueryInChunks(sql, (rs, rowNum) -> Pair.of(rs.getInt(1), rs.getTimestamp(2).toInstant()),
+                Collections.singletonMap("username", username), "ids", artistIds);
+        return rows.stream().collect(Collectors.toMap(Pair::getKey, Pair::getValue, (a, b) -> a));
+    }
+
+    /**
+     * Returns the artists with the given names.
+     */
+    public List<Artist> getArtistsByName(Collection<String> artistNames) {
+        return namedQueryInChunks("select " + QUERY_COLUMNS + " from artist where name in (:names)", rowMapper,
+                Collections.emptyMap(), "names", artistNames);
+    }
+
     private static class ArtistMapper implements RowMapper<Artist> {
         @Override
         public Artist mapRow(ResultSet rs, int rowNum) throws SQLException {
@@ -42,6 +42,8 @@ public class AvatarDao extends AbstractDao {
 
     private static final String INSERT_COLUMNS = "name, created_date, mime_type, width, height, path";
     private static final String QUERY_COLUMNS = "id, " + INSERT_COLUMNS;
+    private static final String INSERT_SQL = "insert into custom_avatar(" + INSERT_COLUMNS
+            + ", username) values(" + questionMarks(INSERT_COLUMNS) + ", ?)";
     private final AirsonicHomeConfig homeConfig;
     private final AvatarRowMapper rowMapper;
 
@@ -94,8 +96,7 @@ public class AvatarDao extends AbstractDao {
         update(sql, username);
 
         if (avatar != null) {
-            update("insert into custom_avatar(" + INSERT_COLUMNS
-                   + ", username) values(" + questionMarks(INSERT_COLUMNS) + ", ?)",
+            update(INSERT_SQL,
                    avatar.getName(), avatar.getCreatedDate(), avatar.getMimeType(),
                    avatar.getWidth(), avatar.getHeight(), StringUtils.replace(avatar.getPath().toString(), homeConfig.getAirsonicHome().toString(), "$[AIRSONIC_HOME]"), username);
         }
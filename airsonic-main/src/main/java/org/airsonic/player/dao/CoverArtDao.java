@@ -12,6 +12,9 @@ import javax.annotation.PostConstruct;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 
 @Repository
@@ -45,6 +48,11 @@ public class CoverArtDao extends AbstractDao {
         return queryOne(sql, coverArtRowMapper, id, type);
     }
 
+    public List<CoverArt> get(EntityType type, Collection<Integer> ids) {
+        String sql = "select * from cover_art where entity_type = :type and entity_id in (:ids)";
+        return namedQueryInChunks(sql, coverArtRowMapper, Collections.singletonMap("type", type.name()), "ids", ids);
+    }
+
     public void delete(EntityType type, int id) {
         update("delete from cover_art where entity_id=? and entity_type=?", id, type);
     }
@@ -19,6 +19,16 @@ public class DatabaseDao extends AbstractDao {
         }
     }
 
+    /**
+     * Makes HSQLDB write a compressed snapshot of the database to the given .tar.gz file, without blocking other
+     * connections. The checkpoint before empties the .log file, so that the snapshot is compact and the changes logged
+     * after it are exactly the changes since the snapshot.
+     */
+    public void backupHsqlDb(Path file) {
+        jdbcTemplate.execute("checkpoint");
+        jdbcTemplate.execute("backup database to '" + file.toString().replace("'", "''") + "' not blocking");
+    }
+
     public void importDB(Consumer<Connection> importFunction) {
         try (Connection con = jdbcTemplate.getDataSource().getConnection()) {
             importFunction.accept(con);
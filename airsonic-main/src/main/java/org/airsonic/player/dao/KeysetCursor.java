@@ -0,0 +1,107 @@
+/*
+ This file is part of Airsonic.
+
+ Airsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Airsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Airsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2016 (C) Airsonic Authors
+ */
+package org.airsonic.player.dao;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Position in a sorted list, given by the sort keys and id of the last row seen. Continuing a list from a cursor
+ * seeks to that row using an index, instead of counting off all the rows before it like an offset.
+ * <p>
+ * Cursors are handed to clients in an opaque, URL-safe encoding.
+ */
+public class KeysetCursor {
+
+    private static final String SEPARATOR = "\u0000";
+
+    private final String order;
+    private final int id;
+    private final List<String> keys;
+
+    /**
+     * @param order Identifies the sort order, so that a cursor can't be used for a different list.
+     * @param id    The id of the last row.
+     * @param keys  The sort keys of the last row, in sort order.
+     */
+    public KeysetCursor(String order, int id, String... keys) {
+        this.order = order;
+        this.id = id;
+        this.keys = Arrays.asList(keys);
+    }
+
+    /**
+     * Decodes a cursor created by {@link #encode()}.
+     *
+     * @throws IllegalArgumentException If the cursor is malformed.
+     */
+    public static KeysetCursor decode(String cursor) {
+        try {
+            String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(SEPARATOR, -1);
+            return new KeysetCursor(parts[0], Integer.parseInt(parts[1]), Arrays.copyOfRange(parts, 2, parts.length));
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor, e);
+        }
+    }
+
+    public String encode() {
+        String joined = order + SEPARATOR + id + (keys.isEmpty() ? "" : SEPARATOR + String.join(SEPARATOR, keys));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(joined.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public String getOrder() {
+        return order;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public List<String> getKeys() {
+        return keys;
+    }
+
+    /**
+     * Returns a sort key which is a point in time.
+     *
+     * @throws IllegalArgumentException If the key isn't one.
+     */
+    public Instant getInstantKey(int index) {
+        try {
+            return Instant.parse(keys.get(index));
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid cursor key: " + keys.get(index), e);
+        }
+    }
+
+    /**
+     * Checks that this cursor was created for the given sort order.
+     *
+     * @throws IllegalArgumentException If it wasn't.
+     */
+    public void checkOrder(String expectedOrder, int keyCount) {
+        if (!expectedOrder.equals(order) || keys.size() != keyCount) {
+            throw new IllegalArgumentException("Cursor is not valid for this list");
+        }
+    }
+}
@@ -21,14 +21,15 @@
 package org.airsonic.player.dao;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
 import org.airsonic.player.domain.Genre;
 import org.airsonic.player.domain.MediaFile;
 import org.airsonic.player.domain.MusicFolder;
-import org.airsonic.player.domain.RandomSearchCriteria;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang3.tuple.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Isolation;
@@ -40,7 +41,6 @@ import java.time.Instant;
 import java.util.*;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
 /**
  * Provides database services for media files.
@@ -57,10 +57,36 @@ public class MediaFileDao extends AbstractDao {
 
     private static final String QUERY_COLUMNS = "id, " + INSERT_COLUMNS;
     private static final String GENRE_COLUMNS = "name, song_count, album_count";
+    private static final String UPDATE_COLUMNS = "type, format, title, album, artist, album_artist, disc_number, track_number, year, " +
+                                                "genre, bit_rate, variable_bit_rate, duration, file_size, width, height, parent_path, " +
+                                                "index_path, play_count, last_played, comment, changed, last_scanned, " +
+                                                "children_last_updated, present, version, mb_release_id, mb_recording_id";
+
+    private static final String INSERT_SQL = "insert into media_file (" + INSERT_COLUMNS + ") values (" + questionMarks(INSERT_COLUMNS) + ")";
+    private static final String UPDATE_BY_ID_SQL = "update media_file set " + assignments(UPDATE_COLUMNS) +
+                                                   ", path=?, folder_id=?, start_position=? where id=?";
+    private static final String UPDATE_BY_PATH_SQL = "update media_file set " + assignments(UPDATE_COLUMNS) +
+                                                     " where path=? and folder_id=? and start_position=?";
+    private static final String JOINED_QUERY_COLUMNS = prefix(QUERY_COLUMNS, "media_file");
+
+    // variants of queries with optional conditions, indexed by the conditions they include
+    private static final String[] CHILDREN_SQL = {
+        "select " + QUERY_COLUMNS + " from media_file where parent_path=? and folder_id=?",
+        "select " + QUERY_COLUMNS + " from media_file where parent_path=? and folder_id=? and present",
+        "select " + QUERY_COLUMNS + " from media_file where parent_path=? and folder_id=? and start_position < 0",
+        "select " + QUERY_COLUMNS + " from media_file where parent_path=? and folder_id=? and present and start_position < 0"
+    };
+    private static final String GENRES_BY_SONG_COUNT_SQL = "select " + GENRE_COLUMNS + " from genre order by song_count, name desc";
+    private static final String GENRES_BY_ALBUM_COUNT_SQL = "select " + GENRE_COLUMNS + " from genre order by album_count, name desc";
+    private static final String ALPHABETICAL_ALBUMS_SQL = "select " + QUERY_COLUMNS +
+            " from media_file where type = :type and folder_id in (:folders) and present order by album, id limit :count offset :offset";
+    private static final String ALPHABETICAL_ALBUMS_BY_ARTIST_SQL = "select " + QUERY_COLUMNS +
+            " from media_file where type = :type and folder_id in (:folders) and present order by artist, album, id limit :count offset :offset";
 
     public static final int VERSION = 4;
 
     private final MediaFileMapper rowMapper = new MediaFileMapper();
+    private final CacheKeyMapper cacheKeyRowMapper = new CacheKeyMapper();
     private final MusicFileInfoMapper musicFileInfoRowMapper = new MusicFileInfoMapper();
     private final GenreMapper genreRowMapper = new GenreMapper();
 
@@ -76,6 +102,24 @@ public class MediaFileDao extends AbstractDao {
         return queryOne("select " + QUERY_COLUMNS + " from media_file where id=?", rowMapper, id);
     }
 
+    /**
+     * Returns the media files with the given ids, in no particular order. Ids which don't exist are skipped.
+     */
+    public List<MediaFile> getMediaFiles(Collection<Integer> ids) {
+        return namedQueryInChunks("select " + QUERY_COLUMNS + " from media_file where id in (:ids)", rowMapper,
+                Collections.emptyMap(), "ids", ids);
+    }
+
+    /**
+     * Returns present media files with ids greater than the given id, in id order.
+     *
+     * @param id    The id to start after.
+     * @param count Maximum number of media files to return.
+     */
+    public List<MediaFile> getPresentMediaFilesAfter(int id, int count) {
+        return query("select " + QUERY_COLUMNS + " from media_file where present and id > ? order by id limit ?", rowMapper, id, count);
+    }
+
     public List<MediaFile> getMediaFilesByRelativePath(String path) {
         return query("select " + QUERY_COLUMNS + " from media_file where path=?", rowMapper, path);
     }
@@ -111,12 +155,11 @@ public class MediaFileDao extends AbstractDao {
      * @return The list of children.
      */
     public List<MediaFile> getChildrenOf(String path, int folderId, boolean onlyPresent, boolean noIndexedTracks) {
-        return query("select " + QUERY_COLUMNS + " from media_file where parent_path=? and folder_id=?" +
-                        (onlyPresent ? " and present" : "") + (noIndexedTracks ? " and start_position < 0" : ""), rowMapper, path, folderId);
+        return query(CHILDREN_SQL[(onlyPresent ? 1 : 0) + (noIndexedTracks ? 2 : 0)], rowMapper, path, folderId);
     }
 
     public List<MediaFile> getFilesInPlaylist(int playlistId) {
-        return query("select " + prefix(QUERY_COLUMNS, "media_file") + " from playlist_file, media_file where " +
+        return query("select " + JOINED_QUERY_COLUMNS + " from playlist_file, media_file where " +
                      "media_file.id = playlist_file.media_file_id and " +
                      "playlist_file.playlist_id = ? " +
                      "order by playlist_file.id", rowMapper, playlistId);
@@ -162,116 +205,18 @@ public class MediaFileDao extends AbstractDao {
     public void createOrUpdateMediaFile(MediaFile file, Consumer<MediaFile> preInsertionCallback) {
         LOG.trace("Creating/Updating new media file (id {}, path {}, fid {}, spos {}, dur {}, ip {}, type {})",
                     file.getId(), file.getPath(), file.getFolderId(), file.getStartPosition(), file.getDuration(), file.getIndexPath(), file.getMediaType().name());
-        String sql = null;
+        int n;
         if (file.getId() != null) {
-            sql = "" +
-                    "update media_file set " +
-                    "path=:path," +
-                    "folder_id=:fid," +
-                    "type=:type," +
-                    "start_position=:spos," +
-                    "format=:format," +
-                    "title=:title," +
-                    "album=:album," +
-                    "artist=:artist," +
-                    "album_artist=:albumartist," +
-                    "disc_number=:dn," +
-                    "track_number=:tn," +
-                    "year=:year," +
-                    "genre=:genre," +
-                    "bit_rate=:br," +
-                    "variable_bit_rate=:vbr," +
-                    "duration=:dur," +
-                    "file_size=:fs," +
-                    "width=:w," +
-                    "height=:h," +
-                    "parent_path=:pp," +
-                    "index_path=:ip," +
-                    "play_count=:pc," +
-                    "last_played=:lp," +
-                    "comment=:comment," +
-                    "changed=:changed," +
-                    "last_scanned=:ls," +
-                    "children_last_updated=:clu," +
-                    "present=:pres," +
-                    "version=:ver," +
-                    "mb_release_id=:mbrelid," +
-                    "mb_recording_id=:mbrecid " +
-                    "where id=:id";
+            n = update(UPDATE_BY_ID_SQL, updateArgs(file, file.getPath(), file.getFolderId(), file.getStartPosition(), file.getId()));
         } else {
-            sql = "update media_file set " +
-                    "type=:type," +
-                    "format=:format," +
-                    "title=:title," +
-                    "album=:album," +
-                    "artist=:artist," +
-                    "album_artist=:albumartist," +
-                    "disc_number=:dn," +
-                    "track_number=:tn," +
-                    "year=:year," +
-                    "genre=:genre," +
-                    "bit_rate=:br," +
-                    "variable_bit_rate=:vbr," +
-                    "duration=:dur," +
-                    "file_size=:fs," +
-                    "width=:w," +
-                    "height=:h," +
-                    "parent_path=:pp," +
-                    "index_path=:ip," +
-                    "play_count=:pc," +
-                    "last_played=:lp," +
-                    "comment=:comment," +
-                    "changed=:changed," +
-                    "last_scanned=:ls," +
-                    "children_last_updated=:clu," +
-                    "present=:pres," +
-                    "version=:ver," +
-                    "mb_release_id=:mbrelid," +
-                    "mb_recording_id=:mbrecid " +
-                    "where path=:path and folder_id=:fid and start_position=:spos";
+            n = update(UPDATE_BY_PATH_SQL, updateArgs(file, file.getPath(), file.getFolderId(), file.getStartPosition()));
         }
 
-        Map<String, Object> args = new HashMap<>();
-        args.put("id", file.getId());
-        args.put("path", file.getPath());
-        args.put("fid", file.getFolderId());
-        args.put("type", file.getMediaType().name());
-        args.put("spos", file.getStartPosition());
-        args.put("format", file.getFormat());
-        args.put("title", file.getTitle());
-        args.put("album", file.getAlbumName());
-        args.put("artist", file.getArtist());
-        args.put("albumartist", file.getAlbumArtist());
-        args.put("dn", file.getDiscNumber());
-        args.put("tn", file.getTrackNumber());
-        args.put("year", file.getYear());
-        args.put("genre", file.getGenre());
-        args.put("br", file.getBitRate());
-        args.put("vbr", file.isVariableBitRate());
-        args.put("dur", file.getDuration());
-        args.put("fs", file.getFileSize());
-        args.put("w", file.getWidth());
-        args.put("h", file.getHeight());
-        args.put("pp", file.getParentPath());
-        args.put("ip", file.getIndexPath());
-        args.put("pc", file.getPlayCount());
-        args.put("lp", file.getLastPlayed());
-        args.put("comment", file.getComment());
-        args.put("changed", file.getChanged());
-        args.put("ls", file.getLastScanned());
-        args.put("clu", file.getChildrenLastUpdated());
-        args.put("pres", file.isPresent());
-        args.put("ver", VERSION);
-        args.put("mbrelid", file.getMusicBrainzReleaseId());
-        args.put("mbrecid", file.getMusicBrainzRecordingId());
-
-        int n = namedUpdate(sql, args);
-
         if (n == 0) {
 
             preInsertionCallback.accept(file);
 
-            update("insert into media_file (" + INSERT_COLUMNS + ") values (" + questionMarks(INSERT_COLUMNS) + ")",
+            update(INSERT_SQL,
                    file.getPath(), file.getFolderId(), file.getMediaType().name(), file.getStartPosition(), file.getFormat(), file.getTitle(),
                    file.getAlbumName(), file.getArtist(), file.getAlbumArtist(), file.getDiscNumber(), file.getTrackNumber(), file.getYear(),
                    file.getGenre(), file.getBitRate(), file.isVariableBitRate(), file.getDuration(), file.getFileSize(), file.getWidth(), file.getHeight(),
@@ -290,6 +235,21 @@ public class MediaFileDao extends AbstractDao {
         }
     }
 
+    /**
+     * Returns the parameters of an update of all {@link #UPDATE_COLUMNS}, followed by those of its where clause.
+     */
+    private static Object[] updateArgs(MediaFile file, Object... where) {
+        Object[] values = new Object[] { file.getMediaType().name(), file.getFormat(), file.getTitle(), file.getAlbumName(),
+            file.getArtist(), file.getAlbumArtist(), file.getDiscNumber(), file.getTrackNumber(), file.getYear(), file.getGenre(),
+            file.getBitRate(), file.isVariableBitRate(), file.getDuration(), file.getFileSize(), file.getWidth(), file.getHeight(),
+            file.getParentPath(), file.getIndexPath(), file.getPlayCount(), file.getLastPlayed(), file.getComment(), file.getChanged(),
+            file.getLastScanned(), file.getChildrenLastUpdated(), file.isPresent(), VERSION, file.getMusicBrainzReleaseId(),
+            file.getMusicBrainzRecordingId() };
+        Object[] args = Arrays.copyOf(values, values.length + where.length);
+        System.arraycopy(where, 0, args, values.length, where.length);
+        return args;
+    }
+
     public MediaFile getMusicFileInfo(String path) {
         return queryOne("select play_count, last_played, comment from music_file_info where path=?", musicFileInfoRowMapper, path);
     }
@@ -310,8 +270,7 @@ public class MediaFileDao extends AbstractDao {
     }
 
     public List<Genre> getGenres(boolean sortByAlbum) {
-        String orderBy = sortByAlbum ? "album_count" : "song_count";
-        return query("select " + GENRE_COLUMNS + " from genre order by " + orderBy + ", name desc", genreRowMapper);
+        return query(sortByAlbum ? GENRES_BY_ALBUM_COUNT_SQL : GENRES_BY_SONG_COUNT_SQL, genreRowMapper);
     }
 
     public boolean updateGenres(List<Genre> genres) {
@@ -414,10 +373,7 @@ public class MediaFileDao extends AbstractDao {
         args.put("count", count);
         args.put("offset", offset);
 
-        String orderBy = byArtist ? "artist, album" : "album";
-        return namedQuery("select " + QUERY_COLUMNS
-                + " from media_file where type = :type and folder_id in (:folders) and present"
-                + " order by " + orderBy + ", id limit :count offset :offset", rowMapper, args);
+        return namedQuery(byArtist ? ALPHABETICAL_ALBUMS_BY_ARTIST_SQL : ALPHABETICAL_ALBUMS_SQL, rowMapper, args);
     }
 
     /**
@@ -538,7 +494,7 @@ public class MediaFileDao extends AbstractDao {
         args.put("username", username);
         args.put("count", count);
         args.put("offset", offset);
-        return namedQuery("select " + prefix(QUERY_COLUMNS, "media_file") + " from starred_media_file, media_file where media_file.id = starred_media_file.media_file_id and " +
+        return namedQuery("select " + JOINED_QUERY_COLUMNS + " from starred_media_file, media_file where media_file.id = starred_media_file.media_file_id and " +
                           "media_file.present and media_file.type = :type and media_file.folder_id in (:folders) and starred_media_file.username = :username " +
                           "order by starred_media_file.created desc, starred_media_file.id limit :count offset :offset",
                           rowMapper, args);
@@ -564,7 +520,7 @@ public class MediaFileDao extends AbstractDao {
         args.put("username", username);
         args.put("count", count);
         args.put("offset", offset);
-        return namedQuery("select " + prefix(QUERY_COLUMNS, "media_file") + " from starred_media_file, media_file " +
+        return namedQuery("select " + JOINED_QUERY_COLUMNS + " from starred_media_file, media_file " +
                           "where media_file.id = starred_media_file.media_file_id and " +
                           "media_file.present and media_file.type = :type and starred_media_file.username = :username and " +
                           "media_file.folder_id in (:folders) " +
@@ -592,120 +548,34 @@ public class MediaFileDao extends AbstractDao {
         args.put("username", username);
         args.put("count", count);
         args.put("offset", offset);
-        return namedQuery("select " + prefix(QUERY_COLUMNS, "media_file") + " from starred_media_file, media_file " +
+        return namedQuery("select " + JOINED_QUERY_COLUMNS + " from starred_media_file, media_file " +
                           "where media_file.id = starred_media_file.media_file_id and media_file.present and media_file.type in (:types) and " +
                           "starred_media_file.username = :username and media_file.folder_id in (:folders) " +
                           "order by starred_media_file.created desc, starred_media_file.id limit :count offset :offset",
                           rowMapper, args);
     }
 
-    public List<MediaFile> getRandomSongs(RandomSearchCriteria criteria, final String username) {
-        if (criteria.getMusicFolders().isEmpty()) {
-            return Collections.emptyList();
-        }
-
-        Map<String, Object> args = new HashMap<>();
-        args.put("folders", MusicFolder.toIdList(criteria.getMusicFolders()));
-        args.put("username", username);
-        args.put("fromYear", criteria.getFromYear());
-        args.put("toYear", criteria.getToYear());
-        args.put("genre", criteria.getGenre());
-        args.put("minLastPlayed", criteria.getMinLastPlayedDate());
-        args.put("maxLastPlayed", criteria.getMaxLastPlayedDate());
-        args.put("minAlbumRating", criteria.getMinAlbumRating());
-        args.put("maxAlbumRating", criteria.getMaxAlbumRating());
-        args.put("minPlayCount", criteria.getMinPlayCount());
-        args.put("maxPlayCount", criteria.getMaxPlayCount());
-        args.put("starred", criteria.isShowStarredSongs());
-        args.put("unstarred", criteria.isShowUnstarredSongs());
-        args.put("format", criteria.getFormat());
-
-        boolean joinAlbumRating = (criteria.getMinAlbumRating() != null || criteria.getMaxAlbumRating() != null);
-        boolean joinStarred = (criteria.isShowStarredSongs() ^ criteria.isShowUnstarredSongs());
-
-        String query = "select " + prefix(QUERY_COLUMNS, "media_file") + " from media_file ";
-
-        if (joinStarred) {
-            query += "left outer join starred_media_file on media_file.id = starred_media_file.media_file_id and starred_media_file.username = :username ";
-        }
-
-        if (joinAlbumRating) {
-            query += "left outer join media_file media_album on media_album.type = 'ALBUM' and media_album.album = media_file.album and media_album.artist = media_file.artist ";
-            query += "left outer join user_rating on user_rating.media_file_id = media_album.id and user_rating.username = :username ";
-        }
-
-        query += " where media_file.present and media_file.type = 'MUSIC'";
-        query += " and media_file.index_path is null"; // exclude indexed files
-
-        if (!criteria.getMusicFolders().isEmpty()) {
-            query += " and media_file.folder_id in (:folders)";
-        }
-
-        if (criteria.getGenre() != null) {
-            query += " and media_file.genre = :genre";
-        }
-
-        if (criteria.getFormat() != null) {
-            query += " and media_file.format = :format";
-        }
-
-        if (criteria.getFromYear() != null) {
-            query += " and media_file.year >= :fromYear";
-        }
-
-        if (criteria.getToYear() != null) {
-            query += " and media_file.year <= :toYear";
-        }
-
-        if (criteria.getMinLastPlayedDate() != null) {
-            query += " and media_file.last_played >= :minLastPlayed";
-        }
-
-        if (criteria.getMaxLastPlayedDate() != null) {
-            if (criteria.getMinLastPlayedDate() == null) {
-                query += " and (media_file.last_played is null or media_file.last_played <= :maxLastPlayed)";
-            } else {
-                query += " and media_file.last_played <= :maxLastPlayed";
-            }
-        }
-
-        if (criteria.getMinAlbumRating() != null) {
-            query += " and user_rating.rating >= :minAlbumRating";
-        }
-
-        if (criteria.getMaxAlbumRating() != null) {
-            if (criteria.getMinAlbumRating() == null) {
-                query += " and (user_rating.rating is null or user_rating.rating <= :maxAlbumRating)";
-            } else {
-                query += " and user_rating.rating <= :maxAlbumRating";
-            }
-        }
-
-        if (criteria.getMinPlayCount() != null) {
-            query += " and media_file.play_count >= :minPlayCount";
-        }
-
-        if (criteria.getMaxPlayCount() != null) {
-            if (criteria.getMinPlayCount() == null) {
-                query += " and (media_file.play_count is null or media_file.play_count <= :maxPlayCount)";
-            } else {
-                query += " and media_file.play_count <= :maxPlayCount";
-            }
-        }
-
-        if (criteria.isShowStarredSongs() && !criteria.isShowUnstarredSongs()) {
-            query += " and starred_media_file.id is not null";
-        }
-
-        if (criteria.isShowUnstarredSongs() && !criteria.isShowStarredSongs()) {
-            query += " and starred_media_file.id is null";
-        }
-
-        query += " order by rand()";
-
-        query += " limit " + criteria.getCount();
-
-        return namedQuery(query, rowMapper, args);
+    /**
+     * Passes the attributes which random songs are selected by to the given handler, for every song which can be
+     * selected, in ascending id order. The album id is the id of the album media file with the same album and
+     * artist, or null if there is none.
+     */
+    public void getSongAttributes(SongAttributesHandler handler) {
+        String sql = "select media_file.id, media_file.folder_id, media_file.genre, media_file.format, media_file.year, "
+                + "media_file.play_count, media_file.last_played, media_album.id from media_file "
+                + "left outer join (select min(id) as id, album, artist from media_file where type = 'ALBUM' group by album, artist) media_album "
+                + "on media_album.album = media_file.album and media_album.artist = media_file.artist "
+                + "where media_file.present and media_file.type = 'MUSIC' and media_file.index_path is null " // exclude indexed files
+                + "order by media_file.id";
+        getJdbcTemplate().query(sql, (RowCallbackHandler) rs -> handler.handle(
+                rs.getInt(1),
+                rs.getInt(2),
+                rs.getString(3),
+                rs.getString(4),
+                rs.getInt(5) == 0 ? null : rs.getInt(5),
+                rs.getInt(6),
+                Optional.ofNullable(rs.getTimestamp(7)).map(x -> x.toInstant()).orElse(null),
+                rs.getInt(8) == 0 ? null : rs.getInt(8)));
     }
 
     public int getMediaFileCount(Integer folderId) {
@@ -778,29 +648,93 @@ public class MediaFileDao extends AbstractDao {
         return queryForInstant("select created from starred_media_file where media_file_id=? and username=?", null, id, username);
     }
 
-    public boolean markPresent(Map<Integer, Set<String>> paths, Instant lastScanned) {
-        if (!paths.isEmpty()) {
-            return paths.entrySet().parallelStream().map(e -> {
-                int batches = (e.getValue().size() - 1) / 30000;
-                List<String> pList = new ArrayList<>(e.getValue());
+    /**
+     * Returns the dates at which a user starred media files.
+     *
+     * @return The starred dates, keyed by media file id.
+     */
+    public Map<Integer, Instant> getMediaFileStarredDates(String username) {
+        String sql = "select media_file_id, created from starred_media_file where username=?";
+        var rows = query(sql, (rs, rowNum) -> Pair.of(rs.getInt(1), rs.getTimestamp(2).toInstant()), username);
+        return rows.stream().collect(Collectors.toMap(Pair::getKey, Pair::getValue, (a, b) -> a));
+    }
+
+    /**
+     * Returns the dates at which the given media files were starred by a user.
+     *
+     * @return The starred dates, keyed by media file id. Files which aren't starred are absent.
+     */
+    public Map<Integer, Instant> getMediaFileStarredDates(Collection<Integer> ids, String username) {
+        String sql = "select media_file_id, created from starred_media_file where username = :username and media_file_id in (:ids)";
+        var rows = namedQueryInChunks(sql, (rs, rowNum) -> Pair.of(rs.getInt(1), rs.getTimestamp(2).toInstant()),
+                Collections.singletonMap("username", username), "ids", ids);
+        return rows.stream().collect(Collectors.toMap(Pair::getKey, Pair::getValue, (a, b) -> a));
+    }
+
+    /**
+     * Returns the ids of the (non-indexed) media files with the given paths in a folder.
+     *
+     * @return The ids, keyed by path. Paths which aren't in the database are absent.
+     */
+    public Map<String, Integer> getMediaFileIds(int folderId, Collection<String> paths) {
+        Map<String, Object> args = new HashMap<>();
+        args.put("folderId", folderId);
+        args.put("startPosition", MediaFile.NOT_INDEXED);
+        String sql = "select path, id from media_file where folder_id = :folderId and start_position = :startPosition and path in (:paths)";
+        var rows = namedQueryInChunks(sql, (rs, rowNum) -> Pair.of(rs.getString(1), rs.getInt(2)),
+                args, "paths", paths);
+        return rows.stream().collect(Collectors.toMap(Pair::getKey, Pair::getValue, (a, b) -> a));
+    }
+
+    /**
+     * Returns the stored CRC-32 checksum of the given media file, provided it was computed for the
+     * given modification time and size of the file.
+     *
+     * @return The checksum, or null if none is stored or the file changed since it was computed.
+     */
+    public Long getChecksum(int id, Instant changed, long fileSize) {
+        return queryForLong("select crc32 from media_file_checksum where media_file_id=? and changed=? and file_size=?",
+                null, id, changed, fileSize);
+    }
 
-                return IntStream.rangeClosed(0, batches).parallel().map(b -> {
-                    List<String> batch = pList.subList(b * 30000, Math.min(e.getValue().size(), b * 30000 + 30000));
-                    return namedUpdate(
-                            "update media_file set present=true, last_scanned = :lastScanned where path in (:paths) and folder_id=:folderId",
-                            ImmutableMap.of("lastScanned", lastScanned, "paths", batch, "folderId", e.getKey()));
-                }).sum() == e.getValue().size();
-            }).reduce(true, (a, b) -> a && b);
+    @Transactional(isolation = Isolation.READ_COMMITTED)
+    public void updateChecksum(int id, Instant changed, long fileSize, long crc) {
+        int n = update("update media_file_checksum set changed=?, file_size=?, crc32=? where media_file_id=?",
+                changed, fileSize, crc, id);
+        if (n == 0) {
+            update("insert into media_file_checksum (media_file_id, changed, file_size, crc32) values (?, ?, ?, ?)",
+                    id, changed, fileSize, crc);
         }
+    }
 
-        return true;
+    /**
+     * Stamps the given media files with the time the running scan started, which serves as its generation. Once the
+     * scan is done, {@link #markNonPresent(Instant)} compares the stamps to find the files it didn't reach, so their
+     * paths never have to be sent to the database.
+     */
+    public void markScanned(Collection<Integer> ids, Instant lastScanned) {
+        Map<String, Object> args = new HashMap<>();
+        args.put("lastScanned", lastScanned);
+        for (List<Integer> chunk : Iterables.partition(ids, IN_CLAUSE_CHUNK_SIZE)) {
+            args.put("ids", chunk);
+            namedUpdate("update media_file set last_scanned=:lastScanned where id in (:ids) and present", args);
+        }
     }
 
-    public void markNonPresent(Instant lastScanned) {
+    /**
+     * Marks the files which were not scanned since the given time as non-present.
+     *
+     * @return The files marked as non-present. Only the columns their cache keys are made of are loaded: id, path,
+     *         parent path, folder and start position.
+     */
+    public List<MediaFile> markNonPresent(Instant lastScanned) {
         Instant childrenLastUpdated = Instant.ofEpochMilli(1);  // Used to force a children rescan if file is later resurrected.
 
+        List<MediaFile> nonPresent = query("select id, path, parent_path, folder_id, start_position from media_file where last_scanned < ? and present",
+                cacheKeyRowMapper, lastScanned);
         update("update media_file set present=false, children_last_updated=? where last_scanned < ? and present",
                 childrenLastUpdated, lastScanned);
+        return nonPresent;
     }
 
     public List<Integer> getArtistExpungeCandidates() {
@@ -822,6 +756,15 @@ public class MediaFileDao extends AbstractDao {
         update("delete from media_file where not present");
     }
 
+    /**
+     * Receives the attributes of songs, see {@link #getSongAttributes(SongAttributesHandler)}.
+     */
+    @FunctionalInterface
+    public interface SongAttributesHandler {
+        void handle(int id, int folderId, String genre, String format, Integer year, int playCount, Instant lastPlayed,
+                Integer albumId);
+    }
+
     private static class MediaFileMapper implements RowMapper<MediaFile> {
         @Override
         public MediaFile mapRow(ResultSet rs, int rowNum) throws SQLException {
@@ -862,6 +805,19 @@ public class MediaFileDao extends AbstractDao {
         }
     }
 
+    private static class CacheKeyMapper implements RowMapper<MediaFile> {
+        @Override
+        public MediaFile mapRow(ResultSet rs, int rowNum) throws SQLException {
+            MediaFile file = new MediaFile();
+            file.setId(rs.getInt("id"));
+            file.setPath(rs.getString("path"));
+            file.setParentPath(rs.getString("parent_path"));
+            file.setFolderId(rs.getInt("folder_id"));
+            file.setStartPosition(rs.getDouble("start_position"));
+            return file;
+        }
+    }
+
     private static class MusicFileInfoMapper implements RowMapper<MediaFile> {
         @Override
         public MediaFile mapRow(ResultSet rs, int rowNum) throws SQLException {
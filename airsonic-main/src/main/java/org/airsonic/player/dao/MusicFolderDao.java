@@ -51,6 +51,7 @@ public class MusicFolderDao extends AbstractDao {
     private static final Logger LOG = LoggerFactory.getLogger(MusicFolderDao.class);
     private static final String INSERT_COLUMNS = "path, name, type, enabled, changed";
     private static final String QUERY_COLUMNS = "id, " + INSERT_COLUMNS;
+    private static final String USER_QUERY_COLUMNS = prefix(QUERY_COLUMNS, "music_folder");
     public static final MusicFolderRowMapper MUSICFOLDER_ROW_MAPPER = new MusicFolderRowMapper();
 
     @PostConstruct
@@ -179,7 +180,7 @@ public class MusicFolderDao extends AbstractDao {
     }
 
     public List<MusicFolder> getMusicFoldersForUser(String username) {
-        String sql = "select " + prefix(QUERY_COLUMNS, "music_folder") + " from music_folder, music_folder_user " +
+        String sql = "select " + USER_QUERY_COLUMNS + " from music_folder, music_folder_user " +
                 "where music_folder.id = music_folder_user.music_folder_id and music_folder.id >= 0 and music_folder_user.username = ?";
         return query(sql, MUSICFOLDER_ROW_MAPPER, username);
     }
@@ -33,6 +33,7 @@ import java.sql.SQLException;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.stream.Collectors;
 
 /**
  * Provides player-related database services.
@@ -168,6 +169,18 @@ public class PlayerDao extends AbstractDao {
                 player.getTechnology().name(), player.getClientId(), player.getId());
     }
 
+    /**
+     * Updates when and from where the given players were last seen, in one batch.
+     *
+     * @param players The players to update.
+     */
+    public void updateLastSeen(Collection<Player> players) {
+        String sql = "update player set type = ?, username = ?, ip_address = ?, last_seen = ? where id = ?";
+        batchedUpdate(sql, players.stream()
+                .map(p -> new Object[] {p.getType(), p.getUsername(), p.getIpAddress(), p.getLastSeen(), p.getId()})
+                .collect(Collectors.toList()));
+    }
+
     private void addPlaylist(Player player) {
         PlayQueue playQueue = playlists.get(player.getId());
         if (playQueue == null) {
@@ -46,6 +46,7 @@ public class PlaylistDao extends AbstractDao {
     private static final String INSERT_COLUMNS = "username, is_public, name, comment, file_count, duration, " +
                                                 "created, changed, imported_from";
     private static final String QUERY_COLUMNS = "id, " + INSERT_COLUMNS;
+    private static final String SHARED_QUERY_COLUMNS = prefix(QUERY_COLUMNS, "playlist");
     private final PlaylistMapper rowMapper = new PlaylistMapper();
     private final static Comparator<Playlist> sorter = Comparator.comparing(p -> p.getName());
 
@@ -58,7 +59,7 @@ public class PlaylistDao extends AbstractDao {
 
         List<Playlist> result1 = getWritablePlaylistsForUser(username);
         List<Playlist> result2 = query("select " + QUERY_COLUMNS + " from playlist where is_public", rowMapper);
-        List<Playlist> result3 = query("select " + prefix(QUERY_COLUMNS, "playlist") + " from playlist, playlist_user where " +
+        List<Playlist> result3 = query("select " + SHARED_QUERY_COLUMNS + " from playlist, playlist_user where " +
                                        "playlist.id = playlist_user.playlist_id and " +
                                        "playlist.username != ? and " +
                                        "playlist_user.username = ?", rowMapper, username, username);
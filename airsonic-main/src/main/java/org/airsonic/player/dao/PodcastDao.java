@@ -49,6 +49,8 @@ public class PodcastDao extends AbstractDao {
     private static final String CHANNEL_INSERT_COLUMNS = "url, title, description, image_url, status, error_message, media_file_id";
     private static final String CHANNEL_QUERY_COLUMNS = "id, " + CHANNEL_INSERT_COLUMNS;
     private static final String CHANNEL_RULES_COLUMNS = "id, check_interval, retention_count, download_count";
+    private static final String CHANNEL_RULES_INSERT_SQL = "insert into podcast_channel_rules(" + CHANNEL_RULES_COLUMNS + ") values ("
+            + questionMarks(CHANNEL_RULES_COLUMNS) + ")";
     private static final String EPISODE_INSERT_COLUMNS = "channel_id, episode_guid, url, media_file_id, title, description, publish_date, " +
                                                         "duration, bytes_total, bytes_downloaded, status, error_message";
     private static final String EPISODE_QUERY_COLUMNS = "id, " + EPISODE_INSERT_COLUMNS;
@@ -109,7 +111,7 @@ public class PodcastDao extends AbstractDao {
     }
 
     public int createChannelRule(PodcastChannelRule rule) {
-        return update("insert into podcast_channel_rules(" + CHANNEL_RULES_COLUMNS + ") values (" + questionMarks(CHANNEL_RULES_COLUMNS) + ")", rule.getId(), rule.getCheckInterval(), rule.getRetentionCount(), rule.getDownloadCount());
+        return update(CHANNEL_RULES_INSERT_SQL, rule.getId(), rule.getCheckInterval(), rule.getRetentionCount(), rule.getDownloadCount());
     }
 
     public int updateChannelRule(PodcastChannelRule rule) {
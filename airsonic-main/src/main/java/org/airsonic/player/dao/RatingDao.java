@@ -21,12 +21,20 @@ package org.airsonic.player.dao;
 
 import org.airsonic.player.domain.MediaFile;
 import org.airsonic.player.domain.MusicFolder;
+import org.apache.commons.lang3.tuple.Pair;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Isolation;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.sql.Savepoint;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 /**
  * Provides database services for ratings.
@@ -36,6 +44,9 @@ import java.util.Map;
 @Repository("musicFileInfoDao")
 public class RatingDao extends AbstractDao {
 
+    // 1.0E0 makes the division inexact on all databases
+    private static final String AVERAGE = "rating_sum * 1.0E0 / rating_count";
+
     /**
      * Returns paths for the highest rated albums.
      *
@@ -55,10 +66,9 @@ public class RatingDao extends AbstractDao {
         args.put("count", count);
         args.put("offset", offset);
 
-        String sql = "select user_rating.media_file_id from user_rating, media_file " +
-                     "where user_rating.media_file_id=media_file.id and media_file.present and media_file.type = :type and media_file.folder_id in (:folders) " +
-                     "group by user_rating.media_file_id " +
-                     "order by avg(rating) desc, user_rating.media_file_id limit :count offset :offset";
+        String sql = "select media_file_rating.media_file_id from media_file_rating, media_file " +
+                     "where media_file_rating.media_file_id=media_file.id and media_file.present and media_file.type = :type and media_file.folder_id in (:folders) " +
+                     "order by " + AVERAGE + " desc, media_file_rating.media_file_id limit :count offset :offset";
         return namedQueryForTypes(sql, Integer.class, args);
     }
 
@@ -69,15 +79,79 @@ public class RatingDao extends AbstractDao {
      * @param mediaFile The media file.
      * @param rating    The rating between 1 and 5, or <code>null</code> to remove the rating.
      */
+    @Transactional(isolation = Isolation.READ_COMMITTED)
     public void setRatingForUser(String username, MediaFile mediaFile, Integer rating) {
         if (rating != null && (rating < 1 || rating > 5)) {
             return;
         }
 
-        update("delete from user_rating where username=? and media_file_id=?", username, mediaFile.getId());
-        if (rating != null) {
-            update("insert into user_rating(username, media_file_id, rating) values(?, ?, ?)", username, mediaFile.getId(), rating);
+        Integer oldRating = getRatingForUser(username, mediaFile);
+        if (rating == null) {
+            update("delete from user_rating where username=? and media_file_id=?", username, mediaFile.getId());
+        } else {
+            updateOrInsert("update user_rating set rating=? where username=? and media_file_id=?",
+                    new Object[] {rating, username, mediaFile.getId()},
+                    "insert into user_rating(username, media_file_id, rating) values(?, ?, ?)",
+                    new Object[] {username, mediaFile.getId(), rating});
         }
+
+        // keep the aggregate in step
+        int countDelta = (rating == null ? 0 : 1) - (oldRating == null ? 0 : 1);
+        int sumDelta = (rating == null ? 0 : rating) - (oldRating == null ? 0 : oldRating);
+        if (countDelta == 0 && sumDelta == 0) {
+            return;
+        }
+        updateOrInsert("update media_file_rating set rating_count=rating_count+?, rating_sum=rating_sum+? where media_file_id=?",
+                new Object[] {countDelta, sumDelta, mediaFile.getId()},
+                "insert into media_file_rating(media_file_id, rating_count, rating_sum) values(?, ?, ?)",
+                new Object[] {mediaFile.getId(), countDelta, sumDelta});
+        update("delete from media_file_rating where media_file_id=? and rating_count <= 0", mediaFile.getId());
+    }
+
+    /**
+     * Updates a row, or inserts it if there is none. If another transaction inserted the row in the meantime, the
+     * insert fails and the update is run again. The insert is rolled back to a savepoint, so that its failure doesn't
+     * abort the whole transaction on databases which do so on the first error.
+     */
+    private void updateOrInsert(String updateSql, Object[] updateArgs, String insertSql, Object[] insertArgs) {
+        if (update(updateSql, updateArgs) > 0) {
+            return;
+        }
+        boolean inserted = getJdbcTemplate().execute((ConnectionCallback<Boolean>) connection -> {
+            Savepoint savepoint = connection.setSavepoint();
+            try {
+                update(insertSql, insertArgs);
+                return true;
+            } catch (DuplicateKeyException e) {
+                connection.rollback(savepoint);
+                return false;
+            }
+        });
+        if (!inserted) {
+            update(updateSql, updateArgs);
+        }
+    }
+
+    /**
+     * Deletes all ratings of a user, e.g. before deleting the user.
+     */
+    @Transactional(isolation = Isolation.READ_COMMITTED)
+    public void deleteRatingsForUser(String username) {
+        update("update media_file_rating set rating_count=rating_count-1, " +
+               "rating_sum=rating_sum-(select rating from user_rating where user_rating.media_file_id=media_file_rating.media_file_id and username=?) " +
+               "where media_file_id in (select media_file_id from user_rating where username=?)", username, username);
+        update("delete from media_file_rating where rating_count <= 0");
+        update("delete from user_rating where username=?", username);
+    }
+
+    /**
+     * Recomputes the average ratings of all media files from the user ratings, e.g. after importing a database.
+     */
+    @Transactional
+    public void rebuildAverageRatings() {
+        update("delete from media_file_rating");
+        update("insert into media_file_rating(media_file_id, rating_count, rating_sum) " +
+               "select media_file_id, count(*), sum(rating) from user_rating group by media_file_id");
     }
 
     /**
@@ -87,7 +161,7 @@ public class RatingDao extends AbstractDao {
      * @return The average rating, or <code>null</code> if no ratings are set.
      */
     public Double getAverageRating(MediaFile mediaFile) {
-        return queryForDouble("select avg(rating) from user_rating where media_file_id=?", null, mediaFile.getId());
+        return queryForDouble("select " + AVERAGE + " from media_file_rating where media_file_id=?", null, mediaFile.getId());
     }
 
     /**
@@ -101,6 +175,41 @@ public class RatingDao extends AbstractDao {
         return queryForInt("select rating from user_rating where username=? and media_file_id=?", null, username, mediaFile.getId());
     }
 
+    /**
+     * Returns all ratings of a user.
+     *
+     * @return The ratings, keyed by media file id.
+     */
+    public Map<Integer, Integer> getRatingsForUser(String username) {
+        String sql = "select media_file_id, rating from user_rating where username=?";
+        var rows = query(sql, (rs, rowNum) -> Pair.of(rs.getInt(1), rs.getInt(2)), username);
+        return rows.stream().collect(Collectors.toMap(Pair::getKey, Pair::getValue, (a, b) -> a));
+    }
+
+    /**
+     * Returns the ratings of a user for the given media files.
+     *
+     * @return The ratings, keyed by media file id. Files the user hasn't rated are absent.
+     */
+    public Map<Integer, Integer> getRatingsForUser(String username, Collection<Integer> mediaFileIds) {
+        String sql = "select media_file_id, rating from user_rating where username = :username and media_file_id in (:ids)";
+        var rows = namedQueryInChunks(sql, (rs, rowNum) -> Pair.of(rs.getInt(1), rs.getInt(2)),
+                Collections.singletonMap("username", username), "ids", mediaFileIds);
+        return rows.stream().collect(Collectors.toMap(Pair::getKey, Pair::getValue, (a, b) -> a));
+    }
+
+    /**
+     * Returns the average ratings of the given media files.
+     *
+     * @return The average ratings, keyed by media file id. Files which haven't been rated are absent.
+     */
+    public Map<Integer, Double> getAverageRatings(Collection<Integer> mediaFileIds) {
+        String sql = "select media_file_id, " + AVERAGE + " from media_file_rating where media_file_id in (:ids)";
+        var rows = namedQueryInChunks(sql, (rs, rowNum) -> Pair.of(rs.getInt(1), rs.getDouble(2)),
+                Collections.emptyMap(), "ids", mediaFileIds);
+        return rows.stream().collect(Collectors.toMap(Pair::getKey, Pair::getValue, (a, b) -> a));
+    }
+
     public int getRatedAlbumCount(final String username, final List<MusicFolder> musicFolders) {
         if (musicFolders.isEmpty()) {
             return 0;
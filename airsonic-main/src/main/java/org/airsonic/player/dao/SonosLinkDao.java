@@ -13,6 +13,7 @@ import java.util.List;
 @Transactional
 public class SonosLinkDao extends AbstractDao {
     private static final String COLUMNS = "username, linkcode, householdid, initiator, initiated";
+    private static final String INSERT_SQL = "insert into sonoslink (" + COLUMNS + ") values (" + questionMarks(COLUMNS) + ')';
 
     private SonosLinkRowMapper rowMapper = new SonosLinkRowMapper();
 
@@ -27,8 +28,7 @@ public class SonosLinkDao extends AbstractDao {
     }
 
     public void create(SonosLink sonosLink) {
-        String sql = "insert into sonoslink (" + COLUMNS + ") values (" + questionMarks(COLUMNS) + ')';
-        update(sql, sonosLink.getUsername(), sonosLink.getLinkcode(), sonosLink.getHouseholdId(), sonosLink.getInitiator(), sonosLink.getInitiated());
+        update(INSERT_SQL, sonosLink.getUsername(), sonosLink.getLinkcode(), sonosLink.getHouseholdId(), sonosLink.getInitiator(), sonosLink.getInitiated());
     }
 
     public void removeAll() {
@@ -52,6 +52,11 @@ public class UserDao extends AbstractDao {
     private static final String USER_COLUMNS = "username, email, ldap_authenticated, bytes_streamed, bytes_downloaded, bytes_uploaded, roles";
     private static final String USER_SETTINGS_COLUMNS = "username, settings";
     private static final String USER_CREDENTIALS_COLUMNS = "username, app_username, credential, encoder, app, created, updated, expiration, comment";
+    private static final String USER_INSERT_SQL = "insert into users (" + USER_COLUMNS + ") values (" + questionMarks(USER_COLUMNS) + ")";
+    private static final String USER_SETTINGS_INSERT_SQL = "insert into user_settings (" + USER_SETTINGS_COLUMNS + ") values ("
+            + questionMarks(USER_SETTINGS_COLUMNS) + ")";
+    private static final String USER_CREDENTIALS_INSERT_SQL = "insert into user_credentials (" + USER_CREDENTIALS_COLUMNS + ") values ("
+            + questionMarks(USER_CREDENTIALS_COLUMNS) + ")";
 
     private UserRowMapper userRowMapper = new UserRowMapper();
     private UserSettingsRowMapper userSettingsRowMapper = new UserSettingsRowMapper();
@@ -108,8 +113,7 @@ public class UserDao extends AbstractDao {
     }
 
     public boolean createCredential(UserCredential credential) {
-        String sql = "insert into user_credentials (" + USER_CREDENTIALS_COLUMNS + ") values (" + questionMarks(USER_CREDENTIALS_COLUMNS) + ")";
-        return update(sql,
+        return update(USER_CREDENTIALS_INSERT_SQL,
                 credential.getUsername(),
                 credential.getAppUsername(),
                 credential.getCredential(),
@@ -174,8 +178,7 @@ public class UserDao extends AbstractDao {
      * @param user The user to create.
      */
     public void createUser(User user, UserCredential credential) {
-        String sql = "insert into users (" + USER_COLUMNS + ") values (" + questionMarks(USER_COLUMNS) + ")";
-        update(sql, user.getUsername(), user.getEmail(), user.isLdapAuthenticated(),
+        update(USER_INSERT_SQL, user.getUsername(), user.getEmail(), user.isLdapAuthenticated(),
                 user.getBytesStreamed(), user.getBytesDownloaded(), user.getBytesUploaded(),
                 Util.toJson(user.getRoles()));
         createCredential(credential);
@@ -233,9 +236,7 @@ public class UserDao extends AbstractDao {
     public boolean updateUserSettings(UserSettings settings) {
         update("delete from user_settings where username=?", settings.getUsername());
 
-        String sql = "insert into user_settings (" + USER_SETTINGS_COLUMNS + ") values (" + questionMarks(USER_SETTINGS_COLUMNS) + ")";
-
-        return update(sql, settings.getUsername(), Util.toJson(settings)) == 1;
+        return update(USER_SETTINGS_INSERT_SQL, settings.getUsername(), Util.toJson(settings)) == 1;
     }
 
     private class UserCredentialRowMapper implements RowMapper<UserCredential> {
@@ -45,6 +45,28 @@ public class Player {
     private TranscodeScheme transcodeScheme = TranscodeScheme.OFF;
     private PlayQueue playQueue;
 
+    public Player() {
+    }
+
+    /**
+     * Creates a copy of the given player, which shares its play queue.
+     */
+    public Player(Player player) {
+        id = player.id;
+        name = player.name;
+        technology = player.technology;
+        clientId = player.clientId;
+        type = player.type;
+        username = player.username;
+        ipAddress = player.ipAddress;
+        dynamicIp = player.dynamicIp;
+        autoControlEnabled = player.autoControlEnabled;
+        m3uBomEnabled = player.m3uBomEnabled;
+        lastSeen = player.lastSeen;
+        transcodeScheme = player.transcodeScheme;
+        playQueue = player.playQueue;
+    }
+
     /**
      * Returns the player ID.
      *
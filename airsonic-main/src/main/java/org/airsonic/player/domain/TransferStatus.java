@@ -19,6 +19,7 @@
  */
 package org.airsonic.player.domain;
 
+import io.micrometer.core.instrument.Counter;
 import org.apache.commons.collections4.queue.CircularFifoQueue;
 
 import java.nio.file.Path;
@@ -45,9 +46,18 @@ public class TransferStatus {
     private final SampleHistory history = new SampleHistory();
     private volatile boolean terminated;
     private volatile boolean active = true;
+    private final Counter bytesCounter;
 
     public TransferStatus(Player player) {
+        this(player, null);
+    }
+
+    /**
+     * @param bytesCounter Counts the bytes transferred across transfers.  May be {@code null}.
+     */
+    public TransferStatus(Player player, Counter bytesCounter) {
         this.player = player;
+        this.bytesCounter = bytesCounter;
     }
 
     public UUID getId() {
@@ -70,6 +80,9 @@ public class TransferStatus {
      */
     public void addBytesTransferred(long byteCount) {
         bytesTransferred.addAndGet(byteCount);
+        if (bytesCounter != null) {
+            bytesCounter.increment(byteCount);
+        }
         createSample(false);
     }
 
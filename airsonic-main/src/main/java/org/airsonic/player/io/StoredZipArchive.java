@@ -0,0 +1,459 @@
+/*
+ This file is part of Airsonic.
+
+ Airsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Airsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Airsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2023 (C) Airsonic Authors
+ */
+package org.airsonic.player.io;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.springframework.core.io.AbstractResource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * An uncompressed (STORED) zip archive whose byte layout is fully determined by its entries.
+ * <p>
+ * The archive is generated on the fly while it is read, so no temporary file or feeder thread
+ * is needed, and each file is read exactly once when its CRC-32 is already known. Since the
+ * position of every header and every file is known up front, the stream returned by
+ * {@link #getInputStream()} skips to any offset without reading the preceding data.
+ * <p>
+ * Zip64 records are written only when sizes or offsets don't fit in the classic format.
+ * <p>
+ * The file data is read through a stream rather than sent with {@link FileChannel#transferTo}: the
+ * servlet output stream is not a channel, and downloads pass through the bitrate limiter and the
+ * transfer status, which both need to see the bytes.
+ */
+public class StoredZipArchive extends AbstractResource {
+
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_RECORD_SIZE = 22;
+    private static final int ZIP64_END_RECORD_SIZE = 56;
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+
+    private static final long MAX_32 = 0xFFFFFFFFL;
+    private static final int MAX_16 = 0xFFFF;
+
+    private static final int VERSION = 10;
+    private static final int VERSION_ZIP64 = 45;
+    private static final int FLAG_UTF8 = 0x0800;
+
+    private final List<Entry> entries;
+    private final CrcResolver crcResolver;
+    private final long centralDirectoryOffset;
+    private final long centralDirectorySize;
+    private final boolean zip64;
+    private final long length;
+
+    /**
+     * @param entries     The entries in archive order. Directories must precede their contents.
+     * @param crcResolver Provides the checksum of entries whose CRC-32 is not known yet.
+     */
+    public StoredZipArchive(List<Entry> entries, CrcResolver crcResolver) {
+        this.entries = new ArrayList<>(entries);
+        this.crcResolver = crcResolver;
+
+        long offset = 0;
+        long cdSize = 0;
+        for (Entry e : this.entries) {
+            e.offset = offset;
+            offset += e.getLocalHeaderSize() + e.size;
+            cdSize += e.getCentralHeaderSize();
+        }
+        this.centralDirectoryOffset = offset;
+        this.centralDirectorySize = cdSize;
+        this.zip64 = this.entries.size() >= MAX_16 || offset >= MAX_32 || cdSize >= MAX_32;
+        this.length = offset + cdSize + (zip64 ? ZIP64_END_RECORD_SIZE + ZIP64_LOCATOR_SIZE : 0) + END_RECORD_SIZE;
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    @Override
+    public long contentLength() {
+        return length;
+    }
+
+    /**
+     * @return The latest modification time of all entries, in epoch milliseconds.
+     */
+    @Override
+    public long lastModified() {
+        return entries.stream().map(Entry::getLastModified).filter(Objects::nonNull)
+                .mapToLong(Instant::toEpochMilli).max().orElse(-1L);
+    }
+
+    /**
+     * Returns an entity tag which only changes when the bytes of the archive may change, i.e. when
+     * entries are added, removed, renamed or modified. It is suitable as a strong validator for
+     * resuming downloads.
+     */
+    public String getETag() {
+        StringBuilder sb = new StringBuilder();
+        for (Entry e : entries) {
+            sb.append(e.name).append('\0').append(e.size).append('\0')
+                .append(e.lastModified == null ? -1 : e.lastModified.toEpochMilli()).append('\n');
+        }
+        return DigestUtils.md5Hex(sb.toString());
+    }
+
+    @Override
+    public String getDescription() {
+        return "Stored zip archive with " + entries.size() + " entries";
+    }
+
+    @Override
+    public ArchiveInputStream getInputStream() {
+        return new ArchiveInputStream();
+    }
+
+    /**
+     * Computes the CRC-32 checksum of the first <code>size</code> bytes of the given file.
+     */
+    public static long computeCrc(Path file, long size) throws IOException {
+        CRC32 crc = new CRC32();
+        ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long remaining = size;
+            while (remaining > 0) {
+                buf.clear().limit((int) Math.min(buf.capacity(), remaining));
+                int read = channel.read(buf);
+                if (read < 0) {
+                    throw new IOException("File " + file + " is shorter than expected");
+                }
+                buf.flip();
+                crc.update(buf);
+                remaining -= read;
+            }
+        }
+        return crc.getValue();
+    }
+
+    private long resolveCrc(Entry e) throws IOException {
+        if (e.crc == null) {
+            e.crc = e.isDirectory() ? 0L : crcResolver.getCrc(e);
+        }
+        return e.crc;
+    }
+
+    private byte[] localHeader(Entry e) throws IOException {
+        boolean largeFile = e.isLargeFile();
+        ByteBuffer b = ByteBuffer.allocate(e.getLocalHeaderSize()).order(ByteOrder.LITTLE_ENDIAN);
+        b.putInt(0x04034b50);
+        b.putShort((short) (largeFile ? VERSION_ZIP64 : VERSION));
+        b.putShort((short) FLAG_UTF8);
+        b.putShort((short) 0); // stored
+        b.putInt(e.getDosTime());
+        b.putInt((int) resolveCrc(e));
+        b.putInt((int) (largeFile ? MAX_32 : e.size));
+        b.putInt((int) (largeFile ? MAX_32 : e.size));
+        b.putShort((short) e.nameBytes.length);
+        b.putShort((short) (largeFile ? 20 : 0));
+        b.put(e.nameBytes);
+        if (largeFile) {
+            b.putShort((short) ZIP64_EXTRA_ID);
+            b.putShort((short) 16);
+            b.putLong(e.size);
+            b.putLong(e.size);
+        }
+        return b.array();
+    }
+
+    private byte[] trailer() throws IOException {
+        ByteBuffer b = ByteBuffer.allocate((int) (length - centralDirectoryOffset)).order(ByteOrder.LITTLE_ENDIAN);
+        for (Entry e : entries) {
+            boolean largeFile = e.isLargeFile();
+            boolean largeOffset = e.offset >= MAX_32;
+            b.putInt(0x02014b50);
+            b.putShort((short) (e.needsZip64() ? VERSION_ZIP64 : VERSION));
+            b.putShort((short) (e.needsZip64() ? VERSION_ZIP64 : VERSION));
+            b.putShort((short) FLAG_UTF8);
+            b.putShort((short) 0); // stored
+            b.putInt(e.getDosTime());
+            b.putInt((int) resolveCrc(e));
+            b.putInt((int) (largeFile ? MAX_32 : e.size));
+            b.putInt((int) (largeFile ? MAX_32 : e.size));
+            b.putShort((short) e.nameBytes.length);
+            b.putShort((short) e.getCentralExtraSize());
+            b.putShort((short) 0); // comment
+            b.putShort((short) 0); // disk
+            b.putShort((short) 0); // internal attributes
+            b.putInt(e.isDirectory() ? 0x10 : 0);
+            b.putInt((int) (largeOffset ? MAX_32 : e.offset));
+            b.put(e.nameBytes);
+            if (e.needsZip64()) {
+                b.putShort((short) ZIP64_EXTRA_ID);
+                b.putShort((short) (e.getCentralExtraSize() - 4));
+                if (largeFile) {
+                    b.putLong(e.size);
+                    b.putLong(e.size);
+                }
+                if (largeOffset) {
+                    b.putLong(e.offset);
+                }
+            }
+        }
+        if (zip64) {
+            long zip64EndOffset = centralDirectoryOffset + centralDirectorySize;
+            b.putInt(0x06064b50);
+            b.putLong(ZIP64_END_RECORD_SIZE - 12);
+            b.putShort((short) VERSION_ZIP64);
+            b.putShort((short) VERSION_ZIP64);
+            b.putInt(0);
+            b.putInt(0);
+            b.putLong(entries.size());
+            b.putLong(entries.size());
+            b.putLong(centralDirectorySize);
+            b.putLong(centralDirectoryOffset);
+
+            b.putInt(0x07064b50);
+            b.putInt(0);
+            b.putLong(zip64EndOffset);
+            b.putInt(1);
+        }
+        b.putInt(0x06054b50);
+        b.putShort((short) 0);
+        b.putShort((short) 0);
+        b.putShort((short) Math.min(entries.size(), MAX_16));
+        b.putShort((short) Math.min(entries.size(), MAX_16));
+        b.putInt((int) Math.min(centralDirectorySize, MAX_32));
+        b.putInt((int) Math.min(centralDirectoryOffset, MAX_32));
+        b.putShort((short) 0); // comment
+        return b.array();
+    }
+
+    /**
+     * A file or directory in the archive.
+     */
+    public static class Entry {
+        private final String name;
+        private final byte[] nameBytes;
+        private final Path file;
+        private final long size;
+        private final Instant lastModified;
+        private Long crc;
+        private long offset;
+
+        /**
+         * @param name         Name in the archive. Directory names end with a slash.
+         * @param file         The file to read the data from.
+         * @param size         The size of the file, or 0 for directories.
+         * @param lastModified Modification time stored in the archive.
+         * @param crc          CRC-32 of the file if known, otherwise null.
+         */
+        public Entry(String name, Path file, long size, Instant lastModified, Long crc) {
+            this.name = name;
+            this.nameBytes = name.getBytes(StandardCharsets.UTF_8);
+            this.file = file;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.crc = crc;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Path getFile() {
+            return file;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public Instant getLastModified() {
+            return lastModified;
+        }
+
+        public boolean isDirectory() {
+            return name.endsWith("/");
+        }
+
+        /**
+         * @return The offset of the local header of this entry in the archive.
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        private boolean isLargeFile() {
+            return size >= MAX_32;
+        }
+
+        private boolean needsZip64() {
+            return isLargeFile() || offset >= MAX_32;
+        }
+
+        private int getLocalHeaderSize() {
+            return LOCAL_HEADER_SIZE + nameBytes.length + (isLargeFile() ? 20 : 0);
+        }
+
+        private int getCentralExtraSize() {
+            if (!needsZip64()) {
+                return 0;
+            }
+            return 4 + (isLargeFile() ? 16 : 0) + (offset >= MAX_32 ? 8 : 0);
+        }
+
+        private int getCentralHeaderSize() {
+            return CENTRAL_HEADER_SIZE + nameBytes.length + getCentralExtraSize();
+        }
+
+        private int getDosTime() {
+            LocalDateTime t = LocalDateTime.ofInstant(lastModified == null ? Instant.EPOCH : lastModified, ZoneId.systemDefault());
+            if (t.getYear() < 1980) {
+                return (1 << 21) | (1 << 16);
+            }
+            return (t.getYear() - 1980) << 25 | t.getMonthValue() << 21 | t.getDayOfMonth() << 16
+                    | t.getHour() << 11 | t.getMinute() << 5 | t.getSecond() >> 1;
+        }
+    }
+
+    @FunctionalInterface
+    public interface CrcResolver {
+        long getCrc(Entry entry) throws IOException;
+    }
+
+    /**
+     * Produces the archive bytes, opening only the header, file or trailer at the current position.
+     */
+    public class ArchiveInputStream extends InputStream {
+        private long position;
+        private InputStream part;
+        private long partEnd;
+        private Consumer<Entry> entryListener = e -> {};
+
+        /**
+         * Sets a listener which is notified whenever the stream starts reading the data of an entry.
+         */
+        public void setEntryListener(Consumer<Entry> entryListener) {
+            this.entryListener = entryListener;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (position >= length) {
+                return -1;
+            }
+            if (part == null) {
+                openPart();
+            }
+            int read = part.read(b, off, (int) Math.min(len, partEnd - position));
+            if (read < 0) {
+                throw new IOException("Unexpected end of data at offset " + position + ", was a file modified during the download?");
+            }
+            position += read;
+            if (position == partEnd) {
+                closePart();
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = Math.max(0, Math.min(n, length - position));
+            if (skipped > 0) {
+                closePart();
+                position += skipped;
+            }
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return part == null ? 0 : (int) Math.min(Integer.MAX_VALUE, partEnd - position);
+        }
+
+        @Override
+        public void close() throws IOException {
+            closePart();
+        }
+
+        private void openPart() throws IOException {
+            if (position >= centralDirectoryOffset) {
+                part = new ByteArrayInputStream(trailer());
+                part.skip(position - centralDirectoryOffset);
+                partEnd = length;
+                return;
+            }
+
+            Entry e = entries.get(findEntry(position));
+            long dataOffset = e.offset + e.getLocalHeaderSize();
+            if (position < dataOffset) {
+                part = new ByteArrayInputStream(localHeader(e));
+                part.skip(position - e.offset);
+                partEnd = dataOffset;
+            } else {
+                entryListener.accept(e);
+                FileChannel channel = FileChannel.open(e.file, StandardOpenOption.READ);
+                channel.position(position - dataOffset);
+                part = Channels.newInputStream(channel);
+                partEnd = dataOffset + e.size;
+            }
+        }
+
+        private int findEntry(long pos) {
+            int low = 0;
+            int high = entries.size() - 1;
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (entries.get(mid).offset <= pos) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return low;
+        }
+
+        private void closePart() throws IOException {
+            if (part != null) {
+                part.close();
+                part = null;
+            }
+        }
+    }
+}
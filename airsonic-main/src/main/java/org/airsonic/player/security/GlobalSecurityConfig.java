@@ -302,7 +302,7 @@ public class GlobalSecurityConfig {
             .hasRole("PLAYLIST")
             .antMatchers("/download*")
             .hasRole("DOWNLOAD")
-            .antMatchers("/upload*")
+            .antMatchers("/upload*", "/upload/**")
             .hasRole("UPLOAD")
             .antMatchers("/createShare*")
             .hasRole("SHARE")
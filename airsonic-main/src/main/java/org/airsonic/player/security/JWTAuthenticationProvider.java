@@ -3,6 +3,8 @@ package org.airsonic.player.security;
 import com.auth0.jwt.exceptions.TokenExpiredException;
 import com.auth0.jwt.interfaces.Claim;
 import com.auth0.jwt.interfaces.DecodedJWT;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.MapDifference;
 import com.google.common.collect.Maps;
 import org.airsonic.player.service.JWTSecurityService;
@@ -20,11 +22,13 @@ import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.web.util.UriComponents;
 import org.springframework.web.util.UriComponentsBuilder;
 
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 
 public class JWTAuthenticationProvider implements AuthenticationProvider {
 
@@ -38,6 +42,10 @@ public class JWTAuthenticationProvider implements AuthenticationProvider {
 
     private Map<String, List<VerificationCheck>> additionalChecks = new HashMap<>();
 
+    // streams and cover art are requested many times with the same token, so skip verifying its signature again
+    private final Cache<String, DecodedJWT> verifiedTokens = CacheBuilder.newBuilder()
+            .maximumSize(1000).expireAfterWrite(10, TimeUnit.MINUTES).<String, DecodedJWT>build();
+
     @Override
     public Authentication authenticate(Authentication auth) throws AuthenticationException {
         JWTAuthenticationToken authentication = (JWTAuthenticationToken) auth;
@@ -46,14 +54,21 @@ public class JWTAuthenticationProvider implements AuthenticationProvider {
             return null;
         }
         String rawToken = (String) auth.getCredentials();
-        DecodedJWT token = null;
+        DecodedJWT token = verifiedTokens.getIfPresent(rawToken);
 
-        try {
-            token = JWTSecurityService.verify(jwtKey, rawToken);
-        } catch (TokenExpiredException ex) {
-            throw new CredentialsExpiredException("Credentials have expired", ex);
-        } catch (Exception ex) {
-            throw new BadCredentialsException("Error verifying JWT", ex);
+        if (token != null && token.getExpiresAt() != null && token.getExpiresAt().toInstant().isBefore(Instant.now())) {
+            verifiedTokens.invalidate(rawToken);
+            throw new CredentialsExpiredException("Credentials have expired");
+        }
+        if (token == null) {
+            try {
+                token = JWTSecurityService.verify(jwtKey, rawToken);
+            } catch (TokenExpiredException ex) {
+                throw new CredentialsExpiredException("Credentials have expired", ex);
+            } catch (Exception ex) {
+                throw new BadCredentialsException("Error verifying JWT", ex);
+            }
+            verifiedTokens.put(rawToken, token);
         }
 
         Claim path = token.getClaim(JWTSecurityService.CLAIM_PATH);
@@ -46,7 +46,7 @@ public class MultipleCredsMatchingAuthenticationProvider extends DaoAuthenticati
 
         UserDetail userDetail = (UserDetail) userDetails;
 
-        Optional<UserCredential> matchedCred = userDetail.getCredentials().parallelStream()
+        Optional<UserCredential> matchedCred = userDetail.getCredentials().stream()
                 .filter(c -> getPasswordEncoder().matches(presentedPassword, "{" + c.getEncoder() + encoderSpecialization + "}" + c.getCredential()))
                 .findAny();
 
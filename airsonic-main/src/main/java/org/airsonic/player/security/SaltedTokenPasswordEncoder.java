@@ -1,11 +1,14 @@
 package org.airsonic.player.security;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.security.crypto.password.PasswordEncoder;
 
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
 public class SaltedTokenPasswordEncoder implements PasswordEncoder {
@@ -14,6 +17,10 @@ public class SaltedTokenPasswordEncoder implements PasswordEncoder {
     private final Function<String, SaltToken> saltTokenExtractor;
     private final Function<String, String> encodingFunction;
     private final PasswordDecoder decoder;
+    // clients send a new salt with every request, so only the decoding can be reused. Keyed by the encoded
+    // password, so a changed password is never matched against the old one.
+    private final Cache<String, String> decodedPasswords = CacheBuilder.newBuilder()
+            .maximumSize(1000).expireAfterWrite(10, TimeUnit.MINUTES).<String, String>build();
 
     public SaltedTokenPasswordEncoder(Function<String, SaltToken> saltTokenExtractor,
             Function<String, String> encodingFunction, PasswordDecoder decoder) {
@@ -35,7 +42,7 @@ public class SaltedTokenPasswordEncoder implements PasswordEncoder {
     public boolean matches(CharSequence rawPassword, String encodedPassword) {
         try {
             SaltToken saltToken = saltTokenExtractor.apply(rawPassword.toString());
-            String storedPassword = decoder.decode(encodedPassword);
+            String storedPassword = decodedPasswords.get(encodedPassword, () -> decoder.decode(encodedPassword));
             return StringUtils.equals(saltToken.getToken(), encode(storedPassword + saltToken.getSalt()));
         } catch (Exception e) {
             LOG.warn("Exception while trying to match passwords", e);
@@ -0,0 +1,217 @@
+/*
+ This file is part of Airsonic.
+
+ Airsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Airsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Airsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2016 (C) Airsonic Authors
+ */
+package org.airsonic.player.service;
+
+import org.airsonic.player.dao.AlbumDao;
+import org.airsonic.player.dao.ArtistDao;
+import org.airsonic.player.dao.MediaFileDao;
+import org.airsonic.player.dao.RatingDao;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+
+/**
+ * Keeps the stars and ratings of each user in memory, so that they can be looked up for every row of a list without
+ * querying the database. They are loaded when first needed, and again after the user has starred, unstarred or rated
+ * something, which must be reported with {@link #invalidate(String)}.
+ */
+@Service
+public class AnnotationService {
+
+    @Autowired
+    private MediaFileDao mediaFileDao;
+    @Autowired
+    private AlbumDao albumDao;
+    @Autowired
+    private ArtistDao artistDao;
+    @Autowired
+    private RatingDao ratingDao;
+
+    private static final Annotations NONE = new Annotations(0, new IdMap<>(Map.of(), Instant[]::new),
+            new IdMap<>(Map.of(), Instant[]::new), new IdMap<>(Map.of(), Instant[]::new), new IdMap<>(Map.of(), Integer[]::new));
+
+    private final Map<String, Annotations> annotations = new ConcurrentHashMap<>();
+    // incremented whenever the annotations of a user change
+    private final Map<String, AtomicLong> generations = new ConcurrentHashMap<>();
+
+    /**
+     * Reloads the annotations of a user when they are next needed. Called after the user starred, unstarred or
+     * rated something.
+     */
+    public void invalidate(String username) {
+        if (username != null) {
+            generations.computeIfAbsent(username, k -> new AtomicLong()).incrementAndGet();
+        }
+    }
+
+    /**
+     * Reloads the annotations of all users when they are next needed, e.g. after a database import.
+     */
+    public void invalidateAll() {
+        generations.values().forEach(AtomicLong::incrementAndGet);
+    }
+
+    /**
+     * Forgets the annotations of a deleted user.
+     */
+    public void removeUser(String username) {
+        generations.remove(username);
+        annotations.remove(username);
+    }
+
+    /**
+     * Returns the date at which a user starred a media file, or null if it isn't starred.
+     */
+    public Instant getMediaFileStarredDate(int mediaFileId, String username) {
+        return get(username).mediaFileStarred.get(mediaFileId);
+    }
+
+    /**
+     * Returns the date at which a user starred an album, or null if it isn't starred.
+     */
+    public Instant getAlbumStarredDate(int albumId, String username) {
+        return get(username).albumStarred.get(albumId);
+    }
+
+    /**
+     * Returns the date at which a user starred an artist, or null if it isn't starred.
+     */
+    public Instant getArtistStarredDate(int artistId, String username) {
+        return get(username).artistStarred.get(artistId);
+    }
+
+    /**
+     * Returns the rating of a media file by a user, or null if the user hasn't rated it.
+     */
+    public Integer getRating(int mediaFileId, String username) {
+        return get(username).ratings.get(mediaFileId);
+    }
+
+    /**
+     * Returns the dates at which a user starred the given media files.
+     *
+     * @return The starred dates, keyed by media file id. Files which aren't starred are absent.
+     */
+    public Map<Integer, Instant> getMediaFileStarredDates(Collection<Integer> mediaFileIds, String username) {
+        return get(username).mediaFileStarred.getAll(mediaFileIds);
+    }
+
+    /**
+     * Returns the dates at which a user starred the given albums.
+     *
+     * @return The starred dates, keyed by album id. Albums which aren't starred are absent.
+     */
+    public Map<Integer, Instant> getAlbumStarredDates(Collection<Integer> albumIds, String username) {
+        return get(username).albumStarred.getAll(albumIds);
+    }
+
+    /**
+     * Returns the dates at which a user starred the given artists.
+     *
+     * @return The starred dates, keyed by artist id. Artists which aren't starred are absent.
+     */
+    public Map<Integer, Instant> getArtistStarredDates(Collection<Integer> artistIds, String username) {
+        return get(username).artistStarred.getAll(artistIds);
+    }
+
+    /**
+     * Returns the ratings of the given media files by a user.
+     *
+     * @return The ratings, keyed by media file id. Files the user hasn't rated are absent.
+     */
+    public Map<Integer, Integer> getRatings(Collection<Integer> mediaFileIds, String username) {
+        return get(username).ratings.getAll(mediaFileIds);
+    }
+
+    private Annotations get(String username) {
+        if (username == null) {
+            return NONE;
+        }
+        // read before loading, so that changes made while loading cause another load next time
+        long generation = generations.computeIfAbsent(username, k -> new AtomicLong()).get();
+        Annotations result = annotations.get(username);
+        if (result == null || result.generation != generation) {
+            result = new Annotations(generation,
+                    new IdMap<>(mediaFileDao.getMediaFileStarredDates(username), Instant[]::new),
+                    new IdMap<>(albumDao.getAlbumStarredDates(username), Instant[]::new),
+                    new IdMap<>(artistDao.getArtistStarredDates(username), Instant[]::new),
+                    new IdMap<>(ratingDao.getRatingsForUser(username), Integer[]::new));
+            annotations.put(username, result);
+        }
+        return result;
+    }
+
+    private static class Annotations {
+        private final long generation;
+        private final IdMap<Instant> mediaFileStarred;
+        private final IdMap<Instant> albumStarred;
+        private final IdMap<Instant> artistStarred;
+        private final IdMap<Integer> ratings;
+
+        Annotations(long generation, IdMap<Instant> mediaFileStarred, IdMap<Instant> albumStarred,
+                IdMap<Instant> artistStarred, IdMap<Integer> ratings) {
+            this.generation = generation;
+            this.mediaFileStarred = mediaFileStarred;
+            this.albumStarred = albumStarred;
+            this.artistStarred = artistStarred;
+            this.ratings = ratings;
+        }
+    }
+
+    /**
+     * Immutable map from ids to values, stored as a sorted array of primitive ids and a parallel array of values,
+     * which takes a fraction of the memory of a {@link HashMap}.
+     */
+    static class IdMap<T> {
+        private final int[] ids;
+        private final T[] values;
+
+        IdMap(Map<Integer, T> map, IntFunction<T[]> arrayFactory) {
+            ids = map.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+            values = arrayFactory.apply(ids.length);
+            for (int i = 0; i < ids.length; i++) {
+                values[i] = map.get(ids[i]);
+            }
+        }
+
+        T get(int id) {
+            int i = Arrays.binarySearch(ids, id);
+            return i < 0 ? null : values[i];
+        }
+
+        Map<Integer, T> getAll(Collection<Integer> keys) {
+            Map<Integer, T> result = new HashMap<>();
+            for (Integer id : keys) {
+                T value = get(id);
+                if (value != null) {
+                    result.put(id, value);
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -14,7 +14,11 @@ import org.springframework.cache.annotation.Cacheable;
 import org.springframework.stereotype.Service;
 
 import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @Service
 @CacheConfig(cacheNames = "coverArtCache")
@@ -72,6 +76,16 @@ public class CoverArtService {
         return Optional.ofNullable(coverArtDao.get(type, id)).orElse(CoverArt.NULL_ART);
     }
 
+    /**
+     * Returns the cover art of several entities at once. This doesn't go through the cache.
+     *
+     * @return The cover art, keyed by entity id. Entities without cover art are absent.
+     */
+    public Map<Integer, CoverArt> get(EntityType type, Collection<Integer> ids) {
+        return coverArtDao.get(type, ids).stream()
+                .collect(Collectors.toMap(CoverArt::getEntityId, Function.identity(), (a, b) -> a));
+    }
+
     public Path getFullPath(EntityType type, int id) {
         CoverArt art = get(type, id);
         return getFullPath(art);
@@ -1,5 +1,6 @@
 package org.airsonic.player.service;
 
+import com.google.common.io.ByteStreams;
 import liquibase.Contexts;
 import liquibase.Liquibase;
 import liquibase.command.CommandScope;
@@ -14,10 +15,10 @@ import liquibase.integration.commandline.CommandLineUtils;
 import liquibase.resource.DirectoryResourceAccessor;
 import org.airsonic.player.config.AirsonicHomeConfig;
 import org.airsonic.player.dao.DatabaseDao;
+import org.airsonic.player.dao.RatingDao;
 import org.airsonic.player.util.FileUtil;
 import org.airsonic.player.util.LambdaUtils;
 import org.airsonic.player.util.LambdaUtils.ThrowingBiFunction;
-import org.airsonic.player.util.LegacyHsqlMigrationUtil;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -27,9 +28,15 @@ import org.springframework.stereotype.Service;
 
 import javax.annotation.PostConstruct;
 
+import java.io.IOException;
 import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
 import java.sql.Connection;
@@ -41,10 +48,12 @@ import java.time.format.DateTimeFormatter;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Properties;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -56,17 +65,36 @@ public class DatabaseService {
 
     private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
 
+    private static final String BACKUP_SNAPSHOT = "snapshot.tar.gz";
+    private static final String BACKUP_INFO = "backup.properties";
+    private static final String BACKUP_SCRIPT_MODIFIED = "script.modified";
+    private static final String BACKUP_LOG_SIZE = "log.size";
+    private static final String BACKUP_LOG_MODIFIED = "log.modified";
+    private static final String BACKUP_INCREMENTS = "increments";
+
     @Autowired
     SettingsService settingsService;
     @Autowired
     DatabaseDao databaseDao;
     @Autowired
+    private RatingDao ratingDao;
+    @Autowired
+    private LibraryGenerationService libraryGenerationService;
+    @Autowired
+    private AnnotationService annotationService;
+    @Autowired
+    private RandomSongService randomSongService;
+    @Autowired
+    private PlayerService playerService;
+    @Autowired
     private SimpMessagingTemplate brokerTemplate;
     @Autowired
     private TaskSchedulingService taskService;
     @Autowired
     private AirsonicHomeConfig homeConfig;
 
+    private final Object backupLock = new Object();
+
     @PostConstruct
     public void init() {
         try {
@@ -103,26 +131,116 @@ public class DatabaseService {
         LOG.info("Completed scheduled DB backup");
     };
 
-    public synchronized void backup() {
-        brokerTemplate.convertAndSend("/topic/backupStatus", "started");
-
-        if (backuppable()) {
-            try {
-                String dbPath = StringUtils.substringBetween(settingsService.getDatabaseUrl(), "jdbc:hsqldb:file:", ";");
-                Path backupLocation = LegacyHsqlMigrationUtil.performHsqlDbBackup(dbPath);
-                LOG.info("Backed up DB to location: {}", backupLocation);
-                brokerTemplate.convertAndSend("/topic/backupStatus", "location: " + backupLocation);
-                deleteObsoleteBackups(backupLocation);
-            } catch (Exception e) {
-                throw new RuntimeException("Failed to backup HSQLDB database", e);
+    public void backup() {
+        synchronized (backupLock) {
+            brokerTemplate.convertAndSend("/topic/backupStatus", "started");
+
+            if (backuppable()) {
+                try {
+                    String dbPath = StringUtils.substringBetween(settingsService.getDatabaseUrl(), "jdbc:hsqldb:file:", ";");
+                    Path backupLocation = backupHsqlDb(Paths.get(dbPath));
+                    LOG.info("Backed up DB to location: {}", backupLocation);
+                    brokerTemplate.convertAndSend("/topic/backupStatus", "location: " + backupLocation);
+                    deleteObsoleteBackups(backupLocation);
+                } catch (Exception e) {
+                    throw new RuntimeException("Failed to backup HSQLDB database", e);
+                }
+            } else {
+                LOG.info("DB unable to be backed up via these means");
             }
+            brokerTemplate.convertAndSend("/topic/backupStatus", "ended");
+        }
+    }
+
+    /**
+     * Backs up the HSQLDB database incrementally, into sets of backups. A set starts with a compressed snapshot which
+     * HSQLDB makes online, and each following backup only compresses what was appended to the .log file since the
+     * previous one. A checkpoint rewrites the .script file and empties the log, so a new set is started once the
+     * .script file has changed.
+     * <p>
+     * To restore, extract the snapshot of a set, gunzip its logs up to the wanted one in order and concatenate them to
+     * {@code <db>.log}, and set {@code modified=yes} in {@code <db>.properties} so that HSQLDB replays the log when
+     * opening the database.
+     *
+     * @return The backup set.
+     */
+    private Path backupHsqlDb(Path dbPath) throws Exception {
+        Path script = Paths.get(dbPath + ".script");
+        Path log = Paths.get(dbPath + ".log");
+        Path backups = dbPath.getParent().resolveSibling("backups");
+        String setPrefix = dbPath.getParent().getFileName() + ".backup.";
+
+        Path set = getLatestBackupSet(backups, setPrefix);
+        Properties info = set == null ? null : loadBackupInfo(set);
+        long logSize = size(log);
+        if (info != null && info.getProperty(BACKUP_SCRIPT_MODIFIED).equals(Long.toString(lastModified(script)))
+                && Long.parseLong(info.getProperty(BACKUP_LOG_SIZE)) <= logSize) {
+            long backedUpSize = Long.parseLong(info.getProperty(BACKUP_LOG_SIZE));
+            if (backedUpSize == logSize
+                    && info.getProperty(BACKUP_LOG_MODIFIED).equals(Long.toString(lastModified(log)))) {
+                LOG.debug("No changes since the last backup in {}", set);
+                return set;
+            }
+            int increment = Integer.parseInt(info.getProperty(BACKUP_INCREMENTS)) + 1;
+            info.setProperty(BACKUP_LOG_SIZE, Long.toString(logSize));
+            info.setProperty(BACKUP_LOG_MODIFIED, Long.toString(lastModified(log)));
+            // HSQLDB only appends to the log until the next checkpoint
+            try (FileChannel channel = FileChannel.open(log);
+                    OutputStream out = new GZIPOutputStream(Files.newOutputStream(set.resolve(String.format("log.%d.gz", increment))))) {
+                ByteStreams.copy(ByteStreams.limit(Channels.newInputStream(channel.position(backedUpSize)), logSize - backedUpSize), out);
+            }
+            info.setProperty(BACKUP_INCREMENTS, Integer.toString(increment));
         } else {
-            LOG.info("DB unable to be backed up via these means");
+            set = backups.resolve(setPrefix + LocalDateTime.now().format(DATE_TIME_FORMATTER));
+            if (Files.exists(set)) {
+                FileUtil.delete(set);
+            }
+            Files.createDirectories(set);
+            databaseDao.backupHsqlDb(set.resolve(BACKUP_SNAPSHOT));
+            info = new Properties();
+            info.setProperty(BACKUP_SCRIPT_MODIFIED, Long.toString(lastModified(script)));
+            // the checkpoint of the snapshot emptied the log, so the increments start from its size now
+            info.setProperty(BACKUP_LOG_SIZE, Long.toString(size(log)));
+            info.setProperty(BACKUP_LOG_MODIFIED, Long.toString(lastModified(log)));
+            info.setProperty(BACKUP_INCREMENTS, "0");
+        }
+        try (Writer writer = Files.newBufferedWriter(set.resolve(BACKUP_INFO))) {
+            info.store(writer, null);
         }
-        brokerTemplate.convertAndSend("/topic/backupStatus", "ended");
+        return set;
     }
 
-    private synchronized void deleteObsoleteBackups(Path backupLocation) {
+    private static Path getLatestBackupSet(Path backups, String setPrefix) throws IOException {
+        if (!Files.isDirectory(backups)) {
+            return null;
+        }
+        try (Stream<Path> sets = Files.list(backups)) {
+            return sets.filter(p -> p.getFileName().toString().startsWith(setPrefix) && Files.exists(p.resolve(BACKUP_INFO)))
+                    .max(Comparator.comparing(p -> p.getFileName().toString()))
+                    .orElse(null);
+        }
+    }
+
+    private static Properties loadBackupInfo(Path set) {
+        try (Reader reader = Files.newBufferedReader(set.resolve(BACKUP_INFO))) {
+            Properties info = new Properties();
+            info.load(reader);
+            return info;
+        } catch (IOException e) {
+            LOG.warn("Could not read {}, starting a new backup set", set.resolve(BACKUP_INFO), e);
+            return null;
+        }
+    }
+
+    private static long lastModified(Path file) throws IOException {
+        return Files.exists(file) ? Files.getLastModifiedTime(file).toMillis() : 0;
+    }
+
+    private static long size(Path file) throws IOException {
+        return Files.exists(file) ? Files.size(file) : 0;
+    }
+
+    private void deleteObsoleteBackups(Path backupLocation) {
         AtomicInteger backupCount = new AtomicInteger(settingsService.getDbBackupRetentionCount());
         if (backupCount.get() == -1) {
             return;
@@ -197,17 +315,26 @@ public class DatabaseService {
     }
 
     public synchronized void importDB(Path p) {
-        brokerTemplate.convertAndSend("/topic/importStatus", "started");
-        if (Files.notExists(p) || !Files.isDirectory(p) || p.toFile().list().length == 0) {
-            brokerTemplate.convertAndSend("/topic/importStatus", "Nothing imported");
-        } else {
-            backup();
-            brokerTemplate.convertAndSend("/topic/importStatus", "Importing XML");
-            databaseDao.importDB(importFunction.apply(p));
-            brokerTemplate.convertAndSend("/topic/importStatus", "Import complete. Cleaning up...");
-            cleanup(p);
+        // a scheduled backup must not run while the database is replaced
+        synchronized (backupLock) {
+            brokerTemplate.convertAndSend("/topic/importStatus", "started");
+            if (Files.notExists(p) || !Files.isDirectory(p) || p.toFile().list().length == 0) {
+                brokerTemplate.convertAndSend("/topic/importStatus", "Nothing imported");
+            } else {
+                backup();
+                brokerTemplate.convertAndSend("/topic/importStatus", "Importing XML");
+                databaseDao.importDB(importFunction.apply(p));
+                // not part of exports, as it is derived from the user ratings
+                ratingDao.rebuildAverageRatings();
+                annotationService.invalidateAll();
+                libraryGenerationService.increment();
+                randomSongService.invalidate();
+                playerService.reloadPlayers();
+                brokerTemplate.convertAndSend("/topic/importStatus", "Import complete. Cleaning up...");
+                cleanup(p);
+            }
+            brokerTemplate.convertAndSend("/topic/importStatus", "ended");
         }
-        brokerTemplate.convertAndSend("/topic/importStatus", "ended");
     }
 
     private void runLiquibaseUpdate(Connection connection, Path p) throws Exception {
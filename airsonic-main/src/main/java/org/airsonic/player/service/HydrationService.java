@@ -0,0 +1,295 @@
+/*
+ This file is part of Airsonic.
+
+ Airsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Airsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Airsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2016 (C) Airsonic Authors
+ */
+package org.airsonic.player.service;
+
+import org.airsonic.player.dao.AlbumDao;
+import org.airsonic.player.dao.ArtistDao;
+import org.airsonic.player.dao.MediaFileDao;
+import org.airsonic.player.dao.RatingDao;
+import org.airsonic.player.domain.Album;
+import org.airsonic.player.domain.Artist;
+import org.airsonic.player.domain.CoverArt;
+import org.airsonic.player.domain.CoverArt.EntityType;
+import org.airsonic.player.domain.MediaFile;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Looks up the data shown alongside lists of media files, albums and artists in API responses (starred dates,
+ * ratings, parents, album and artist ids, cover art) for the whole list at once, instead of one row at a time.
+ */
+@Service
+public class HydrationService {
+
+    @Autowired
+    private MediaFileDao mediaFileDao;
+    @Autowired
+    private RatingDao ratingDao;
+    @Autowired
+    private AlbumDao albumDao;
+    @Autowired
+    private ArtistDao artistDao;
+    @Autowired
+    private CoverArtService coverArtService;
+    @Autowired
+    private MediaFileService mediaFileService;
+    @Autowired
+    private AnnotationService annotationService;
+
+    /**
+     * Looks up the data of the given media files as seen by the given user.
+     */
+    public Hydration hydrateMediaFiles(Collection<MediaFile> mediaFiles, String username) {
+        Hydration result = new Hydration();
+        if (mediaFiles.isEmpty()) {
+            return result;
+        }
+        Set<Integer> ids = mediaFiles.stream().map(MediaFile::getId).collect(Collectors.toSet());
+        result.mediaFileStarred = annotationService.getMediaFileStarredDates(ids, username);
+        result.userRatings = annotationService.getRatings(ids, username);
+        result.averageRatings = ratingDao.getAverageRatings(ids);
+
+        // parents, by folder
+        Map<Integer, Set<String>> parentPaths = new HashMap<>();
+        for (MediaFile mediaFile : mediaFiles) {
+            if (mediaFile.getParentPath() != null) {
+                parentPaths.computeIfAbsent(mediaFile.getFolderId(), k -> new HashSet<>()).add(mediaFile.getParentPath());
+            }
+        }
+        Map<Integer, Map<String, Integer>> parentIds = new HashMap<>();
+        parentPaths.forEach((folderId, paths) -> parentIds.put(folderId, mediaFileDao.getMediaFileIds(folderId, paths)));
+        for (MediaFile mediaFile : mediaFiles) {
+            if (mediaFile.getParentPath() == null) {
+                continue;
+            }
+            Integer parentId = parentIds.get(mediaFile.getFolderId()).get(mediaFile.getParentPath());
+            if (parentId == null) {
+                // not in the database yet
+                MediaFile parent = mediaFileService.getParentOf(mediaFile);
+                parentId = parent == null ? null : parent.getId();
+            }
+            if (parentId != null) {
+                result.parentIds.put(mediaFile.getId(), parentId);
+                if (mediaFile.getParentPath().isEmpty()) {
+                    result.rootIds.add(parentId);
+                }
+            }
+        }
+
+        // cover art is looked up for directories, so files use that of their parent
+        Set<Integer> dirIds = mediaFiles.stream()
+                .map(m -> m.isDirectory() ? m.getId() : result.parentIds.get(m.getId()))
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        result.mediaFilesWithArt = withArt(EntityType.MEDIA_FILE, dirIds);
+
+        // album and artist ids of songs
+        List<MediaFile> files = mediaFiles.stream()
+                .filter(MediaFile::isFile)
+                .collect(Collectors.toList());
+        List<MediaFile> filesInAlbums = files.stream()
+                .filter(m -> m.getAlbumArtist() != null && m.getAlbumName() != null)
+                .collect(Collectors.toList());
+        if (!filesInAlbums.isEmpty()) {
+            Set<String> artistNames = filesInAlbums.stream().map(MediaFile::getAlbumArtist).collect(Collectors.toSet());
+            Set<String> albumNames = filesInAlbums.stream().map(MediaFile::getAlbumName).collect(Collectors.toSet());
+            Map<String, Integer> albumIds = new HashMap<>();
+            Map<String, Integer> foldedAlbumIds = new HashMap<>();
+            for (Album album : albumDao.getAlbumsByName(artistNames, albumNames)) {
+                String key = albumKey(album.getArtist(), album.getName());
+                if (artistNames.contains(album.getArtist()) && albumNames.contains(album.getName())) {
+                    albumIds.putIfAbsent(key, album.getId());
+                } else {
+                    foldedAlbumIds.putIfAbsent(fold(key), album.getId());
+                }
+            }
+            for (MediaFile file : filesInAlbums) {
+                String key = albumKey(file.getAlbumArtist(), file.getAlbumName());
+                Integer albumId = albumIds.getOrDefault(key, foldedAlbumIds.get(fold(key)));
+                if (albumId != null) {
+                    result.albumIds.put(file.getId(), albumId);
+                }
+            }
+        }
+        result.artistIds = getArtistIds(files.stream().map(MediaFile::getArtist));
+        return result;
+    }
+
+    /**
+     * Looks up the data of the given albums as seen by the given user.
+     */
+    public Hydration hydrateAlbums(Collection<Album> albums, String username) {
+        Hydration result = new Hydration();
+        if (albums.isEmpty()) {
+            return result;
+        }
+        Set<Integer> ids = albums.stream().map(Album::getId).collect(Collectors.toSet());
+        result.albumStarred = annotationService.getAlbumStarredDates(ids, username);
+        result.albumsWithArt = withArt(EntityType.ALBUM, ids);
+        result.artistIds = getArtistIds(albums.stream().map(Album::getArtist));
+        return result;
+    }
+
+    /**
+     * Looks up the data of the given artists as seen by the given user.
+     */
+    public Hydration hydrateArtists(Collection<Artist> artists, String username) {
+        Hydration result = new Hydration();
+        if (artists.isEmpty()) {
+            return result;
+        }
+        Set<Integer> ids = artists.stream().map(Artist::getId).collect(Collectors.toSet());
+        result.artistStarred = annotationService.getArtistStarredDates(ids, username);
+        result.artistsWithArt = withArt(EntityType.ARTIST, ids);
+        return result;
+    }
+
+    private Set<Integer> withArt(EntityType type, Set<Integer> ids) {
+        if (ids.isEmpty()) {
+            return Collections.emptySet();
+        }
+        return coverArtService.get(type, ids).entrySet().stream()
+                .filter(e -> !CoverArt.NULL_ART.equals(e.getValue()))
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toSet());
+    }
+
+    private Map<String, Integer> getArtistIds(Stream<String> names) {
+        Set<String> artistNames = names.filter(Objects::nonNull).collect(Collectors.toSet());
+        if (artistNames.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<String, Integer> artistIds = new HashMap<>();
+        Map<String, Integer> foldedArtistIds = new HashMap<>();
+        for (Artist artist : artistDao.getArtistsByName(artistNames)) {
+            if (artistNames.contains(artist.getName())) {
+                artistIds.putIfAbsent(artist.getName(), artist.getId());
+            } else {
+                foldedArtistIds.putIfAbsent(fold(artist.getName()), artist.getId());
+            }
+        }
+        for (String name : artistNames) {
+            Integer artistId = foldedArtistIds.get(fold(name));
+            if (artistId != null) {
+                artistIds.putIfAbsent(name, artistId);
+            }
+        }
+        return artistIds;
+    }
+
+    private static String albumKey(String artist, String name) {
+        return artist + '\0' + name;
+    }
+
+    /**
+     * Names are matched the way the database matches them in the single row lookups: the rows returned for names
+     * that weren't asked for can only have been found by a database which ignores case (e.g. the default collation
+     * of MySQL), so those are matched regardless of case. A case sensitive database only returns exact matches.
+     */
+    private static String fold(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * The data looked up for a list of media files, albums or artists. Only valid for the entities (and user) it
+     * was created for, typically for the duration of a single request.
+     */
+    public static class Hydration {
+        private Map<Integer, Instant> mediaFileStarred = Collections.emptyMap();
+        private Map<Integer, Integer> userRatings = Collections.emptyMap();
+        private Map<Integer, Double> averageRatings = Collections.emptyMap();
+        private final Map<Integer, Integer> parentIds = new HashMap<>();
+        private final Set<Integer> rootIds = new HashSet<>();
+        private Set<Integer> mediaFilesWithArt = Collections.emptySet();
+        private final Map<Integer, Integer> albumIds = new HashMap<>();
+        private Map<String, Integer> artistIds = Collections.emptyMap();
+        private Map<Integer, Instant> albumStarred = Collections.emptyMap();
+        private Set<Integer> albumsWithArt = Collections.emptySet();
+        private Map<Integer, Instant> artistStarred = Collections.emptyMap();
+        private Set<Integer> artistsWithArt = Collections.emptySet();
+
+        public Instant getStarredDate(MediaFile mediaFile) {
+            return mediaFileStarred.get(mediaFile.getId());
+        }
+
+        public Instant getStarredDate(Album album) {
+            return albumStarred.get(album.getId());
+        }
+
+        public Instant getStarredDate(Artist artist) {
+            return artistStarred.get(artist.getId());
+        }
+
+        public Integer getUserRating(MediaFile mediaFile) {
+            return userRatings.get(mediaFile.getId());
+        }
+
+        public Double getAverageRating(MediaFile mediaFile) {
+            return averageRatings.get(mediaFile.getId());
+        }
+
+        /**
+         * Returns the id of the parent of a media file, or null if it has none or its parent is a music folder.
+         */
+        public Integer getParentId(MediaFile mediaFile) {
+            Integer parentId = parentIds.get(mediaFile.getId());
+            return parentId == null || rootIds.contains(parentId) ? null : parentId;
+        }
+
+        /**
+         * Returns the id of the directory whose cover art is shown for a media file, or null if there is none.
+         */
+        public Integer getCoverArtId(MediaFile mediaFile) {
+            Integer dirId = mediaFile.isDirectory() ? mediaFile.getId() : parentIds.get(mediaFile.getId());
+            return dirId != null && mediaFilesWithArt.contains(dirId) ? dirId : null;
+        }
+
+        /**
+         * Returns the id of the album a song belongs to, or null if it is unknown.
+         */
+        public Integer getAlbumId(MediaFile mediaFile) {
+            return albumIds.get(mediaFile.getId());
+        }
+
+        public Integer getArtistId(String artistName) {
+            return artistName == null ? null : artistIds.get(artistName);
+        }
+
+        public boolean hasCoverArt(Album album) {
+            return albumsWithArt.contains(album.getId());
+        }
+
+        public boolean hasCoverArt(Artist artist) {
+            return artistsWithArt.contains(artist.getId());
+        }
+    }
+}
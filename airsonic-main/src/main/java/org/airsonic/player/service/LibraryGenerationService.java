@@ -0,0 +1,46 @@
+/*
+ This file is part of Airsonic.
+
+ Airsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Airsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Airsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2016 (C) Airsonic Authors
+ */
+package org.airsonic.player.service;
+
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps a counter which is incremented whenever the library, or the way it is presented to users, changes
+ * (scans, stars, ratings, music folders, transcodings). Anything derived from the library can be cached for as
+ * long as the generation stays the same.
+ */
+@Service
+public class LibraryGenerationService {
+
+    // starts at the startup time, so that generations from before a restart are never reused
+    private final AtomicLong generation = new AtomicLong(System.currentTimeMillis());
+
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Invalidates everything derived from the current generation.
+     */
+    public void increment() {
+        generation.incrementAndGet();
+    }
+}
@@ -23,6 +23,8 @@ package org.airsonic.player.service;
 import com.ibm.icu.text.CharsetDetector;
 import com.ibm.icu.text.CharsetMatch;
 import org.airsonic.player.ajax.MediaFileEntry;
+import org.airsonic.player.config.AirsonicMediaFileCacheConfig;
+import org.airsonic.player.config.AirsonicMediaFileVerifierConfig;
 import org.airsonic.player.dao.AlbumDao;
 import org.airsonic.player.dao.MediaFileDao;
 import org.airsonic.player.domain.*;
@@ -30,6 +32,7 @@ import org.airsonic.player.domain.CoverArt.EntityType;
 import org.airsonic.player.domain.MediaFile.MediaType;
 import org.airsonic.player.domain.MusicFolder.Type;
 import org.airsonic.player.i18n.LocaleResolver;
+import org.airsonic.player.io.StoredZipArchive;
 import org.airsonic.player.service.metadata.JaudiotaggerParser;
 import org.airsonic.player.service.metadata.MetaData;
 import org.airsonic.player.service.metadata.MetaDataParser;
@@ -46,6 +49,8 @@ import org.digitalmediaserver.cuelib.io.FLACReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.cache.annotation.Caching;
@@ -93,14 +98,24 @@ public class MediaFileService {
     private CoverArtService coverArtService;
     @Autowired
     private LocaleResolver localeResolver;
-    private boolean memoryCacheEnabled = true;
+    @Autowired
+    private AnnotationService annotationService;
+    @Autowired
+    private RandomSongService randomSongService;
+    @Autowired
+    private CacheManager cacheManager;
+    @Autowired
+    private AirsonicMediaFileCacheConfig mediaFileCacheConfig;
+    @Autowired
+    private AirsonicMediaFileVerifierConfig verifierConfig;
+    private volatile boolean memoryCacheEnabled = true;
 
     public MediaFile getMediaFile(String pathName) {
         return getMediaFile(Paths.get(pathName));
     }
 
     public MediaFile getMediaFile(Path fullPath) {
-        return getMediaFile(fullPath, settingsService.isFastCacheEnabled());
+        return getMediaFile(fullPath, isMinimizeDiskAccess());
     }
 
     // This may be an expensive op
@@ -128,7 +143,7 @@ public class MediaFileService {
     }
 
     public MediaFile getMediaFile(Path relativePath, MusicFolder folder) {
-        return getMediaFile(relativePath, folder, settingsService.isFastCacheEnabled());
+        return getMediaFile(relativePath, folder, isMinimizeDiskAccess());
     }
 
     public MediaFile getMediaFile(String relativePath, Integer folderId, boolean minimizeDiskAccess) {
@@ -139,7 +154,7 @@ public class MediaFileService {
         return getMediaFile(relativePath, folder, MediaFile.NOT_INDEXED, minimizeDiskAccess);
     }
 
-    @Cacheable(cacheNames = "mediaFilePathCache", key = "#relativePath.toString().concat('-').concat(#folder.id).concat('-').concat(#startPosition == null ? '' : #startPosition.toString())", condition = "#root.target.memoryCacheEnabled", unless = "#result == null")
+    @Cacheable(cacheNames = "mediaFilePathCache", key = "#relativePath.toString().concat('-').concat(#folder.id).concat('-').concat(#startPosition == null ? '' : #startPosition.toString())", condition = "#root.target.memoryCacheEnabled", unless = "#result == null || !#result.present")
     public MediaFile getMediaFile(Path relativePath, MusicFolder folder, Double startPosition, boolean minimizeDiskAccess) {
         // Look in database.
         MediaFile result = mediaFileDao.getMediaFile(relativePath.toString(), folder.getId(), startPosition);
@@ -160,11 +175,14 @@ public class MediaFileService {
 
         // Put in database.
         updateMediaFile(result);
+        if (result.getParentPath() != null) {
+            cacheManager.getCache("mediaFileChildrenCache").evict(getChildrenCacheKey(result.getFolderId(), result.getParentPath()));
+        }
 
         return result;
     }
 
-    @Cacheable(cacheNames = "mediaFileIdCache", condition = "#root.target.memoryCacheEnabled", unless = "#result == null")
+    @Cacheable(cacheNames = "mediaFileIdCache", condition = "#root.target.memoryCacheEnabled", unless = "#result == null || !#result.present")
     public MediaFile getMediaFile(Integer id) {
         if (Objects.isNull(id)) return null;
         MediaFile mediaFile = mediaFileDao.getMediaFile(id);
@@ -172,7 +190,39 @@ public class MediaFileService {
             return null;
         }
 
-        return checkLastModified(mediaFile, mediaFolderService.getMusicFolderById(mediaFile.getFolderId()), settingsService.isFastCacheEnabled());
+        return checkLastModified(mediaFile, mediaFolderService.getMusicFolderById(mediaFile.getFolderId()), isMinimizeDiskAccess());
+    }
+
+    /**
+     * Returns the media files with the given ids, in no particular order. Files in the id cache are taken from there,
+     * the others are loaded with one query. Ids which don't exist are skipped.
+     */
+    public List<MediaFile> getMediaFiles(Collection<Integer> ids) {
+        Cache idCache = memoryCacheEnabled ? cacheManager.getCache("mediaFileIdCache") : null;
+        List<MediaFile> result = new ArrayList<>(ids.size());
+        List<Integer> missing = new ArrayList<>();
+        for (Integer id : ids) {
+            MediaFile cached = idCache == null ? null : idCache.get(id, MediaFile.class);
+            if (cached != null) {
+                result.add(cached);
+            } else {
+                missing.add(id);
+            }
+        }
+        if (missing.isEmpty()) {
+            return result;
+        }
+        boolean minimizeDiskAccess = isMinimizeDiskAccess();
+        for (MediaFile mediaFile : mediaFileDao.getMediaFiles(missing)) {
+            if (!minimizeDiskAccess) {
+                mediaFile = checkLastModified(mediaFile, mediaFolderService.getMusicFolderById(mediaFile.getFolderId()), false);
+            }
+            if (idCache != null && mediaFile.isPresent()) {
+                idCache.putIfAbsent(mediaFile.getId(), mediaFile);
+            }
+            result.add(mediaFile);
+        }
+        return result;
     }
 
     public List<MediaFile> getMediaFilesByRelativePath(Path relativePath) {
@@ -180,7 +230,7 @@ public class MediaFileService {
     }
 
     public MediaFile getParentOf(MediaFile mediaFile) {
-        return getParentOf(mediaFile, settingsService.isFastCacheEnabled());
+        return getParentOf(mediaFile, isMinimizeDiskAccess());
     }
 
     public MediaFile getParentOf(MediaFile mediaFile, boolean minimizeDiskAccess) {
@@ -190,16 +240,52 @@ public class MediaFileService {
         return getMediaFile(mediaFile.getParentPath(), mediaFile.getFolderId(), minimizeDiskAccess);
     }
 
+    /**
+     * Returns whether media files are read from the database without checking the disk for changes, outside of scans.
+     * True if the fast cache is enabled, or if the disk is checked by the {@link MediaFileVerifierService} instead.
+     */
+    private boolean isMinimizeDiskAccess() {
+        return settingsService.isFastCacheEnabled() || verifierConfig.isEnabled();
+    }
+
     private boolean needsUpdate(MediaFile mediaFile, MusicFolder folder, boolean minimizeDiskAccess) {
         return !(minimizeDiskAccess
                 || mediaFile.isIndexedTrack() // ignore virtual track
                 || (mediaFile.getVersion() >= MediaFileDao.VERSION
                 && !settingsService.getFullScan()
-                && mediaFile.getChanged().truncatedTo(ChronoUnit.MICROS).compareTo(FileUtil.lastModified(mediaFile.getFullPath(folder.getPath())).truncatedTo(ChronoUnit.MICROS)) > -1
-                && (mediaFile.hasIndex() ? mediaFile.getChanged().truncatedTo(ChronoUnit.MICROS).compareTo(FileUtil.lastModified(mediaFile.getFullIndexPath(folder.getPath())).truncatedTo(ChronoUnit.MICROS)) > -1 : true)
+                && !isModified(mediaFile, folder)
                 ));
     }
 
+    /**
+     * Returns whether the file of a media file, or its cue sheet, was modified on disk after the media file was
+     * updated from it.
+     */
+    private boolean isModified(MediaFile mediaFile, MusicFolder folder) {
+        Instant changed = mediaFile.getChanged().truncatedTo(ChronoUnit.MICROS);
+        return changed.compareTo(FileUtil.lastModified(mediaFile.getFullPath(folder.getPath())).truncatedTo(ChronoUnit.MICROS)) < 0
+                || (mediaFile.hasIndex() && changed.compareTo(FileUtil.lastModified(mediaFile.getFullIndexPath(folder.getPath())).truncatedTo(ChronoUnit.MICROS)) < 0);
+    }
+
+    /**
+     * Checks whether a media file was modified on disk, and if so refreshes it from disk, together with the children of
+     * a directory.
+     *
+     * @return Whether the media file was refreshed.
+     */
+    public boolean verifyMediaFile(MediaFile mediaFile) {
+        MusicFolder folder = mediaFolderService.getMusicFolderById(mediaFile.getFolderId());
+        if (folder == null || mediaFile.isIndexedTrack() || !isModified(mediaFile, folder)) {
+            return false;
+        }
+        LOG.debug("Verifier detected modified file (id {}, path {} in folder {} ({}))", mediaFile.getId(), mediaFile.getPath(), folder.getId(), folder.getName());
+        MediaFile refreshed = checkLastModified(mediaFile, folder, false);
+        if (refreshed != null && refreshed.isPresent() && refreshed.isDirectory()) {
+            getChildrenOf(refreshed, true, true, false, false);
+        }
+        return true;
+    }
+
     private MediaFile checkLastModified(MediaFile mediaFile, MusicFolder folder, boolean minimizeDiskAccess) {
         if (!needsUpdate(mediaFile, folder, minimizeDiskAccess)) {
             LOG.debug("Detected unmodified file (id {}, path {} in folder {} ({}))", mediaFile.getId(), mediaFile.getPath(), folder.getId(), folder.getName());
@@ -210,6 +296,7 @@ public class MediaFileService {
             if (!Files.exists(mediaFile.getFullPath(folder.getPath()))) {
                 // Delete children and base file that no longer exist on disk.
                 mediaFileDao.deleteMediaFile(mediaFile.getPath(),mediaFile.getStartPosition(), mediaFile.getFolderId());
+                evictFromCache(Collections.singletonList(mediaFile));
                 mediaFile.setPresent(false);
                 mediaFile.setChildrenLastUpdated(Instant.ofEpochMilli(1));
             } else if (!Files.exists(mediaFile.getFullIndexPath(folder.getPath()))) {
@@ -265,7 +352,7 @@ public class MediaFileService {
      * @return All children media files.
      */
     public List<MediaFile> getChildrenOf(MediaFile parent, boolean includeFiles, boolean includeDirectories, boolean sort) {
-        return getChildrenOf(parent, includeFiles, includeDirectories, sort, settingsService.isFastCacheEnabled());
+        return getChildrenOf(parent, includeFiles, includeDirectories, sort, isMinimizeDiskAccess());
     }
 
     /**
@@ -292,10 +379,7 @@ public class MediaFileService {
             }
 
             if (resultStream == null) {
-                MusicFolder folder = mediaFolderService.getMusicFolderById(parent.getFolderId());
-                resultStream = mediaFileDao.getChildrenOf(parent.getPath(), parent.getFolderId(), true).parallelStream()
-                        .map(x -> checkLastModified(x, folder, minimizeDiskAccess))
-                        .filter(x -> includeMediaFile(x, folder));
+                resultStream = getStoredChildren(parent, minimizeDiskAccess).stream();
             }
 
             resultStream = resultStream.filter(x -> (includeDirectories && x.isDirectory()) || (includeFiles && x.isFile()));
@@ -446,7 +530,11 @@ public class MediaFileService {
      *
      */
     public List<MediaFile> getRandomSongs(RandomSearchCriteria criteria, String username) {
-        return mediaFileDao.getRandomSongs(criteria, username);
+        int[] ids = randomSongService.getRandomSongIds(criteria, username);
+        Map<Integer, MediaFile> songs = mediaFileDao.getMediaFiles(Arrays.stream(ids).boxed().collect(Collectors.toList()))
+                .stream().collect(Collectors.toMap(MediaFile::getId, Function.identity()));
+        // keep the random order, and skip songs removed since the selection snapshot was loaded
+        return Arrays.stream(ids).mapToObj(songs::get).filter(m -> m != null && m.isPresent()).collect(Collectors.toList());
     }
 
     /**
@@ -457,7 +545,7 @@ public class MediaFileService {
     }
 
     public Instant getMediaFileStarredDate(int id, String username) {
-        return mediaFileDao.getMediaFileStarredDate(id, username);
+        return annotationService.getMediaFileStarredDate(id, username);
     }
 
     public void populateStarredDate(List<MediaFile> mediaFiles, String username) {
@@ -467,7 +555,7 @@ public class MediaFileService {
     }
 
     public void populateStarredDate(MediaFile mediaFile, String username) {
-        Instant starredDate = mediaFileDao.getMediaFileStarredDate(mediaFile.getId(), username);
+        Instant starredDate = annotationService.getMediaFileStarredDate(mediaFile.getId(), username);
         mediaFile.setStarredDate(starredDate);
     }
 
@@ -557,11 +645,13 @@ public class MediaFileService {
 
             // Delete children that no longer exist on disk.
             mediaFileDao.deleteMediaFiles(storedChildrenMap.keySet(), parent.getFolderId());
+            evictFromCache(storedChildrenMap.values());
 
             // Update timestamp in parent.
             parent.setChildrenLastUpdated(parent.getChanged());
             parent.setPresent(true);
             updateMediaFile(parent);
+            cacheManager.getCache("mediaFileChildrenCache").evict(getChildrenCacheKey(parent.getFolderId(), parent.getPath()));
 
             return result;
 
@@ -572,6 +662,72 @@ public class MediaFileService {
         }
     }
 
+    /**
+     * Returns the present children of a directory from the database, which are checked for changes on disk unless
+     * minimizeDiskAccess is set. The ids of the children are cached per directory, stamped with the time its children
+     * were last updated, and the children themselves are taken from the id cache, so browsing a directory again doesn't
+     * query the database.
+     */
+    private List<MediaFile> getStoredChildren(MediaFile parent, boolean minimizeDiskAccess) {
+        Cache childrenCache = cacheManager.getCache("mediaFileChildrenCache");
+        String key = getChildrenCacheKey(parent.getFolderId(), parent.getPath());
+        boolean useCache = memoryCacheEnabled && parent.getChildrenLastUpdated() != null;
+        ChildIds cached = useCache ? childrenCache.get(key, ChildIds.class) : null;
+        if (cached != null && cached.getChildrenLastUpdated().equals(parent.getChildrenLastUpdated())) {
+            return getMediaFilesFromCache(cached.getIds());
+        }
+
+        MusicFolder folder = mediaFolderService.getMusicFolderById(parent.getFolderId());
+        List<MediaFile> children = mediaFileDao.getChildrenOf(parent.getPath(), parent.getFolderId(), true).parallelStream()
+                .map(x -> checkLastModified(x, folder, minimizeDiskAccess))
+                .filter(x -> minimizeDiskAccess ? includeStoredMediaFile(x) : includeMediaFile(x, folder))
+                .collect(Collectors.toList());
+        if (useCache) {
+            Cache idCache = cacheManager.getCache("mediaFileIdCache");
+            children.stream().filter(MediaFile::isPresent).forEach(child -> idCache.putIfAbsent(child.getId(), child));
+            childrenCache.put(key, new ChildIds(parent.getChildrenLastUpdated(), children.stream().mapToInt(MediaFile::getId).toArray()));
+        }
+        return children;
+    }
+
+    /**
+     * Returns the present media files with the given ids, in the same order, loading the ones missing from the id cache
+     * with one query.
+     */
+    private List<MediaFile> getMediaFilesFromCache(int[] ids) {
+        Map<Integer, MediaFile> files = getMediaFiles(Arrays.stream(ids).boxed().collect(Collectors.toList())).stream()
+                .collect(Collectors.toMap(MediaFile::getId, Function.identity(), (a, b) -> a));
+        return Arrays.stream(ids).mapToObj(files::get).filter(f -> f != null && f.isPresent()).collect(Collectors.toList());
+    }
+
+    /**
+     * Returns the key of the children of a directory in the mediaFileChildrenCache.
+     */
+    private static String getChildrenCacheKey(Integer folderId, String path) {
+        return folderId + "-" + path;
+    }
+
+    /**
+     * The ids of the children of a directory, and the time the children of the directory were last updated.
+     */
+    public static class ChildIds {
+        private final Instant childrenLastUpdated;
+        private final int[] ids;
+
+        public ChildIds(Instant childrenLastUpdated, int[] ids) {
+            this.childrenLastUpdated = childrenLastUpdated;
+            this.ids = ids;
+        }
+
+        public Instant getChildrenLastUpdated() {
+            return childrenLastUpdated;
+        }
+
+        public int[] getIds() {
+            return ids;
+        }
+    }
+
     /**
      * hide specific file types in player and API
      */
@@ -589,6 +745,15 @@ public class MediaFileService {
         return (!isExcluded(candidate) && (Files.isDirectory(candidate) || isAudioFile(suffix) || isVideoFile(suffix)));
     }
 
+    /**
+     * Like {@link #includeMediaFile(MediaFile, MusicFolder)}, but without accessing the disk. Whether the file is a
+     * directory is taken from the media file, and symbolic links were already excluded when it was scanned.
+     */
+    private boolean includeStoredMediaFile(MediaFile candidate) {
+        String suffix = FilenameUtils.getExtension(candidate.getPath()).toLowerCase();
+        return (!isExcludedName(FilenameUtils.getName(candidate.getPath())) && (candidate.isDirectory() || isAudioFile(suffix) || isVideoFile(suffix)));
+    }
+
     private boolean isAudioFile(String suffix) {
         return settingsService.getMusicFileTypesSet().contains(suffix.toLowerCase());
     }
@@ -608,9 +773,12 @@ public class MediaFileService {
             LOG.info("excluding symbolic link {}", file);
             return true;
         }
-        String name = file.getFileName().toString();
+        return isExcludedName(file.getFileName().toString());
+    }
+
+    private boolean isExcludedName(String name) {
         if (settingsService.getExcludePattern() != null && settingsService.getExcludePattern().matcher(name).find()) {
-            LOG.info("excluding file which matches exclude pattern {}: {}", settingsService.getExcludePatternString(), file.toString());
+            LOG.info("excluding file which matches exclude pattern {}: {}", settingsService.getExcludePatternString(), name);
             return true;
         }
 
@@ -876,7 +1044,10 @@ public class MediaFileService {
         updateMediaFile(mediaFile);
     }
 
-    @CacheEvict(cacheNames = { "mediaFilePathCache", "mediaFileIdCache" }, allEntries = true)
+    /**
+     * Enables or disables reading and populating the media file caches. Disabled while scanning, so that the scan
+     * checks every file on disk. Cached media files are kept, as the scan evicts the ones it changes.
+     */
     public void setMemoryCacheEnabled(boolean memoryCacheEnabled) {
         this.memoryCacheEnabled = memoryCacheEnabled;
     }
@@ -885,6 +1056,70 @@ public class MediaFileService {
         return memoryCacheEnabled;
     }
 
+    /**
+     * Returns the key of a media file in the mediaFilePathCache.
+     */
+    private static String getPathCacheKey(String path, Integer folderId, Double startPosition) {
+        return path + "-" + folderId + "-" + (startPosition == null ? "" : startPosition.toString());
+    }
+
+    /**
+     * Removes media files, and the children of their parents, from the media file caches, for changes not made by
+     * {@link #updateMediaFile(MediaFile)}.
+     */
+    public void evictFromCache(Collection<MediaFile> mediaFiles) {
+        Cache pathCache = cacheManager.getCache("mediaFilePathCache");
+        Cache idCache = cacheManager.getCache("mediaFileIdCache");
+        Cache childrenCache = cacheManager.getCache("mediaFileChildrenCache");
+        for (MediaFile mediaFile : mediaFiles) {
+            pathCache.evict(getPathCacheKey(mediaFile.getPath(), mediaFile.getFolderId(), mediaFile.getStartPosition()));
+            if (mediaFile.getId() != null) {
+                idCache.evict(mediaFile.getId());
+            }
+            if (mediaFile.getParentPath() != null) {
+                childrenCache.evict(getChildrenCacheKey(mediaFile.getFolderId(), mediaFile.getParentPath()));
+            }
+        }
+    }
+
+    /**
+     * Loads the root directories of the music folders, and the artist and album directories below them, from the
+     * database into the media file caches, so that browsing is fast right after startup. Stops when a scan starts, or
+     * when the caches are full if they are sized by entries.
+     */
+    public void warmUpCache() {
+        if (!mediaFileCacheConfig.isWarmUp()) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        Cache pathCache = cacheManager.getCache("mediaFilePathCache");
+        Cache idCache = cacheManager.getCache("mediaFileIdCache");
+        long limit = mediaFileCacheConfig.getHeapSize().toBytes() > 0 ? Long.MAX_VALUE : mediaFileCacheConfig.getHeapEntries();
+        int count = 0;
+        for (MusicFolder folder : mediaFolderService.getAllMusicFolders()) {
+            MediaFile root = mediaFileDao.getMediaFile("", folder.getId(), MediaFile.NOT_INDEXED);
+            List<MediaFile> directories = root == null ? Collections.emptyList() : Collections.singletonList(root);
+            for (int depth = 0; depth < 3 && !directories.isEmpty() && memoryCacheEnabled; depth++) {
+                List<MediaFile> children = new ArrayList<>();
+                for (MediaFile directory : directories) {
+                    if (!memoryCacheEnabled || count >= limit) {
+                        break;
+                    }
+                    pathCache.putIfAbsent(getPathCacheKey(directory.getPath(), directory.getFolderId(), directory.getStartPosition()), directory);
+                    idCache.putIfAbsent(directory.getId(), directory);
+                    count++;
+                    if (depth < 2) {
+                        mediaFileDao.getChildrenOf(directory.getPath(), folder.getId(), true).stream()
+                                .filter(MediaFile::isDirectory)
+                                .forEach(children::add);
+                    }
+                }
+                directories = children;
+            }
+        }
+        LOG.info("Loaded {} directories into the media file caches in {} ms", count, System.currentTimeMillis() - start);
+    }
+
     /**
      * get Cue sheet from cue file absolute path
      *
@@ -998,6 +1233,44 @@ public class MediaFileService {
         this.mediaFileDao = mediaFileDao;
     }
 
+    /**
+     * Returns the CRC-32 checksum of the given media file. The checksum is computed when first
+     * needed and stored, and is computed again once the modification time or size of the file changes.
+     *
+     * @param mediaFile    The media file.
+     * @param fullPath     The full path of the media file.
+     * @param lastModified The current modification time of the file.
+     * @param size         The current size of the file.
+     * @return The CRC-32 checksum.
+     */
+    public long getChecksum(MediaFile mediaFile, Path fullPath, Instant lastModified, long size) throws IOException {
+        Instant changed = lastModified.truncatedTo(ChronoUnit.MILLIS);
+        Long crc = mediaFileDao.getChecksum(mediaFile.getId(), changed, size);
+        if (crc == null) {
+            crc = StoredZipArchive.computeCrc(fullPath, size);
+            mediaFileDao.updateChecksum(mediaFile.getId(), changed, size, crc);
+        }
+        return crc;
+    }
+
+    /**
+     * Returns the CRC-32 checksum of the file at the given path in a music folder, through the stored checksum of its
+     * media file if it has one. Files which aren't in the library, such as images, are checksummed every time.
+     *
+     * @param folder       The music folder containing the file.
+     * @param fullPath     The full path of the file.
+     * @param lastModified The current modification time of the file.
+     * @param size         The current size of the file.
+     * @return The CRC-32 checksum.
+     */
+    public long getChecksum(MusicFolder folder, Path fullPath, Instant lastModified, long size) throws IOException {
+        MediaFile mediaFile = mediaFileDao.getMediaFile(folder.getPath().relativize(fullPath).toString(), folder.getId());
+        if (mediaFile == null) {
+            return StoredZipArchive.computeCrc(fullPath, size);
+        }
+        return getChecksum(mediaFile, fullPath, lastModified, size);
+    }
+
     /**
      * Returns all media files that are children, grand-children etc of a given media file.
      * Directories are not included in the result.
@@ -1057,6 +1330,7 @@ public class MediaFileService {
         file.setLastPlayed(now);
         file.setPlayCount(file.getPlayCount() + 1);
         updateMediaFile(file);
+        randomSongService.updatePlayCount(file.getId(), file.getPlayCount(), now);
 
         MediaFile parent = getParentOf(file);
         if (Objects.nonNull(parent) && !isRoot(parent)) {
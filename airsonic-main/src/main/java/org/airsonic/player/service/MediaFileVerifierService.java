@@ -0,0 +1,109 @@
+/*
+ This file is part of Airsonic.
+
+ Airsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Airsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Airsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2016 (C) Airsonic Authors
+ */
+package org.airsonic.player.service;
+
+import org.airsonic.player.config.AirsonicMediaFileVerifierConfig;
+import org.airsonic.player.dao.MediaFileDao;
+import org.airsonic.player.domain.MediaFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Sweeps through the media files in the background, checking them for changes on disk and refreshing the ones which
+ * changed. When enabled, media files are read from the database without checking the disk, so that browsing doesn't
+ * wait for slow (e.g. network) storage.
+ * <p>
+ * Each second, the next batch of media files is checked, in id order. New files are found when the directory
+ * containing them is checked. Sweeps pause while the library is scanned.
+ */
+@Service
+public class MediaFileVerifierService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MediaFileVerifierService.class);
+
+    @Autowired
+    private AirsonicMediaFileVerifierConfig verifierConfig;
+    @Autowired
+    private MediaFileDao mediaFileDao;
+    @Autowired
+    private MediaFileService mediaFileService;
+    @Autowired
+    private MediaScannerService mediaScannerService;
+    @Autowired
+    private TaskSchedulingService taskService;
+
+    // only accessed by the verifier task
+    private int lastId;
+    private Instant sweepStart;
+    private Instant nextSweep = Instant.MIN;
+    private int checked;
+    private int refreshed;
+
+    @PostConstruct
+    public void init() {
+        if (verifierConfig.isEnabled()) {
+            LOG.info("Media files are read without checking the disk, and verified at {} files per second",
+                    verifierConfig.getFilesPerSecond());
+            taskService.scheduleFixedDelayTask("mediafile-verifier", this::verifyNext, Instant.now().plusSeconds(60),
+                    Duration.ofSeconds(1), true);
+        }
+    }
+
+    /**
+     * Checks the next batch of media files, or starts a new sweep when the previous one ended.
+     */
+    void verifyNext() {
+        Instant now = Instant.now();
+        if (mediaScannerService.isScanning() || now.isBefore(nextSweep)) {
+            return;
+        }
+        if (lastId == 0) {
+            sweepStart = now;
+            checked = 0;
+            refreshed = 0;
+        }
+        List<MediaFile> batch = mediaFileDao.getPresentMediaFilesAfter(lastId, verifierConfig.getFilesPerSecond());
+        for (MediaFile mediaFile : batch) {
+            try {
+                if (mediaFileService.verifyMediaFile(mediaFile)) {
+                    refreshed++;
+                }
+            } catch (Exception e) {
+                LOG.warn("Could not verify media file {} in folder {}", mediaFile.getPath(), mediaFile.getFolderId(), e);
+            }
+            checked++;
+        }
+        if (batch.isEmpty()) {
+            LOG.info("Verified {} media files in {}s, {} of them were refreshed", checked,
+                    Duration.between(sweepStart, now).getSeconds(), refreshed);
+            lastId = 0;
+            nextSweep = now.plus(verifierConfig.getSweepInterval());
+        } else {
+            lastId = batch.get(batch.size() - 1).getId();
+        }
+    }
+}
@@ -33,6 +33,8 @@ public class MediaFolderService {
     private MusicFolderDao musicFolderDao;
     @Autowired
     private MediaFileDao mediaFileDao;
+    @Autowired
+    private LibraryGenerationService libraryGenerationService;
 
     private List<MusicFolder> cachedMusicFolders;
     private final ConcurrentMap<String, List<MusicFolder>> cachedMusicFoldersPerUser = new ConcurrentHashMap<>();
@@ -98,6 +100,7 @@ public class MediaFolderService {
     public void setMusicFoldersForUser(String username, Collection<Integer> musicFolderIds) {
         musicFolderDao.setMusicFoldersForUser(username, musicFolderIds);
         cachedMusicFoldersPerUser.remove(username);
+        libraryGenerationService.increment();
     }
 
     public MusicFolder getMusicFolderById(Integer id) {
@@ -254,9 +257,10 @@ public class MediaFolderService {
     public void clearMusicFolderCache() {
         cachedMusicFolders = null;
         cachedMusicFoldersPerUser.clear();
+        libraryGenerationService.increment();
     }
 
-    @CacheEvict(cacheNames = { "mediaFilePathCache", "mediaFileIdCache" }, allEntries = true)
+    @CacheEvict(cacheNames = { "mediaFilePathCache", "mediaFileIdCache", "mediaFileChildrenCache" }, allEntries = true)
     public void clearMediaFileCache() {
         // TODO: optimize cache eviction
     }
@@ -19,12 +19,17 @@
  */
 package org.airsonic.player.service;
 
+import com.google.common.collect.Iterables;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.airsonic.player.dao.AlbumDao;
 import org.airsonic.player.dao.ArtistDao;
 import org.airsonic.player.dao.MediaFileDao;
 import org.airsonic.player.domain.*;
 import org.airsonic.player.domain.CoverArt.EntityType;
 import org.airsonic.player.service.search.IndexManager;
+import org.airsonic.player.spring.RoutingDataSource;
 import org.apache.commons.lang.ObjectUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,6 +39,7 @@ import org.springframework.stereotype.Service;
 import org.subsonic.restapi.ScanStatus;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Duration;
 import java.time.Instant;
@@ -59,6 +65,12 @@ public class MediaScannerService {
     private static final Logger LOG = LoggerFactory.getLogger(MediaScannerService.class);
 
     private volatile boolean scanning;
+    // directories to index once the running scan, if any, has finished
+    private final Set<Path> pendingDirectories = ConcurrentHashMap.newKeySet();
+    // whether the running scan only indexes pending directories
+    private volatile boolean scanningDirectories;
+    // whether a full scan was requested while directories were being indexed
+    private final AtomicBoolean fullScanPending = new AtomicBoolean();
 
     public MediaScannerService(
         SettingsService settingsService,
@@ -72,7 +84,10 @@ public class MediaScannerService {
         AlbumDao albumDao,
         TaskSchedulingService taskService,
         SimpMessagingTemplate messagingTemplate,
-        Environment environment
+        Environment environment,
+        LibraryGenerationService libraryGenerationService,
+        RandomSongService randomSongService,
+        MeterRegistry meterRegistry
     ) {
         this.settingsService = settingsService;
         this.indexManager = indexManager;
@@ -86,6 +101,12 @@ public class MediaScannerService {
         this.taskService = taskService;
         this.messagingTemplate = messagingTemplate;
         this.environment = environment;
+        this.libraryGenerationService = libraryGenerationService;
+        this.randomSongService = randomSongService;
+        this.meterRegistry = meterRegistry;
+        this.scannedFiles = Counter.builder("airsonic.scan.files")
+                .description("Files and directories reached by media library scans")
+                .register(meterRegistry);
         init();
     }
 
@@ -101,15 +122,21 @@ public class MediaScannerService {
     private final TaskSchedulingService taskService;
     private final SimpMessagingTemplate messagingTemplate;
     private final Environment environment;
+    private final LibraryGenerationService libraryGenerationService;
+    private final RandomSongService randomSongService;
+    private final MeterRegistry meterRegistry;
+    private final Counter scannedFiles;
 
     private int scannerParallelism;
     private AtomicInteger scanCount = new AtomicInteger(0);
 
     public void init() {
-        this.scannerParallelism = Integer.parseInt(environment.getProperty("MediaScannerParallelism",
-            String.valueOf(Runtime.getRuntime().availableProcessors() + 1)));
+        this.scannerParallelism = getScannerParallelism(environment);
         indexManager.initializeIndexDirectory();
         schedule();
+        if (!scanning) {
+            taskService.scheduleOnce("mediafile-cache-warmup", mediaFileService::warmUpCache, Instant.now(), true);
+        }
     }
 
     public void initNoSchedule() throws IOException {
@@ -161,6 +188,8 @@ public class MediaScannerService {
 
     private void setScanning(boolean scanning) {
         this.scanning = scanning;
+        libraryGenerationService.increment();
+        randomSongService.invalidate();
         broadcastScanStatus();
     }
 
@@ -180,10 +209,24 @@ public class MediaScannerService {
         return scanCount.get();
     }
 
+    /**
+     * Returns the number of threads a scan runs on, which is also the default size of the scan connection pool.
+     */
+    public static int getScannerParallelism(Environment environment) {
+        return Integer.parseInt(environment.getProperty("MediaScannerParallelism",
+            String.valueOf(Runtime.getRuntime().availableProcessors() + 1)));
+    }
+
     private static ForkJoinWorkerThreadFactory mediaScannerThreadFactory = new ForkJoinWorkerThreadFactory() {
         @Override
         public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
-            final ForkJoinWorkerThread worker = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            final ForkJoinWorkerThread worker = new ForkJoinWorkerThread(pool) {
+                @Override
+                protected void onStart() {
+                    super.onStart();
+                    RoutingDataSource.bindThread(RoutingDataSource.Pool.SCAN);
+                }
+            };
             worker.setName("MediaLibraryScanner-" + worker.getPoolIndex());
             worker.setPriority(Thread.MIN_PRIORITY);
             return worker;
@@ -196,6 +239,12 @@ public class MediaScannerService {
      */
     public synchronized void scanLibrary() {
         if (isScanning()) {
+            if (scanningDirectories) {
+                LOG.info("Directories are being scanned, the media library is scanned once they are done");
+                fullScanPending.set(true);
+            } else {
+                LOG.info("The media library is already being scanned");
+            }
             return;
         }
         setScanning(true);
@@ -205,7 +254,126 @@ public class MediaScannerService {
         CompletableFuture.runAsync(() -> doScanLibrary(pool), pool)
                 .thenRunAsync(() -> playlistService.importPlaylists(), pool)
                 .whenComplete((r,e) -> pool.shutdown())
-                .whenComplete((r,e) -> setScanning(false));
+                .whenComplete((r,e) -> setScanning(false))
+                .whenComplete((r,e) -> scanPendingDirectories());
+    }
+
+    /**
+     * Indexes a single directory, e.g. one that files have just been uploaded to, without scanning the whole
+     * library. Albums and artists of the tracks below the directory are created or updated as well; the library
+     * statistics and genres are only updated by the next full scan.
+     * If a scan is running, the directory is scanned once it has finished, unless a full scan is due then.
+     * The scanning is done asynchronously, i.e., this method returns immediately.
+     *
+     * @param dir absolute path of the directory. Ignored if it is not in a music folder.
+     */
+    public void scanDirectory(Path dir) {
+        pendingDirectories.add(dir);
+        if (!isScanning()) {
+            scanPendingDirectories();
+        }
+    }
+
+    private synchronized void scanPendingDirectories() {
+        if (isScanning()) {
+            return;
+        }
+        if (fullScanPending.getAndSet(false)) {
+            // covers the pending directories as well
+            pendingDirectories.clear();
+            scanLibrary();
+            return;
+        }
+        if (pendingDirectories.isEmpty()) {
+            return;
+        }
+        MediaLibraryStatistics statistics = indexManager.getStatistics();
+        if (statistics == null) {
+            // there is no index to add to yet
+            pendingDirectories.clear();
+            scanLibrary();
+            return;
+        }
+        scanningDirectories = true;
+        setScanning(true);
+
+        ForkJoinPool pool = new ForkJoinPool(scannerParallelism, mediaScannerThreadFactory, null, true);
+
+        CompletableFuture.runAsync(() -> doScanDirectories(statistics), pool)
+                .whenComplete((r,e) -> pool.shutdown())
+                .whenComplete((r,e) -> {
+                    // together, so that scanLibrary either queues a full scan or starts it
+                    synchronized (this) {
+                        scanningDirectories = false;
+                        setScanning(false);
+                    }
+                })
+                .whenComplete((r,e) -> scanPendingDirectories());
+    }
+
+    private void doScanDirectories(MediaLibraryStatistics statistics) {
+        scanCount.set(0);
+        indexManager.startIndexing();
+        try {
+            for (Path dir : new ArrayList<>(pendingDirectories)) {
+                pendingDirectories.remove(dir);
+                MediaFile root = mediaFileService.getMediaFile(dir, false);
+                if (root == null) {
+                    LOG.debug("{} is not in a music folder, not scanning it", dir);
+                    continue;
+                }
+                doScanDirectory(root, mediaFolderService.getMusicFolderById(root.getFolderId()));
+            }
+        } finally {
+            // keep the statistics of the last full scan
+            indexManager.stopIndexing(statistics);
+        }
+    }
+
+    private void doScanDirectory(MediaFile root, MusicFolder musicFolder) {
+        LOG.info("Starting to scan {} in {}", root.getPath(), musicFolder.getPath());
+        Instant start = Instant.now();
+        try {
+            Map<String, AtomicInteger> albumCount = new ConcurrentHashMap<>();
+            Map<String, Artist> artists = new ConcurrentHashMap<>();
+            Map<String, Album> albums = new ConcurrentHashMap<>();
+            Map<Integer, Album> albumsInDb = new ConcurrentHashMap<>();
+            scanDirectoryFile(root, musicFolder, start, albumCount, artists, albums, albumsInDb);
+
+            // the songs of albums stored elsewhere weren't all counted, so they keep their statistics until the next full scan
+            Path rootPath = root.getRelativePath();
+            albums.values().stream()
+                    .distinct()
+                    .filter(a -> a.getId() == 0 || Paths.get(a.getPath()).startsWith(rootPath))
+                    .forEach(a -> {
+                        albumDao.createOrUpdateAlbum(a);
+                        coverArtService.persistIfNeeded(a);
+                    });
+            artists.values().forEach(a -> {
+                artistDao.createOrUpdateArtist(a);
+                coverArtService.persistIfNeeded(a);
+            });
+            LOG.info("Scanned {} with {} entries.", root.getPath(), scanCount.get());
+        } catch (Throwable x) {
+            LOG.error("Failed to scan {}.", root.getPath(), x);
+        } finally {
+            LOG.info("Scan of {} took {}s", root.getPath(), ChronoUnit.SECONDS.between(start, Instant.now()));
+        }
+    }
+
+    private void scanDirectoryFile(MediaFile file, MusicFolder musicFolder, Instant scanDate,
+            Map<String, AtomicInteger> albumCount, Map<String, Artist> artists, Map<String, Album> albums,
+            Map<Integer, Album> albumsInDb) {
+        scannedFiles.increment();
+        scanCount.incrementAndGet();
+        indexManager.index(file, musicFolder);
+        if (file.isDirectory()) {
+            mediaFileService.getChildrenOf(file, true, true, false, false).parallelStream()
+                    .forEach(child -> scanDirectoryFile(child, musicFolder, scanDate, albumCount, artists, albums, albumsInDb));
+        } else if (musicFolder.getType() == MusicFolder.Type.MEDIA) {
+            updateAlbum(file, musicFolder, scanDate, albumCount, albums, albumsInDb);
+            updateArtist(file, musicFolder, scanDate, albumCount, artists);
+        }
     }
 
     private void doScanLibrary(ForkJoinPool pool) {
@@ -219,7 +387,6 @@ public class MediaScannerService {
             Map<String, Artist> artists = new ConcurrentHashMap<>();
             Map<String, Album> albums = new ConcurrentHashMap<>();
             Map<Integer, Album> albumsInDb = new ConcurrentHashMap<>();
-            Map<Integer, Set<String>> encountered = new ConcurrentHashMap<>();
             Genres genres = new Genres();
 
             scanCount.set(0);
@@ -228,10 +395,12 @@ public class MediaScannerService {
             indexManager.startIndexing();
 
             // Recurse through all files on disk.
+            Timer.Sample traversal = Timer.start(meterRegistry);
             mediaFolderService.getAllMusicFolders()
                 .parallelStream()
                     .forEach(musicFolder -> scanFile(mediaFileService.getMediaFile(Paths.get(""), musicFolder, false),
-                            musicFolder, statistics, albumCount, artists, albums, albumsInDb, genres, encountered));
+                            musicFolder, statistics, albumCount, artists, albums, albumsInDb, genres));
+            traversal.stop(stageTimer("traverse"));
 
             LOG.info("Scanned media library with {} entries.", scanCount.get());
 
@@ -240,6 +409,7 @@ public class MediaScannerService {
             statistics.incrementAlbums(albumCount.values().parallelStream().mapToInt(x -> x.get()).sum());
 
             LOG.info("Persisting albums");
+            Timer.Sample persistence = Timer.start(meterRegistry);
             CompletableFuture<Void> albumPersistence = CompletableFuture
                     .allOf(albums.values().parallelStream()
                             .distinct()
@@ -252,7 +422,8 @@ public class MediaScannerService {
                         LOG.info("Marking non-present albums.");
                         albumDao.markNonPresent(statistics.getScanDate());
                     }, pool)
-                    .thenRunAsync(() -> LOG.info("Album persistence complete"), pool);
+                    .thenRunAsync(() -> LOG.info("Album persistence complete"), pool)
+                    .whenComplete((r, e) -> persistence.stop(stageTimer("albums")));
 
             LOG.info("Persisting artists");
             CompletableFuture<Void> artistPersistence = CompletableFuture
@@ -266,16 +437,17 @@ public class MediaScannerService {
                         LOG.info("Marking non-present artists.");
                         artistDao.markNonPresent(statistics.getScanDate());
                     }, pool)
-                    .thenRunAsync(() -> LOG.info("Artist persistence complete"), pool);
+                    .thenRunAsync(() -> LOG.info("Artist persistence complete"), pool)
+                    .whenComplete((r, e) -> persistence.stop(stageTimer("artists")));
 
-            LOG.info("Marking present files");
+            // the files reached by the scan were stamped with its date while scanning
             CompletableFuture<Void> mediaFilePersistence = CompletableFuture
-                    .runAsync(() -> mediaFileDao.markPresent(encountered, statistics.getScanDate()), pool)
-                    .thenRunAsync(() -> {
+                    .runAsync(() -> {
                         LOG.info("Marking non-present files.");
-                        mediaFileDao.markNonPresent(statistics.getScanDate());
+                        mediaFileService.evictFromCache(mediaFileDao.markNonPresent(statistics.getScanDate()));
                     }, pool)
-                    .thenRunAsync(() -> LOG.info("File marking complete"), pool);
+                    .thenRunAsync(() -> LOG.info("File marking complete"), pool)
+                    .whenComplete((r, e) -> persistence.stop(stageTimer("files")));
 
             LOG.info("Persisting genres");
             CompletableFuture<Void> genrePersistence = CompletableFuture
@@ -283,7 +455,8 @@ public class MediaScannerService {
                         LOG.info("Updating genres");
                         boolean genresSuccessful = mediaFileDao.updateGenres(genres.getGenres());
                         LOG.info("Genre persistence successfully complete: {}", genresSuccessful);
-                    }, pool);
+                    }, pool)
+                    .whenComplete((r, e) -> persistence.stop(stageTimer("genres")));
 
             CompletableFuture.allOf(albumPersistence, artistPersistence, mediaFilePersistence, genrePersistence).join();
 
@@ -306,7 +479,8 @@ public class MediaScannerService {
 
     private void scanFile(MediaFile file, MusicFolder musicFolder, MediaLibraryStatistics statistics,
             Map<String, AtomicInteger> albumCount, Map<String, Artist> artists, Map<String, Album> albums,
-            Map<Integer, Album> albumsInDb, Genres genres, Map<Integer, Set<String>> encountered) {
+            Map<Integer, Album> albumsInDb, Genres genres) {
+        scannedFiles.increment();
         if (scanCount.incrementAndGet() % 250 == 0) {
             broadcastScanStatus();
             LOG.info("Scanned media library with {} entries.", scanCount.get());
@@ -322,8 +496,10 @@ public class MediaScannerService {
 
         try {
             if (file.isDirectory()) {
-                mediaFileService.getChildrenOf(file, true, true, false, false).parallelStream()
-                        .forEach(child -> scanFile(child, musicFolder, statistics, albumCount, artists, albums, albumsInDb, genres, encountered));
+                List<MediaFile> children = mediaFileService.getChildrenOf(file, true, true, false, false);
+                markScanned(file, children, statistics.getScanDate());
+                children.parallelStream()
+                        .forEach(child -> scanFile(child, musicFolder, statistics, albumCount, artists, albums, albumsInDb, genres));
             } else {
                 if (musicFolder.getType() == MusicFolder.Type.MEDIA) {
                     updateAlbum(file, musicFolder, statistics.getScanDate(), albumCount, albums, albumsInDb);
@@ -333,7 +509,6 @@ public class MediaScannerService {
             }
 
             updateGenres(file, genres);
-            encountered.computeIfAbsent(file.getFolderId(), k -> ConcurrentHashMap.newKeySet()).add(file.getPath());
 
             // don't add indexed tracks to the total duration to avoid double-counting
             if ((file.getDuration() != null) && (!file.isIndexedTrack())) {
@@ -348,6 +523,32 @@ public class MediaScannerService {
         }
     }
 
+    /**
+     * Times a stage of a full scan. The persistence stages run at the same time and are timed from when they start.
+     */
+    private Timer stageTimer(String stage) {
+        return Timer.builder("airsonic.scan.stage")
+                .description("Time taken by a stage of a media library scan")
+                .tag("stage", stage)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Stamps a directory and its children with the date of the scan, with one statement per directory. The objects
+     * are stamped too, as the scan may still update them, which writes their last scan date back.
+     */
+    private void markScanned(MediaFile directory, List<MediaFile> children, Instant scanDate) {
+        List<Integer> ids = new ArrayList<>(children.size() + 1);
+        for (MediaFile file : Iterables.concat(List.of(directory), children)) {
+            ids.add(file.getId());
+            // only present rows are stamped
+            if (file.isPresent()) {
+                file.setLastScanned(scanDate);
+            }
+        }
+        mediaFileDao.markScanned(ids, scanDate);
+    }
+
     private void updateGenres(MediaFile file, Genres genres) {
         String genre = file.getGenre();
         if (genre == null) {
@@ -1,5 +1,6 @@
 package org.airsonic.player.service;
 
+import org.airsonic.player.spring.RoutingDataSource;
 import org.airsonic.player.util.Util;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,7 +35,8 @@ public class PathWatcherService {
     private static final Logger LOG = LoggerFactory.getLogger(PathWatcherService.class);
 
     private final ExecutorService watcherThread = Executors.newSingleThreadExecutor(Util.getDaemonThreadfactory("path-watcher-thread-"));
-    private final ExecutorService watcherFunctionThreadPool = Executors.newCachedThreadPool(Util.getDaemonThreadfactory("path-watcher-function-thread-"));
+    private final ExecutorService watcherFunctionThreadPool = Executors.newCachedThreadPool(
+            RoutingDataSource.bindingThreadFactory(RoutingDataSource.Pool.BACKGROUND, Util.getDaemonThreadfactory("path-watcher-function-thread-")));
 
     private final Map<WatchKey, Map<Kind<? extends Object>, BiConsumer<Path, WatchEvent<Path>>>> watchFunctions = new ConcurrentHashMap<>();
     private final Map<String, WatchKey> watchNames = new ConcurrentHashMap<>();
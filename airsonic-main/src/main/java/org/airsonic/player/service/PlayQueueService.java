@@ -17,6 +17,7 @@ import org.airsonic.player.domain.PodcastEpisode;
 import org.airsonic.player.domain.PodcastStatus;
 import org.airsonic.player.domain.RandomSearchCriteria;
 import org.airsonic.player.domain.SavedPlayQueue;
+import org.airsonic.player.spring.RoutingDataSource;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
 import org.springframework.messaging.simp.SimpMessageType;
@@ -478,12 +479,12 @@ public class PlayQueueService {
     }
 
     private void broadcastPlayQueue(Player player, Function<PlayQueueInfo, PlayQueueInfo> playQueueModifier, String triggeringSessionId) {
-        runAsync(() -> {
+        runAsync(RoutingDataSource.withCallerBinding(() -> {
             PlayQueueInfo info = playQueueModifier.apply(getPlayQueueInfo(player));
             brokerTemplate.convertAndSendToUser(player.getUsername(),
                     "/queue/playqueues/" + player.getId() + "/updated", info);
             postBroadcast(info, player, triggeringSessionId);
-        });
+        }));
     }
 
     private void postBroadcast(PlayQueueInfo info, Player player, String sessionId) {
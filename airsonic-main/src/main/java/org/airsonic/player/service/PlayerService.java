@@ -20,6 +20,7 @@
 package org.airsonic.player.service;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Striped;
 import org.airsonic.player.dao.PlayerDao;
 import org.airsonic.player.domain.Player;
 import org.airsonic.player.domain.Transcoding;
@@ -35,17 +36,29 @@ import org.springframework.stereotype.Service;
 import org.springframework.web.bind.ServletRequestUtils;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.Collectors;
 
 /**
  * Provides services for maintaining the set of players.
+ * <p>
+ * All players are kept in memory, so that finding the player of a request doesn't query the database. The players
+ * handed out are copies, which callers may change and then pass to {@link #updatePlayer(Player)}. When and from where
+ * a player was last seen changes on every stream request, so those changes are written to the database in batches.
  *
  * @author Sindre Mehus
  * @see Player
@@ -56,6 +69,7 @@ public class PlayerService {
 
     private static final String COOKIE_NAME = "player";
     private static final int COOKIE_EXPIRY = 365 * 24 * 3600; // One year
+    private static final Duration LAST_SEEN_FLUSH_INTERVAL = Duration.ofSeconds(10);
 
     @Autowired
     private PlayerDao playerDao;
@@ -67,10 +81,55 @@ public class PlayerService {
     private TranscodingService transcodingService;
     @Autowired
     private SimpMessagingTemplate brokerTemplate;
+    @Autowired
+    private TaskSchedulingService taskService;
+
+    private final Map<Integer, Player> players = new ConcurrentHashMap<>();
+    // ids of players whose last seen changes haven't been written yet
+    private final Set<Integer> seenPlayers = ConcurrentHashMap.newKeySet();
+    // only finding a player by IP address and creating one needs to be exclusive, and only per user
+    private final Striped<Lock> playerCreationLocks = Striped.lock(64);
+    // changes of a player are made one at a time, so that last seen changes don't overwrite settings or vice versa
+    private final Striped<Lock> playerUpdateLocks = Striped.lock(64);
 
     @PostConstruct
     public void init() {
         playerDao.deleteOldPlayers(60);
+        reloadPlayers();
+        taskService.scheduleFixedDelayTask("player-last-seen-flush", () -> flushLastSeen(),
+                Instant.now().plus(LAST_SEEN_FLUSH_INTERVAL), LAST_SEEN_FLUSH_INTERVAL, true);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flushLastSeen();
+    }
+
+    /**
+     * Reloads all players from the database, e.g., after it has been imported.
+     */
+    public void reloadPlayers() {
+        seenPlayers.clear();
+        Map<Integer, Player> loaded = playerDao.getAllPlayers().stream().collect(Collectors.toMap(Player::getId, p -> p));
+        players.keySet().retainAll(loaded.keySet());
+        players.putAll(loaded);
+    }
+
+    /**
+     * Writes the last seen changes of players to the database.
+     */
+    public void flushLastSeen() {
+        List<Player> seen = new ArrayList<>();
+        for (Integer id : seenPlayers) {
+            seenPlayers.remove(id);
+            Player player = players.get(id);
+            if (player != null) {
+                seen.add(player);
+            }
+        }
+        if (!seen.isEmpty()) {
+            playerDao.updateLastSeen(seen);
+        }
     }
 
     public Player getPlayer(HttpServletRequest request, HttpServletResponse response) throws Exception {
@@ -91,7 +150,7 @@ public class PlayerService {
      * @param isStreamRequest      Whether the HTTP request is a request for streaming data.
      * @return The player associated with the given HTTP request.
      */
-    public synchronized Player getPlayer(HttpServletRequest request, HttpServletResponse response,
+    public Player getPlayer(HttpServletRequest request, HttpServletResponse response,
             Integer playerId, boolean remoteControlEnabled, boolean isStreamRequest) throws Exception {
 
         Player player = getPlayerById(playerId);
@@ -120,19 +179,29 @@ public class PlayerService {
             player = null;
         }
 
-        // Look for player with same IP address and user name.
+        boolean created = false;
         if (player == null) {
-            player = getNonRestPlayerByIpAddressAndUsername(request.getRemoteAddr(), username);
+            Lock lock = playerCreationLocks.get(Objects.toString(username, request.getRemoteAddr()));
+            lock.lock();
+            try {
+                // Look for player with same IP address and user name.
+                player = getNonRestPlayerByIpAddressAndUsername(request.getRemoteAddr(), username);
+
+                // If no player was found, create it.
+                if (player == null) {
+                    player = new Player();
+                    player.setLastSeen(Instant.now());
+                    populatePlayer(player, username, request, isStreamRequest);
+                    createPlayer(player);
+                    created = true;
+                }
+            } finally {
+                lock.unlock();
+            }
         }
 
-        // If no player was found, create it.
-        if (player == null) {
-            player = new Player();
-            player.setLastSeen(Instant.now());
-            populatePlayer(player, username, request, isStreamRequest);
-            createPlayer(player);
-        } else if (populatePlayer(player, username, request, isStreamRequest)) {
-            updatePlayer(player);
+        if (!created && populatePlayer(player, username, request, isStreamRequest)) {
+            updateLastSeen(player);
         }
 
         // Set cookie in response.
@@ -179,13 +248,45 @@ public class PlayerService {
         return isUpdate;
     }
 
+    /**
+     * Applies the fields changed by {@link #populatePlayer} to the stored player, leaving its other fields as they are.
+     */
+    private void updateLastSeen(Player player) {
+        Lock lock = playerUpdateLocks.get(player.getId());
+        lock.lock();
+        try {
+            Player updated = players.computeIfPresent(player.getId(), (id, stored) -> {
+                Player p = new Player(stored);
+                if (p.getUsername() == null) {
+                    p.setUsername(player.getUsername());
+                }
+                p.setIpAddress(player.getIpAddress());
+                p.setType(player.getType());
+                p.setLastSeen(player.getLastSeen());
+                return p;
+            });
+            if (updated != null) {
+                seenPlayers.add(player.getId());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
     /**
      * Updates the given player.
      *
      * @param player The player to update.
      */
     public void updatePlayer(Player player) {
-        playerDao.updatePlayer(player);
+        Lock lock = playerUpdateLocks.get(player.getId());
+        lock.lock();
+        try {
+            playerDao.updatePlayer(player);
+            players.replace(player.getId(), new Player(player));
+        } finally {
+            lock.unlock();
+        }
         if (player.getUsername() != null) {
             brokerTemplate.convertAndSendToUser(player.getUsername(), "/queue/players/updated",
                     ImmutableMap.of("id", player.getId(), "description", player.getShortDescription(), "tech", player.getTechnology()));
@@ -199,11 +300,8 @@ public class PlayerService {
      * @return The player with the given ID, or <code>null</code> if no such player exists.
      */
     public Player getPlayerById(Integer id) {
-        if (id == null) {
-            return null;
-        } else {
-            return playerDao.getPlayerById(id);
-        }
+        Player player = id == null ? null : players.get(id);
+        return player == null ? null : new Player(player);
     }
 
     /**
@@ -273,7 +371,11 @@ public class PlayerService {
      * @return All relevant players.
      */
     public List<Player> getPlayersForUserAndClientId(String username, String clientId) {
-        return playerDao.getPlayersForUserAndClientId(username, clientId);
+        return players.values().stream()
+                .filter(p -> Objects.equals(username, p.getUsername()) && Objects.equals(clientId, p.getClientId()))
+                .sorted(Comparator.comparing(Player::getId))
+                .map(Player::new)
+                .collect(Collectors.toList());
     }
 
     /**
@@ -282,7 +384,10 @@ public class PlayerService {
      * @return All currently registered players.
      */
     public List<Player> getAllPlayers() {
-        return playerDao.getAllPlayers();
+        return players.values().stream()
+                .sorted(Comparator.comparing(Player::getId))
+                .map(Player::new)
+                .collect(Collectors.toList());
     }
 
     /**
@@ -290,11 +395,30 @@ public class PlayerService {
      *
      * @param id The unique player ID.
      */
-    public synchronized void removePlayerById(int id) {
+    public void removePlayerById(int id) {
         playerDao.deletePlayer(id);
+        players.remove(id);
+        seenPlayers.remove(id);
         brokerTemplate.convertAndSend("/topic/players/deleted", id);
     }
 
+    /**
+     * Forgets the players of a deleted user. The players themselves are deleted together with the user.
+     *
+     * @param username The name of the deleted user.
+     */
+    public void removePlayersOfUser(String username) {
+        List<Integer> ids = players.values().stream()
+                .filter(p -> username.equals(p.getUsername()))
+                .map(Player::getId)
+                .collect(Collectors.toList());
+        for (Integer id : ids) {
+            players.remove(id);
+            seenPlayers.remove(id);
+            brokerTemplate.convertAndSend("/topic/players/deleted", id);
+        }
+    }
+
     /**
      * Creates and returns a clone of the given player.
      *
@@ -318,6 +442,7 @@ public class PlayerService {
      */
     public void createPlayer(Player player) {
         playerDao.createPlayer(player);
+        players.put(player.getId(), new Player(player));
 
         List<Transcoding> transcodings = transcodingService.getAllTranscodings();
         List<Transcoding> defaultActiveTranscodings = new ArrayList<>(transcodings.size());
@@ -30,6 +30,7 @@ import org.airsonic.player.domain.Playlist;
 import org.airsonic.player.domain.User;
 import org.airsonic.player.service.playlist.PlaylistExportHandler;
 import org.airsonic.player.service.playlist.PlaylistImportHandler;
+import org.airsonic.player.spring.RoutingDataSource;
 import org.airsonic.player.util.StringUtil;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang3.tuple.Pair;
@@ -238,7 +239,7 @@ public class PlaylistService {
     public void updatePlaylist(Playlist playlist, boolean filesChangedBroadcastContext) {
         Playlist oldPlaylist = getPlaylist(playlist.getId());
         playlistDao.updatePlaylist(playlist);
-        runAsync(() -> {
+        runAsync(RoutingDataSource.withCallerBinding(() -> {
             BroadcastedPlaylist bp = new BroadcastedPlaylist(playlist, filesChangedBroadcastContext);
             if (playlist.getShared()) {
                 brokerTemplate.convertAndSend("/topic/playlists/updated", bp);
@@ -249,7 +250,7 @@ public class PlaylistService {
                 Stream.concat(Stream.of(playlist.getUsername()), getPlaylistUsers(playlist.getId()).stream())
                         .forEach(u -> brokerTemplate.convertAndSendToUser(u, "/queue/playlists/updated", bp));
             }
-        });
+        }));
     }
 
     public static class BroadcastedPlaylist extends Playlist {
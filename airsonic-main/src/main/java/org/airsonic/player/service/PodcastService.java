@@ -33,6 +33,7 @@ import org.airsonic.player.domain.PodcastStatus;
 import org.airsonic.player.service.metadata.MetaData;
 import org.airsonic.player.service.metadata.MetaDataParser;
 import org.airsonic.player.service.metadata.MetaDataParserFactory;
+import org.airsonic.player.spring.RoutingDataSource;
 import org.airsonic.player.util.FileUtil;
 import org.airsonic.player.util.StringUtil;
 import org.airsonic.player.util.Util;
@@ -125,8 +126,10 @@ public class PodcastService {
     private SimpMessagingTemplate brokerTemplate;
 
     public PodcastService() {
-        refreshExecutor = Executors.newFixedThreadPool(5, Util.getDaemonThreadfactory("podcast-refresh"));
-        downloadExecutor = Executors.newFixedThreadPool(3, Util.getDaemonThreadfactory("podcast-download"));
+        refreshExecutor = Executors.newFixedThreadPool(5, RoutingDataSource.bindingThreadFactory(
+                RoutingDataSource.Pool.BACKGROUND, Util.getDaemonThreadfactory("podcast-refresh")));
+        downloadExecutor = Executors.newFixedThreadPool(3, RoutingDataSource.bindingThreadFactory(
+                RoutingDataSource.Pool.BACKGROUND, Util.getDaemonThreadfactory("podcast-download")));
     }
 
     @PostConstruct
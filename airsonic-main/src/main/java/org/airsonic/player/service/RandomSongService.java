@@ -0,0 +1,336 @@
+/*
+ This file is part of Airsonic.
+
+ Airsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Airsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Airsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2016 (C) Airsonic Authors
+ */
+package org.airsonic.player.service;
+
+import org.airsonic.player.dao.MediaFileDao;
+import org.airsonic.player.domain.MusicFolder;
+import org.airsonic.player.domain.RandomSearchCriteria;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+
+/**
+ * Selects random songs from an in-memory snapshot of the attributes they can be selected by, instead of sorting the
+ * whole media_file table by a random number for every selection.
+ * <p>
+ * The snapshot is stored by column in primitive arrays, so that filtering a library of hundreds of thousands of
+ * songs takes a few milliseconds. It is loaded when first needed and again after every scan. Play counts are updated
+ * in place, and stars and ratings are taken from the {@link AnnotationService}. Songs added outside of a scan are
+ * not selected until the next scan.
+ */
+@Service
+public class RandomSongService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RandomSongService.class);
+
+    @Autowired
+    private MediaFileDao mediaFileDao;
+    @Autowired
+    private AnnotationService annotationService;
+
+    private final AtomicLong version = new AtomicLong();
+    private volatile Snapshot snapshot;
+
+    /**
+     * Returns the ids of random songs matching the given criteria, in random order.
+     *
+     * @param criteria The criteria.
+     * @param username The user whose stars and ratings are used.
+     * @return At most {@link RandomSearchCriteria#getCount()} distinct song ids.
+     */
+    public int[] getRandomSongIds(RandomSearchCriteria criteria, String username) {
+        if (criteria.getMusicFolders().isEmpty() || criteria.getCount() <= 0) {
+            return new int[0];
+        }
+        Snapshot current = getSnapshot();
+        IntFunction<Integer> albumRating = albumId -> annotationService.getRating(albumId, username);
+        IntPredicate starred = id -> annotationService.getMediaFileStarredDate(id, username) != null;
+        BitSet matches = current.filter(criteria, albumRating, starred);
+        return current.sample(matches, criteria.getCount(), ThreadLocalRandom.current());
+    }
+
+    /**
+     * Records that a song was played. Does nothing if the song isn't in the snapshot.
+     */
+    public void updatePlayCount(int id, int playCount, Instant lastPlayed) {
+        Snapshot current = snapshot;
+        if (current != null) {
+            current.updatePlayCount(id, playCount, lastPlayed);
+        }
+    }
+
+    /**
+     * Reloads the snapshot the next time it is needed. Called when a scan starts and ends.
+     */
+    public void invalidate() {
+        version.incrementAndGet();
+    }
+
+    private Snapshot getSnapshot() {
+        Snapshot current = snapshot;
+        if (current != null && current.version == version.get()) {
+            return current;
+        }
+        synchronized (this) {
+            current = snapshot;
+            // read before loading, so that invalidations while loading cause another load next time
+            long loadVersion = version.get();
+            if (current == null || current.version != loadVersion) {
+                long start = System.currentTimeMillis();
+                Snapshot.Builder builder = new Snapshot.Builder(loadVersion);
+                mediaFileDao.getSongAttributes(builder::add);
+                current = builder.build();
+                snapshot = current;
+                LOG.debug("Loaded {} songs for random selection in {} ms", current.size, System.currentTimeMillis() - start);
+            }
+            return current;
+        }
+    }
+
+    /**
+     * The attributes of all songs, one array per attribute, indexed by the position of the song in {@link #ids}.
+     */
+    static class Snapshot {
+
+        static final int NONE = Integer.MIN_VALUE;
+        static final long NEVER = Long.MIN_VALUE;
+
+        private final long version;
+        private final int size;
+        private final int[] ids;
+        private final int[] folderIds;
+        private final int[] genres;
+        private final int[] formats;
+        private final int[] years;
+        private final int[] albumIds;
+        private final int[] playCounts;
+        private final long[] lastPlayed;
+        private final Map<String, Integer> genreCodes;
+        private final Map<String, Integer> formatCodes;
+
+        private Snapshot(Builder builder) {
+            version = builder.version;
+            size = builder.size;
+            ids = Arrays.copyOf(builder.ids, size);
+            folderIds = Arrays.copyOf(builder.folderIds, size);
+            genres = Arrays.copyOf(builder.genres, size);
+            formats = Arrays.copyOf(builder.formats, size);
+            years = Arrays.copyOf(builder.years, size);
+            albumIds = Arrays.copyOf(builder.albumIds, size);
+            playCounts = Arrays.copyOf(builder.playCounts, size);
+            lastPlayed = Arrays.copyOf(builder.lastPlayed, size);
+            genreCodes = builder.genreCodes;
+            formatCodes = builder.formatCodes;
+        }
+
+        int size() {
+            return size;
+        }
+
+        void updatePlayCount(int id, int playCount, Instant played) {
+            int index = Arrays.binarySearch(ids, id);
+            if (index >= 0) {
+                playCounts[index] = playCount;
+                lastPlayed[index] = played == null ? NEVER : played.toEpochMilli();
+            }
+        }
+
+        /**
+         * Returns the positions of the songs matching the given criteria, with the same semantics as the SQL
+         * conditions this replaces: a missing value fails every condition, except that a missing play count, last
+         * played date or rating passes a maximum when there is no minimum.
+         *
+         * @param albumRating Returns the user's rating of an album media file, or null.
+         * @param starred     Returns whether the user starred a media file.
+         */
+        BitSet filter(RandomSearchCriteria criteria, IntFunction<Integer> albumRating, IntPredicate starred) {
+            BitSet matches = new BitSet(size);
+            BitSet folders = new BitSet();
+            criteria.getMusicFolders().stream().map(MusicFolder::getId).filter(id -> id != null && id >= 0).forEach(folders::set);
+            for (int i = 0; i < size; i++) {
+                if (folders.get(folderIds[i])) {
+                    matches.set(i);
+                }
+            }
+            if (criteria.getGenre() != null) {
+                retain(matches, genres, genreCodes.getOrDefault(criteria.getGenre(), NONE));
+            }
+            if (criteria.getFormat() != null) {
+                retain(matches, formats, formatCodes.getOrDefault(criteria.getFormat(), NONE));
+            }
+            retainRange(matches, years, criteria.getFromYear(), criteria.getToYear(), false);
+            retainRange(matches, playCounts, criteria.getMinPlayCount(), criteria.getMaxPlayCount(), true);
+            retainRange(matches, lastPlayed, criteria.getMinLastPlayedDate(), criteria.getMaxLastPlayedDate());
+
+            Integer minRating = criteria.getMinAlbumRating();
+            Integer maxRating = criteria.getMaxAlbumRating();
+            if (minRating != null || maxRating != null) {
+                for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+                    Integer rating = albumIds[i] == NONE ? null : albumRating.apply(albumIds[i]);
+                    boolean match = rating == null
+                            ? minRating == null
+                            : (minRating == null || rating >= minRating) && (maxRating == null || rating <= maxRating);
+                    if (!match) {
+                        matches.clear(i);
+                    }
+                }
+            }
+            if (criteria.isShowStarredSongs() ^ criteria.isShowUnstarredSongs()) {
+                boolean wanted = criteria.isShowStarredSongs();
+                for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+                    if (starred.test(ids[i]) != wanted) {
+                        matches.clear(i);
+                    }
+                }
+            }
+            return matches;
+        }
+
+        private static void retain(BitSet matches, int[] column, int value) {
+            for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+                if (column[i] != value) {
+                    matches.clear(i);
+                }
+            }
+        }
+
+        private static void retainRange(BitSet matches, int[] column, Integer min, Integer max, boolean missingPassesMax) {
+            if (min == null && max == null) {
+                return;
+            }
+            for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+                int value = column[i];
+                boolean match = value == NONE
+                        ? min == null && missingPassesMax
+                        : (min == null || value >= min) && (max == null || value <= max);
+                if (!match) {
+                    matches.clear(i);
+                }
+            }
+        }
+
+        private static void retainRange(BitSet matches, long[] column, Instant min, Instant max) {
+            if (min == null && max == null) {
+                return;
+            }
+            for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+                long value = column[i];
+                boolean match = value == NEVER
+                        ? min == null
+                        : (min == null || value >= min.toEpochMilli()) && (max == null || value <= max.toEpochMilli());
+                if (!match) {
+                    matches.clear(i);
+                }
+            }
+        }
+
+        /**
+         * Returns the ids of up to count of the matching songs, chosen uniformly with reservoir sampling, in random
+         * order.
+         */
+        int[] sample(BitSet matches, int count, Random random) {
+            int[] reservoir = new int[Math.min(count, matches.cardinality())];
+            int seen = 0;
+            for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+                if (seen < reservoir.length) {
+                    reservoir[seen] = i;
+                } else {
+                    int j = random.nextInt(seen + 1);
+                    if (j < reservoir.length) {
+                        reservoir[j] = i;
+                    }
+                }
+                seen++;
+            }
+            // the reservoir keeps the first matches in place, so shuffle it
+            for (int i = reservoir.length - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int index = reservoir[i];
+                reservoir[i] = reservoir[j];
+                reservoir[j] = index;
+            }
+            for (int i = 0; i < reservoir.length; i++) {
+                reservoir[i] = ids[reservoir[i]];
+            }
+            return reservoir;
+        }
+
+        static class Builder {
+            private final long version;
+            private int size;
+            private int[] ids = new int[1024];
+            private int[] folderIds = new int[1024];
+            private int[] genres = new int[1024];
+            private int[] formats = new int[1024];
+            private int[] years = new int[1024];
+            private int[] albumIds = new int[1024];
+            private int[] playCounts = new int[1024];
+            private long[] lastPlayed = new long[1024];
+            private final Map<String, Integer> genreCodes = new HashMap<>();
+            private final Map<String, Integer> formatCodes = new HashMap<>();
+
+            Builder(long version) {
+                this.version = version;
+            }
+
+            /**
+             * Adds a song. Songs must be added in ascending id order.
+             */
+            void add(int id, int folderId, String genre, String format, Integer year, int playCount, Instant played,
+                    Integer albumId) {
+                if (size == ids.length) {
+                    int capacity = size * 2;
+                    ids = Arrays.copyOf(ids, capacity);
+                    folderIds = Arrays.copyOf(folderIds, capacity);
+                    genres = Arrays.copyOf(genres, capacity);
+                    formats = Arrays.copyOf(formats, capacity);
+                    years = Arrays.copyOf(years, capacity);
+                    albumIds = Arrays.copyOf(albumIds, capacity);
+                    playCounts = Arrays.copyOf(playCounts, capacity);
+                    lastPlayed = Arrays.copyOf(lastPlayed, capacity);
+                }
+                ids[size] = id;
+                folderIds[size] = folderId;
+                genres[size] = genre == null ? NONE : genreCodes.computeIfAbsent(genre, g -> genreCodes.size());
+                formats[size] = format == null ? NONE : formatCodes.computeIfAbsent(format, f -> formatCodes.size());
+                years[size] = year == null ? NONE : year;
+                albumIds[size] = albumId == null ? NONE : albumId;
+                playCounts[size] = playCount;
+                lastPlayed[size] = played == null ? NEVER : played.toEpochMilli();
+                size++;
+            }
+
+            Snapshot build() {
+                return new Snapshot(this);
+            }
+        }
+    }
+}
@@ -42,6 +42,10 @@ public class RatingService {
     private SecurityService securityService;
     @Autowired
     private MediaFileService mediaFileService;
+    @Autowired
+    private LibraryGenerationService libraryGenerationService;
+    @Autowired
+    private AnnotationService annotationService;
 
     /**
      * Returns the highest rated albums.
@@ -68,6 +72,8 @@ public class RatingService {
      */
     public void setRatingForUser(String username, MediaFile mediaFile, Integer rating) {
         ratingDao.setRatingForUser(username, mediaFile, rating);
+        annotationService.invalidate(username);
+        libraryGenerationService.increment();
     }
 
     /**
@@ -88,7 +94,7 @@ public class RatingService {
      * @return The rating, or <code>null</code> if no rating is set.
      */
     public Integer getRatingForUser(String username, MediaFile mediaFile) {
-        return ratingDao.getRatingForUser(username, mediaFile);
+        return annotationService.getRating(mediaFile.getId(), username);
     }
 
     public int getRatedAlbumCount(String username, List<MusicFolder> musicFolders) {
@@ -30,6 +30,7 @@ import org.airsonic.player.domain.SearchResult;
 import org.airsonic.player.service.search.IndexType;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Performs Lucene-based searching.
@@ -43,6 +44,12 @@ public interface SearchService {
     SearchResult search(SearchCriteria criteria, List<MusicFolder> musicFolders,
             IndexType indexType);
 
+    /**
+     * Runs {@link #search} in the background, so that several indexes can be searched at once.
+     */
+    CompletableFuture<SearchResult> searchAsync(SearchCriteria criteria, List<MusicFolder> musicFolders,
+            IndexType indexType);
+
     /**
      * Returns a number of random songs.
      *
@@ -60,6 +67,18 @@ public interface SearchService {
      */
     List<MediaFile> getRandomAlbums(int count, List<MusicFolder> musicFolders);
 
+    /**
+     * Returns a page of a shuffled list of albums. The list is the same for the same seed, as long as the index
+     * doesn't change.
+     *
+     * @param seed Determines the order.
+     * @param offset Number of albums to skip.
+     * @param count Number of albums to return.
+     * @param musicFolders Only return albums from these folders.
+     * @return List of random albums.
+     */
+    List<MediaFile> getRandomAlbums(long seed, int offset, int count, List<MusicFolder> musicFolders);
+
     /**
      * Returns a number of random albums, using ID3 tag.
      *
@@ -69,6 +88,18 @@ public interface SearchService {
      */
     List<Album> getRandomAlbumsId3(int count, List<MusicFolder> musicFolders);
 
+    /**
+     * Returns a page of a shuffled list of albums, using ID3 tag. The list is the same for the same seed, as long as
+     * the index doesn't change.
+     *
+     * @param seed Determines the order.
+     * @param offset Number of albums to skip.
+     * @param count Number of albums to return.
+     * @param musicFolders Only return albums from these folders.
+     * @return List of random albums.
+     */
+    List<Album> getRandomAlbumsId3(long seed, int offset, int count, List<MusicFolder> musicFolders);
+
     <T> ParamSearchResult<T> searchByName(
             String name, int offset, int count, List<MusicFolder> folderList, Class<T> clazz);
 
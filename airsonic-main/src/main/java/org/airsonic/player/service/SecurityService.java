@@ -19,6 +19,9 @@
  */
 package org.airsonic.player.service;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.airsonic.player.dao.RatingDao;
 import org.airsonic.player.dao.UserDao;
 import org.airsonic.player.domain.MediaFile;
 import org.airsonic.player.domain.MusicFolder;
@@ -37,6 +40,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.cache.annotation.CacheConfig;
 import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.cache.annotation.Cacheable;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.dao.DataAccessException;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
@@ -60,6 +64,7 @@ import java.util.Collection;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -78,10 +83,21 @@ public class SecurityService implements UserDetailsService {
     @Autowired
     private UserDao userDao;
     @Autowired
+    private RatingDao ratingDao;
+    @Autowired
+    private AnnotationService annotationService;
+    @Autowired
+    @Lazy // used to deal with circular dependencies between PlayerService and SecurityService
+    private PlayerService playerService;
+    @Autowired
     private SettingsService settingsService;
     @Autowired
     private MediaFolderService mediaFolderService;
 
+    // the credentials used to log in, which REST clients check on every request
+    private final Cache<String, List<UserCredential>> loginCredentialsCache = CacheBuilder.newBuilder()
+            .expireAfterWrite(1, TimeUnit.MINUTES).<String, List<UserCredential>>build();
+
     /**
      * Locates the user based on the username.
      *
@@ -104,9 +120,15 @@ public class SecurityService implements UserDetailsService {
 
         List<GrantedAuthority> authorities = getGrantedAuthorities(user);
 
+        List<UserCredential> credentials = loginCredentialsCache.getIfPresent(user.getUsername());
+        if (credentials == null) {
+            credentials = getCredentials(user.getUsername(), App.AIRSONIC);
+            loginCredentialsCache.put(user.getUsername(), credentials);
+        }
+
         return new UserDetail(
                 username,
-                getCredentials(user.getUsername(), App.AIRSONIC),
+                credentials,
                 true,
                 true,
                 true,
@@ -138,7 +160,9 @@ public class SecurityService implements UserDetailsService {
             newCreds.setComment(comment);
             newCreds.setUpdated(Instant.now());
 
-            return userDao.updateCredential(oldCreds, newCreds);
+            boolean updated = userDao.updateCredential(oldCreds, newCreds);
+            loginCredentialsCache.invalidate(oldCreds.getUsername());
+            return updated;
         }
 
         return true;
@@ -146,7 +170,9 @@ public class SecurityService implements UserDetailsService {
 
     public boolean createCredential(UserCredential newCreds) {
         newCreds.setCredential(GlobalSecurityConfig.ENCODERS.get(newCreds.getEncoder()).encode(newCreds.getCredential()));
-        return userDao.createCredential(newCreds);
+        boolean created = userDao.createCredential(newCreds);
+        loginCredentialsCache.invalidate(newCreds.getUsername());
+        return created;
     }
 
     // ensure we can't delete all airsonic creds
@@ -156,7 +182,9 @@ public class SecurityService implements UserDetailsService {
 
     public boolean deleteCredential(UserCredential creds) {
         try {
-            return userDao.deleteCredential(creds, retainOneAirsonicCred);
+            boolean deleted = userDao.deleteCredential(creds, retainOneAirsonicCred);
+            loginCredentialsCache.invalidate(creds.getUsername());
+            return deleted;
         } catch (Exception e) {
             LOG.info("Can't delete a credential", e);
             return false;
@@ -336,6 +364,7 @@ public class SecurityService implements UserDetailsService {
 
     public void createUser(User user, UserCredential credential) {
         userDao.createUser(user, credential);
+        loginCredentialsCache.invalidate(user.getUsername());
         mediaFolderService.setMusicFoldersForUser(user.getUsername(), MusicFolder.toIdList(mediaFolderService.getAllMusicFolders()));
         LOG.info("Created user {}", user.getUsername());
     }
@@ -347,7 +376,12 @@ public class SecurityService implements UserDetailsService {
      */
     @CacheEvict
     public void deleteUser(String username) {
+        // deleted explicitly rather than by the cascade, to update the average ratings
+        ratingDao.deleteRatingsForUser(username);
         userDao.deleteUser(username);
+        loginCredentialsCache.invalidate(username);
+        annotationService.removeUser(username);
+        playerService.removePlayersOfUser(username);
         LOG.info("Deleted user {}", username);
     }
 
@@ -20,11 +20,15 @@
  */
 package org.airsonic.player.service;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.BaseUnits;
 import org.airsonic.player.ajax.NowPlayingInfo;
 import org.airsonic.player.domain.MediaFile;
 import org.airsonic.player.domain.PlayStatus;
 import org.airsonic.player.domain.Player;
 import org.airsonic.player.domain.TransferStatus;
+import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Service;
@@ -64,6 +68,8 @@ public class StatusService {
     private SimpMessagingTemplate messagingTemplate;
     @Autowired
     private TaskSchedulingService taskService;
+    @Autowired
+    private MeterRegistry meterRegistry;
 
     @PostConstruct
     public void cleanup() {
@@ -80,7 +86,7 @@ public class StatusService {
     private final Map<Integer, PlayStatus> remotePlays = new ConcurrentHashMap<>();
 
     public TransferStatus createStreamStatus(Player player) {
-        return createStatus(player, streamStatuses);
+        return createStatus(player, streamStatuses, "stream");
     }
 
     public void removeStreamStatus(TransferStatus status) {
@@ -123,7 +129,7 @@ public class StatusService {
     }
 
     public TransferStatus createDownloadStatus(Player player) {
-        return createStatus(player, downloadStatuses);
+        return createStatus(player, downloadStatuses, "download");
     }
 
     public void removeDownloadStatus(TransferStatus status) {
@@ -135,7 +141,7 @@ public class StatusService {
     }
 
     public TransferStatus createUploadStatus(Player player) {
-        return createStatus(player, uploadStatuses);
+        return createStatus(player, uploadStatuses, "upload");
     }
 
     public void removeUploadStatus(TransferStatus status) {
@@ -191,8 +197,13 @@ public class StatusService {
                 status.getMillisSinceLastUpdate());
     }
 
-    private TransferStatus createStatus(Player player, List<TransferStatus> statusList) {
-        TransferStatus status = new TransferStatus(player);
+    private TransferStatus createStatus(Player player, List<TransferStatus> statusList, String transfer) {
+        TransferStatus status = new TransferStatus(player, Counter.builder("airsonic.transfer.bytes")
+                .description("Bytes transferred to or from the players of a user")
+                .baseUnit(BaseUnits.BYTES)
+                .tag("transfer", transfer)
+                .tag("user", StringUtils.defaultIfEmpty(player == null ? null : player.getUsername(), "anonymous"))
+                .register(meterRegistry));
         statusList.add(status);
         return status;
     }
@@ -237,4 +248,8 @@ public class StatusService {
     public void setMessagingTemplate(SimpMessagingTemplate messagingTemplate) {
         this.messagingTemplate = messagingTemplate;
     }
+
+    public void setMeterRegistry(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
 }
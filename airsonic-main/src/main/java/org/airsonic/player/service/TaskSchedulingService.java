@@ -1,6 +1,7 @@
 package org.airsonic.player.service;
 
 import com.google.common.collect.ImmutableMap;
+import org.airsonic.player.spring.RoutingDataSource;
 import org.apache.commons.lang3.tuple.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -51,6 +52,10 @@ public class TaskSchedulingService implements ScheduledTaskHolder {
     public TaskSchedulingService(TaskSchedulerBuilder builder) throws IOException {
         ThreadPoolTaskScheduler taskScheduler = builder.build();
         taskScheduler.setDaemon(true);
+        taskScheduler.setThreadFactory(task -> taskScheduler.newThread(() -> {
+            RoutingDataSource.bindThread(RoutingDataSource.Pool.BACKGROUND);
+            task.run();
+        }));
         taskScheduler.afterPropertiesSet();
         this.registrar = new ScheduledTaskRegistrar();
         this.registrar.setScheduler(taskScheduler);
@@ -20,6 +20,9 @@
 package org.airsonic.player.service;
 
 import com.google.common.io.MoreFiles;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.airsonic.player.controller.VideoPlayerController;
 import org.airsonic.player.dao.TranscodingDao;
 import org.airsonic.player.domain.*;
@@ -33,8 +36,11 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+
 import java.awt.Dimension;
 import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
@@ -48,6 +54,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -68,12 +77,25 @@ public class TranscodingService {
     @Autowired
     private TranscodingDao transcodingDao;
     @Autowired
+    private LibraryGenerationService libraryGenerationService;
+    @Autowired
     private SettingsService settingsService;
     @Autowired
     private MediaFolderService mediaFolderService;
     @Autowired
     @Lazy // used to deal with circular dependencies between PlayerService and TranscodingService
     private PlayerService playerService;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final AtomicInteger activeTranscodings = new AtomicInteger();
+
+    @PostConstruct
+    public void registerMeters() {
+        Gauge.builder("airsonic.transcoder.active", activeTranscodings, AtomicInteger::get)
+                .description("Transcoded streams which are open")
+                .register(meterRegistry);
+    }
 
     /**
      * Returns all transcodings.
@@ -102,6 +124,7 @@ public class TranscodingService {
      */
     public void setTranscodingsForPlayer(Player player, int[] transcodingIds) {
         transcodingDao.setTranscodingsForPlayer(player.getId(), transcodingIds);
+        libraryGenerationService.increment();
     }
 
     /**
@@ -144,6 +167,7 @@ public class TranscodingService {
      */
     public void deleteTranscoding(Integer id) {
         transcodingDao.deleteTranscoding(id);
+        libraryGenerationService.increment();
     }
 
     /**
@@ -153,6 +177,7 @@ public class TranscodingService {
      */
     public void updateTranscoding(Transcoding transcoding) {
         transcodingDao.updateTranscoding(transcoding);
+        libraryGenerationService.increment();
     }
 
     /**
@@ -297,6 +322,7 @@ public class TranscodingService {
     private InputStream createTranscodedInputStream(Parameters parameters)
             throws IOException {
 
+        long start = System.nanoTime();
         Transcoding transcoding = parameters.getTranscoding();
         Integer maxBitRate = parameters.getMaxBitRate();
         VideoTranscodingSettings videoTranscodingSettings = parameters.getVideoTranscodingSettings();
@@ -312,7 +338,7 @@ public class TranscodingService {
             in = createTranscodeInputStream(transcoding.getStep3(), maxBitRate, videoTranscodingSettings, mediaFile, in);
         }
 
-        return in;
+        return new MeteredTranscodeInputStream(in, transcoding.getName(), start);
     }
 
     /**
@@ -654,6 +680,56 @@ public class TranscodingService {
         this.playerService = playerService;
     }
 
+    /**
+     * Counts a transcoded stream as active until it is closed, and times how long its transcoders take to produce the
+     * first byte.
+     */
+    private class MeteredTranscodeInputStream extends FilterInputStream {
+        private final Timer startupTimer;
+        private final long start;
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private volatile boolean started;
+
+        MeteredTranscodeInputStream(InputStream in, String transcoding, long start) {
+            super(in);
+            this.startupTimer = Timer.builder("airsonic.transcoder.startup")
+                    .description("Time from starting the transcoders until they produce the first byte")
+                    .tag("transcoding", Objects.toString(transcoding, "unknown"))
+                    .register(meterRegistry);
+            this.start = start;
+            activeTranscodings.incrementAndGet();
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            recordStartup();
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            recordStartup();
+            return n;
+        }
+
+        private void recordStartup() {
+            if (!started) {
+                started = true;
+                startupTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed.compareAndSet(false, true)) {
+                activeTranscodings.decrementAndGet();
+            }
+            super.close();
+        }
+    }
+
     public static class Parameters {
         private Long expectedLength;
         private boolean rangeAllowed;
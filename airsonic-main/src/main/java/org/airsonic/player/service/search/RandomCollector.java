@@ -0,0 +1,138 @@
+/*
+ This file is part of Airsonic.
+
+ Airsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Airsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Airsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2016 (C) Airsonic Authors
+ */
+
+package org.airsonic.player.service.search;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.SimpleCollector;
+import org.apache.lucene.util.ArrayUtil;
+
+import java.util.Arrays;
+
+/**
+ * Collects a random selection of the matching documents, without keeping all of them.
+ * <p>
+ * Every document gets a pseudo-random score derived from a seed and its doc id, and only the documents with the
+ * highest scores are kept, in a heap of packed (score, doc) longs. The kept documents are a uniform sample in random
+ * order. The same seed gives the same order as long as the index doesn't change, so a shuffle can be paged through by
+ * skipping documents.
+ */
+public class RandomCollector extends SimpleCollector {
+
+    private final long seed;
+    private final int offset;
+    private final int limit;
+    private long[] heap = new long[16];
+    private int size;
+    private int docBase;
+
+    /**
+     * @param seed   Determines the order.
+     * @param offset Number of documents to skip.
+     * @param count  Maximum number of documents to return.
+     */
+    public RandomCollector(long seed, int offset, int count) {
+        this.seed = seed;
+        this.offset = offset;
+        // callers ask for up to Integer.MAX_VALUE, so the heap only grows as documents are collected
+        this.limit = (int) Math.min((long) offset + count, ArrayUtil.MAX_ARRAY_LENGTH);
+    }
+
+    @Override
+    protected void doSetNextReader(LeafReaderContext context) {
+        docBase = context.docBase;
+    }
+
+    @Override
+    public void collect(int doc) {
+        int globalDoc = docBase + doc;
+        // the score in the upper half, and the doc in the lower half to make them unique
+        long entry = (mix(seed + globalDoc * 0x9E3779B97F4A7C15L) & 0xFFFFFFFF00000000L) | globalDoc;
+        if (size < limit) {
+            if (size == heap.length) {
+                heap = ArrayUtil.grow(heap, Math.min(limit, size + 1));
+            }
+            heap[size] = entry;
+            siftUp(size++);
+        } else if (limit > 0 && entry > heap[0]) {
+            heap[0] = entry;
+            siftDown();
+        }
+    }
+
+    @Override
+    public ScoreMode scoreMode() {
+        return ScoreMode.COMPLETE_NO_SCORES;
+    }
+
+    /**
+     * Returns the selected doc ids, in random order.
+     */
+    public int[] getDocs() {
+        long[] sorted = Arrays.copyOf(heap, size);
+        Arrays.sort(sorted);
+        int count = Math.max(0, size - offset);
+        int[] docs = new int[count];
+        for (int i = 0; i < count; i++) {
+            // highest scores first
+            docs[i] = (int) sorted[size - offset - 1 - i];
+        }
+        return docs;
+    }
+
+    // min-heap on the packed entries, so the root is the first one to drop
+    private void siftUp(int i) {
+        long entry = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heap[parent] <= entry) {
+                break;
+            }
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = entry;
+    }
+
+    private void siftDown() {
+        long entry = heap[0];
+        int i = 0;
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && heap[child + 1] < heap[child]) {
+                child++;
+            }
+            if (entry <= heap[child]) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = entry;
+    }
+
+    // finalizer of SplitMix64, which spreads its input over all bits
+    private static long mix(long value) {
+        long z = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -20,19 +20,26 @@
 
 package org.airsonic.player.service.search;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.airsonic.player.domain.*;
 import org.airsonic.player.service.SearchService;
-import org.apache.lucene.document.Document;
+import org.airsonic.player.spring.RoutingDataSource;
+import org.airsonic.player.util.Util;
 import org.apache.lucene.search.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PreDestroy;
+
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.function.BiConsumer;
-import java.util.stream.Collectors;
 
 import static org.airsonic.player.service.search.IndexType.*;
 import static org.springframework.util.ObjectUtils.isEmpty;
@@ -48,10 +55,22 @@ public class SearchServiceImpl implements SearchService {
     private IndexManager indexManager;
     @Autowired
     private SearchServiceUtilities util;
+    @Autowired
+    private MeterRegistry meterRegistry;
 
     // TODO Should be changed to SecureRandom?
     private final Random random = new Random(System.currentTimeMillis());
 
+    // searches are short, so this only needs to allow a few of them to run at once
+    private final ExecutorService searchExecutor = Executors.newFixedThreadPool(
+            Math.max(3, Runtime.getRuntime().availableProcessors()),
+            RoutingDataSource.bindingThreadFactory(RoutingDataSource.Pool.INTERACTIVE, Util.getDaemonThreadfactory("search")));
+
+    @PreDestroy
+    public void shutdown() {
+        searchExecutor.shutdownNow();
+    }
+
     @Override
     public SearchResult search(SearchCriteria criteria, List<MusicFolder> musicFolders,
             IndexType indexType) {
@@ -69,6 +88,7 @@ public class SearchServiceImpl implements SearchService {
             return result;
         }
 
+        Timer.Sample sample = Timer.start(meterRegistry);
         try {
             Query query = queryFactory.search(criteria, musicFolders, indexType);
 
@@ -78,42 +98,59 @@ public class SearchServiceImpl implements SearchService {
             int start = Math.min(offset, totalHits);
             int end = Math.min(start + count, totalHits);
 
-            for (int i = start; i < end; i++) {
-                util.addIfAnyMatch(result, indexType, searcher.doc(topDocs.scoreDocs[i].doc));
-            }
+            util.addAll(result, indexType, util.getIds(searcher, topDocs.scoreDocs, start, end));
 
         } catch (IOException e) {
             LOG.error("Failed to execute Lucene search.", e);
         } finally {
             indexManager.release(indexType, searcher);
+            sample.stop(searchTimer("search", indexType));
         }
         return result;
     }
 
+    @Override
+    public CompletableFuture<SearchResult> searchAsync(SearchCriteria criteria, List<MusicFolder> musicFolders,
+            IndexType indexType) {
+        return CompletableFuture.supplyAsync(() -> search(criteria, musicFolders, indexType), searchExecutor);
+    }
+
     /**
      * Common processing of random method.
      *
-     * @param count Number of albums to return.
+     * @param seed Determines the order.
+     * @param offset Number of documents to skip.
+     * @param count Maximum number of results.
+     * @param refill Whether to sample further documents in place of the ids that can't be resolved, such as stale
+     *            index entries. Pages of a seeded shuffle don't refill, so that they don't overlap.
      * @param id2ListCallBack Callback to get D from id and store it in List
      */
-    private final <D> List<D> createRandomDocsList(
-            int count, IndexSearcher searcher, Query query, BiConsumer<List<D>, Integer> id2ListCallBack)
-            throws IOException {
-
-        List<Integer> docs = Arrays
-                .stream(searcher.search(query, Integer.MAX_VALUE).scoreDocs)
-                .map(sd -> sd.doc)
-                .collect(Collectors.toList());
+    private final <D> List<D> createRandomDocsList(long seed, int offset, int count, boolean refill,
+            IndexSearcher searcher, Query query, BiConsumer<List<D>, Integer> id2ListCallBack) throws IOException {
 
         List<D> result = new ArrayList<>();
-        while (!docs.isEmpty() && result.size() < count) {
-            int randomPos = random.nextInt(docs.size());
-            Document document = searcher.doc(docs.get(randomPos));
-            id2ListCallBack.accept(result, util.getId.apply(document));
-            docs.remove(randomPos);
+        int sampled = 0;
+        int resolved = 0;
+        int requested = count;
+        while (true) {
+            // the same seed selects the same leading documents, so only the ones beyond the previous sample are new
+            RandomCollector collector = new RandomCollector(seed, offset, requested);
+            searcher.search(query, collector);
+            int[] docs = collector.getDocs();
+            for (int id : util.getIds(searcher, Arrays.copyOfRange(docs, Math.min(sampled, docs.length), docs.length))) {
+                id2ListCallBack.accept(result, id);
+                resolved++;
+                if (result.size() == count) {
+                    return result;
+                }
+            }
+            int missing = resolved - result.size();
+            if (!refill || missing == 0 || docs.length < requested) {
+                return result;
+            }
+            sampled = docs.length;
+            requested = (int) Math.min((long) requested + 2L * (count - result.size()), Integer.MAX_VALUE);
         }
-
-        return result;
     }
 
     @Override
@@ -128,7 +165,7 @@ public class SearchServiceImpl implements SearchService {
         try {
 
             Query query = queryFactory.getRandomSongs(criteria);
-            return createRandomDocsList(criteria.getCount(), searcher, query,
+            return createRandomDocsList(random.nextLong(), 0, criteria.getCount(), true, searcher, query,
                 (dist, id) -> util.addIgnoreNull(dist, SONG, id));
 
         } catch (IOException e) {
@@ -141,6 +178,16 @@ public class SearchServiceImpl implements SearchService {
 
     @Override
     public List<MediaFile> getRandomAlbums(int count, List<MusicFolder> musicFolders) {
+        return getRandomAlbums(random.nextLong(), 0, count, true, musicFolders);
+    }
+
+    @Override
+    public List<MediaFile> getRandomAlbums(long seed, int offset, int count, List<MusicFolder> musicFolders) {
+        return getRandomAlbums(seed, offset, count, false, musicFolders);
+    }
+
+    private List<MediaFile> getRandomAlbums(long seed, int offset, int count, boolean refill,
+            List<MusicFolder> musicFolders) {
 
         IndexSearcher searcher = indexManager.getSearcher(IndexType.ALBUM);
         if (isEmpty(searcher)) {
@@ -151,7 +198,7 @@ public class SearchServiceImpl implements SearchService {
 
         try {
 
-            return createRandomDocsList(count, searcher, query,
+            return createRandomDocsList(seed, offset, count, refill, searcher, query,
                 (dist, id) -> util.addIgnoreNull(dist, ALBUM, id));
 
         } catch (IOException e) {
@@ -164,6 +211,16 @@ public class SearchServiceImpl implements SearchService {
 
     @Override
     public List<Album> getRandomAlbumsId3(int count, List<MusicFolder> musicFolders) {
+        return getRandomAlbumsId3(random.nextLong(), 0, count, true, musicFolders);
+    }
+
+    @Override
+    public List<Album> getRandomAlbumsId3(long seed, int offset, int count, List<MusicFolder> musicFolders) {
+        return getRandomAlbumsId3(seed, offset, count, false, musicFolders);
+    }
+
+    private List<Album> getRandomAlbumsId3(long seed, int offset, int count, boolean refill,
+            List<MusicFolder> musicFolders) {
 
         IndexSearcher searcher = indexManager.getSearcher(IndexType.ALBUM_ID3);
         if (isEmpty(searcher)) {
@@ -174,7 +231,7 @@ public class SearchServiceImpl implements SearchService {
 
         try {
 
-            return createRandomDocsList(count, searcher, query,
+            return createRandomDocsList(seed, offset, count, refill, searcher, query,
                 (dist, id) -> util.addIgnoreNull(dist, ALBUM_ID3, id));
 
         } catch (IOException e) {
@@ -205,6 +262,7 @@ public class SearchServiceImpl implements SearchService {
             return result;
         }
 
+        Timer.Sample sample = Timer.start(meterRegistry);
         try {
 
             Query query = queryFactory.searchByName(fieldName, name);
@@ -222,17 +280,25 @@ public class SearchServiceImpl implements SearchService {
             int start = Math.min(offset, totalHits);
             int end = Math.min(start + count, totalHits);
 
-            for (int i = start; i < end; i++) {
-                Document doc = searcher.doc(topDocs.scoreDocs[i].doc);
-                util.addIgnoreNull(result, indexType, util.getId.apply(doc), assignableClass);
+            for (int id : util.getIds(searcher, topDocs.scoreDocs, start, end)) {
+                util.addIgnoreNull(result, indexType, id, assignableClass);
             }
 
         } catch (IOException e) {
             LOG.error("Failed to execute Lucene search.", e);
         } finally {
             indexManager.release(indexType, searcher);
+            sample.stop(searchTimer("name", indexType));
         }
         return result;
     }
 
+    private Timer searchTimer(String query, IndexType indexType) {
+        return Timer.builder("airsonic.search")
+                .description("Time taken by Lucene to search an index and load the hits")
+                .tag("query", query)
+                .tag("index", indexType.name().toLowerCase())
+                .register(meterRegistry);
+    }
+
 }
@@ -30,15 +30,23 @@ import org.airsonic.player.domain.SearchResult;
 import org.airsonic.player.service.MediaFileService;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.StoredFieldVisitor;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
-import java.util.function.BiConsumer;
+import java.util.Map;
+import java.util.Objects;
 import java.util.function.Function;
-
-import static org.springframework.util.ObjectUtils.isEmpty;
+import java.util.stream.Collectors;
 
 /**
  * Termination used by SearchService.
@@ -80,23 +88,24 @@ public class SearchServiceUtilities {
         return Integer.valueOf(d.get(FieldNames.ID));
     };
 
-    public final BiConsumer<List<MediaFile>, Integer> addMediaFileIfAnyMatch = (dist, id) -> {
-        if (!dist.stream().anyMatch(m -> id.equals(m.getId()))) {
-            MediaFile mediaFile = mediaFileService.getMediaFile(id);
-            if (!isEmpty(mediaFile)) {
-                dist.add(mediaFile);
-            }
-        }
-    };
+    /**
+     * Reads the ids of the given hits. Only the id field is decoded, the other stored fields are skipped.
+     */
+    public final List<Integer> getIds(IndexSearcher searcher, ScoreDoc[] scoreDocs, int start, int end) throws IOException {
+        return getIds(searcher, Arrays.stream(scoreDocs, start, end).mapToInt(sd -> sd.doc).toArray());
+    }
 
-    public final BiConsumer<List<Artist>, Integer> addArtistId3IfAnyMatch = (dist, id) -> {
-        if (!dist.stream().anyMatch(a -> id.equals(a.getId()))) {
-            Artist artist = artistDao.getArtist(id);
-            if (!isEmpty(artist)) {
-                dist.add(artist);
-            }
+    /**
+     * Reads the ids of the given documents. Only the id field is decoded, the other stored fields are skipped.
+     */
+    public final List<Integer> getIds(IndexSearcher searcher, int[] docs) throws IOException {
+        IdVisitor visitor = new IdVisitor();
+        for (int doc : docs) {
+            visitor.found = false;
+            searcher.doc(doc, visitor);
         }
-    };
+        return visitor.ids;
+    }
 
     public final Function<Class<?>, IndexType> getIndexType = (assignableClass) -> {
         IndexType indexType = null;
@@ -122,15 +131,6 @@ public class SearchServiceUtilities {
         return fieldName;
     };
 
-    public final BiConsumer<List<Album>, Integer> addAlbumId3IfAnyMatch = (dist, subjectId) -> {
-        if (!dist.stream().anyMatch(a -> subjectId == a.getId())) {
-            Album album = albumDao.getAlbum(subjectId);
-            if (!isEmpty(album)) {
-                dist.add(album);
-            }
-        }
-    };
-
     public final boolean addIgnoreNull(Collection collection, Object object) {
         return CollectionUtils.addIgnoreNull(collection, object);
     }
@@ -157,15 +157,49 @@ public class SearchServiceUtilities {
         }
     }
 
-    public final void addIfAnyMatch(SearchResult dist, IndexType subjectIndexType, Document subject) {
-        int documentId = getId.apply(subject);
+    /**
+     * Adds the subjects with the given ids to the result, in the order of the ids and without duplicates.
+     * The subjects are loaded with one query.
+     */
+    public final void addAll(SearchResult dist, IndexType subjectIndexType, List<Integer> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
         if (subjectIndexType == IndexType.ARTIST || subjectIndexType == IndexType.ALBUM
                 || subjectIndexType == IndexType.SONG) {
-            addMediaFileIfAnyMatch.accept(dist.getMediaFiles(), documentId);
+            dist.getMediaFiles().addAll(inOrder(ids, mediaFileService.getMediaFiles(ids), MediaFile::getId));
         } else if (subjectIndexType == IndexType.ARTIST_ID3) {
-            addArtistId3IfAnyMatch.accept(dist.getArtists(), documentId);
+            dist.getArtists().addAll(inOrder(ids, artistDao.getArtists(ids), Artist::getId));
         } else if (subjectIndexType == IndexType.ALBUM_ID3) {
-            addAlbumId3IfAnyMatch.accept(dist.getAlbums(), documentId);
+            dist.getAlbums().addAll(inOrder(ids, albumDao.getAlbums(ids), Album::getId));
+        }
+    }
+
+    private static <T> List<T> inOrder(List<Integer> ids, List<T> subjects, Function<T, Integer> getSubjectId) {
+        Map<Integer, T> byId = subjects.stream().collect(Collectors.toMap(getSubjectId, Function.identity(), (a, b) -> a));
+        return ids.stream().distinct().map(byId::get).filter(Objects::nonNull).collect(Collectors.toList());
+    }
+
+    /*
+     * Collects the id field of the visited documents, and stops reading a document once it has been found.
+     */
+    private static class IdVisitor extends StoredFieldVisitor {
+
+        private final List<Integer> ids = new ArrayList<>();
+        private boolean found;
+
+        @Override
+        public Status needsField(FieldInfo fieldInfo) {
+            if (found) {
+                return Status.STOP;
+            }
+            return FieldNames.ID.equals(fieldInfo.name) ? Status.YES : Status.NO;
+        }
+
+        @Override
+        public void stringField(FieldInfo fieldInfo, byte[] value) {
+            ids.add(Integer.valueOf(new String(value, StandardCharsets.UTF_8)));
+            found = true;
         }
     }
 
@@ -61,6 +61,10 @@ public class SonosHelper {
     @Autowired
     private TranscodingService transcodingService;
     @Autowired
+    private LibraryGenerationService libraryGenerationService;
+    @Autowired
+    private AnnotationService annotationService;
+    @Autowired
     private MusicIndexService musicIndexService;
     @Autowired
     private SearchService searchService;
@@ -611,10 +615,14 @@ public class SonosHelper {
 
     public void star(int id, String username) {
         mediaFileDao.starMediaFile(id, username);
+        annotationService.invalidate(username);
+        libraryGenerationService.increment();
     }
 
     public void unstar(int id, String username) {
         mediaFileDao.unstarMediaFile(id, username);
+        annotationService.invalidate(username);
+        libraryGenerationService.increment();
     }
 
     public void createBookmark(int id, int offsetMillis, String username) {
@@ -1,41 +1,60 @@
 package org.airsonic.player.spring;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.airsonic.player.config.AirsonicHomeConfig;
+import org.airsonic.player.config.AirsonicMediaFileCacheConfig;
+import org.airsonic.player.controller.JAXBWriter.SerializedResponse;
 import org.airsonic.player.domain.CoverArt;
 import org.airsonic.player.domain.MediaFile;
 import org.airsonic.player.domain.Playlist;
 import org.airsonic.player.domain.User;
 import org.airsonic.player.domain.UserSettings;
+import org.airsonic.player.service.MediaFileService.ChildIds;
 import org.ehcache.config.builders.CacheConfigurationBuilder;
+import org.ehcache.config.builders.CacheEventListenerConfigurationBuilder;
 import org.ehcache.config.builders.ConfigurationBuilder;
 import org.ehcache.config.builders.ExpiryPolicyBuilder;
 import org.ehcache.config.builders.ResourcePoolsBuilder;
 import org.ehcache.config.units.EntryUnit;
+import org.ehcache.config.units.MemoryUnit;
 import org.ehcache.event.CacheEvent;
 import org.ehcache.event.CacheEventListener;
 import org.ehcache.event.EventType;
-import org.ehcache.impl.config.event.DefaultCacheEventListenerConfiguration;
 import org.ehcache.impl.config.persistence.DefaultPersistenceConfiguration;
 import org.ehcache.jsr107.EhcacheCachingProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.boot.logging.LogLevel;
+import org.springframework.boot.logging.LoggingSystem;
 import org.springframework.cache.annotation.EnableCaching;
 import org.springframework.context.annotation.AdviceMode;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.stereotype.Component;
 
 import javax.cache.Caching;
 import javax.cache.spi.CachingProvider;
 
 import java.time.Duration;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.EnumSet;
+import java.util.Map;
 
 @Configuration
 @EnableCaching(proxyTargetClass = true, mode = AdviceMode.ASPECTJ) // AspectJ used so classes calling methods on self can benefit from the cache
 public class CacheConfiguration {
     @Autowired
     private AirsonicHomeConfig homeConfig;
+    @Autowired
+    private AirsonicMediaFileCacheConfig mediaFileCacheConfig;
+    @Autowired
+    private MeterRegistry meterRegistry;
     @Bean
     public javax.cache.CacheManager jCacheCacheManager() {
         CachingProvider provider = Caching.getCachingProvider("org.ehcache.jsr107.EhcacheCachingProvider");
@@ -51,8 +70,8 @@ public class CacheConfiguration {
         // If needed, but will need to register serializers for the objects being stored
         // .offheap(10L, MemoryUnit.MB)
         // .disk(20, MemoryUnit.MB, false);
-
-        DefaultCacheEventListenerConfiguration cacheLogging = new DefaultCacheEventListenerConfiguration(EnumSet.allOf(EventType.class), CacheLogger.class);
+        ResourcePoolsBuilder mediaFilePools = createMediaFilePools();
+        MediaFileSerializer mediaFileSerializer = new MediaFileSerializer();
 
         return ConfigurationBuilder.newConfigurationBuilder()
                 .withService(new DefaultPersistenceConfiguration(homeConfig.getAirsonicHome().resolve("cache").toFile()))
@@ -60,47 +79,129 @@ public class CacheConfiguration {
                         CacheConfigurationBuilder.newCacheConfigurationBuilder(String.class, User.class, pools)
                                 .withClassLoader(cl)
                                 .withExpiry(ExpiryPolicyBuilder.timeToLiveExpiration(Duration.ofDays(2)))
-                                .withService(cacheLogging))
+                                .withService(cacheEvents("userCache")))
                 .withCache("userSettingsCache",
                         CacheConfigurationBuilder.newCacheConfigurationBuilder(String.class, UserSettings.class, pools)
                                 .withClassLoader(cl)
                                 .withExpiry(ExpiryPolicyBuilder.timeToLiveExpiration(Duration.ofDays(2)))
-                                .withService(cacheLogging))
+                                .withService(cacheEvents("userSettingsCache")))
                 .withCache("mediaFilePathCache",
-                        CacheConfigurationBuilder.newCacheConfigurationBuilder(String.class, MediaFile.class, pools)
+                        CacheConfigurationBuilder.newCacheConfigurationBuilder(String.class, MediaFile.class, mediaFilePools)
                                 .withClassLoader(cl)
+                                .withValueSerializer(mediaFileSerializer)
                                 .withExpiry(ExpiryPolicyBuilder.timeToLiveExpiration(Duration.ofHours(2)))
-                                .withService(cacheLogging))
+                                .withService(cacheEvents("mediaFilePathCache")))
                 .withCache("mediaFileIdCache",
-                        CacheConfigurationBuilder.newCacheConfigurationBuilder(Integer.class, MediaFile.class, pools)
+                        CacheConfigurationBuilder.newCacheConfigurationBuilder(Integer.class, MediaFile.class, mediaFilePools)
                                 .withClassLoader(cl)
+                                .withValueSerializer(mediaFileSerializer)
                                 .withExpiry(ExpiryPolicyBuilder.timeToLiveExpiration(Duration.ofHours(2)))
-                                .withService(cacheLogging))
+                                .withService(cacheEvents("mediaFileIdCache")))
+                // child id lists are small and only kept on heap
+                .withCache("mediaFileChildrenCache",
+                        CacheConfigurationBuilder.newCacheConfigurationBuilder(String.class, ChildIds.class,
+                                ResourcePoolsBuilder.newResourcePoolsBuilder().heap(mediaFileCacheConfig.getHeapEntries(), EntryUnit.ENTRIES))
+                                .withClassLoader(cl)
+                                .withExpiry(ExpiryPolicyBuilder.timeToLiveExpiration(Duration.ofHours(2)))
+                                .withService(cacheEvents("mediaFileChildrenCache")))
                 .withCache("coverArtCache",
                         CacheConfigurationBuilder.newCacheConfigurationBuilder(String.class, CoverArt.class, pools)
                                 .withClassLoader(cl)
                                 .withExpiry(ExpiryPolicyBuilder.timeToLiveExpiration(Duration.ofDays(2)))
-                                .withService(cacheLogging))
+                                .withService(cacheEvents("coverArtCache")))
                 .withCache("playlistCache",
                         CacheConfigurationBuilder.newCacheConfigurationBuilder(Integer.class, Playlist.class, pools)
                                 .withClassLoader(cl)
                                 .withExpiry(ExpiryPolicyBuilder.timeToLiveExpiration(Duration.ofDays(10)))
-                                .withService(cacheLogging))
+                                .withService(cacheEvents("playlistCache")))
                 .withCache("playlistUsersCache",
                         CacheConfigurationBuilder.newCacheConfigurationBuilder(Integer.class, Object.class, pools)
                                 .withClassLoader(cl)
                                 .withExpiry(ExpiryPolicyBuilder.timeToLiveExpiration(Duration.ofDays(10)))
-                                .withService(cacheLogging))
+                                .withService(cacheEvents("playlistUsersCache")))
+                // entries are whole responses, so keep fewer of them
+                .withCache("restResponseCache",
+                        CacheConfigurationBuilder.newCacheConfigurationBuilder(String.class, SerializedResponse.class,
+                                ResourcePoolsBuilder.newResourcePoolsBuilder().heap(100L, EntryUnit.ENTRIES))
+                                .withClassLoader(cl)
+                                .withExpiry(ExpiryPolicyBuilder.timeToLiveExpiration(Duration.ofHours(1)))
+                                .withService(cacheEvents("restResponseCache")))
                 .build();
     }
 
-    public static class CacheLogger implements CacheEventListener<Object, Object> {
-        private static final Logger LOG = LoggerFactory.getLogger(CacheLogger.class);
+    /**
+     * The media file caches are sized separately, as a large library needs far more than the other caches.
+     */
+    private ResourcePoolsBuilder createMediaFilePools() {
+        ResourcePoolsBuilder pools = ResourcePoolsBuilder.newResourcePoolsBuilder();
+        long heapSize = mediaFileCacheConfig.getHeapSize().toKilobytes();
+        if (heapSize > 0) {
+            pools = pools.heap(heapSize, MemoryUnit.KB);
+        } else {
+            pools = pools.heap(mediaFileCacheConfig.getHeapEntries(), EntryUnit.ENTRIES);
+        }
+        // the off-heap tier is larger than a heap sized in bytes, as AirsonicMediaFileCacheConfig checks
+        long offheapSize = mediaFileCacheConfig.getOffheapSize().toMegabytes();
+        if (offheapSize > 0) {
+            pools = pools.offheap(offheapSize, MemoryUnit.MB);
+        }
+        return pools;
+    }
+
+    /**
+     * Events are delivered asynchronously and unordered, so that cache operations don't wait for the listener.
+     */
+    private CacheEventListenerConfigurationBuilder cacheEvents(String cacheName) {
+        return CacheEventListenerConfigurationBuilder
+                .newEventListenerConfiguration(new CacheEventCounter(meterRegistry, cacheName), EnumSet.allOf(EventType.class))
+                .asynchronous()
+                .unordered();
+    }
+
+    /**
+     * Counts cache events in the cache.events meter, by cache and event type. The keys of the events are logged at
+     * TRACE, which can be switched on and off at runtime with the cacheeventlogging actuator endpoint.
+     */
+    public static class CacheEventCounter implements CacheEventListener<Object, Object> {
+        private static final Logger LOG = LoggerFactory.getLogger(CacheEventCounter.class);
+
+        private final String cacheName;
+        private final Map<EventType, Counter> counters = new EnumMap<>(EventType.class);
+
+        public CacheEventCounter(MeterRegistry meterRegistry, String cacheName) {
+            this.cacheName = cacheName;
+            for (EventType type : EventType.values()) {
+                counters.put(type, Counter.builder("cache.events")
+                        .description("Cache entries created, updated, removed, expired or evicted")
+                        .tag("cache", cacheName)
+                        .tag("type", type.name().toLowerCase())
+                        .register(meterRegistry));
+            }
+        }
 
         @Override
         public void onEvent(CacheEvent<?, ?> cacheEvent) {
-            LOG.info("Cache Key: {} | EventType: {} | Old value: {} | New value: {}", cacheEvent.getKey(),
-                    cacheEvent.getType(), cacheEvent.getOldValue(), cacheEvent.getNewValue());
+            counters.get(cacheEvent.getType()).increment();
+            if (LOG.isTraceEnabled()) {
+                LOG.trace("Cache: {} | Key: {} | EventType: {}", cacheName, cacheEvent.getKey(), cacheEvent.getType());
+            }
+        }
+    }
+
+    @Component
+    @Endpoint(id = "cacheeventlogging")
+    public static class CacheEventLoggingEndpoint {
+        @Autowired
+        private LoggingSystem loggingSystem;
+
+        @ReadOperation
+        public Map<String, Boolean> info() {
+            return Collections.singletonMap("enabled", LoggerFactory.getLogger(CacheEventCounter.class).isTraceEnabled());
+        }
+
+        @WriteOperation
+        public void configure(boolean enabled) {
+            loggingSystem.setLogLevel(CacheEventCounter.class.getName(), enabled ? LogLevel.TRACE : null);
         }
     }
 
@@ -0,0 +1,102 @@
+package org.airsonic.player.spring;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.airsonic.player.config.AirsonicDatabaseConfig;
+import org.airsonic.player.service.MediaScannerService;
+import org.airsonic.player.spring.RoutingDataSource.Pool;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.datasource.lookup.JndiDataSourceLookup;
+
+import javax.sql.DataSource;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+@Configuration
+public class DatabaseConfiguration {
+    private static final Logger LOG = LoggerFactory.getLogger(DatabaseConfiguration.class);
+
+    @Autowired
+    private AirsonicDatabaseConfig databaseConfig;
+
+    @Autowired
+    private Environment environment;
+
+    @Bean
+    public DataSource dataSource(DataSourceProperties properties) {
+        if (StringUtils.isNotBlank(properties.getJndiName())) {
+            // the container manages the connections
+            return new JndiDataSourceLookup().getDataSource(properties.getJndiName());
+        }
+
+        Map<Pool, HikariDataSource> pools = new EnumMap<>(Pool.class);
+        pools.put(Pool.INTERACTIVE, createPool(properties.initializeDataSourceBuilder(), Pool.INTERACTIVE,
+                databaseConfig.getInteractive(), 10));
+        // one connection for each scanner thread
+        pools.put(Pool.SCAN, createPool(properties.initializeDataSourceBuilder(), Pool.SCAN,
+                databaseConfig.getScan(), MediaScannerService.getScannerParallelism(environment)));
+        pools.put(Pool.BACKGROUND, createPool(properties.initializeDataSourceBuilder(), Pool.BACKGROUND,
+                databaseConfig.getBackground(), 2));
+        if (databaseConfig.isReplicaConfigured()) {
+            AirsonicDatabaseConfig.Pool replica = databaseConfig.getReplica();
+            LOG.info("Sending read-only queries to the replica at {}", replica.getUrl());
+            DataSourceBuilder<?> builder = DataSourceBuilder.create(properties.getClassLoader())
+                    .url(replica.getUrl())
+                    .username(StringUtils.defaultIfBlank(replica.getUsername(), properties.determineUsername()))
+                    .password(StringUtils.defaultIfBlank(replica.getPassword(), properties.determinePassword()));
+            pools.put(Pool.REPLICA, createPool(builder, Pool.REPLICA, replica, 10));
+        }
+        return new RoutingDataSource(pools, databaseConfig.getReadYourWritesWindow());
+    }
+
+    /**
+     * Creates a pool which connects on first use. The spring.datasource.hikari.* settings apply to every pool, as
+     * they would to the single pool Spring Boot creates, unless the settings of the pool override them.
+     */
+    private HikariDataSource createPool(DataSourceBuilder<?> builder, Pool pool, AirsonicDatabaseConfig.Pool config,
+            int defaultSize) {
+        HikariDataSource dataSource = builder.type(HikariDataSource.class).build();
+        dataSource.setMaximumPoolSize(defaultSize);
+        Binder.get(environment).bind("spring.datasource.hikari", Bindable.ofInstance(dataSource));
+        dataSource.setPoolName("airsonic-" + pool.name().toLowerCase());
+        if (config.getMaximumSize() > 0) {
+            dataSource.setMaximumPoolSize(config.getMaximumSize());
+        }
+        if (config.getMinimumIdle() > 0) {
+            dataSource.setMinimumIdle(config.getMinimumIdle());
+        }
+        if (config.getConnectionTimeout() != null) {
+            dataSource.setConnectionTimeout(config.getConnectionTimeout().toMillis());
+        }
+        if (config.getIdleTimeout() != null) {
+            dataSource.setIdleTimeout(config.getIdleTimeout().toMillis());
+        }
+        return dataSource;
+    }
+
+    /**
+     * Reports the metrics of each pool as hikaricp.* meters tagged with its name.
+     */
+    @Bean
+    public MeterBinder connectionPoolMetrics(DataSource dataSource) {
+        return registry -> {
+            if (dataSource instanceof RoutingDataSource) {
+                ((RoutingDataSource) dataSource).getPools().values().stream()
+                        .filter(pool -> pool.getMetricsTrackerFactory() == null && pool.getMetricRegistry() == null)
+                        .forEach(pool -> pool.setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(registry)));
+            }
+        };
+    }
+}
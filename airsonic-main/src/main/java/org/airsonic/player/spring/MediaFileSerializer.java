@@ -0,0 +1,158 @@
+package org.airsonic.player.spring;
+
+import org.airsonic.player.domain.MediaFile;
+import org.airsonic.player.domain.MediaFile.MediaType;
+import org.ehcache.spi.serialization.Serializer;
+import org.ehcache.spi.serialization.SerializerException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+/**
+ * Serializes media files for the off-heap tiers of the media file caches. The cover art placeholder of a media file
+ * is only used before it is persisted, and isn't serialized.
+ */
+public class MediaFileSerializer implements Serializer<MediaFile> {
+
+    @Override
+    public ByteBuffer serialize(MediaFile file) throws SerializerException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writeInteger(out, file.getId());
+            writeString(out, file.getPath());
+            writeInteger(out, file.getFolderId());
+            writeString(out, file.getMediaType() == null ? null : file.getMediaType().name());
+            writeDouble(out, file.getStartPosition());
+            writeString(out, file.getFormat());
+            writeString(out, file.getTitle());
+            writeString(out, file.getAlbumName());
+            writeString(out, file.getArtist());
+            writeString(out, file.getAlbumArtist());
+            writeInteger(out, file.getDiscNumber());
+            writeInteger(out, file.getTrackNumber());
+            writeInteger(out, file.getYear());
+            writeString(out, file.getGenre());
+            writeInteger(out, file.getBitRate());
+            out.writeBoolean(file.isVariableBitRate());
+            writeDouble(out, file.getDuration());
+            writeLong(out, file.getFileSize());
+            writeInteger(out, file.getWidth());
+            writeInteger(out, file.getHeight());
+            writeString(out, file.getParentPath());
+            writeString(out, file.getIndexPath());
+            out.writeInt(file.getPlayCount());
+            writeInstant(out, file.getLastPlayed());
+            writeString(out, file.getComment());
+            writeInstant(out, file.getCreated());
+            writeInstant(out, file.getChanged());
+            writeInstant(out, file.getLastScanned());
+            writeInstant(out, file.getChildrenLastUpdated());
+            out.writeBoolean(file.isPresent());
+            out.writeInt(file.getVersion());
+            writeString(out, file.getMusicBrainzReleaseId());
+            writeString(out, file.getMusicBrainzRecordingId());
+            writeInstant(out, file.getStarredDate());
+        } catch (IOException e) {
+            throw new SerializerException(e);
+        }
+        return ByteBuffer.wrap(bytes.toByteArray());
+    }
+
+    @Override
+    public MediaFile read(ByteBuffer binary) throws SerializerException {
+        byte[] bytes = new byte[binary.remaining()];
+        binary.get(bytes);
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            Integer id = readInteger(in);
+            String path = readString(in);
+            Integer folderId = readInteger(in);
+            String mediaType = readString(in);
+            MediaFile file = new MediaFile(id, path, folderId, mediaType == null ? null : MediaType.valueOf(mediaType),
+                    readDouble(in), readString(in), readString(in), readString(in), readString(in), readString(in),
+                    readInteger(in), readInteger(in), readInteger(in), readString(in), readInteger(in),
+                    in.readBoolean(), readDouble(in), readLong(in), readInteger(in), readInteger(in),
+                    readString(in), readString(in), in.readInt(), readInstant(in), readString(in),
+                    readInstant(in), readInstant(in), readInstant(in), readInstant(in), in.readBoolean(),
+                    in.readInt(), readString(in), readString(in));
+            file.setStarredDate(readInstant(in));
+            return file;
+        } catch (IOException e) {
+            throw new SerializerException(e);
+        }
+    }
+
+    @Override
+    public boolean equals(MediaFile file, ByteBuffer binary) throws SerializerException {
+        return serialize(file).equals(binary.duplicate());
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            // not writeUTF, which is limited to 64 KB
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static void writeInteger(DataOutputStream out, Integer value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeInt(value);
+        }
+    }
+
+    private static void writeLong(DataOutputStream out, Long value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeLong(value);
+        }
+    }
+
+    private static void writeDouble(DataOutputStream out, Double value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeDouble(value);
+        }
+    }
+
+    private static void writeInstant(DataOutputStream out, Instant value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeLong(value.getEpochSecond());
+            out.writeInt(value.getNano());
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static Integer readInteger(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readInt() : null;
+    }
+
+    private static Long readLong(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readLong() : null;
+    }
+
+    private static Double readDouble(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readDouble() : null;
+    }
+
+    private static Instant readInstant(DataInputStream in) throws IOException {
+        return in.readBoolean() ? Instant.ofEpochSecond(in.readLong(), in.readInt()) : null;
+    }
+}
@@ -0,0 +1,121 @@
+package org.airsonic.player.spring;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Supplier;
+
+/**
+ * Hands out connections from a separate pool for each kind of work, so that media library scans and scheduled tasks
+ * can't take all connections from web requests. Threads use the interactive pool unless they are bound to another
+ * one.
+ * <p>
+ * Read-only queries of the interactive pool go to the replica pool if there is one, unless the thread ran any other
+ * statement within the read-your-writes window, so that a request reads back what it has just written even if it
+ * hasn't reached the replica yet. Transactions keep the connection they started with.
+ */
+public class RoutingDataSource extends AbstractRoutingDataSource implements AutoCloseable {
+
+    public enum Pool {
+        INTERACTIVE, SCAN, BACKGROUND, REPLICA
+    }
+
+    private static final ThreadLocal<Pool> THREAD_POOL = ThreadLocal.withInitial(() -> Pool.INTERACTIVE);
+    private static final ThreadLocal<Boolean> READ_ONLY = ThreadLocal.withInitial(() -> Boolean.FALSE);
+    private static final ThreadLocal<Long> LAST_WRITE = new ThreadLocal<>();
+
+    private final Map<Pool, HikariDataSource> pools;
+    private final long readYourWritesNanos;
+
+    public RoutingDataSource(Map<Pool, HikariDataSource> pools, Duration readYourWritesWindow) {
+        this.pools = new EnumMap<>(pools);
+        this.readYourWritesNanos = readYourWritesWindow.toNanos();
+        setTargetDataSources(new HashMap<>(pools));
+        setDefaultTargetDataSource(pools.get(Pool.INTERACTIVE));
+    }
+
+    /**
+     * Makes the current thread use the given pool from now on. Meant for the threads of executors dedicated to one
+     * kind of work.
+     */
+    public static void bindThread(Pool pool) {
+        THREAD_POOL.set(pool);
+    }
+
+    /**
+     * Returns a thread factory whose threads are bound to the given pool.
+     */
+    public static ThreadFactory bindingThreadFactory(Pool pool, ThreadFactory threadFactory) {
+        return task -> threadFactory.newThread(() -> {
+            bindThread(pool);
+            task.run();
+        });
+    }
+
+    /**
+     * Wraps a task handed to a shared executor, such as the common pool of {@code CompletableFuture}, so that it uses
+     * the pool of the calling thread and reads the writes the caller has just made.
+     */
+    public static Runnable withCallerBinding(Runnable task) {
+        Pool pool = THREAD_POOL.get();
+        Long lastWrite = LAST_WRITE.get();
+        return () -> {
+            Pool previousPool = THREAD_POOL.get();
+            Long previousWrite = LAST_WRITE.get();
+            THREAD_POOL.set(pool);
+            LAST_WRITE.set(lastWrite);
+            try {
+                task.run();
+            } finally {
+                THREAD_POOL.set(previousPool);
+                LAST_WRITE.set(previousWrite);
+            }
+        };
+    }
+
+    /**
+     * Runs a query which doesn't write anything, and which may therefore be sent to the read replica.
+     */
+    public static <T> T readOnly(Supplier<T> query) {
+        Boolean previous = READ_ONLY.get();
+        READ_ONLY.set(Boolean.TRUE);
+        try {
+            return query.get();
+        } finally {
+            READ_ONLY.set(previous);
+        }
+    }
+
+    public Map<Pool, HikariDataSource> getPools() {
+        return pools;
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        Pool pool = THREAD_POOL.get();
+        if (pool != Pool.INTERACTIVE || !pools.containsKey(Pool.REPLICA)) {
+            return pool;
+        }
+        long now = System.nanoTime();
+        if (!READ_ONLY.get()) {
+            // anything not marked as read-only may write
+            LAST_WRITE.set(now);
+            return pool;
+        }
+        Long lastWrite = LAST_WRITE.get();
+        if (lastWrite != null && now - lastWrite < readYourWritesNanos) {
+            return pool;
+        }
+        return Pool.REPLICA;
+    }
+
+    @Override
+    public void close() {
+        pools.values().forEach(HikariDataSource::close);
+    }
+}
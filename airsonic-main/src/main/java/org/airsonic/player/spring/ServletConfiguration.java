@@ -3,7 +3,6 @@ package org.airsonic.player.spring;
 import org.airsonic.player.config.AirsonicHomeConfig;
 import org.airsonic.player.controller.PodcastController;
 import org.airsonic.player.filter.BootstrapVerificationFilter;
-import org.airsonic.player.filter.MetricsFilter;
 import org.airsonic.player.filter.ParameterDecodingFilter;
 import org.airsonic.player.filter.RESTFilter;
 import org.airsonic.player.filter.RequestEncodingFilter;
@@ -128,18 +127,6 @@ public class ServletConfiguration implements WebMvcConfigurer {
         return new ResponseHeaderFilter();
     }
 
-    @Bean
-    public FilterRegistrationBean<Filter> metricsFilterRegistration() {
-        FilterRegistrationBean<Filter> registration = new FilterRegistrationBean<>(metricsFilter());
-        registration.setOrder(7);
-        return registration;
-    }
-
-    @Bean
-    public Filter metricsFilter() {
-        return new MetricsFilter();
-    }
-
     @Bean
     public ViewResolver jspViewResolver() {
         InternalResourceViewResolver resolver = new InternalResourceViewResolver();
@@ -1,5 +1,7 @@
 package org.airsonic.player.spring;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
@@ -8,7 +10,13 @@ import org.springframework.context.annotation.Lazy;
 import org.springframework.http.server.ServerHttpRequest;
 import org.springframework.http.server.ServerHttpResponse;
 import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
+import org.springframework.messaging.support.ChannelInterceptor;
 import org.springframework.scheduling.TaskScheduler;
 import org.springframework.web.socket.WebSocketHandler;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
@@ -42,8 +50,10 @@ import java.util.Enumeration;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 import java.util.function.Supplier;
+import java.util.regex.Pattern;
 
 @Configuration
 @EnableWebSocketMessageBroker
@@ -51,6 +61,7 @@ public class WebsocketConfiguration implements WebSocketMessageBrokerConfigurer
     public static final String UNDERLYING_SERVLET_REQUEST = "servletRequest";
 
     private TaskScheduler messageBrokerTaskScheduler;
+    private MeterRegistry meterRegistry;
     private String contextPath;
 
     @Autowired
@@ -58,6 +69,11 @@ public class WebsocketConfiguration implements WebSocketMessageBrokerConfigurer
         this.messageBrokerTaskScheduler = taskScheduler;
     }
 
+    @Autowired
+    public void setMeterRegistry(@Lazy MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
     @Autowired
     @Value("${server.servlet.context-path:/}")
     public void setContextPath(String contextPath) {
@@ -74,6 +90,15 @@ public class WebsocketConfiguration implements WebSocketMessageBrokerConfigurer
         // this ensures publish order is serial at the cost of no parallelization and
         // performance - if performance is bad, this should be turned off
         config.setPreservePublishOrder(true);
+
+        // the broker delivers each published message to every subscriber of its destination
+        config.configureBrokerChannel()
+                .interceptors(new MessageCountingInterceptor(meterRegistry, "airsonic.websocket.published"));
+    }
+
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        registration.interceptors(new MessageCountingInterceptor(meterRegistry, "airsonic.websocket.delivered"));
     }
 
     @Override
@@ -85,6 +110,51 @@ public class WebsocketConfiguration implements WebSocketMessageBrokerConfigurer
                 .setClientLibraryUrl("../../script/sockjs-1.5.0.min.js");
     }
 
+    /**
+     * Counts the messages sent through a channel by destination. User destinations are only counted once they have
+     * been resolved to the sessions of the user, and the session and the ids in a destination are left out of the tag.
+     */
+    public static class MessageCountingInterceptor implements ChannelInterceptor {
+        private static final Pattern SESSION_SUFFIX = Pattern.compile("-user[^/]*$");
+        private static final Pattern ID_SEGMENT = Pattern.compile("/\\d+(?=/|$)");
+
+        private final MeterRegistry meterRegistry;
+        private final String name;
+        // by destination without the session, so that a destination is only normalized once
+        private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+
+        public MessageCountingInterceptor(MeterRegistry meterRegistry, String name) {
+            this.meterRegistry = meterRegistry;
+            this.name = name;
+        }
+
+        @Override
+        public Message<?> preSend(Message<?> message, MessageChannel channel) {
+            String destination = SimpMessageHeaderAccessor.getDestination(message.getHeaders());
+            if (SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) == SimpMessageType.MESSAGE
+                    && destination != null && !destination.startsWith("/user/")) {
+                counters.computeIfAbsent(withoutSession(destination), d -> Counter.builder(name)
+                        .tag("destination", normalize(d))
+                        .register(meterRegistry))
+                        .increment();
+            }
+            return message;
+        }
+
+        /**
+         * Strips the session which user destinations are resolved to, without a regular expression, as this runs for
+         * every message.
+         */
+        private static String withoutSession(String destination) {
+            int session = destination.lastIndexOf("-user");
+            return session > destination.lastIndexOf('/') ? destination.substring(0, session) : destination;
+        }
+
+        static String normalize(String destination) {
+            return ID_SEGMENT.matcher(SESSION_SUFFIX.matcher(destination).replaceFirst("")).replaceAll("/{id}");
+        }
+    }
+
     public static class ServletRequestCaptureHandshakeInterceptor implements HandshakeInterceptor {
         private final String contextPath;
 
@@ -62,15 +62,17 @@ public class MonitoredMultipartFile implements MultipartFile {
 
     @Override
     public InputStream getInputStream() throws IOException {
-        return file.getInputStream();
+        return new MonitoredInputStream(file.getInputStream(), listener);
     }
 
     @Override
     public void transferTo(File dest) throws IOException, IllegalStateException {
+        // copy from the stream rather than getBytes() so large uploads aren't buffered in memory
         try (
+            InputStream is = file.getInputStream();
             FileOutputStream fos = new FileOutputStream(dest);
             MonitoredOutputStream monitoredOutputStream = new MonitoredOutputStream(fos, listener)) {
-            monitoredOutputStream.write(file.getBytes());
+            is.transferTo(monitoredOutputStream);
         }
     }
 }
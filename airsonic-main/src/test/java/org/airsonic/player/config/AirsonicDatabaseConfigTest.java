@@ -0,0 +1,74 @@
+package org.airsonic.player.config;
+
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.test.context.ConfigDataApplicationContextInitializer;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AirsonicDatabaseConfigTest {
+
+    @Nested
+    @EnableConfigurationProperties({AirsonicDatabaseConfig.class})
+    @ContextConfiguration(initializers = {ConfigDataApplicationContextInitializer.class})
+    @ExtendWith(SpringExtension.class)
+    @TestPropertySource(properties = {
+        "airsonic.database.interactive.maximum-size=20",
+        "airsonic.database.scan.maximum-size=2",
+        "airsonic.database.scan.minimum-idle=1",
+        "airsonic.database.background.connection-timeout=5m",
+        "airsonic.database.replica.url=jdbc:postgresql://replica:5432/airsonic",
+        "airsonic.database.replica.username=reader",
+        "airsonic.database.read-your-writes-window=30s"
+    })
+    public class AirsonicDatabaseConfigTestWithProperties {
+
+        @Autowired
+        private AirsonicDatabaseConfig config;
+
+        @Test
+        public void testAirsonicDatabaseConfig() {
+            assertEquals(20, config.getInteractive().getMaximumSize());
+            assertEquals(2, config.getScan().getMaximumSize());
+            assertEquals(1, config.getScan().getMinimumIdle());
+            assertEquals(Duration.ofMinutes(5), config.getBackground().getConnectionTimeout());
+            assertTrue(config.isReplicaConfigured());
+            assertEquals("jdbc:postgresql://replica:5432/airsonic", config.getReplica().getUrl());
+            assertEquals("reader", config.getReplica().getUsername());
+            assertNull(config.getReplica().getPassword());
+            assertEquals(Duration.ofSeconds(30), config.getReadYourWritesWindow());
+        }
+    }
+
+    @Nested
+    @EnableConfigurationProperties({AirsonicDatabaseConfig.class})
+    @ContextConfiguration(initializers = {ConfigDataApplicationContextInitializer.class})
+    @ExtendWith(SpringExtension.class)
+    public class AirsonicDatabaseConfigTestWithDefaults {
+
+        @Autowired
+        private AirsonicDatabaseConfig config;
+
+        @Test
+        public void testAirsonicDatabaseConfig() {
+            assertEquals(0, config.getInteractive().getMaximumSize());
+            assertEquals(0, config.getScan().getMinimumIdle());
+            // left to the spring.datasource.hikari.* settings
+            assertNull(config.getBackground().getConnectionTimeout());
+            assertNull(config.getBackground().getIdleTimeout());
+            assertEquals(Duration.ofSeconds(5), config.getReadYourWritesWindow());
+            assertFalse(config.isReplicaConfigured());
+        }
+    }
+}
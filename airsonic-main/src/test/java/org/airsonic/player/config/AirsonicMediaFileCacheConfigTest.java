@@ -0,0 +1,73 @@
+package org.airsonic.player.config;
+
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.test.context.ConfigDataApplicationContextInitializer;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.util.unit.DataSize;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AirsonicMediaFileCacheConfigTest {
+
+    @Test
+    public void testOffheapSizeMustExceedHeapSize() {
+        assertThrows(IllegalArgumentException.class,
+            () -> new AirsonicMediaFileCacheConfig(10000, DataSize.ofMegabytes(64), DataSize.ofMegabytes(64), true));
+        assertThrows(IllegalArgumentException.class,
+            () -> new AirsonicMediaFileCacheConfig(10000, DataSize.ofMegabytes(64), DataSize.ofKilobytes(65600), true));
+        // a heap sized by entries or an absent off-heap tier is not compared
+        new AirsonicMediaFileCacheConfig(10000, DataSize.ofBytes(0), DataSize.ofMegabytes(1), true);
+        new AirsonicMediaFileCacheConfig(10000, DataSize.ofMegabytes(64), DataSize.ofBytes(0), true);
+    }
+
+    @Nested
+    @EnableConfigurationProperties({AirsonicMediaFileCacheConfig.class})
+    @ContextConfiguration(initializers = {ConfigDataApplicationContextInitializer.class})
+    @ExtendWith(SpringExtension.class)
+    @TestPropertySource(properties = {
+        "airsonic.cache.media-file.heap-entries=500",
+        "airsonic.cache.media-file.heap-size=64MB",
+        "airsonic.cache.media-file.offheap-size=256MB",
+        "airsonic.cache.media-file.warm-up=false"
+    })
+    public class AirsonicMediaFileCacheConfigTestWithProperties {
+
+        @Autowired
+        private AirsonicMediaFileCacheConfig config;
+
+        @Test
+        public void testAirsonicMediaFileCacheConfig() {
+            assertEquals(500, config.getHeapEntries());
+            assertEquals(DataSize.ofMegabytes(64), config.getHeapSize());
+            assertEquals(DataSize.ofMegabytes(256), config.getOffheapSize());
+            assertFalse(config.isWarmUp());
+        }
+    }
+
+    @Nested
+    @EnableConfigurationProperties({AirsonicMediaFileCacheConfig.class})
+    @ContextConfiguration(initializers = {ConfigDataApplicationContextInitializer.class})
+    @ExtendWith(SpringExtension.class)
+    public class AirsonicMediaFileCacheConfigTestWithDefaults {
+
+        @Autowired
+        private AirsonicMediaFileCacheConfig config;
+
+        @Test
+        public void testAirsonicMediaFileCacheConfig() {
+            assertEquals(10000, config.getHeapEntries());
+            assertEquals(DataSize.ofBytes(0), config.getHeapSize());
+            assertEquals(DataSize.ofBytes(0), config.getOffheapSize());
+            assertTrue(config.isWarmUp());
+        }
+    }
+}
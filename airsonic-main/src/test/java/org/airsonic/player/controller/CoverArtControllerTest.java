@@ -52,10 +52,12 @@ import org.springframework.test.web.servlet.MvcResult;
 import javax.imageio.ImageIO;
 
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.eq;
@@ -315,5 +317,21 @@ public class CoverArtControllerTest {
         assertArrayEquals(expected, actual);
     }
 
+    /** large images are subsampled while decoding */
+    @Test
+    public void readImageSubsamplesLargeSourceTest() throws Exception {
+        BufferedImage source = new BufferedImage(2000, 1600, BufferedImage.TYPE_INT_RGB);
+        try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            ImageIO.write(source, "png", out);
+
+            BufferedImage decoded = CoverArtController.readImage(new ByteArrayInputStream(out.toByteArray()), 100);
+            assertEquals(250, decoded.getWidth());
+            assertEquals(200, decoded.getHeight());
 
+            // small sources are decoded as is
+            decoded = CoverArtController.readImage(new ByteArrayInputStream(out.toByteArray()), 1000);
+            assertEquals(2000, decoded.getWidth());
+            assertEquals(1600, decoded.getHeight());
+        }
+    }
 }
@@ -0,0 +1,219 @@
+/*
+ This file is part of Airsonic.
+
+ Airsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Airsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Airsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2016 (C) Airsonic Authors
+ */
+package org.airsonic.player.controller;
+
+import com.google.common.util.concurrent.RateLimiter;
+import org.airsonic.player.domain.CoverArt;
+import org.airsonic.player.domain.MediaFile;
+import org.airsonic.player.domain.MediaFile.MediaType;
+import org.airsonic.player.domain.MusicFolder;
+import org.airsonic.player.domain.Player;
+import org.airsonic.player.domain.TransferStatus;
+import org.airsonic.player.domain.User;
+import org.airsonic.player.service.CoverArtService;
+import org.airsonic.player.service.MediaFileService;
+import org.airsonic.player.service.MediaFolderService;
+import org.airsonic.player.service.PlayerService;
+import org.airsonic.player.service.PlaylistService;
+import org.airsonic.player.service.SecurityService;
+import org.airsonic.player.service.SettingsService;
+import org.airsonic.player.service.StatusService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.head;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@WebMvcTest
+@ContextConfiguration(classes = {DownloadController.class})
+class DownloadControllerTest {
+
+    private static final int ALBUM_ID = 10;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockBean
+    private PlayerService playerService;
+
+    @MockBean
+    private StatusService statusService;
+
+    @MockBean
+    private SecurityService securityService;
+
+    @MockBean
+    private PlaylistService playlistService;
+
+    @MockBean
+    private SettingsService settingsService;
+
+    @MockBean
+    private MediaFileService mediaFileService;
+
+    @MockBean
+    private MediaFolderService mediaFolderService;
+
+    @MockBean
+    private CoverArtService coverArtService;
+
+    @TempDir
+    Path musicDir;
+
+    @BeforeEach
+    void setup() throws Exception {
+        Path album = Files.createDirectories(musicDir.resolve("Album"));
+        Files.write(album.resolve("01 - First.mp3"), new byte[1000]);
+        Files.write(album.resolve("02 - Second.mp3"), new byte[2000]);
+        MusicFolder folder = new MusicFolder(1, musicDir, "Music", MusicFolder.Type.MEDIA, true, Instant.now());
+
+        MediaFile directory = mediaFile("Album", MediaType.DIRECTORY);
+        List<MediaFile> children = List.of(
+                mediaFile("Album/01 - First.mp3", MediaType.MUSIC),
+                mediaFile("Album/02 - Second.mp3", MediaType.MUSIC));
+
+        User user = mock(User.class);
+        when(user.getUsername()).thenReturn("user");
+        Player player = new Player();
+        player.setUsername("user");
+
+        when(securityService.getUserByName("user")).thenReturn(user);
+        when(securityService.isFolderAccessAllowed(any(MediaFile.class), eq("user"))).thenReturn(true);
+        when(playerService.getPlayer(any(), any(), anyBoolean(), anyBoolean())).thenReturn(player);
+        when(statusService.createDownloadStatus(player)).thenAnswer(invocation -> new TransferStatus(player));
+        when(settingsService.getDownloadBitrateLimiter()).thenReturn(RateLimiter.create(Double.POSITIVE_INFINITY));
+        when(mediaFileService.getMediaFile(ALBUM_ID)).thenReturn(directory);
+        when(mediaFileService.getChildrenOf(directory, true, false, true)).thenReturn(children);
+        when(mediaFolderService.getMusicFolderById(1)).thenReturn(folder);
+        when(coverArtService.get(CoverArt.EntityType.MEDIA_FILE, ALBUM_ID)).thenReturn(CoverArt.NULL_ART);
+    }
+
+    private static MediaFile mediaFile(String path, MediaType type) {
+        MediaFile file = new MediaFile();
+        file.setId("Album".equals(path) ? ALBUM_ID : path.hashCode());
+        file.setPath(path);
+        file.setFolderId(1);
+        file.setMediaType(type);
+        return file;
+    }
+
+    private MvcResult downloadAlbum(HttpHeaders headers) throws Exception {
+        return mockMvc.perform(get("/download").param("id", String.valueOf(ALBUM_ID)).headers(headers)).andReturn();
+    }
+
+    private long archiveSize() throws Exception {
+        MvcResult result = mockMvc.perform(head("/download").param("id", String.valueOf(ALBUM_ID)))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ACCEPT_RANGES, "bytes"))
+                .andReturn();
+        return Long.parseLong(result.getResponse().getHeader(HttpHeaders.CONTENT_LENGTH));
+    }
+
+    private String archiveETag() throws Exception {
+        return mockMvc.perform(get("/download").param("id", String.valueOf(ALBUM_ID)))
+                .andExpect(status().isOk())
+                .andExpect(header().exists(HttpHeaders.ETAG))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+    }
+
+    @Test
+    @WithMockUser(username = "user")
+    void headReturnsSizeOfArchive() throws Exception {
+        long size = archiveSize();
+        MvcResult result = downloadAlbum(new HttpHeaders());
+
+        assertEquals(200, result.getResponse().getStatus());
+        assertEquals(size, result.getResponse().getContentAsByteArray().length);
+    }
+
+    @Test
+    @WithMockUser(username = "user")
+    void rangeIsServedFromArchive() throws Exception {
+        long size = archiveSize();
+        byte[] full = downloadAlbum(new HttpHeaders()).getResponse().getContentAsByteArray();
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RANGE, "bytes=10-19");
+        MvcResult result = downloadAlbum(headers);
+
+        assertEquals(206, result.getResponse().getStatus());
+        assertEquals("bytes 10-19/" + size, result.getResponse().getHeader(HttpHeaders.CONTENT_RANGE));
+        assertEquals("10", result.getResponse().getHeader(HttpHeaders.CONTENT_LENGTH));
+        byte[] expected = new byte[10];
+        System.arraycopy(full, 10, expected, 0, 10);
+        assertEquals(new String(expected, "ISO-8859-1"), new String(result.getResponse().getContentAsByteArray(), "ISO-8859-1"));
+    }
+
+    @Test
+    @WithMockUser(username = "user")
+    void rangeIsServedIfETagMatches() throws Exception {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RANGE, "bytes=100-");
+        headers.set(HttpHeaders.IF_RANGE, archiveETag());
+        MvcResult result = downloadAlbum(headers);
+
+        assertEquals(206, result.getResponse().getStatus());
+        assertEquals(archiveSize() - 100, result.getResponse().getContentAsByteArray().length);
+    }
+
+    @Test
+    @WithMockUser(username = "user")
+    void completeArchiveIsServedIfETagIsStale() throws Exception {
+        long size = archiveSize();
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RANGE, "bytes=100-");
+        headers.set(HttpHeaders.IF_RANGE, "\"stale\"");
+        MvcResult result = downloadAlbum(headers);
+
+        assertEquals(200, result.getResponse().getStatus());
+        assertEquals(String.valueOf(size), result.getResponse().getHeader(HttpHeaders.CONTENT_LENGTH));
+        assertEquals(size, result.getResponse().getContentAsByteArray().length);
+    }
+
+    @Test
+    @WithMockUser(username = "user")
+    void unsatisfiableRangeIsRejected() throws Exception {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RANGE, "bytes=" + (archiveSize() + 10) + "-");
+
+        assertEquals(416, downloadAlbum(headers).getResponse().getStatus());
+    }
+}
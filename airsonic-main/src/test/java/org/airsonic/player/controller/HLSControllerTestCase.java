@@ -20,6 +20,7 @@
  */
 package org.airsonic.player.controller;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.airsonic.player.config.AirsonicHomeConfig;
 import org.apache.commons.lang3.tuple.Pair;
 import org.junit.jupiter.api.Test;
@@ -49,7 +50,7 @@ public class HLSControllerTestCase {
     @Test
     public void testParseBitRate() throws Exception {
         when(homeConfig.getAirsonicHome()).thenReturn(Files.createTempDirectory("airsonicTest").toAbsolutePath());
-        HLSController controller = new HLSController(null, null, null, null, null, null, null, homeConfig);
+        HLSController controller = new HLSController(null, null, null, null, null, null, null, homeConfig, new SimpleMeterRegistry());
 
         Pair<Integer, Dimension> pair = controller.parseBitRate("1000", null);
         assertEquals(1000, pair.getLeft().intValue());
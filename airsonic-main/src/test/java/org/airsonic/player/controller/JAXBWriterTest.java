@@ -0,0 +1,68 @@
+package org.airsonic.player.controller;
+
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.subsonic.restapi.Response;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map.Entry;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class JAXBWriterTest {
+
+    private final JAXBWriter jaxbWriter = new JAXBWriter();
+
+    @Test
+    public void testWriteXml() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        jaxbWriter.writeResponse(request, response, jaxbWriter.createResponse(true));
+
+        assertThat(response.getContentType()).startsWith("text/xml");
+        assertThat(response.getHeader("Content-Encoding")).isNull();
+        assertThat(response.getContentAsString()).contains("<subsonic-response").contains("status=\"ok\"");
+    }
+
+    @Test
+    public void testWriteGzippedJson() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setParameter("f", "json");
+        request.addHeader("Accept-Encoding", "deflate, gzip");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        Response res = jaxbWriter.createResponse(true);
+        jaxbWriter.writeResponse(request, response, res);
+
+        assertThat(response.getContentType()).startsWith("application/json");
+        assertThat(response.getHeader("Content-Encoding")).isEqualTo("gzip");
+        String json = gunzip(response.getContentAsByteArray());
+        assertThat(json).startsWith("{\"subsonic-response\"").contains("\"status\"").contains("\"ok\"");
+
+        // same content as the non-streamed serialization
+        Entry<String, String> serialized = jaxbWriter.serializeForType(request, res);
+        assertThat(serialized.getValue()).isEqualTo(json);
+    }
+
+    @Test
+    public void testWriteJsonp() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setParameter("f", "jsonp");
+        request.setParameter("callback", "cb");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        jaxbWriter.writeResponse(request, response, jaxbWriter.createResponse(true));
+
+        assertThat(response.getContentType()).startsWith("application/javascript");
+        assertThat(response.getContentAsString()).startsWith("cb({").endsWith(");");
+    }
+
+    private static String gunzip(byte[] bytes) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -23,10 +23,12 @@ import org.airsonic.player.config.AirsonicHomeConfig;
 import org.airsonic.player.domain.Player;
 import org.airsonic.player.domain.TransferStatus;
 import org.airsonic.player.domain.User;
+import org.airsonic.player.service.MediaScannerService;
 import org.airsonic.player.service.PlayerService;
 import org.airsonic.player.service.SecurityService;
 import org.airsonic.player.service.SettingsService;
 import org.airsonic.player.service.StatusService;
+import org.airsonic.player.service.TaskSchedulingService;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
@@ -59,6 +61,8 @@ import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.Base64;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -69,8 +73,11 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.csrf;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.model;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.view;
@@ -85,6 +92,9 @@ class UploadControllerTest {
     @Autowired
     private MockMvc mockMvc;
 
+    @Autowired
+    private UploadController uploadController;
+
     @MockBean
     private StatusService statusService;
 
@@ -100,6 +110,12 @@ class UploadControllerTest {
     @MockBean
     private SecurityService securityService;
 
+    @MockBean
+    private MediaScannerService mediaScannerService;
+
+    @MockBean
+    private TaskSchedulingService taskSchedulingService;
+
     @TempDir
     private static Path tempDir;
 
@@ -179,6 +195,9 @@ class UploadControllerTest {
         // Check that files were uploaded
         assertTrue(Files.exists(tempUploadDir.resolve("test").resolve("test.txt")));
         assertTrue(Files.exists(tempUploadDir.resolve("test").resolve("test2.txt")));
+
+        // Check that only the upload directory is scanned
+        verify(mediaScannerService).scanDirectory(tempUploadDir.resolve("test"));
     }
 
     @Test
@@ -229,6 +248,7 @@ class UploadControllerTest {
 
         // Check that folder was not created
         assertFalse(Files.exists(tempUploadDir.resolve("test")));
+        verify(mediaScannerService, never()).scanDirectory(any());
     }
 
     @ParameterizedTest
@@ -439,18 +459,115 @@ class UploadControllerTest {
 
         // Check that model contains expected values
         assertEquals(List.of(), model.get("exceptions"));
-        assertEquals(2, model.get("uploadedFiles").size());
         assertTrue(model.get("unzippedFiles").contains(tempUploadDir.resolve("test").resolve("test.txt")));
         assertTrue(model.get("uploadedFiles").contains(tempUploadDir.resolve("test2.txt")));
-        assertTrue(model.get("uploadedFiles").contains(tempUploadDir.resolve(fileName)));
+        // archives that are extracted from the upload stream are never stored as a file
+        boolean streamed = !fileName.endsWith(".7z") && !fileName.endsWith(".rar");
+        assertEquals(streamed ? 1 : 2, model.get("uploadedFiles").size());
+        assertEquals(!streamed, model.get("uploadedFiles").contains(tempUploadDir.resolve(fileName)));
 
         // Check that files were uploaded
         assertFalse(Files.exists(tempUploadDir.resolve(fileName)));
         assertTrue(Files.exists(tempUploadDir.resolve("test").resolve("test.txt")));
         assertTrue(Files.exists(tempUploadDir.resolve("test2.txt")));
+        verify(mediaScannerService).scanDirectory(tempUploadDir);
     }
 
+    @Test
+    @WithMockUser(username = "user")
+    @MockitoSettings(strictness = Strictness.LENIENT)
+    void testChunkedUpload() throws Exception {
 
+        // Mocks
+        when(playerService.getPlayer(any(), any(), eq(false), eq(false))).thenReturn(mockedPlayer);
+        when(statusService.createUploadStatus(eq(mockedPlayer))).thenReturn(mockedStatus);
+        when(mockedStatus.getId()).thenReturn(UUID.randomUUID());
+        when(mockedStatus.getPlayer()).thenReturn(mockedPlayer);
+        when(mockedPlayer.getUsername()).thenReturn("user");
+        when(mockedUser.getUsername()).thenReturn("user");
+        when(mockedUser.isAdminRole()).thenReturn(true);
+        when(securityService.getCurrentUser(any())).thenReturn(mockedUser);
+        when(settingsService.getUploadBitrateLimiter()).thenReturn(RateLimiter.create(1000.0));
 
+        byte[] first = "first chunk, ".getBytes();
+        byte[] second = "second chunk".getBytes();
 
+        // Start upload
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.post("/upload/sessions")
+                .with(csrf())
+                .param("dir", tempUploadDir.toString())
+                .param("name", "test.txt")
+                .param("size", String.valueOf(first.length + second.length)))
+                .andExpect(status().isCreated())
+                .andExpect(header().string("Upload-Offset", "0"))
+                .andReturn();
+        String location = result.getResponse().getHeader("Location");
+
+        // Append first chunk
+        mockMvc.perform(MockMvcRequestBuilders.patch(location)
+                .with(csrf())
+                .header("Upload-Offset", 0)
+                .header("Upload-Checksum", "sha1 " + Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-1").digest(first)))
+                .content(first))
+                .andExpect(status().isNoContent())
+                .andExpect(header().string("Upload-Offset", String.valueOf(first.length)));
+
+        // Chunks must be appended at the current offset
+        mockMvc.perform(MockMvcRequestBuilders.patch(location)
+                .with(csrf())
+                .header("Upload-Offset", 0)
+                .content(second))
+                .andExpect(status().isConflict())
+                .andExpect(header().string("Upload-Offset", String.valueOf(first.length)));
+
+        // Chunks must not go beyond the length of the upload
+        mockMvc.perform(MockMvcRequestBuilders.patch(location)
+                .with(csrf())
+                .header("Upload-Offset", first.length)
+                .content((new String(second) + " and more").getBytes()))
+                .andExpect(status().isPayloadTooLarge())
+                .andExpect(header().string("Upload-Offset", String.valueOf(first.length)));
+
+        // Corrupted chunks are discarded
+        mockMvc.perform(MockMvcRequestBuilders.patch(location)
+                .with(csrf())
+                .header("Upload-Offset", first.length)
+                .header("Upload-Checksum", "sha1 " + Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-1").digest(first)))
+                .content(second))
+                .andExpect(status().is(460));
+        mockMvc.perform(MockMvcRequestBuilders.head(location))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Upload-Offset", String.valueOf(first.length)));
+        assertFalse(Files.exists(tempUploadDir.resolve("test.txt")));
+
+        // Last chunk completes the upload
+        mockMvc.perform(MockMvcRequestBuilders.patch(location)
+                .with(csrf())
+                .header("Upload-Offset", first.length)
+                .content(second))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Upload-Offset", String.valueOf(first.length + second.length)));
+
+        assertEquals("first chunk, second chunk", Files.readString(tempUploadDir.resolve("test.txt")));
+        verify(mediaScannerService).scanDirectory(tempUploadDir);
+
+        // The session is gone
+        mockMvc.perform(MockMvcRequestBuilders.head(location))
+                .andExpect(status().isNotFound());
+    }
+
+
+    @Test
+    void testInitOnlyRemovesStagingFiles() throws Exception {
+        Path stagingDir = Files.createDirectories(tempDir.resolve(".upload-staging"));
+        Path stagingFile = Files.createFile(stagingDir.resolve("upload123.part"));
+        Path otherFile = Files.createFile(stagingDir.resolve("notes.txt"));
+        Path uploaded = Files.createFile(Files.createDirectories(tempDir.resolve("uploads")).resolve("song.mp3"));
+
+        uploadController.init();
+
+        assertFalse(Files.exists(stagingFile));
+        assertTrue(Files.exists(otherFile));
+        assertTrue(Files.exists(uploaded));
+    }
 }
@@ -0,0 +1,171 @@
+/*
+ This file is part of Airsonic.
+
+ Airsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Airsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Airsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2016 (C) Airsonic Authors
+ */
+
+package org.airsonic.player.dao;
+
+import org.airsonic.player.config.AirsonicHomeConfig;
+import org.airsonic.player.domain.Album;
+import org.airsonic.player.domain.MusicFolder;
+import org.airsonic.player.domain.MusicFolder.Type;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.test.context.ConfigDataApplicationContextInitializer;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ContextConfiguration;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
+import static org.junit.Assert.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@SpringBootTest
+@EnableConfigurationProperties(AirsonicHomeConfig.class)
+@ContextConfiguration(initializers = ConfigDataApplicationContextInitializer.class)
+public class AlbumDaoTest {
+
+    @Autowired
+    AlbumDao albumDao;
+
+    @Autowired
+    MusicFolderDao musicFolderDao;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @TempDir
+    private static Path tempAirsonicDir;
+
+    private static final String MUSIC_FOLDER_PATH = "/albums";
+
+    private MusicFolder folder;
+
+    @BeforeAll
+    public static void setUp() {
+        System.setProperty("airsonic.home", tempAirsonicDir.toString());
+    }
+
+    @AfterAll
+    public static void cleanUp() {
+        System.clearProperty("airsonic.home");
+    }
+
+    @BeforeEach
+    public void createAlbums() {
+        folder = new MusicFolder(Paths.get(MUSIC_FOLDER_PATH), "albums", Type.MEDIA, true, Instant.now().truncatedTo(ChronoUnit.MICROS));
+        musicFolderDao.createMusicFolder(folder);
+        folder = musicFolderDao.getMusicFolderForPath(MUSIC_FOLDER_PATH);
+
+        Instant created = Instant.now().truncatedTo(ChronoUnit.MICROS);
+        // duplicate names and creation times, so that paging has to use the id to break ties
+        String[][] albums = { { "B", "Same" }, { "A", "Same" }, { "C", "Other" }, { "A", "Zebra" }, { "B", "Apple" } };
+        for (int i = 0; i < albums.length; i++) {
+            Album album = new Album();
+            album.setPath("album" + i);
+            album.setArtist(albums[i][0]);
+            album.setName(albums[i][1]);
+            album.setCreated(created.minusSeconds(i / 2));
+            album.setLastScanned(created);
+            album.setPresent(true);
+            album.setFolderId(folder.getId());
+            albumDao.createOrUpdateAlbum(album);
+        }
+    }
+
+    @AfterEach
+    public void deleteAlbums() {
+        jdbcTemplate.execute("DELETE FROM album");
+        musicFolderDao.deleteMusicFolder(folder.getId());
+    }
+
+    @Test
+    public void testAlphabeticalCursorMatchesOffset() {
+        assertAlphabeticalCursorMatchesOffset(false, false);
+        assertAlphabeticalCursorMatchesOffset(false, true);
+        assertAlphabeticalCursorMatchesOffset(true, false);
+        assertAlphabeticalCursorMatchesOffset(true, true);
+    }
+
+    @Test
+    public void testNewestCursorMatchesOffset() {
+        List<Album> expected = albumDao.getNewestAlbums(0, Integer.MAX_VALUE, Collections.singletonList(folder));
+        List<Album> paged = fetchAll((last, count) -> albumDao.getNewestAlbums(last, count, Collections.singletonList(folder)), AlbumDao::getNewestCursor);
+        assertEquals(ids(expected), ids(paged));
+    }
+
+    @Test
+    public void testCursorForOtherListIsRejected() {
+        Album album = albumDao.getNewestAlbums(0, 1, Collections.singletonList(folder)).get(0);
+        KeysetCursor cursor = KeysetCursor.decode(AlbumDao.getNewestCursor(album).encode());
+        // the IllegalArgumentException is translated by the repository proxy
+        assertThrows(InvalidDataAccessApiUsageException.class, () -> albumDao.getAlphabeticalAlbums(cursor, 2, false, false, Collections.singletonList(folder)));
+    }
+
+    @Test
+    public void testGetAlbumsByNameMatchesArtistAndName() {
+        List<Album> albums = albumDao.getAlbumsByName(List.of("A", "B"), List.of("Same", "Apple", "Other"));
+        assertEquals(Set.of("A|Same", "B|Same", "B|Apple"),
+                albums.stream().map(a -> a.getArtist() + "|" + a.getName()).collect(toSet()));
+    }
+
+    private void assertAlphabeticalCursorMatchesOffset(boolean byArtist, boolean ignoreCase) {
+        List<Album> expected = albumDao.getAlphabeticalAlbums(0, Integer.MAX_VALUE, byArtist, ignoreCase, Collections.singletonList(folder));
+        assertEquals(5, expected.size());
+        Function<Album, KeysetCursor> cursorFactory = a -> AlbumDao.getAlphabeticalCursor(a, byArtist, ignoreCase);
+        List<Album> paged = fetchAll((last, count) -> albumDao.getAlphabeticalAlbums(last, count, byArtist, ignoreCase, Collections.singletonList(folder)), cursorFactory);
+        assertEquals(ids(expected), ids(paged));
+    }
+
+    private static List<Album> fetchAll(BiFunction<KeysetCursor, Integer, List<Album>> query, Function<Album, KeysetCursor> cursorFactory) {
+        List<Album> result = new ArrayList<>();
+        KeysetCursor last = null;
+        List<Album> chunk;
+        do {
+            chunk = query.apply(last, 2);
+            result.addAll(chunk);
+            if (!chunk.isEmpty()) {
+                // round trip through the encoding clients see
+                last = KeysetCursor.decode(cursorFactory.apply(chunk.get(chunk.size() - 1)).encode());
+            }
+        } while (chunk.size() == 2);
+        return result;
+    }
+
+    private static List<Integer> ids(List<Album> albums) {
+        return albums.stream().map(Album::getId).collect(toList());
+    }
+}
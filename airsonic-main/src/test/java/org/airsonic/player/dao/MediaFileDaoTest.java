@@ -19,6 +19,7 @@
 
 package org.airsonic.player.dao;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import org.airsonic.player.config.AirsonicHomeConfig;
 import org.airsonic.player.domain.MediaFile;
 import org.airsonic.player.domain.MediaFile.MediaType;
@@ -41,9 +42,18 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Unit test of {@link MediaFileDao}.
@@ -64,6 +74,9 @@ public class MediaFileDaoTest {
     @Autowired
     JdbcTemplate jdbcTemplate;
 
+    @Autowired
+    MeterRegistry meterRegistry;
+
     @TempDir
     private static Path tempAirsonicDir;
 
@@ -137,4 +150,201 @@ public class MediaFileDaoTest {
         assertEquals(0, wrongPathTracks.size());
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testCreateOrUpdateMediaFile() {
+        MusicFolder folder = musicFolderDao.getAllMusicFolders().get(0);
+        MediaFile mediaFile = new MediaFile();
+        mediaFile.setFolderId(folder.getId());
+        mediaFile.setPath("dir/test.mp3");
+        mediaFile.setParentPath("dir");
+        mediaFile.setMediaType(MediaType.MUSIC);
+        mediaFile.setStartPosition(MediaFile.NOT_INDEXED);
+        mediaFile.setTitle("title");
+        mediaFile.setCreated(Instant.now());
+        mediaFile.setChanged(Instant.now());
+        mediaFile.setLastScanned(Instant.now());
+        mediaFile.setChildrenLastUpdated(Instant.now());
+        mediaFileDao.createOrUpdateMediaFile(mediaFile, file -> {});
+        Integer id = mediaFile.getId();
+        assertNotNull(id);
+
+        // without an id, the file is found by its path
+        mediaFile.setId(null);
+        mediaFile.setTitle("by path");
+        mediaFile.setTrackNumber(3);
+        mediaFileDao.createOrUpdateMediaFile(mediaFile, file -> {});
+        assertEquals(id, mediaFile.getId());
+        MediaFile stored = mediaFileDao.getMediaFile(id);
+        assertEquals("by path", stored.getTitle());
+        assertEquals(Integer.valueOf(3), stored.getTrackNumber());
+
+        // with an id, the path can change too
+        mediaFile.setPath("dir/renamed.mp3");
+        mediaFile.setTitle("by id");
+        mediaFile.setPresent(false);
+        mediaFileDao.createOrUpdateMediaFile(mediaFile, file -> {});
+        stored = mediaFileDao.getMediaFile(id);
+        assertEquals("dir/renamed.mp3", stored.getPath());
+        assertEquals("by id", stored.getTitle());
+        assertFalse(stored.isPresent());
+        assertNull(mediaFileDao.getMediaFile("dir/test.mp3", folder.getId()));
+
+        assertEquals(1, mediaFileDao.getChildrenOf("dir", folder.getId(), false, false).size());
+        assertEquals(0, mediaFileDao.getChildrenOf("dir", folder.getId(), true, false).size());
+        assertEquals(1, mediaFileDao.getChildrenOf("dir", folder.getId(), false, true).size());
+        assertEquals(0, mediaFileDao.getChildrenOf("dir", folder.getId(), true, true).size());
+    }
+
+    @Test
+    public void testStatementsAreTimedByDaoMethod() {
+        MusicFolder folder = musicFolderDao.getAllMusicFolders().get(0);
+        MediaFile mediaFile = new MediaFile();
+        mediaFile.setFolderId(folder.getId());
+        mediaFile.setPath("timed.mp3");
+        mediaFile.setMediaType(MediaType.MUSIC);
+        mediaFile.setStartPosition(MediaFile.NOT_INDEXED);
+        mediaFile.setCreated(Instant.now());
+        mediaFile.setChanged(Instant.now());
+        mediaFile.setLastScanned(Instant.now());
+        mediaFile.setChildrenLastUpdated(Instant.now());
+        mediaFileDao.createOrUpdateMediaFile(mediaFile, file -> {});
+        mediaFileDao.getChildrenOf("", folder.getId(), true, true);
+
+        // named after the methods of the DAO, also when they are transactional
+        assertNotNull(meterRegistry.find("airsonic.dao.query")
+                .tags("dao", "MediaFileDao", "method", "createOrUpdateMediaFile").timer());
+        assertNotNull(meterRegistry.find("airsonic.dao.query")
+                .tags("dao", "MediaFileDao", "method", "getChildrenOf").timer());
+    }
+
+    @Test
+    public void testChecksumIsInvalidatedWhenFileChanges() {
+        MusicFolder folder = musicFolderDao.getAllMusicFolders().get(0);
+        MediaFile mediaFile = new MediaFile();
+        mediaFile.setFolderId(folder.getId());
+        mediaFile.setPath("test.flac");
+        mediaFile.setMediaType(MediaType.MUSIC);
+        mediaFile.setStartPosition(MediaFile.NOT_INDEXED);
+        mediaFile.setCreated(Instant.now());
+        mediaFile.setChanged(Instant.now());
+        mediaFile.setLastScanned(Instant.now());
+        mediaFile.setChildrenLastUpdated(Instant.now());
+        mediaFileDao.createOrUpdateMediaFile(mediaFile, file -> {});
+
+        Instant changed = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+        assertNull(mediaFileDao.getChecksum(mediaFile.getId(), changed, 100L));
+
+        mediaFileDao.updateChecksum(mediaFile.getId(), changed, 100L, 0xCAFEBABEL);
+        assertEquals(Long.valueOf(0xCAFEBABEL), mediaFileDao.getChecksum(mediaFile.getId(), changed, 100L));
+        assertNull(mediaFileDao.getChecksum(mediaFile.getId(), changed.plusSeconds(1), 100L));
+        assertNull(mediaFileDao.getChecksum(mediaFile.getId(), changed, 101L));
+
+        // updating replaces the stored checksum
+        mediaFileDao.updateChecksum(mediaFile.getId(), changed.plusSeconds(1), 101L, 42L);
+        assertEquals(Long.valueOf(42L), mediaFileDao.getChecksum(mediaFile.getId(), changed.plusSeconds(1), 101L));
+        assertNull(mediaFileDao.getChecksum(mediaFile.getId(), changed, 100L));
+    }
+
+    @Test
+    public void testBatchLookups() {
+        MusicFolder folder = musicFolderDao.getAllMusicFolders().get(0);
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            MediaFile mediaFile = new MediaFile();
+            mediaFile.setFolderId(folder.getId());
+            mediaFile.setPath("dir" + i);
+            mediaFile.setMediaType(MediaType.DIRECTORY);
+            mediaFile.setStartPosition(MediaFile.NOT_INDEXED);
+            mediaFile.setCreated(Instant.now());
+            mediaFile.setChanged(Instant.now());
+            mediaFile.setLastScanned(Instant.now());
+            mediaFile.setChildrenLastUpdated(Instant.now());
+            mediaFileDao.createOrUpdateMediaFile(mediaFile, file -> {});
+            ids.add(mediaFile.getId());
+        }
+
+        Map<String, Integer> found = mediaFileDao.getMediaFileIds(folder.getId(), Arrays.asList("dir0", "dir2", "missing"));
+        assertEquals(2, found.size());
+        assertEquals(ids.get(0), found.get("dir0"));
+        assertEquals(ids.get(2), found.get("dir2"));
+
+        mediaFileDao.starMediaFile(ids.get(1), "admin");
+        Map<Integer, Instant> starred = mediaFileDao.getMediaFileStarredDates(ids, "admin");
+        assertEquals(1, starred.size());
+        assertNotNull(starred.get(ids.get(1)));
+        mediaFileDao.unstarMediaFile(ids.get(1), "admin");
+    }
+
+    @Test
+    public void testSongAttributes() {
+        MusicFolder folder = musicFolderDao.getAllMusicFolders().get(0);
+        MediaFile album = createFile(folder, "album", MediaType.ALBUM);
+        MediaFile song = createFile(folder, "album/song.mp3", MediaType.MUSIC);
+        MediaFile indexed = createFile(folder, "album/image.flac", MediaType.MUSIC);
+        indexed.setIndexPath("album/image.cue");
+        mediaFileDao.createOrUpdateMediaFile(indexed, file -> {});
+
+        List<Object[]> songs = new ArrayList<>();
+        mediaFileDao.getSongAttributes((id, folderId, genre, format, year, playCount, lastPlayed, albumId) -> {
+            songs.add(new Object[] {id, folderId, genre, format, year, playCount, lastPlayed, albumId});
+        });
+        assertEquals(1, songs.size());
+        assertArrayEquals(new Object[] {song.getId(), folder.getId(), "Rock", "mp3", 1999, 0, null, album.getId()}, songs.get(0));
+    }
+
+    @Test
+    public void testMarkNonPresentReturnsMarkedFiles() {
+        MusicFolder folder = musicFolderDao.getAllMusicFolders().get(0);
+        MediaFile removed = createFile(folder, "removed", MediaType.ALBUM);
+        Instant scanDate = Instant.now().plusSeconds(10).truncatedTo(ChronoUnit.MICROS);
+        MediaFile scanned = createFile(folder, "scanned", MediaType.ALBUM);
+        mediaFileDao.markScanned(List.of(scanned.getId()), scanDate);
+
+        List<MediaFile> nonPresent = mediaFileDao.markNonPresent(scanDate);
+        assertEquals(1, nonPresent.size());
+        assertEquals(removed.getId(), nonPresent.get(0).getId());
+        assertEquals(removed.getPath(), nonPresent.get(0).getPath());
+        assertEquals(removed.getFolderId(), nonPresent.get(0).getFolderId());
+        assertEquals(removed.getStartPosition(), nonPresent.get(0).getStartPosition());
+        assertFalse(mediaFileDao.getMediaFile(removed.getId()).isPresent());
+        assertTrue(mediaFileDao.getMediaFile(scanned.getId()).isPresent());
+
+        // already marked
+        assertTrue(mediaFileDao.markNonPresent(scanDate).isEmpty());
+    }
+
+    @Test
+    public void testGetPresentMediaFilesAfter() {
+        MusicFolder folder = musicFolderDao.getAllMusicFolders().get(0);
+        MediaFile file1 = createFile(folder, "1", MediaType.ALBUM);
+        MediaFile file2 = createFile(folder, "2", MediaType.ALBUM);
+        createFile(folder, "3", MediaType.ALBUM);
+        MediaFile file4 = createFile(folder, "4", MediaType.ALBUM);
+        mediaFileDao.deleteMediaFile("3", MediaFile.NOT_INDEXED, folder.getId());
+
+        List<MediaFile> batch = mediaFileDao.getPresentMediaFilesAfter(file1.getId(), 2);
+        assertEquals(Arrays.asList(file2.getId(), file4.getId()), batch.stream().map(MediaFile::getId).collect(Collectors.toList()));
+        assertTrue(mediaFileDao.getPresentMediaFilesAfter(file4.getId(), 2).isEmpty());
+        assertEquals(1, mediaFileDao.getPresentMediaFilesAfter(0, 1).size());
+    }
+
+    private MediaFile createFile(MusicFolder folder, String path, MediaType type) {
+        MediaFile mediaFile = new MediaFile();
+        mediaFile.setFolderId(folder.getId());
+        mediaFile.setPath(path);
+        mediaFile.setMediaType(type);
+        mediaFile.setAlbumName("Album");
+        mediaFile.setArtist("Artist");
+        mediaFile.setGenre("Rock");
+        mediaFile.setFormat("mp3");
+        mediaFile.setYear(1999);
+        mediaFile.setPresent(true);
+        mediaFile.setStartPosition(MediaFile.NOT_INDEXED);
+        mediaFile.setCreated(Instant.now());
+        mediaFile.setChanged(Instant.now());
+        mediaFile.setLastScanned(Instant.now());
+        mediaFile.setChildrenLastUpdated(Instant.now());
+        mediaFileDao.createOrUpdateMediaFile(mediaFile, file -> {});
+        return mediaFile;
+    }
+}
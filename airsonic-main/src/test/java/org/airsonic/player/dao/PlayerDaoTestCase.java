@@ -137,6 +137,25 @@ public class PlayerDaoTestCase extends DaoTestCaseBean2 {
         assertPlayerEquals(player, newPlayer);
     }
 
+    @Test
+    public void testUpdateLastSeen() {
+        Player p1 = new Player();
+        p1.setName("name");
+        playerDao.createPlayer(p1);
+        Player p2 = new Player();
+        playerDao.createPlayer(p2);
+
+        p1.setType("Winamp");
+        p1.setUsername("username");
+        p1.setIpAddress("ipaddress");
+        p1.setLastSeen(Instant.now().truncatedTo(ChronoUnit.MICROS));
+        p2.setLastSeen(Instant.now().truncatedTo(ChronoUnit.MICROS));
+        playerDao.updateLastSeen(List.of(p1, p2));
+
+        assertPlayerEquals(p1, playerDao.getPlayerById(p1.getId()));
+        assertPlayerEquals(p2, playerDao.getPlayerById(p2.getId()));
+    }
+
     @Test
     public void testDeletePlayer() {
         assertEquals("Wrong number of players.", 0, playerDao.getAllPlayers().size());
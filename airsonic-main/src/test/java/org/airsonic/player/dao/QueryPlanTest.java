@@ -0,0 +1,219 @@
+package org.airsonic.player.dao;
+
+import org.airsonic.player.config.AirsonicHomeConfig;
+import org.airsonic.player.domain.MusicFolder;
+import org.airsonic.player.domain.MusicFolder.Type;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.test.context.ConfigDataApplicationContextInitializer;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.test.context.ContextConfiguration;
+
+import javax.sql.DataSource;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs the queries on the hot paths of the DAOs against a synthetic library, and checks that the plan of none of them
+ * scans a whole table. The size of the library can be set with the airsonic.test.queryPlanSongs system property, but
+ * HSQLDB picks its plans by the available indexes rather than by the size of the tables.
+ */
+@SpringBootTest
+@EnableConfigurationProperties(AirsonicHomeConfig.class)
+@ContextConfiguration(initializers = ConfigDataApplicationContextInitializer.class)
+public class QueryPlanTest {
+
+    private static final String MUSIC_FOLDER_PATH = "/queryplan";
+    private static final int SONGS_PER_ALBUM = 10;
+    private static final int ALBUMS_PER_ARTIST = 5;
+    private static final List<String> LOW_SELECTIVITY_INDICES = Arrays.asList("IDX_MEDIA_FILE_TYPE",
+        "IDX_MEDIA_FILE_PRESENT", "IDX_ALBUM_PRESENT", "IDX_ARTIST_PRESENT");
+
+    @TempDir
+    private static Path tempAirsonicDir;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MusicFolderDao musicFolderDao;
+
+    private final List<String> statements = Collections.synchronizedList(new ArrayList<>());
+
+    @BeforeAll
+    public static void setUp() {
+        System.setProperty("airsonic.home", tempAirsonicDir.toString());
+    }
+
+    @AfterAll
+    public static void cleanUp() {
+        System.clearProperty("airsonic.home");
+    }
+
+    @AfterEach
+    public void cleanUpAfter() {
+        jdbcTemplate.execute("delete from starred_media_file");
+        jdbcTemplate.execute("delete from starred_album");
+        jdbcTemplate.execute("delete from media_file");
+        jdbcTemplate.execute("delete from album");
+        jdbcTemplate.execute("delete from artist");
+        MusicFolder folder = musicFolderDao.getMusicFolderForPath(MUSIC_FOLDER_PATH);
+        musicFolderDao.deleteMusicFolder(folder.getId());
+    }
+
+    @Test
+    public void testHotQueriesUseIndexes() throws Exception {
+        MusicFolder folder = new MusicFolder(Paths.get(MUSIC_FOLDER_PATH), "queryplan", Type.MEDIA, true, Instant.now().truncatedTo(ChronoUnit.MICROS));
+        musicFolderDao.createMusicFolder(folder);
+        List<MusicFolder> folders = Collections.singletonList(folder);
+        seed(folder.getId(), Integer.getInteger("airsonic.test.queryPlanSongs", 5000));
+
+        MediaFileDao mediaFileDao = record(new MediaFileDao());
+        AlbumDao albumDao = record(new AlbumDao());
+        ArtistDao artistDao = record(new ArtistDao());
+        int id = jdbcTemplate.queryForObject("select max(id) from media_file", Integer.class);
+
+        Map<String, Runnable> queries = new LinkedHashMap<>();
+        queries.put("MediaFileDao.getMediaFile(path)", () -> mediaFileDao.getMediaFile("artist1/album1/song1.mp3", folder.getId()));
+        queries.put("MediaFileDao.getMediaFile(id)", () -> mediaFileDao.getMediaFile(id));
+        queries.put("MediaFileDao.getChildrenOf", () -> mediaFileDao.getChildrenOf("artist1/album1", folder.getId(), true, true));
+        queries.put("MediaFileDao.getSongsForAlbum", () -> mediaFileDao.getSongsForAlbum("artist1", "album1"));
+        queries.put("MediaFileDao.getArtistByName", () -> mediaFileDao.getArtistByName("artist1", folders));
+        queries.put("MediaFileDao.getNewestAlbums", () -> mediaFileDao.getNewestAlbums(0, 10, folders));
+        queries.put("MediaFileDao.getAlphabeticalAlbums", () -> mediaFileDao.getAlphabeticalAlbums(0, 10, true, folders));
+        queries.put("MediaFileDao.getMostFrequentlyPlayedAlbums", () -> mediaFileDao.getMostFrequentlyPlayedAlbums(0, 10, folders));
+        queries.put("MediaFileDao.getMostRecentlyPlayedAlbums", () -> mediaFileDao.getMostRecentlyPlayedAlbums(0, 10, folders));
+        queries.put("MediaFileDao.getAlbumsByGenre", () -> mediaFileDao.getAlbumsByGenre(0, 10, "genre1", folders));
+        queries.put("MediaFileDao.getSongsByGenre", () -> mediaFileDao.getSongsByGenre("genre1", 0, 10, folders));
+        queries.put("MediaFileDao.getStarredFiles", () -> mediaFileDao.getStarredFiles(0, 10, "admin", folders));
+        queries.put("MediaFileDao.getStarredAlbums", () -> mediaFileDao.getStarredAlbums(0, 10, "admin", folders));
+        queries.put("MediaFileDao.getMediaFileStarredDate", () -> mediaFileDao.getMediaFileStarredDate(id, "admin"));
+        queries.put("MediaFileDao.getMediaFileStarredDates", () -> mediaFileDao.getMediaFileStarredDates("admin"));
+        queries.put("AlbumDao.getAlbum", () -> albumDao.getAlbum("artist1", "album1"));
+        queries.put("AlbumDao.getAlbumsForArtist", () -> albumDao.getAlbumsForArtist("artist1", folders));
+        queries.put("AlbumDao.getNewestAlbums", () -> albumDao.getNewestAlbums(0, 10, folders));
+        queries.put("AlbumDao.getAlphabeticalAlbums", () -> albumDao.getAlphabeticalAlbums(0, 10, false, false, folders));
+        queries.put("AlbumDao.getStarredAlbums", () -> albumDao.getStarredAlbums(0, 10, "admin", folders));
+        queries.put("ArtistDao.getArtist", () -> artistDao.getArtist("artist1"));
+        queries.put("ArtistDao.getAlphabeticalArtists", () -> artistDao.getAlphabetialArtists(0, 10, folders));
+
+        List<String> scans = new ArrayList<>();
+        queries.forEach((name, query) -> {
+            statements.clear();
+            query.run();
+            assertThat(statements).as(name).isNotEmpty();
+            for (String sql : statements) {
+                String plan = String.join("\n", explain(sql));
+                if (isScan(plan)) {
+                    scans.add(name + ": " + sql + "\n" + plan);
+                }
+            }
+        });
+        assertThat(scans).isEmpty();
+    }
+
+    /**
+     * Whether the plan reads the whole table, or the part of it matching a low-selectivity index. Walking an index in
+     * the order of the query is fine, as it stops after the requested page.
+     */
+    private static boolean isScan(String plan) {
+        if (plan.contains("access=FULL SCAN")) {
+            return !plan.contains("uses index");
+        }
+        return LOW_SELECTIVITY_INDICES.stream().anyMatch(index -> plan.contains("index=" + index + "\n"));
+    }
+
+    private void seed(int folderId, int songs) {
+        Timestamp now = Timestamp.from(Instant.now());
+        List<Object[]> files = new ArrayList<>();
+        List<Object[]> albums = new ArrayList<>();
+        List<Object[]> artists = new ArrayList<>();
+        int albumCount = Math.max(1, songs / SONGS_PER_ALBUM);
+        for (int a = 0; a < albumCount; a++) {
+            String artist = "artist" + (a / ALBUMS_PER_ARTIST);
+            String album = "album" + a;
+            String albumPath = artist + "/" + album;
+            if (a % ALBUMS_PER_ARTIST == 0) {
+                files.add(file(artist, "", "DIRECTORY", artist, null, null, folderId, now));
+                artists.add(new Object[] { artist, ALBUMS_PER_ARTIST, now, true, folderId });
+            }
+            files.add(file(albumPath, artist, "ALBUM", artist, album, "genre" + (a % 20), folderId, now));
+            albums.add(new Object[] { albumPath, album, artist, SONGS_PER_ALBUM, 0.0, "genre" + (a % 20), 0, now, now, true, folderId });
+            for (int s = 0; s < SONGS_PER_ALBUM; s++) {
+                files.add(file(albumPath + "/song" + s + ".mp3", albumPath, "MUSIC", artist, album, "genre" + (a % 20), folderId, now));
+            }
+        }
+        jdbcTemplate.batchUpdate("insert into media_file (path, parent_path, type, artist, album_artist, album, title, genre, "
+                + "folder_id, start_position, variable_bit_rate, play_count, created, changed, last_scanned, children_last_updated, present, version) "
+                + "values (?, ?, ?, ?, ?, ?, ?, ?, ?, -1, false, 0, ?, ?, ?, ?, true, " + MediaFileDao.VERSION + ")", files);
+        jdbcTemplate.batchUpdate("insert into album (path, name, artist, song_count, duration, genre, play_count, created, "
+                + "last_scanned, present, folder_id) values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)", albums);
+        jdbcTemplate.batchUpdate("insert into artist (name, album_count, last_scanned, present, folder_id) values (?, ?, ?, ?, ?)", artists);
+        jdbcTemplate.update("insert into starred_media_file (media_file_id, username, created) select id, 'admin', created "
+                + "from media_file where type = 'ALBUM' and mod(id, 10) = 0");
+    }
+
+    private static Object[] file(String path, String parentPath, String type, String artist, String album, String genre,
+            int folderId, Timestamp now) {
+        String title = path.substring(path.lastIndexOf('/') + 1);
+        return new Object[] { path, parentPath, type, artist, artist, album, title, genre, folderId, now, now, now, now };
+    }
+
+    /**
+     * Makes the DAO run its statements on a connection which records them.
+     */
+    private <T extends AbstractDao> T record(T dao) {
+        DataSource recording = new DelegatingDataSource(dataSource) {
+            @Override
+            public Connection getConnection() throws SQLException {
+                Connection connection = super.getConnection();
+                return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Connection.class },
+                    (proxy, method, args) -> {
+                        if (method.getName().startsWith("prepare") && args != null && args[0] instanceof String) {
+                            statements.add((String) args[0]);
+                        }
+                        try {
+                            return method.invoke(connection, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    });
+            }
+        };
+        dao.jdbcTemplate = new JdbcTemplate(recording);
+        dao.namedParameterJdbcTemplate = new NamedParameterJdbcTemplate(dao.jdbcTemplate);
+        return dao;
+    }
+
+    private List<String> explain(String sql) {
+        return jdbcTemplate.query(connection -> connection.prepareStatement("explain plan for " + sql),
+            (rs, rowNum) -> rs.getString(1));
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ This file is part of Airsonic.
+
+ Airsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Airsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Airsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2016 (C) Airsonic Authors
+ */
+
+package org.airsonic.player.dao;
+
+import org.airsonic.player.config.AirsonicHomeConfig;
+import org.airsonic.player.domain.MediaFile;
+import org.airsonic.player.domain.MediaFile.MediaType;
+import org.airsonic.player.domain.MusicFolder;
+import org.airsonic.player.domain.MusicFolder.Type;
+import org.airsonic.player.domain.User;
+import org.airsonic.player.domain.UserCredential;
+import org.airsonic.player.domain.UserCredential.App;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.test.context.ConfigDataApplicationContextInitializer;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ContextConfiguration;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CyclicBarrier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+@SpringBootTest
+@EnableConfigurationProperties(AirsonicHomeConfig.class)
+@ContextConfiguration(initializers = ConfigDataApplicationContextInitializer.class)
+public class RatingDaoTest {
+
+    @Autowired
+    RatingDao ratingDao;
+
+    @Autowired
+    MediaFileDao mediaFileDao;
+
+    @Autowired
+    MusicFolderDao musicFolderDao;
+
+    @Autowired
+    UserDao userDao;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @TempDir
+    private static Path tempAirsonicDir;
+
+    private static final String MUSIC_FOLDER_PATH = "/ratings";
+    private static final String TEST_USER_NAME = "ratingDaoTest";
+
+    private MusicFolder folder;
+    private MediaFile album;
+
+    @BeforeAll
+    public static void setUp() {
+        System.setProperty("airsonic.home", tempAirsonicDir.toString());
+    }
+
+    @AfterAll
+    public static void cleanUp() {
+        System.clearProperty("airsonic.home");
+    }
+
+    @BeforeEach
+    public void createAlbum() {
+        folder = new MusicFolder(Paths.get(MUSIC_FOLDER_PATH), "ratings", Type.MEDIA, true, Instant.now().truncatedTo(ChronoUnit.MICROS));
+        musicFolderDao.createMusicFolder(folder);
+        folder = musicFolderDao.getMusicFolderForPath(MUSIC_FOLDER_PATH);
+
+        album = new MediaFile();
+        album.setFolderId(folder.getId());
+        album.setPath("album");
+        album.setMediaType(MediaType.ALBUM);
+        album.setPresent(true);
+        album.setStartPosition(MediaFile.NOT_INDEXED);
+        album.setCreated(Instant.now());
+        album.setChanged(Instant.now());
+        album.setLastScanned(Instant.now());
+        album.setChildrenLastUpdated(Instant.now());
+        mediaFileDao.createOrUpdateMediaFile(album, file -> {});
+
+        userDao.createUser(new User(TEST_USER_NAME, "rating_dao_test@example.com"),
+                new UserCredential(TEST_USER_NAME, TEST_USER_NAME, "secret", "noop", App.AIRSONIC));
+    }
+
+    @AfterEach
+    public void deleteAlbum() {
+        userDao.deleteUser(TEST_USER_NAME);
+        jdbcTemplate.execute("DELETE FROM media_file");
+        musicFolderDao.deleteMusicFolder(folder.getId());
+    }
+
+    @Test
+    public void testAverageRatingIsMaintained() {
+        assertNull(ratingDao.getAverageRating(album));
+
+        ratingDao.setRatingForUser("admin", album, 5);
+        ratingDao.setRatingForUser(TEST_USER_NAME, album, 2);
+        assertEquals(3.5, ratingDao.getAverageRating(album), 0.001);
+        assertEquals(Collections.singletonMap(album.getId(), 3.5), ratingDao.getAverageRatings(List.of(album.getId())));
+
+        // changing a rating
+        ratingDao.setRatingForUser(TEST_USER_NAME, album, 4);
+        assertEquals(4.5, ratingDao.getAverageRating(album), 0.001);
+
+        // out of range ratings are ignored
+        ratingDao.setRatingForUser(TEST_USER_NAME, album, 6);
+        assertEquals(4.5, ratingDao.getAverageRating(album), 0.001);
+
+        // removing a rating
+        ratingDao.setRatingForUser("admin", album, null);
+        assertEquals(4.0, ratingDao.getAverageRating(album), 0.001);
+        assertEquals(List.of(album.getId()), ratingDao.getHighestRatedAlbums(0, 10, List.of(folder)));
+
+        // deleting the ratings of a user
+        ratingDao.setRatingForUser("admin", album, 1);
+        ratingDao.deleteRatingsForUser(TEST_USER_NAME);
+        assertEquals(1.0, ratingDao.getAverageRating(album), 0.001);
+        assertEquals(Collections.singletonMap(album.getId(), 1), ratingDao.getRatingsForUser("admin"));
+
+        ratingDao.rebuildAverageRatings();
+        assertEquals(1.0, ratingDao.getAverageRating(album), 0.001);
+
+        ratingDao.setRatingForUser("admin", album, null);
+        assertNull(ratingDao.getAverageRating(album));
+        assertEquals(Collections.emptyList(), ratingDao.getHighestRatedAlbums(0, 10, List.of(folder)));
+    }
+
+    @Test
+    public void testConcurrentFirstRatingsAreAllCounted() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            CyclicBarrier barrier = new CyclicBarrier(2);
+            CompletableFuture<Void> admin = CompletableFuture.runAsync(() -> {
+                await(barrier);
+                ratingDao.setRatingForUser("admin", album, 5);
+            });
+            CompletableFuture<Void> user = CompletableFuture.runAsync(() -> {
+                await(barrier);
+                ratingDao.setRatingForUser(TEST_USER_NAME, album, 3);
+            });
+            CompletableFuture.allOf(admin, user).get();
+
+            assertEquals(4.0, ratingDao.getAverageRating(album), 0.001);
+            ratingDao.setRatingForUser("admin", album, null);
+            ratingDao.setRatingForUser(TEST_USER_NAME, album, null);
+            assertNull(ratingDao.getAverageRating(album));
+        }
+    }
+
+    private static void await(CyclicBarrier barrier) {
+        try {
+            barrier.await();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package org.airsonic.player.io;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class StoredZipArchiveTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private List<StoredZipArchive.Entry> createEntries() throws IOException {
+        Path dir = temporaryFolder.newFolder("album").toPath();
+        Path track1 = Files.write(dir.resolve("01 - track.flac"), "first track".getBytes(StandardCharsets.UTF_8));
+        Path track2 = Files.write(dir.resolve("02 - track.flac"), "second track, a bit longer".getBytes(StandardCharsets.UTF_8));
+        // entry names don't need to match the file names, so only the name in the archive is non-ASCII
+        Instant modified = Instant.parse("2020-05-17T10:15:30Z");
+        return Arrays.asList(
+                new StoredZipArchive.Entry("album/", dir, 0, modified, null),
+                new StoredZipArchive.Entry("album/01 - track.flac", track1, Files.size(track1), modified, null),
+                new StoredZipArchive.Entry("album/02 - träck.flac", track2, Files.size(track2), modified, null));
+    }
+
+    @Test
+    public void testArchiveIsReadable() throws IOException {
+        AtomicInteger computed = new AtomicInteger();
+        StoredZipArchive archive = new StoredZipArchive(createEntries(), e -> {
+            computed.incrementAndGet();
+            return StoredZipArchive.computeCrc(e.getFile(), e.getSize());
+        });
+
+        byte[] bytes;
+        try (InputStream in = archive.getInputStream()) {
+            bytes = in.readAllBytes();
+        }
+        assertThat(bytes).hasSize((int) archive.contentLength());
+        // directories don't need a checksum, files are only checksummed once
+        assertThat(computed.get()).isEqualTo(2);
+
+        try (ZipInputStream zin = new ZipInputStream(new ByteArrayInputStream(bytes))) {
+            assertThat(zin.getNextEntry().getName()).isEqualTo("album/");
+            ZipEntry entry = zin.getNextEntry();
+            assertThat(entry.getName()).isEqualTo("album/01 - track.flac");
+            assertThat(new String(zin.readAllBytes(), StandardCharsets.UTF_8)).isEqualTo("first track");
+            entry = zin.getNextEntry();
+            assertThat(entry.getName()).isEqualTo("album/02 - träck.flac");
+            assertThat(new String(zin.readAllBytes(), StandardCharsets.UTF_8)).isEqualTo("second track, a bit longer");
+            assertThat(zin.getNextEntry()).isNull();
+        }
+
+        Path zip = temporaryFolder.newFile("album.zip").toPath();
+        Files.write(zip, bytes);
+        try (ZipFile zipFile = new ZipFile(zip.toFile())) {
+            ZipEntry entry = zipFile.getEntry("album/02 - träck.flac");
+            CRC32 crc = new CRC32();
+            crc.update("second track, a bit longer".getBytes(StandardCharsets.UTF_8));
+            assertThat(entry.getCrc()).isEqualTo(crc.getValue());
+            assertThat(entry.getMethod()).isEqualTo(ZipEntry.STORED);
+        }
+    }
+
+    @Test
+    public void testSkipProducesSameBytes() throws IOException {
+        StoredZipArchive archive = new StoredZipArchive(createEntries(), e -> StoredZipArchive.computeCrc(e.getFile(), e.getSize()));
+
+        byte[] full;
+        try (InputStream in = archive.getInputStream()) {
+            full = in.readAllBytes();
+        }
+
+        for (int offset = 0; offset <= full.length; offset += 7) {
+            try (InputStream in = archive.getInputStream()) {
+                assertThat(in.skip(offset)).isEqualTo(offset);
+                byte[] rest = in.readAllBytes();
+                assertThat(rest).isEqualTo(Arrays.copyOfRange(full, offset, full.length));
+            }
+        }
+    }
+
+    @Test
+    public void testKnownChecksumsAreNotComputed() throws IOException {
+        List<StoredZipArchive.Entry> entries = createEntries();
+        StoredZipArchive reference = new StoredZipArchive(entries, e -> StoredZipArchive.computeCrc(e.getFile(), e.getSize()));
+        byte[] expected;
+        try (InputStream in = reference.getInputStream()) {
+            expected = in.readAllBytes();
+        }
+
+        List<StoredZipArchive.Entry> known = createEntriesWithChecksums(entries);
+        StoredZipArchive archive = new StoredZipArchive(known, e -> {
+            throw new IOException("Checksum of " + e.getName() + " should not be computed");
+        });
+        try (InputStream in = archive.getInputStream()) {
+            assertThat(in.readAllBytes()).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    public void testETagDependsOnEntries() throws IOException {
+        List<StoredZipArchive.Entry> entries = createEntries();
+        StoredZipArchive archive = new StoredZipArchive(entries, e -> 0L);
+        StoredZipArchive sameArchive = new StoredZipArchive(createEntriesWithChecksums(entries), e -> 0L);
+        assertThat(sameArchive.getETag()).isEqualTo(archive.getETag());
+        assertThat(archive.lastModified()).isEqualTo(Instant.parse("2020-05-17T10:15:30Z").toEpochMilli());
+
+        StoredZipArchive.Entry last = entries.get(2);
+        StoredZipArchive modified = new StoredZipArchive(Arrays.asList(entries.get(0), entries.get(1),
+                new StoredZipArchive.Entry(last.getName(), last.getFile(), last.getSize(), last.getLastModified().plusSeconds(1), null)), e -> 0L);
+        assertThat(modified.getETag()).isNotEqualTo(archive.getETag());
+        assertThat(new StoredZipArchive(entries.subList(0, 2), e -> 0L).getETag()).isNotEqualTo(archive.getETag());
+    }
+
+    private static List<StoredZipArchive.Entry> createEntriesWithChecksums(List<StoredZipArchive.Entry> entries) throws IOException {
+        StoredZipArchive.Entry[] result = new StoredZipArchive.Entry[entries.size()];
+        for (int i = 0; i < result.length; i++) {
+            StoredZipArchive.Entry e = entries.get(i);
+            Long crc = e.isDirectory() ? null : StoredZipArchive.computeCrc(e.getFile(), e.getSize());
+            result[i] = new StoredZipArchive.Entry(e.getName(), e.getFile(), e.getSize(), e.getLastModified(), crc);
+        }
+        return Arrays.asList(result);
+    }
+}
@@ -0,0 +1,28 @@
+package org.airsonic.player.security;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CsrfSecurityRequestMatcherTest {
+
+    private final CsrfSecurityRequestMatcher matcher = new CsrfSecurityRequestMatcher();
+
+    private static MockHttpServletRequest request(String method, String path) {
+        MockHttpServletRequest request = new MockHttpServletRequest(method, path);
+        request.setServletPath(path);
+        return request;
+    }
+
+    @Test
+    public void testActuatorWritesRequireToken() {
+        assertThat(matcher.matches(request("POST", "/actuator/cacheeventlogging"))).isTrue();
+        assertThat(matcher.matches(request("GET", "/actuator/cacheeventlogging"))).isFalse();
+    }
+
+    @Test
+    public void testRestRequestsDoNotRequireToken() {
+        assertThat(matcher.matches(request("POST", "/rest/ping.view"))).isFalse();
+    }
+}
@@ -0,0 +1,42 @@
+package org.airsonic.player.security;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SaltedTokenPasswordEncoderTest {
+
+    private final AesGcmPasswordEncoder aesEncoder = new AesGcmPasswordEncoder("testpass", "2D9AAC35B41C0DB14C8170BE555DC0C9");
+    private final AtomicInteger decodings = new AtomicInteger();
+    private final SaltedTokenPasswordEncoder encoder = new SaltedTokenPasswordEncoder(encoded -> {
+        decodings.incrementAndGet();
+        return aesEncoder.decode(encoded);
+    });
+
+    private static String saltToken(String password, String salt) {
+        return new SaltToken(salt, DigestUtils.md5Hex(password + salt)).toString();
+    }
+
+    @Test
+    public void testMatchesWithNewSaltsWithoutDecodingAgain() {
+        String stored = aesEncoder.encode("secret");
+
+        assertThat(encoder.matches(saltToken("secret", "salt1"), stored)).isTrue();
+        assertThat(encoder.matches(saltToken("secret", "salt2"), stored)).isTrue();
+        assertThat(encoder.matches(saltToken("wrong", "salt3"), stored)).isFalse();
+        assertThat(decodings).hasValue(1);
+    }
+
+    @Test
+    public void testChangedPasswordIsDecodedAgain() {
+        assertThat(encoder.matches(saltToken("secret", "salt1"), aesEncoder.encode("secret"))).isTrue();
+
+        String changed = aesEncoder.encode("changed");
+        assertThat(encoder.matches(saltToken("secret", "salt2"), changed)).isFalse();
+        assertThat(encoder.matches(saltToken("changed", "salt3"), changed)).isTrue();
+        assertThat(decodings).hasValue(2);
+    }
+}
@@ -0,0 +1,80 @@
+package org.airsonic.player.service;
+
+import org.airsonic.player.dao.AlbumDao;
+import org.airsonic.player.dao.ArtistDao;
+import org.airsonic.player.dao.MediaFileDao;
+import org.airsonic.player.dao.RatingDao;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Instant;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class AnnotationServiceTest {
+
+    @Mock
+    private MediaFileDao mediaFileDao;
+    @Mock
+    private AlbumDao albumDao;
+    @Mock
+    private ArtistDao artistDao;
+    @Mock
+    private RatingDao ratingDao;
+
+    @InjectMocks
+    private AnnotationService annotationService;
+
+    @Test
+    public void onlyTheChangedUserIsReloaded() {
+        Instant starred = Instant.now();
+        when(mediaFileDao.getMediaFileStarredDates("alice")).thenReturn(Map.of(1, starred));
+        when(mediaFileDao.getMediaFileStarredDates("bob")).thenReturn(Map.of());
+
+        assertThat(annotationService.getMediaFileStarredDate(1, "alice")).isEqualTo(starred);
+        assertThat(annotationService.getMediaFileStarredDate(1, "bob")).isNull();
+
+        when(mediaFileDao.getMediaFileStarredDates("bob")).thenReturn(Map.of(1, starred));
+        annotationService.invalidate("bob");
+
+        assertThat(annotationService.getMediaFileStarredDate(1, "alice")).isEqualTo(starred);
+        assertThat(annotationService.getMediaFileStarredDate(1, "bob")).isEqualTo(starred);
+        verify(mediaFileDao, times(1)).getMediaFileStarredDates("alice");
+        verify(mediaFileDao, times(2)).getMediaFileStarredDates("bob");
+    }
+
+    @Test
+    public void allUsersAreReloadedAfterInvalidateAll() {
+        when(mediaFileDao.getMediaFileStarredDates("alice")).thenReturn(Map.of());
+        when(mediaFileDao.getMediaFileStarredDates("bob")).thenReturn(Map.of());
+        annotationService.getMediaFileStarredDate(1, "alice");
+        annotationService.getMediaFileStarredDate(1, "bob");
+
+        annotationService.invalidateAll();
+        annotationService.getMediaFileStarredDate(1, "alice");
+        annotationService.getMediaFileStarredDate(1, "bob");
+
+        verify(mediaFileDao, times(2)).getMediaFileStarredDates("alice");
+        verify(mediaFileDao, times(2)).getMediaFileStarredDates("bob");
+    }
+
+    @Test
+    public void deletedUsersAreForgotten() {
+        Instant starred = Instant.now();
+        when(mediaFileDao.getMediaFileStarredDates("alice")).thenReturn(Map.of(1, starred));
+        assertThat(annotationService.getMediaFileStarredDate(1, "alice")).isEqualTo(starred);
+
+        annotationService.removeUser("alice");
+        when(mediaFileDao.getMediaFileStarredDates("alice")).thenReturn(Map.of());
+
+        assertThat(annotationService.getMediaFileStarredDate(1, "alice")).isNull();
+    }
+}
@@ -2,6 +2,7 @@ package org.airsonic.player.service;
 
 import org.airsonic.player.config.AirsonicHomeConfig;
 import org.airsonic.player.dao.DatabaseDao;
+import org.airsonic.player.dao.RatingDao;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
@@ -18,12 +19,18 @@ import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 
 import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
 
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
@@ -50,6 +57,21 @@ class DatabaseServiceTest {
     @Mock
     private SimpMessagingTemplate brokerTemplate;
 
+    @Mock
+    private RatingDao ratingDao;
+
+    @Mock
+    private LibraryGenerationService libraryGenerationService;
+
+    @Mock
+    private AnnotationService annotationService;
+
+    @Mock
+    private RandomSongService randomSongService;
+
+    @Mock
+    private PlayerService playerService;
+
     @Spy
     private Runnable backupTask = new Runnable() {
         @Override
@@ -132,6 +154,48 @@ class DatabaseServiceTest {
         assertTrue(result);
     }
 
+    @Test
+    void testBackupIsIncremental() throws Exception {
+        // Arrange
+        Path dbPath = Files.createDirectories(tempDir.resolve("incremental").resolve("db")).resolve("airsonic");
+        Path script = Files.writeString(Paths.get(dbPath + ".script"), "CREATE SCHEMA PUBLIC");
+        Path log = Files.writeString(Paths.get(dbPath + ".log"), "INSERT INTO USERS VALUES('before snapshot')");
+        Path set = tempDir.resolve("incremental").resolve("backups").resolve("db.backup.20200101000000");
+        when(settingsService.getDatabaseUrl()).thenReturn("jdbc:hsqldb:file:" + dbPath + ";");
+        when(settingsService.getDbBackupRetentionCount()).thenReturn(-1);
+        // the checkpoint before the snapshot empties the log
+        doAnswer(invocation -> Files.writeString(log, "")).when(databaseDao).backupHsqlDb(any());
+
+        // Act & Assert: the first backup of a set is a snapshot
+        databaseService.backup();
+        verify(databaseDao).backupHsqlDb(set.resolve("snapshot.tar.gz"));
+
+        // nothing changed since
+        databaseService.backup();
+        assertFalse(Files.exists(set.resolve("log.1.gz")));
+
+        // the following backups compress everything logged since the snapshot
+        Files.writeString(log, "INSERT INTO USERS VALUES('admin')");
+        databaseService.backup();
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(set.resolve("log.1.gz")))) {
+            assertEquals("INSERT INTO USERS VALUES('admin')", new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+        verify(databaseDao, times(1)).backupHsqlDb(any());
+
+        // only what was appended since goes into the next one
+        Files.writeString(log, "\nDELETE FROM USERS", StandardOpenOption.APPEND);
+        databaseService.backup();
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(set.resolve("log.2.gz")))) {
+            assertEquals("\nDELETE FROM USERS", new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+
+        // a checkpoint starts a new set
+        Files.setLastModifiedTime(script, FileTime.fromMillis(Files.getLastModifiedTime(script).toMillis() + 10000));
+        databaseService.backup();
+        verify(databaseDao, times(2)).backupHsqlDb(set.resolve("snapshot.tar.gz"));
+        assertFalse(Files.exists(set.resolve("log.1.gz")));
+    }
+
     @Test
     void testExportDB() throws Exception {
         // Arrange
@@ -206,6 +270,10 @@ class DatabaseServiceTest {
         // Assert
         assertFalse(filePath.toFile().exists());
         verify(databaseDao).importDB(any());
+        verify(ratingDao).rebuildAverageRatings();
+        verify(annotationService).invalidateAll();
+        verify(randomSongService).invalidate();
+        verify(playerService).reloadPlayers();
         verify(brokerTemplate, times(7)).convertAndSend(anyString(), anyString());
     }
 
@@ -0,0 +1,99 @@
+package org.airsonic.player.service;
+
+import org.airsonic.player.dao.AlbumDao;
+import org.airsonic.player.dao.ArtistDao;
+import org.airsonic.player.dao.MediaFileDao;
+import org.airsonic.player.dao.RatingDao;
+import org.airsonic.player.domain.Album;
+import org.airsonic.player.domain.Artist;
+import org.airsonic.player.domain.MediaFile;
+import org.airsonic.player.domain.MediaFile.MediaType;
+import org.airsonic.player.service.HydrationService.Hydration;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class HydrationServiceTest {
+
+    @Mock
+    private MediaFileDao mediaFileDao;
+    @Mock
+    private RatingDao ratingDao;
+    @Mock
+    private AlbumDao albumDao;
+    @Mock
+    private ArtistDao artistDao;
+    @Mock
+    private CoverArtService coverArtService;
+    @Mock
+    private MediaFileService mediaFileService;
+    @Mock
+    private AnnotationService annotationService;
+
+    @InjectMocks
+    private HydrationService hydrationService;
+
+    private static MediaFile song(int id, String artist, String albumArtist, String albumName) {
+        MediaFile song = new MediaFile();
+        song.setId(id);
+        song.setMediaType(MediaType.MUSIC);
+        song.setArtist(artist);
+        song.setAlbumArtist(albumArtist);
+        song.setAlbumName(albumName);
+        return song;
+    }
+
+    private static Album album(int id, String artist, String name) {
+        return new Album(id, "path", name, artist, 1, 0.0, null, null, 0, null, null, Instant.now(), Instant.now(), true, 1, null);
+    }
+
+    @Test
+    public void exactNamesArePreferred() {
+        MediaFile song = song(1, "ABBA", "ABBA", "Gold");
+        when(albumDao.getAlbumsByName(Set.of("ABBA"), Set.of("Gold")))
+                .thenReturn(List.of(album(10, "Abba", "gold"), album(11, "ABBA", "Gold")));
+        when(artistDao.getArtistsByName(Set.of("ABBA")))
+                .thenReturn(List.of(new Artist(20, "abba", 1, Instant.now(), true, 1), new Artist(21, "ABBA", 1, Instant.now(), true, 1)));
+
+        Hydration hydration = hydrationService.hydrateMediaFiles(List.of(song), "user");
+
+        assertThat(hydration.getAlbumId(song)).isEqualTo(11);
+        assertThat(hydration.getArtistId("ABBA")).isEqualTo(21);
+    }
+
+    @Test
+    public void namesFoundByCaseInsensitiveDatabaseAreMatched() {
+        // a database which ignores case returns the rows whose names differ in case only
+        MediaFile song = song(1, "Abba", "Abba", "GOLD");
+        when(albumDao.getAlbumsByName(Set.of("Abba"), Set.of("GOLD"))).thenReturn(List.of(album(10, "ABBA", "Gold")));
+        when(artistDao.getArtistsByName(Set.of("Abba"))).thenReturn(List.of(new Artist(20, "ABBA", 1, Instant.now(), true, 1)));
+
+        Hydration hydration = hydrationService.hydrateMediaFiles(List.of(song), "user");
+
+        assertThat(hydration.getAlbumId(song)).isEqualTo(10);
+        assertThat(hydration.getArtistId("Abba")).isEqualTo(20);
+    }
+
+    @Test
+    public void albumsOfOtherArtistsAreNotMatched() {
+        MediaFile first = song(1, "ABBA", "ABBA", "Gold");
+        MediaFile second = song(2, "Spandau Ballet", "Spandau Ballet", "True");
+        when(albumDao.getAlbumsByName(Set.of("ABBA", "Spandau Ballet"), Set.of("Gold", "True")))
+                .thenReturn(List.of(album(10, "Spandau Ballet", "Gold"), album(11, "Spandau Ballet", "True")));
+
+        Hydration hydration = hydrationService.hydrateMediaFiles(List.of(first, second), "user");
+
+        assertThat(hydration.getAlbumId(first)).isNull();
+        assertThat(hydration.getAlbumId(second)).isEqualTo(11);
+    }
+}
@@ -4,6 +4,7 @@ import org.airsonic.player.dao.MediaFileDao;
 import org.airsonic.player.domain.MediaFile;
 import org.airsonic.player.domain.MediaFile.MediaType;
 import org.airsonic.player.domain.MusicFolder;
+import org.airsonic.player.domain.MusicFolder.Type;
 import org.airsonic.player.service.metadata.MetaDataParserFactory;
 import org.apache.commons.lang3.tuple.Pair;
 import org.junit.jupiter.api.BeforeEach;
@@ -11,17 +12,26 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
 import org.springframework.test.util.ReflectionTestUtils;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -33,6 +43,12 @@ public class MediaFileServiceTest {
     private MetaDataParserFactory metaDataParserFactory;
     @Mock
     private MediaFileDao mediaFileDao;
+    @Mock
+    private SettingsService settingsService;
+    @Mock
+    private MediaFolderService mediaFolderService;
+    @Spy
+    private ConcurrentMapCacheManager cacheManager = new ConcurrentMapCacheManager();
 
     @InjectMocks
     private MediaFileService mediaFileService;
@@ -44,8 +60,8 @@ public class MediaFileServiceTest {
 
     @BeforeEach
     public void setUp() {
-        when(mockedFolder.getPath()).thenReturn(CLASS_PATH.resolve("MEDIAS"));
-        when(metaDataParserFactory.getParser(any())).thenReturn(null);
+        lenient().when(mockedFolder.getPath()).thenReturn(CLASS_PATH.resolve("MEDIAS"));
+        lenient().when(metaDataParserFactory.getParser(any())).thenReturn(null);
     }
 
     @Test
@@ -66,4 +82,81 @@ public class MediaFileServiceTest {
         // verify updateMedia does not called
         verify(mediaFileDao, times(0)).createOrUpdateMediaFile(any(), any());
     }
+
+    @Test
+    public void getChecksumOfNestedFileUsesStoredChecksum() throws Exception {
+        MusicFolder folder = new MusicFolder(1, Paths.get("/music"), "music", Type.MEDIA, true, Instant.now());
+        MediaFile song = mediaFile(2, "artist/album/1.mp3", "artist/album", MediaType.MUSIC);
+        Instant changed = Instant.ofEpochMilli(1000);
+        when(mediaFileDao.getMediaFile("artist/album/1.mp3", 1)).thenReturn(song);
+        when(mediaFileDao.getChecksum(2, changed, 10L)).thenReturn(1234L);
+
+        // the file does not exist, so it would fail if it were read
+        assertThat(mediaFileService.getChecksum(folder, Paths.get("/music/artist/album/1.mp3"), changed, 10L)).isEqualTo(1234L);
+    }
+
+    private static MediaFile mediaFile(int id, String path, String parentPath, MediaType type) {
+        MediaFile mediaFile = new MediaFile();
+        mediaFile.setId(id);
+        mediaFile.setFolderId(1);
+        mediaFile.setPath(path);
+        mediaFile.setParentPath(parentPath);
+        mediaFile.setMediaType(type);
+        mediaFile.setPresent(true);
+        mediaFile.setChildrenLastUpdated(Instant.ofEpochSecond(10));
+        return mediaFile;
+    }
+
+    @Test
+    public void getChildrenOfCachesChildIdsStampedWithParent() {
+        when(mediaFolderService.getMusicFolderById(1)).thenReturn(new MusicFolder(1, Paths.get("/music"), "music", Type.MEDIA, true, Instant.now()));
+        when(settingsService.getMusicFileTypesSet()).thenReturn(Set.of("mp3"));
+        MediaFile album = mediaFile(1, "album", "", MediaType.ALBUM);
+        MediaFile song1 = mediaFile(2, "album/1.mp3", "album", MediaType.MUSIC);
+        MediaFile song2 = mediaFile(3, "album/2.mp3", "album", MediaType.MUSIC);
+        when(mediaFileDao.getChildrenOf("album", 1, true)).thenReturn(List.of(song1, song2));
+
+        assertThat(mediaFileService.getChildrenOf(album, true, false, false, true)).containsExactly(song1, song2);
+        assertThat(mediaFileService.getChildrenOf(album, true, false, false, true)).containsExactly(song1, song2);
+        verify(mediaFileDao, times(1)).getChildrenOf("album", 1, true);
+        verify(mediaFileDao, never()).getMediaFiles(anyCollection());
+
+        // children of the album were updated since
+        album.setChildrenLastUpdated(Instant.ofEpochSecond(20));
+        when(mediaFileDao.getChildrenOf("album", 1, true)).thenReturn(List.of(song1));
+        assertThat(mediaFileService.getChildrenOf(album, true, false, false, true)).containsExactly(song1);
+        verify(mediaFileDao, times(2)).getChildrenOf("album", 1, true);
+    }
+
+    @Test
+    public void getMediaFilesReadsThroughIdCache() {
+        when(settingsService.isFastCacheEnabled()).thenReturn(true);
+        MediaFile song1 = mediaFile(2, "album/1.mp3", "album", MediaType.MUSIC);
+        MediaFile song2 = mediaFile(3, "album/2.mp3", "album", MediaType.MUSIC);
+        when(mediaFileDao.getMediaFiles(List.of(2))).thenReturn(List.of(song1));
+        when(mediaFileDao.getMediaFiles(List.of(3))).thenReturn(List.of(song2));
+
+        assertThat(mediaFileService.getMediaFiles(List.of(2))).containsExactly(song1);
+        assertThat(mediaFileService.getMediaFiles(List.of(2, 3))).containsExactlyInAnyOrder(song1, song2);
+        assertThat(mediaFileService.getMediaFiles(List.of(2, 3))).containsExactlyInAnyOrder(song1, song2);
+
+        verify(mediaFileDao, times(1)).getMediaFiles(List.of(2));
+        verify(mediaFileDao, times(1)).getMediaFiles(List.of(3));
+        // files aren't checked on disk when disk access is minimized
+        verify(mediaFolderService, never()).getMusicFolderById(any());
+    }
+
+    @Test
+    public void evictFromCacheEvictsChildrenOfParent() {
+        when(mediaFolderService.getMusicFolderById(1)).thenReturn(new MusicFolder(1, Paths.get("/music"), "music", Type.MEDIA, true, Instant.now()));
+        when(settingsService.getMusicFileTypesSet()).thenReturn(Set.of("mp3"));
+        MediaFile album = mediaFile(1, "album", "", MediaType.ALBUM);
+        MediaFile song = mediaFile(2, "album/1.mp3", "album", MediaType.MUSIC);
+        when(mediaFileDao.getChildrenOf("album", 1, true)).thenReturn(List.of(song));
+
+        assertThat(mediaFileService.getChildrenOf(album, true, false, false, true)).containsExactly(song);
+        mediaFileService.evictFromCache(Collections.singletonList(song));
+        when(mediaFileDao.getChildrenOf("album", 1, true)).thenReturn(Collections.emptyList());
+        assertThat(mediaFileService.getChildrenOf(album, true, false, false, true)).isEmpty();
+    }
 }
@@ -0,0 +1,86 @@
+package org.airsonic.player.service;
+
+import org.airsonic.player.config.AirsonicMediaFileVerifierConfig;
+import org.airsonic.player.dao.MediaFileDao;
+import org.airsonic.player.domain.MediaFile;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class MediaFileVerifierServiceTest {
+
+    @Spy
+    private AirsonicMediaFileVerifierConfig verifierConfig = new AirsonicMediaFileVerifierConfig(true, 2, Duration.ofHours(1));
+    @Mock
+    private MediaFileDao mediaFileDao;
+    @Mock
+    private MediaFileService mediaFileService;
+    @Mock
+    private MediaScannerService mediaScannerService;
+    @Mock
+    private TaskSchedulingService taskService;
+
+    @InjectMocks
+    private MediaFileVerifierService verifierService;
+
+    private final MediaFile file1 = mediaFile(1);
+    private final MediaFile file2 = mediaFile(2);
+    private final MediaFile file3 = mediaFile(3);
+
+    private static MediaFile mediaFile(int id) {
+        MediaFile mediaFile = new MediaFile();
+        mediaFile.setId(id);
+        mediaFile.setFolderId(1);
+        mediaFile.setPath(String.valueOf(id));
+        return mediaFile;
+    }
+
+    @BeforeEach
+    public void setUp() {
+        verifierService.init();
+        verify(taskService).scheduleFixedDelayTask(eq("mediafile-verifier"), any(), any(), eq(Duration.ofSeconds(1)), eq(true));
+    }
+
+    @Test
+    public void testSweepsInBatchesAndPausesAfterSweep() {
+        when(mediaFileDao.getPresentMediaFilesAfter(0, 2)).thenReturn(List.of(file1, file2));
+        when(mediaFileDao.getPresentMediaFilesAfter(2, 2)).thenReturn(List.of(file3));
+        when(mediaFileDao.getPresentMediaFilesAfter(3, 2)).thenReturn(Collections.emptyList());
+        when(mediaFileService.verifyMediaFile(file2)).thenThrow(new IllegalStateException("unreadable"));
+
+        verifierService.verifyNext();
+        verifierService.verifyNext();
+        verifierService.verifyNext();
+        verify(mediaFileService).verifyMediaFile(file1);
+        verify(mediaFileService).verifyMediaFile(file2);
+        verify(mediaFileService).verifyMediaFile(file3);
+
+        // the next sweep starts after the sweep interval
+        verifierService.verifyNext();
+        verify(mediaFileDao, times(3)).getPresentMediaFilesAfter(anyInt(), anyInt());
+    }
+
+    @Test
+    public void testPausesWhileScanning() {
+        when(mediaScannerService.isScanning()).thenReturn(true);
+        verifierService.verifyNext();
+        verify(mediaFileDao, never()).getPresentMediaFilesAfter(anyInt(), anyInt());
+    }
+}
@@ -1,20 +1,40 @@
 package org.airsonic.player.service;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.airsonic.player.dao.AlbumDao;
 import org.airsonic.player.dao.ArtistDao;
 import org.airsonic.player.dao.MediaFileDao;
+import org.airsonic.player.domain.Album;
+import org.airsonic.player.domain.Artist;
+import org.airsonic.player.domain.MediaFile;
 import org.airsonic.player.domain.MediaLibraryStatistics;
+import org.airsonic.player.domain.MusicFolder;
 import org.airsonic.player.service.search.IndexManager;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 import org.springframework.core.env.Environment;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -44,6 +64,10 @@ public class MediaScannerServiceUnitTest {
     IndexManager indexManager;
     @Mock
     Environment environment;
+    @Mock
+    LibraryGenerationService libraryGenerationService;
+    @Mock
+    RandomSongService randomSongService;
 
 
     @Test
@@ -52,10 +76,113 @@ public class MediaScannerServiceUnitTest {
         when(settingsService.getIndexCreationInterval()).thenReturn(-1);
         when(settingsService.getIndexCreationHour()).thenReturn(-1);
         when(indexManager.getStatistics()).thenReturn(null);
-        MediaScannerService mediaScannerService = new MediaScannerService(settingsService, indexManager, playlistService, mediaFileService, mediaFolderService, coverArtService, mediaFileDao, artistDao, albumDao, taskService, messagingTemplate, environment);
+        MediaScannerService mediaScannerService = new MediaScannerService(settingsService, indexManager, playlistService, mediaFileService, mediaFolderService, coverArtService, mediaFileDao, artistDao, albumDao, taskService, messagingTemplate, environment, libraryGenerationService, randomSongService, new SimpleMeterRegistry());
         assertTrue(mediaScannerService.neverScanned());
 
         when(indexManager.getStatistics()).thenReturn(new MediaLibraryStatistics());
         assertFalse(mediaScannerService.neverScanned());
     }
+
+    @Test
+    public void scanDirectoryCreatesAlbumsAndArtists() {
+        when(environment.getProperty(eq("MediaScannerParallelism"), anyString())).thenReturn("1");
+        when(settingsService.getIndexCreationInterval()).thenReturn(-1);
+        when(settingsService.getIndexCreationHour()).thenReturn(-1);
+        when(indexManager.getStatistics()).thenReturn(new MediaLibraryStatistics());
+
+        Path dir = Paths.get("/music/Artist/Album");
+        MusicFolder musicFolder = new MusicFolder(1, Paths.get("/music"), "Music", MusicFolder.Type.MEDIA, true, Instant.now());
+        MediaFile album = new MediaFile();
+        album.setPath("Artist/Album");
+        album.setFolderId(1);
+        album.setMediaType(MediaFile.MediaType.DIRECTORY);
+        MediaFile track = new MediaFile();
+        track.setPath("Artist/Album/01 - Track.mp3");
+        track.setParentPath("Artist/Album");
+        track.setFolderId(1);
+        track.setMediaType(MediaFile.MediaType.MUSIC);
+        track.setArtist("Artist");
+        track.setAlbumName("Album");
+        track.setDuration(60.0);
+        when(mediaFileService.getMediaFile(dir, false)).thenReturn(album);
+        when(mediaFolderService.getMusicFolderById(1)).thenReturn(musicFolder);
+        when(mediaFileService.getChildrenOf(album, true, true, false, false)).thenReturn(List.of(track));
+
+        MediaScannerService mediaScannerService = new MediaScannerService(settingsService, indexManager, playlistService, mediaFileService, mediaFolderService, coverArtService, mediaFileDao, artistDao, albumDao, taskService, messagingTemplate, environment, libraryGenerationService, randomSongService, new SimpleMeterRegistry());
+        mediaScannerService.scanDirectory(dir);
+
+        verify(albumDao, timeout(5000)).createOrUpdateAlbum(argThat((Album a) -> "Album".equals(a.getName())
+                && "Artist".equals(a.getArtist()) && a.getSongCount() == 1 && a.getDuration() == 60.0));
+        verify(artistDao, timeout(5000)).createOrUpdateArtist(argThat((Artist a) -> "Artist".equals(a.getName())
+                && a.getAlbumCount() == 1));
+        verify(mediaFileService).updateMediaFile(argThat(f -> "Artist".equals(f.getAlbumArtist())));
+    }
+
+    @Test
+    public void scanLibraryKeepsStampOfRewrittenFiles() {
+        when(environment.getProperty(eq("MediaScannerParallelism"), anyString())).thenReturn("1");
+        when(settingsService.getIndexCreationInterval()).thenReturn(-1);
+        when(settingsService.getIndexCreationHour()).thenReturn(-1);
+
+        MusicFolder musicFolder = new MusicFolder(1, Paths.get("/music"), "Music", MusicFolder.Type.MEDIA, true, Instant.now());
+        MediaFile album = new MediaFile();
+        album.setId(1);
+        album.setPath("Album");
+        album.setFolderId(1);
+        album.setMediaType(MediaFile.MediaType.DIRECTORY);
+        album.setPresent(true);
+        MediaFile track = new MediaFile();
+        track.setId(2);
+        track.setPath("Album/01 - Track.mp3");
+        track.setParentPath("Album");
+        track.setFolderId(1);
+        track.setMediaType(MediaFile.MediaType.MUSIC);
+        track.setArtist("Artist");
+        track.setAlbumName("Album");
+        track.setPresent(true);
+        when(mediaFolderService.getAllMusicFolders()).thenReturn(List.of(musicFolder));
+        when(mediaFileService.getMediaFile(Paths.get(""), musicFolder, false)).thenReturn(album);
+        when(mediaFileService.getChildrenOf(album, true, true, false, false)).thenReturn(List.of(track));
+        // the album artist of the track is set by the scan, which writes the whole track back
+        List<Instant> written = new ArrayList<>();
+        doAnswer(invocation -> written.add(invocation.<MediaFile>getArgument(0).getLastScanned()))
+                .when(mediaFileService).updateMediaFile(any());
+
+        MediaScannerService mediaScannerService = new MediaScannerService(settingsService, indexManager, playlistService, mediaFileService, mediaFolderService, coverArtService, mediaFileDao, artistDao, albumDao, taskService, messagingTemplate, environment, libraryGenerationService, randomSongService, new SimpleMeterRegistry());
+        mediaScannerService.scanLibrary();
+
+        ArgumentCaptor<Instant> scanDate = ArgumentCaptor.forClass(Instant.class);
+        verify(mediaFileDao, timeout(5000)).markNonPresent(scanDate.capture());
+        verify(mediaFileDao).markScanned(List.of(1, 2), scanDate.getValue());
+        // so the track is not older than the scan and stays present
+        assertEquals(List.of(scanDate.getValue()), written);
+    }
+
+    @Test
+    public void scanLibraryDuringDirectoryScanRunsAfterwards() throws Exception {
+        when(environment.getProperty(eq("MediaScannerParallelism"), anyString())).thenReturn("1");
+        when(settingsService.getIndexCreationInterval()).thenReturn(-1);
+        when(settingsService.getIndexCreationHour()).thenReturn(-1);
+        when(indexManager.getStatistics()).thenReturn(new MediaLibraryStatistics());
+
+        Path dir = Paths.get("/music/Artist/Album");
+        CountDownLatch directoryScanStarted = new CountDownLatch(1);
+        CountDownLatch directoryScanReleased = new CountDownLatch(1);
+        when(mediaFileService.getMediaFile(dir, false)).thenAnswer(invocation -> {
+            directoryScanStarted.countDown();
+            directoryScanReleased.await(5, TimeUnit.SECONDS);
+            return null;
+        });
+
+        MediaScannerService mediaScannerService = new MediaScannerService(settingsService, indexManager, playlistService, mediaFileService, mediaFolderService, coverArtService, mediaFileDao, artistDao, albumDao, taskService, messagingTemplate, environment, libraryGenerationService, randomSongService, new SimpleMeterRegistry());
+        mediaScannerService.scanDirectory(dir);
+        assertTrue(directoryScanStarted.await(5, TimeUnit.SECONDS));
+
+        // requested while the directory is being scanned
+        mediaScannerService.scanLibrary();
+        verify(mediaFolderService, never()).getAllMusicFolders();
+
+        directoryScanReleased.countDown();
+        verify(mediaFolderService, timeout(5000)).getAllMusicFolders();
+    }
 }
@@ -0,0 +1,140 @@
+package org.airsonic.player.service;
+
+import org.airsonic.player.dao.PlayerDao;
+import org.airsonic.player.domain.Player;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.util.Collection;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class PlayerServiceTest {
+
+    @Mock
+    private PlayerDao playerDao;
+    @Mock
+    private StatusService statusService;
+    @Mock
+    private SecurityService securityService;
+    @Mock
+    private TranscodingService transcodingService;
+    @Mock
+    private SimpMessagingTemplate brokerTemplate;
+    @Mock
+    private TaskSchedulingService taskService;
+
+    @InjectMocks
+    private PlayerService playerService;
+
+    @BeforeEach
+    public void setUp() {
+        Player existing = new Player();
+        existing.setId(1);
+        existing.setUsername("admin");
+        existing.setIpAddress("10.0.0.1");
+        when(playerDao.getAllPlayers()).thenReturn(List.of(existing));
+        playerService.init();
+    }
+
+    private MockHttpServletRequest request(String ipAddress) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setRemoteAddr(ipAddress);
+        request.addHeader("user-agent", "test");
+        when(securityService.getCurrentUsername(request)).thenReturn("admin");
+        return request;
+    }
+
+    @Test
+    public void testFindsPlayersInMemory() throws Exception {
+        Player player = playerService.getPlayer(request("10.0.0.1"), null, false, false);
+        assertThat(player.getId()).isEqualTo(1);
+        assertThat(playerService.getPlayersForUserAndClientId("admin", null)).extracting(Player::getId).containsExactly(1);
+
+        // players handed out are copies
+        player.setName("changed");
+        assertThat(playerService.getPlayerById(1).getName()).isNull();
+
+        verify(playerDao, times(1)).getAllPlayers();
+        verify(playerDao, never()).getPlayerById(any(Integer.class));
+    }
+
+    @Test
+    public void testCreatesPlayerForNewAddress() throws Exception {
+        doAnswer(invocation -> {
+            invocation.getArgument(0, Player.class).setId(2);
+            return null;
+        }).when(playerDao).createPlayer(any());
+
+        Player player = playerService.getPlayer(request("10.0.0.2"), null, false, false);
+        assertThat(player.getId()).isEqualTo(2);
+        assertThat(playerService.getPlayer(request("10.0.0.2"), null, false, false).getId()).isEqualTo(2);
+        verify(playerDao, times(1)).createPlayer(any());
+        assertThat(playerService.getAllPlayers()).extracting(Player::getId).containsExactly(1, 2);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testWritesLastSeenInBatches() throws Exception {
+        playerService.getPlayer(request("10.0.0.1"), null, false, true);
+        playerService.getPlayer(request("10.0.0.1"), null, false, true);
+        assertThat(playerService.getPlayerById(1).getLastSeen()).isNotNull();
+        assertThat(playerService.getPlayerById(1).getType()).isEqualTo("test");
+        verify(playerDao, never()).updatePlayer(any());
+        verify(playerDao, never()).updateLastSeen(any());
+
+        playerService.flushLastSeen();
+        ArgumentCaptor<Collection<Player>> seen = ArgumentCaptor.forClass(Collection.class);
+        verify(playerDao).updateLastSeen(seen.capture());
+        assertThat(seen.getValue()).extracting(Player::getId).containsExactly(1);
+
+        // nothing left to write
+        playerService.flushLastSeen();
+        verify(playerDao, times(1)).updateLastSeen(any());
+    }
+
+    @Test
+    public void testLastSeenKeepsChangesMadeMeanwhile() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setRemoteAddr("10.0.0.1");
+        request.addHeader("user-agent", "test");
+        // the player is renamed while the stream request is being handled
+        when(securityService.getCurrentUsername(request)).thenAnswer(invocation -> {
+            Player renamed = playerService.getPlayerById(1);
+            renamed.setName("renamed");
+            playerService.updatePlayer(renamed);
+            return "admin";
+        });
+
+        playerService.getPlayer(request, null, 1, false, true);
+
+        Player player = playerService.getPlayerById(1);
+        assertThat(player.getName()).isEqualTo("renamed");
+        assertThat(player.getType()).isEqualTo("test");
+        assertThat(player.getLastSeen()).isNotNull();
+    }
+
+    @Test
+    public void testForgetsPlayersOfDeletedUser() {
+        playerService.removePlayersOfUser("admin");
+
+        assertThat(playerService.getPlayerById(1)).isNull();
+        assertThat(playerService.getAllPlayers()).isEmpty();
+        verify(brokerTemplate).convertAndSend("/topic/players/deleted", 1);
+    }
+}
@@ -0,0 +1,142 @@
+package org.airsonic.player.service;
+
+import org.airsonic.player.dao.MediaFileDao;
+import org.airsonic.player.dao.MediaFileDao.SongAttributesHandler;
+import org.airsonic.player.domain.MusicFolder;
+import org.airsonic.player.domain.MusicFolder.Type;
+import org.airsonic.player.domain.RandomSearchCriteria;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+public class RandomSongServiceTest {
+
+    private static final int SONG_COUNT = 100;
+    private static final Instant EPOCH = Instant.parse("2020-01-01T00:00:00Z");
+    private static final String USER = "user";
+
+    @Mock
+    private MediaFileDao mediaFileDao;
+    @Mock
+    private AnnotationService annotationService;
+
+    @InjectMocks
+    private RandomSongService randomSongService;
+
+    private final MusicFolder folder0 = new MusicFolder(0, Paths.get("/folder0"), "folder0", Type.MEDIA, true, EPOCH);
+    private final MusicFolder folder1 = new MusicFolder(1, Paths.get("/folder1"), "folder1", Type.MEDIA, true, EPOCH);
+
+    @BeforeEach
+    public void setUp() {
+        doAnswer(invocation -> {
+            SongAttributesHandler handler = invocation.getArgument(0);
+            for (int i = 0; i < SONG_COUNT; i++) {
+                handler.handle(i + 1, i % 2, i % 3 == 0 ? "Rock" : "Jazz", i % 4 == 0 ? "flac" : "mp3",
+                        i % 10 == 9 ? null : 1990 + i % 20, i % 5, lastPlayed(i), i >= 90 ? null : 1000 + i / 10);
+            }
+            return null;
+        }).when(mediaFileDao).getSongAttributes(any());
+        lenient().when(annotationService.getRating(anyInt(), eq(USER)))
+                .thenAnswer(invocation -> invocation.getArgument(0, Integer.class) == 1000 ? 5 : null);
+        lenient().when(annotationService.getMediaFileStarredDate(anyInt(), eq(USER)))
+                .thenAnswer(invocation -> invocation.getArgument(0, Integer.class) % 7 == 0 ? EPOCH : null);
+    }
+
+    private static Instant lastPlayed(int i) {
+        return i % 2 == 0 ? null : EPOCH.plus(i, ChronoUnit.DAYS);
+    }
+
+    private RandomSearchCriteria criteria(int count, List<MusicFolder> folders) {
+        return new RandomSearchCriteria(count, null, null, null, folders, null, null, null, null, null, null, false, false, null);
+    }
+
+    @Test
+    public void testSamplesDistinctSongsOfFolders() {
+        int[] ids = randomSongService.getRandomSongIds(criteria(10, List.of(folder1)), USER);
+        assertThat(ids).hasSize(10).doesNotHaveDuplicates();
+        // songs of folder 1 have even ids
+        assertThat(Arrays.stream(ids).allMatch(id -> id % 2 == 0)).isTrue();
+
+        assertThat(randomSongService.getRandomSongIds(criteria(1000, List.of(folder0, folder1)), USER))
+                .containsExactlyInAnyOrder(IntStream.rangeClosed(1, SONG_COUNT).toArray());
+        assertThat(randomSongService.getRandomSongIds(criteria(10, List.of()), USER)).isEmpty();
+    }
+
+    @Test
+    public void testSamplesUniformly() {
+        int[] counts = new int[SONG_COUNT + 1];
+        for (int round = 0; round < 2000; round++) {
+            for (int id : randomSongService.getRandomSongIds(criteria(5, List.of(folder0, folder1)), USER)) {
+                counts[id]++;
+            }
+        }
+        // each song is expected 100 times
+        assertThat(Arrays.stream(counts).skip(1).min().getAsInt()).isGreaterThan(50);
+        assertThat(Arrays.stream(counts).max().getAsInt()).isLessThan(150);
+    }
+
+    @Test
+    public void testFiltersLikeSql() {
+        Instant maxLastPlayed = EPOCH.plus(50, ChronoUnit.DAYS);
+        RandomSearchCriteria criteria = new RandomSearchCriteria(1000, "Jazz", 1992, 2005, List.of(folder0, folder1),
+                null, maxLastPlayed, null, 4, 1, 3, false, true, "mp3");
+        int[] expected = IntStream.range(0, SONG_COUNT)
+                .filter(i -> i % 3 != 0 && i % 4 != 0)
+                .filter(i -> i % 10 != 9 && 1990 + i % 20 >= 1992 && 1990 + i % 20 <= 2005)
+                .filter(i -> lastPlayed(i) == null || !lastPlayed(i).isAfter(maxLastPlayed))
+                // only album 1000 is rated, above the maximum
+                .filter(i -> i >= 10)
+                .filter(i -> i % 5 >= 1 && i % 5 <= 3)
+                .filter(i -> (i + 1) % 7 != 0)
+                .map(i -> i + 1)
+                .toArray();
+
+        assertThat(expected).isNotEmpty();
+        assertThat(randomSongService.getRandomSongIds(criteria, USER)).containsExactlyInAnyOrder(expected);
+
+        // a minimum excludes songs which were never played or rated
+        criteria = new RandomSearchCriteria(1000, null, null, null, List.of(folder0, folder1),
+                EPOCH, null, 5, null, null, null, false, false, null);
+        assertThat(randomSongService.getRandomSongIds(criteria, USER)).containsExactlyInAnyOrder(2, 4, 6, 8, 10);
+
+        criteria = new RandomSearchCriteria(1000, null, null, null, List.of(folder0, folder1),
+                null, null, null, null, null, null, true, false, null);
+        expected = IntStream.rangeClosed(1, SONG_COUNT).filter(id -> id % 7 == 0).toArray();
+        assertThat(randomSongService.getRandomSongIds(criteria, USER)).containsExactlyInAnyOrder(expected);
+    }
+
+    @Test
+    public void testUpdatesPlayCountsAndReloadsAfterInvalidation() {
+        RandomSearchCriteria played = new RandomSearchCriteria(1000, null, null, null, List.of(folder0, folder1),
+                null, null, null, null, 10, null, false, false, null);
+        assertThat(randomSongService.getRandomSongIds(played, USER)).isEmpty();
+
+        randomSongService.updatePlayCount(42, 10, EPOCH);
+        assertThat(randomSongService.getRandomSongIds(played, USER)).containsExactly(42);
+        verify(mediaFileDao, times(1)).getSongAttributes(any());
+
+        randomSongService.invalidate();
+        assertThat(randomSongService.getRandomSongIds(played, USER)).isEmpty();
+        verify(mediaFileDao, times(2)).getSongAttributes(any());
+    }
+}
@@ -19,6 +19,7 @@
  */
 package org.airsonic.player.service;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.airsonic.player.ajax.NowPlayingInfo;
 import org.airsonic.player.domain.MediaFile;
 import org.airsonic.player.domain.PlayStatus;
@@ -55,6 +56,7 @@ import static org.mockito.Mockito.verifyNoInteractions;
 public class StatusServiceTestCase {
 
     private StatusService service;
+    private SimpleMeterRegistry meterRegistry;
     private Player player1;
     private Player player2;
 
@@ -76,6 +78,8 @@ public class StatusServiceTestCase {
         service.setMessagingTemplate(messagingTemplate);
         service.setMediaFileService(mediaFileService);
         service.setSettingsService(settingsService);
+        meterRegistry = new SimpleMeterRegistry();
+        service.setMeterRegistry(meterRegistry);
         player1 = new Player();
         player1.setId(1);
         player1.setUsername("p1");
@@ -84,6 +88,18 @@ public class StatusServiceTestCase {
         player2.setUsername("p2");
     }
 
+    @Test
+    public void testBytesTransferredAreCountedPerUser() {
+        service.createStreamStatus(player1).addBytesTransferred(100L);
+        service.createStreamStatus(player1).addBytesTransferred(50L);
+        service.createDownloadStatus(player2).addBytesTransferred(10L);
+
+        assertThat(meterRegistry.get("airsonic.transfer.bytes").tag("transfer", "stream").tag("user", "p1").counter().count())
+                .isEqualTo(150.0);
+        assertThat(meterRegistry.get("airsonic.transfer.bytes").tag("transfer", "download").tag("user", "p2").counter().count())
+                .isEqualTo(10.0);
+    }
+
     @Test
     public void testSimpleAddRemoveTransferStatus() {
         TransferStatus status = service.createStreamStatus(player1);
@@ -0,0 +1,99 @@
+package org.airsonic.player.service.search;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RandomCollectorTest {
+
+    private static final int DOC_COUNT = 1000;
+
+    private static Directory directory;
+    private static DirectoryReader reader;
+    private static IndexSearcher searcher;
+
+    @BeforeClass
+    public static void createIndex() throws IOException {
+        directory = new ByteBuffersDirectory();
+        try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()))) {
+            for (int i = 0; i < DOC_COUNT; i++) {
+                Document doc = new Document();
+                doc.add(new StringField("parity", i % 2 == 0 ? "even" : "odd", Field.Store.NO));
+                writer.addDocument(doc);
+                if (i % 300 == 0) {
+                    // several segments
+                    writer.commit();
+                }
+            }
+        }
+        reader = DirectoryReader.open(directory);
+        searcher = new IndexSearcher(reader);
+    }
+
+    @AfterClass
+    public static void closeIndex() throws IOException {
+        reader.close();
+        directory.close();
+    }
+
+    @Test
+    public void testSelectsDistinctMatchingDocs() throws IOException {
+        RandomCollector collector = new RandomCollector(1L, 0, 50);
+        searcher.search(new TermQuery(new Term("parity", "even")), collector);
+
+        int[] docs = collector.getDocs();
+        assertThat(docs).hasSize(50).doesNotHaveDuplicates();
+        assertThat(Arrays.stream(docs).allMatch(doc -> doc % 2 == 0)).isTrue();
+        // not just the first matches
+        assertThat(Arrays.stream(docs).max().getAsInt()).isGreaterThan(100);
+    }
+
+    @Test
+    public void testReturnsAllDocsWhenCountExceedsMatches() throws IOException {
+        RandomCollector collector = new RandomCollector(2L, 0, Integer.MAX_VALUE);
+        searcher.search(new MatchAllDocsQuery(), collector);
+
+        assertThat(collector.getDocs()).containsExactlyInAnyOrder(IntStream.range(0, DOC_COUNT).toArray());
+    }
+
+    @Test
+    public void testSeededPagesFormOneShuffle() throws IOException {
+        List<Integer> pages = new ArrayList<>();
+        for (int offset = 0; offset < DOC_COUNT + 100; offset += 100) {
+            RandomCollector collector = new RandomCollector(42L, offset, 100);
+            searcher.search(new MatchAllDocsQuery(), collector);
+            Arrays.stream(collector.getDocs()).forEach(pages::add);
+        }
+
+        RandomCollector all = new RandomCollector(42L, 0, DOC_COUNT);
+        searcher.search(new MatchAllDocsQuery(), all);
+        assertThat(pages).containsExactly(Arrays.stream(all.getDocs()).boxed().toArray(Integer[]::new));
+        assertThat(pages).doesNotHaveDuplicates().hasSize(DOC_COUNT);
+
+        // a different seed gives a different order
+        RandomCollector other = new RandomCollector(43L, 0, DOC_COUNT);
+        searcher.search(new MatchAllDocsQuery(), other);
+        assertThat(other.getDocs()).isNotEqualTo(all.getDocs());
+    }
+}
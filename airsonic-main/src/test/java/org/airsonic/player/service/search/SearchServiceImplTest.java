@@ -0,0 +1,103 @@
+package org.airsonic.player.service.search;
+
+import org.airsonic.player.domain.MediaFile;
+import org.airsonic.player.domain.RandomSearchCriteria;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class SearchServiceImplTest {
+
+    private static final int SONG_COUNT = 100;
+
+    @Mock
+    private QueryFactory queryFactory;
+    @Mock
+    private IndexManager indexManager;
+    @Mock
+    private SearchServiceUtilities util;
+
+    @InjectMocks
+    private SearchServiceImpl searchService;
+
+    private Directory directory;
+    private DirectoryReader reader;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        directory = new ByteBuffersDirectory();
+        try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()))) {
+            for (int i = 0; i < SONG_COUNT; i++) {
+                Document doc = new Document();
+                doc.add(new StoredField(FieldNames.ID, Integer.toString(i)));
+                writer.addDocument(doc);
+            }
+        }
+        reader = DirectoryReader.open(directory);
+        when(indexManager.getSearcher(IndexType.SONG)).thenReturn(new IndexSearcher(reader));
+        when(queryFactory.getRandomSongs(any())).thenReturn(new MatchAllDocsQuery());
+        when(util.getIds(any(), any(int[].class))).thenCallRealMethod();
+        // the songs with odd ids are stale index entries
+        when(util.addIgnoreNull(anyList(), eq(IndexType.SONG), anyInt())).thenAnswer(invocation -> {
+            int id = invocation.getArgument(2);
+            if (id % 2 != 0) {
+                return false;
+            }
+            MediaFile song = new MediaFile();
+            song.setId(id);
+            return invocation.<List<MediaFile>>getArgument(0).add(song);
+        });
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        searchService.shutdown();
+        reader.close();
+        directory.close();
+    }
+
+    @Test
+    public void testRandomSongsReplaceUnresolvableIds() {
+        List<MediaFile> songs = searchService.getRandomSongs(criteria(30));
+
+        assertThat(songs).hasSize(30).extracting(MediaFile::getId).doesNotHaveDuplicates()
+                .allMatch(id -> id % 2 == 0);
+    }
+
+    @Test
+    public void testRandomSongsStopWhenMatchesRunOut() {
+        List<MediaFile> songs = searchService.getRandomSongs(criteria(80));
+
+        assertThat(songs).hasSize(SONG_COUNT / 2).extracting(MediaFile::getId).doesNotHaveDuplicates();
+    }
+
+    private static RandomSearchCriteria criteria(int count) {
+        return new RandomSearchCriteria(count, null, null, null, Collections.emptyList());
+    }
+}
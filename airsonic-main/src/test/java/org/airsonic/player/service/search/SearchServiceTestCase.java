@@ -28,6 +28,7 @@ import java.util.List;
 import java.util.Random;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 public class SearchServiceTestCase extends AbstractAirsonicHomeTest {
 
@@ -293,6 +294,14 @@ public class SearchServiceTestCase extends AbstractAirsonicHomeTest {
         Assert.assertEquals("(32) Specify '" + query + "', and get a artists. MediaFile SIZE is ",
                 0, result.getMediaFiles().size());
 
+        /*
+         * The same hits in the same order when run in the background.
+         */
+        SearchResult asyncResult = searchService.searchAsync(searchCriteria, allMusicFolders, IndexType.ARTIST_ID3).join();
+        Assert.assertEquals("(32a) Background search of '" + query + "' returns the same artists",
+                result.getArtists().stream().map(Artist::getId).collect(Collectors.toList()),
+                asyncResult.getArtists().stream().map(Artist::getId).collect(Collectors.toList()));
+
         /*
          * Three hits to the artist.
          * ALBUMARTIST is not registered with these.
@@ -0,0 +1,67 @@
+package org.airsonic.player.spring;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.airsonic.player.spring.CacheConfiguration.CacheEventCounter;
+import org.ehcache.Cache;
+import org.ehcache.event.CacheEvent;
+import org.ehcache.event.EventType;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CacheConfigurationTest {
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private static CacheEvent<Object, Object> event(EventType type) {
+        return new CacheEvent<Object, Object>() {
+            @Override
+            public EventType getType() {
+                return type;
+            }
+
+            @Override
+            public Object getKey() {
+                return "key";
+            }
+
+            @Override
+            public Object getNewValue() {
+                return null;
+            }
+
+            @Override
+            public Object getOldValue() {
+                return null;
+            }
+
+            @Override
+            @Deprecated
+            public Cache<Object, Object> getSource() {
+                return null;
+            }
+        };
+    }
+
+    private double count(String cacheName, String type) {
+        return meterRegistry.get("cache.events").tag("cache", cacheName).tag("type", type).counter().count();
+    }
+
+    @Test
+    public void testCountsEventsByCacheAndType() {
+        CacheEventCounter users = new CacheEventCounter(meterRegistry, "userCache");
+        CacheEventCounter files = new CacheEventCounter(meterRegistry, "mediaFileIdCache");
+
+        users.onEvent(event(EventType.CREATED));
+        users.onEvent(event(EventType.CREATED));
+        users.onEvent(event(EventType.EVICTED));
+        files.onEvent(event(EventType.EXPIRED));
+
+        assertThat(count("userCache", "created")).isEqualTo(2);
+        assertThat(count("userCache", "evicted")).isEqualTo(1);
+        assertThat(count("userCache", "expired")).isZero();
+        assertThat(count("mediaFileIdCache", "expired")).isEqualTo(1);
+        assertThat(count("mediaFileIdCache", "created")).isZero();
+    }
+}
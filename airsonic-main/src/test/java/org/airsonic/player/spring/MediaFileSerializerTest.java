@@ -0,0 +1,40 @@
+package org.airsonic.player.spring;
+
+import org.airsonic.player.domain.MediaFile;
+import org.airsonic.player.domain.MediaFile.MediaType;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MediaFileSerializerTest {
+
+    private final MediaFileSerializer serializer = new MediaFileSerializer();
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        Instant now = Instant.parse("2023-04-05T06:07:08.123456789Z");
+        MediaFile file = new MediaFile(42, "artist/album/track.flac", 1, MediaType.MUSIC, MediaFile.NOT_INDEXED, "flac",
+                "Träck", "Album", "Artist", null, 1, 2, 2001, "Rock", 900, true, 123.5, 1234567L, null, null,
+                "artist/album", null, 7, now, "x".repeat(70000), now.minusSeconds(10), now.minusSeconds(5), now,
+                null, true, 4, "release", null);
+        file.setStarredDate(now);
+
+        ByteBuffer binary = serializer.serialize(file);
+        MediaFile read = serializer.read(binary.duplicate());
+
+        assertThat(read).usingRecursiveComparison().isEqualTo(file);
+        assertThat(serializer.equals(file, binary)).isTrue();
+        read.setPlayCount(8);
+        assertThat(serializer.equals(read, binary)).isFalse();
+    }
+
+    @Test
+    public void testEmptyMediaFile() throws Exception {
+        MediaFile file = new MediaFile();
+        file.setStartPosition(null);
+        assertThat(serializer.read(serializer.serialize(file))).usingRecursiveComparison().isEqualTo(file);
+    }
+}
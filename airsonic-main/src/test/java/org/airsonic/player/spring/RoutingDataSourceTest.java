@@ -0,0 +1,133 @@
+package org.airsonic.player.spring;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.airsonic.player.spring.RoutingDataSource.Pool;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RoutingDataSourceTest {
+
+    private RoutingDataSource dataSource;
+
+    private Map<Pool, HikariDataSource> createPools(Pool... pools) {
+        return createPools(Duration.ZERO, pools);
+    }
+
+    private Map<Pool, HikariDataSource> createPools(Duration readYourWritesWindow, Pool... pools) {
+        Map<Pool, HikariDataSource> result = new EnumMap<>(Pool.class);
+        for (Pool pool : pools) {
+            // not connected until first use
+            HikariDataSource hikari = new HikariDataSource();
+            hikari.setPoolName(pool.name());
+            result.put(pool, hikari);
+        }
+        dataSource = new RoutingDataSource(result, readYourWritesWindow);
+        dataSource.afterPropertiesSet();
+        return result;
+    }
+
+    private HikariDataSource target() {
+        try {
+            return dataSource.unwrap(HikariDataSource.class);
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @AfterEach
+    public void tearDown() {
+        dataSource.close();
+    }
+
+    @Test
+    public void testRoutesByThread() throws Exception {
+        Map<Pool, HikariDataSource> pools = createPools(Pool.INTERACTIVE, Pool.SCAN, Pool.BACKGROUND);
+
+        assertThat(target()).isSameAs(pools.get(Pool.INTERACTIVE));
+        // without a replica, reads stay on the pool of the thread
+        assertThat(RoutingDataSource.readOnly(this::target)).isSameAs(pools.get(Pool.INTERACTIVE));
+
+        var executor = Executors.newSingleThreadExecutor();
+        try {
+            HikariDataSource scanTarget = CompletableFuture.supplyAsync(() -> {
+                RoutingDataSource.bindThread(Pool.SCAN);
+                return RoutingDataSource.readOnly(this::target);
+            }, executor).get();
+            assertThat(scanTarget).isSameAs(pools.get(Pool.SCAN));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testRoutesInteractiveReadsToReplica() throws Exception {
+        Map<Pool, HikariDataSource> pools = createPools(Pool.INTERACTIVE, Pool.SCAN, Pool.BACKGROUND, Pool.REPLICA);
+
+        assertThat(target()).isSameAs(pools.get(Pool.INTERACTIVE));
+        assertThat(RoutingDataSource.readOnly(this::target)).isSameAs(pools.get(Pool.REPLICA));
+        assertThat(target()).isSameAs(pools.get(Pool.INTERACTIVE));
+
+        var executor = Executors.newSingleThreadExecutor();
+        try {
+            // scans read their own writes, so they never use the replica
+            HikariDataSource scanTarget = CompletableFuture.supplyAsync(() -> {
+                RoutingDataSource.bindThread(Pool.SCAN);
+                return RoutingDataSource.readOnly(this::target);
+            }, executor).get();
+            assertThat(scanTarget).isSameAs(pools.get(Pool.SCAN));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testKeepsReadsOnPrimaryAfterWrite() throws Exception {
+        Map<Pool, HikariDataSource> pools = createPools(Duration.ofMinutes(1),
+                Pool.INTERACTIVE, Pool.SCAN, Pool.BACKGROUND, Pool.REPLICA);
+
+        var executor = Executors.newSingleThreadExecutor();
+        try {
+            HikariDataSource readTarget = CompletableFuture.supplyAsync(() -> RoutingDataSource.readOnly(this::target), executor).get();
+            assertThat(readTarget).isSameAs(pools.get(Pool.REPLICA));
+
+            // a statement which isn't read-only keeps the reads of the thread on the primary database
+            HikariDataSource readAfterWriteTarget = CompletableFuture.supplyAsync(() -> {
+                target();
+                return RoutingDataSource.readOnly(this::target);
+            }, executor).get();
+            assertThat(readAfterWriteTarget).isSameAs(pools.get(Pool.INTERACTIVE));
+
+            // and so do the reads of tasks it hands to other threads
+            HikariDataSource[] asyncTarget = new HikariDataSource[1];
+            Runnable read = () -> asyncTarget[0] = RoutingDataSource.readOnly(this::target);
+            Runnable task = CompletableFuture.supplyAsync(() -> RoutingDataSource.withCallerBinding(read), executor).get();
+            CompletableFuture.runAsync(task).get();
+            assertThat(asyncTarget[0]).isSameAs(pools.get(Pool.INTERACTIVE));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testBindsThreadsOfFactory() throws Exception {
+        Map<Pool, HikariDataSource> pools = createPools(Pool.INTERACTIVE, Pool.SCAN, Pool.BACKGROUND, Pool.REPLICA);
+
+        var executor = Executors.newSingleThreadExecutor(
+                RoutingDataSource.bindingThreadFactory(Pool.BACKGROUND, Executors.defaultThreadFactory()));
+        try {
+            HikariDataSource readTarget = CompletableFuture.supplyAsync(() -> RoutingDataSource.readOnly(this::target), executor).get();
+            assertThat(readTarget).isSameAs(pools.get(Pool.BACKGROUND));
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package org.airsonic.player.spring;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.airsonic.player.spring.WebsocketConfiguration.MessageCountingInterceptor;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.MessageBuilder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class WebsocketConfigurationTest {
+
+    private static Message<byte[]> message(SimpMessageType type, String destination) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(type);
+        accessor.setDestination(destination);
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+
+    @Test
+    public void testNormalizeDestination() {
+        assertThat(MessageCountingInterceptor.normalize("/topic/nowPlaying/recent/add")).isEqualTo("/topic/nowPlaying/recent/add");
+        assertThat(MessageCountingInterceptor.normalize("/queue/playqueues/12/playstatus-user3xy9a"))
+                .isEqualTo("/queue/playqueues/{id}/playstatus");
+        assertThat(MessageCountingInterceptor.normalize("/queue/playlists/updated-userabc")).isEqualTo("/queue/playlists/updated");
+    }
+
+    @Test
+    public void testCountsMessagesByDestination() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        MessageCountingInterceptor interceptor = new MessageCountingInterceptor(registry, "test.messages");
+
+        interceptor.preSend(message(SimpMessageType.MESSAGE, "/queue/playqueues/1/skip-user1"), null);
+        interceptor.preSend(message(SimpMessageType.MESSAGE, "/queue/playqueues/2/skip-user2"), null);
+        // another session of the same destination uses the same counter
+        interceptor.preSend(message(SimpMessageType.MESSAGE, "/queue/playqueues/1/skip-user3"), null);
+        // resolved to the sessions of the user before the broker delivers it
+        interceptor.preSend(message(SimpMessageType.MESSAGE, "/user/admin/queue/playqueues/1/skip"), null);
+        interceptor.preSend(message(SimpMessageType.HEARTBEAT, null), null);
+
+        assertThat(registry.get("test.messages").counters()).hasSize(1);
+        assertThat(registry.get("test.messages").tag("destination", "/queue/playqueues/{id}/skip").counter().count())
+                .isEqualTo(3.0);
+    }
+}